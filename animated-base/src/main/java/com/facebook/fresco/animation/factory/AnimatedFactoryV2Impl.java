@@ -26,7 +26,7 @@ import com.facebook.imagepipeline.animated.impl.AnimatedDrawableBackendImpl;
 import com.facebook.imagepipeline.animated.impl.AnimatedDrawableBackendProvider;
 import com.facebook.imagepipeline.animated.util.AnimatedDrawableUtil;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
-import com.facebook.imagepipeline.cache.CountingMemoryCache;
+import com.facebook.imagepipeline.cache.CountingCache;
 import com.facebook.imagepipeline.common.ImageDecodeOptions;
 import com.facebook.imagepipeline.core.ExecutorSupplier;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
@@ -48,7 +48,7 @@ public class AnimatedFactoryV2Impl implements AnimatedFactory {
 
   private final PlatformBitmapFactory mPlatformBitmapFactory;
   private final ExecutorSupplier mExecutorSupplier;
-  private final CountingMemoryCache<CacheKey, CloseableImage> mBackingCache;
+  private final CountingCache<CacheKey, CloseableImage> mBackingCache;
   private final boolean mDownscaleFrameToDrawableDimensions;
 
   private @Nullable AnimatedImageFactory mAnimatedImageFactory;
@@ -60,7 +60,7 @@ public class AnimatedFactoryV2Impl implements AnimatedFactory {
   public AnimatedFactoryV2Impl(
       PlatformBitmapFactory platformBitmapFactory,
       ExecutorSupplier executorSupplier,
-      CountingMemoryCache<CacheKey, CloseableImage> backingCache,
+      CountingCache<CacheKey, CloseableImage> backingCache,
       boolean downscaleFrameToDrawableDimensions) {
     mPlatformBitmapFactory = platformBitmapFactory;
     mExecutorSupplier = executorSupplier;
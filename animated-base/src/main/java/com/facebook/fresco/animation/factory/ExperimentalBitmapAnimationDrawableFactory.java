@@ -34,7 +34,7 @@ import com.facebook.imagepipeline.animated.base.AnimatedImageResult;
 import com.facebook.imagepipeline.animated.impl.AnimatedDrawableBackendProvider;
 import com.facebook.imagepipeline.animated.impl.AnimatedFrameCache;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
-import com.facebook.imagepipeline.cache.CountingMemoryCache;
+import com.facebook.imagepipeline.cache.CountingCache;
 import com.facebook.imagepipeline.drawable.DrawableFactory;
 import com.facebook.imagepipeline.image.CloseableAnimatedImage;
 import com.facebook.imagepipeline.image.CloseableImage;
@@ -57,7 +57,7 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
   private final ExecutorService mExecutorServiceForFramePreparing;
   private final MonotonicClock mMonotonicClock;
   private final PlatformBitmapFactory mPlatformBitmapFactory;
-  private final CountingMemoryCache<CacheKey, CloseableImage> mBackingCache;
+  private final CountingCache<CacheKey, CloseableImage> mBackingCache;
   private final Supplier<Integer> mCachingStrategySupplier;
   private final Supplier<Integer> mNumberOfFramesToPrepareSupplier;
 
@@ -67,7 +67,7 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
       ExecutorService executorServiceForFramePreparing,
       MonotonicClock monotonicClock,
       PlatformBitmapFactory platformBitmapFactory,
-      CountingMemoryCache<CacheKey, CloseableImage> backingCache,
+      CountingCache<CacheKey, CloseableImage> backingCache,
       Supplier<Integer> cachingStrategySupplier,
       Supplier<Integer> numberOfFramesToPrepareSupplier) {
     mAnimatedDrawableBackendProvider = animatedDrawableBackendProvider;
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.common.util;
+
+import android.util.Base64;
+
+/**
+ * Static methods for fast, non-cryptographic hashing with MurmurHash3.
+ *
+ * <p>These hashes are well distributed but can be forged, do not use them where an attacker could
+ * benefit from a collision.
+ */
+public class MurmurHashUtil {
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  /** Computes the 128-bit x64 variant of MurmurHash3 of the bytes, with a seed of 0. */
+  public static byte[] makeMurmur3Hash128(byte[] bytes) {
+    final int length = bytes.length;
+    final int blockCount = length / 16;
+    long h1 = 0;
+    long h2 = 0;
+
+    for (int i = 0; i < blockCount; i++) {
+      long k1 = getLittleEndianLong(bytes, i * 16);
+      long k2 = getLittleEndianLong(bytes, i * 16 + 8);
+
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    long k1 = 0;
+    long k2 = 0;
+    final int tail = blockCount * 16;
+    switch (length & 15) {
+      case 15:
+        k2 ^= (bytes[tail + 14] & 0xffL) << 48;
+      case 14:
+        k2 ^= (bytes[tail + 13] & 0xffL) << 40;
+      case 13:
+        k2 ^= (bytes[tail + 12] & 0xffL) << 32;
+      case 12:
+        k2 ^= (bytes[tail + 11] & 0xffL) << 24;
+      case 11:
+        k2 ^= (bytes[tail + 10] & 0xffL) << 16;
+      case 10:
+        k2 ^= (bytes[tail + 9] & 0xffL) << 8;
+      case 9:
+        k2 ^= bytes[tail + 8] & 0xffL;
+        h2 ^= mixK2(k2);
+      case 8:
+        k1 ^= (bytes[tail + 7] & 0xffL) << 56;
+      case 7:
+        k1 ^= (bytes[tail + 6] & 0xffL) << 48;
+      case 6:
+        k1 ^= (bytes[tail + 5] & 0xffL) << 40;
+      case 5:
+        k1 ^= (bytes[tail + 4] & 0xffL) << 32;
+      case 4:
+        k1 ^= (bytes[tail + 3] & 0xffL) << 24;
+      case 3:
+        k1 ^= (bytes[tail + 2] & 0xffL) << 16;
+      case 2:
+        k1 ^= (bytes[tail + 1] & 0xffL) << 8;
+      case 1:
+        k1 ^= bytes[tail] & 0xffL;
+        h1 ^= mixK1(k1);
+      default:
+        break;
+    }
+
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+
+    byte[] hash = new byte[16];
+    putLittleEndianLong(hash, 0, h1);
+    putLittleEndianLong(hash, 8, h2);
+    return hash;
+  }
+
+  /** Computes the 128-bit MurmurHash3 of the bytes, encoded in url-safe Base64 without padding. */
+  public static String makeMurmur3Hash128Base64(byte[] bytes) {
+    return Base64.encodeToString(
+        makeMurmur3Hash128(bytes), Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    return k1 * C2;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    return k2 * C1;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  private static long getLittleEndianLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = 7; i >= 0; i--) {
+      value = (value << 8) | (bytes[offset + i] & 0xffL);
+    }
+    return value;
+  }
+
+  private static void putLittleEndianLong(byte[] bytes, int offset, long value) {
+    for (int i = 0; i < 8; i++) {
+      bytes[offset + i] = (byte) (value >>> (i * 8));
+    }
+  }
+}
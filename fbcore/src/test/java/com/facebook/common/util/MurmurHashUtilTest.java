@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class MurmurHashUtilTest {
+
+  @Test
+  public void testEmpty() throws Exception {
+    assertEquals("00000000000000000000000000000000", hash(""));
+  }
+
+  @Test
+  public void testKnownValues() throws Exception {
+    assertEquals(
+        "6c1b07bc7bbc4be347939ac4a93c437a", hash("The quick brown fox jumps over the lazy dog"));
+  }
+
+  @Test
+  public void testAllTailLengths() throws Exception {
+    String value = "0123456789abcdefghijklmnopqrstuv";
+    for (int i = 1; i <= value.length(); i++) {
+      assertEquals(32, hash(value.substring(0, i)).length());
+    }
+    assertNotEquals(hash(value.substring(0, 17)), hash(value.substring(0, 18)));
+  }
+
+  private static String hash(String value) throws Exception {
+    return Hex.encodeHex(MurmurHashUtil.makeMurmur3Hash128(value.getBytes("UTF-8")), false)
+        .toLowerCase();
+  }
+}
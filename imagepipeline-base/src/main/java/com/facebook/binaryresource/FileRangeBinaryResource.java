@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.binaryresource;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.streams.LimitedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/*
+ * Implementation of BinaryResource based on a range of bytes of a real file, e.g. a resource
+ * packed with other ones into a bigger file. @see BinaryResource for more details.
+ */
+public class FileRangeBinaryResource implements BinaryResource {
+  private final File mFile;
+  private final long mOffset;
+  private final int mLength;
+
+  public FileRangeBinaryResource(File file, long offset, int length) {
+    Preconditions.checkArgument(offset >= 0 && length >= 0);
+    mFile = Preconditions.checkNotNull(file);
+    mOffset = offset;
+    mLength = length;
+  }
+
+  public File getFile() {
+    return mFile;
+  }
+
+  public long getOffset() {
+    return mOffset;
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    FileInputStream inputStream = new FileInputStream(mFile);
+    try {
+      inputStream.getChannel().position(mOffset);
+    } catch (IOException ioe) {
+      inputStream.close();
+      throw ioe;
+    }
+    return new LimitedInputStream(inputStream, mLength);
+  }
+
+  @Override
+  public long size() {
+    return mLength;
+  }
+
+  @Override
+  public byte[] read() throws IOException {
+    byte[] bytes = new byte[mLength];
+    RandomAccessFile file = new RandomAccessFile(mFile, "r");
+    try {
+      file.seek(mOffset);
+      file.readFully(bytes);
+    } catch (EOFException eofe) {
+      throw new IOException("Range is past the end of " + mFile, eofe);
+    } finally {
+      file.close();
+    }
+    return bytes;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof FileRangeBinaryResource)) {
+      return false;
+    }
+    FileRangeBinaryResource that = (FileRangeBinaryResource) obj;
+    return mFile.equals(that.mFile) && mOffset == that.mOffset && mLength == that.mLength;
+  }
+
+  @Override
+  public int hashCode() {
+    return (mFile.hashCode() * 31 + (int) (mOffset ^ (mOffset >>> 32))) * 31 + mLength;
+  }
+}
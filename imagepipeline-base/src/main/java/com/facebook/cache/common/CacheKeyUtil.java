@@ -6,54 +6,120 @@
  */
 package com.facebook.cache.common;
 
+import com.facebook.common.util.MurmurHashUtil;
 import com.facebook.common.util.SecureHashUtil;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * Derives the resource ids of the disk caches from the cache keys.
+ *
+ * <p>The ids of {@link SimpleCacheKey}s and {@link MultiCacheKey}s are computed once and kept on
+ * the key, as the same key is usually looked up several times in a row. The returned lists must
+ * not be modified.
+ */
 public final class CacheKeyUtil {
 
+  /** Resource ids memoized on a key, along with the scheme they were computed with. */
+  static final class ResourceIds {
+    final @ResourceIdScheme int mScheme;
+    final List<String> mIds;
+
+    ResourceIds(@ResourceIdScheme int scheme, List<String> ids) {
+      mScheme = scheme;
+      mIds = ids;
+    }
+  }
+
   /**
    * Get a list of possible resourceIds from MultiCacheKey or get single resourceId from CacheKey.
    */
   public static List<String> getResourceIds(final CacheKey key) {
-    try {
-      final List<String> ids;
-      if (key instanceof MultiCacheKey) {
-        List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
-        ids = new ArrayList<>(keys.size());
-        for (int i = 0; i < keys.size(); i++) {
-          ids.add(secureHashKey(keys.get(i)));
-        }
-      } else {
-        ids = new ArrayList<>(1);
-        ids.add(secureHashKey(key));
+    return getResourceIds(key, ResourceIdScheme.SHA1);
+  }
+
+  /**
+   * Get a list of possible resourceIds from MultiCacheKey or get single resourceId from CacheKey,
+   * using the given scheme.
+   */
+  public static List<String> getResourceIds(
+      final CacheKey key, @ResourceIdScheme int resourceIdScheme) {
+    if (key instanceof MultiCacheKey) {
+      MultiCacheKey multiCacheKey = (MultiCacheKey) key;
+      ResourceIds memoized = multiCacheKey.mResourceIds;
+      if (memoized != null && memoized.mScheme == resourceIdScheme) {
+        return memoized.mIds;
       }
+      List<CacheKey> keys = multiCacheKey.getCacheKeys();
+      List<String> ids = new ArrayList<>(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        ids.add(getSingleResourceId(keys.get(i), resourceIdScheme));
+      }
+      ids = Collections.unmodifiableList(ids);
+      multiCacheKey.mResourceIds = new ResourceIds(resourceIdScheme, ids);
       return ids;
-    } catch (UnsupportedEncodingException e) {
-      // This should never happen. All VMs support UTF-8
-      throw new RuntimeException(e);
     }
+    if (key instanceof SimpleCacheKey) {
+      return getMemoizedResourceIds((SimpleCacheKey) key, resourceIdScheme);
+    }
+    return Collections.singletonList(hashKey(key, resourceIdScheme));
   }
 
   /**
    * Get the resourceId from the first key in MultiCacheKey or get single resourceId from CacheKey.
    */
   public static String getFirstResourceId(final CacheKey key) {
+    return getFirstResourceId(key, ResourceIdScheme.SHA1);
+  }
+
+  /**
+   * Get the resourceId from the first key in MultiCacheKey or get single resourceId from CacheKey,
+   * using the given scheme.
+   */
+  public static String getFirstResourceId(
+      final CacheKey key, @ResourceIdScheme int resourceIdScheme) {
+    if (key instanceof MultiCacheKey) {
+      return getSingleResourceId(((MultiCacheKey) key).getCacheKeys().get(0), resourceIdScheme);
+    }
+    return getSingleResourceId(key, resourceIdScheme);
+  }
+
+  private static String getSingleResourceId(
+      final CacheKey key, @ResourceIdScheme int resourceIdScheme) {
+    if (key instanceof SimpleCacheKey) {
+      return getMemoizedResourceIds((SimpleCacheKey) key, resourceIdScheme).get(0);
+    }
+    return hashKey(key, resourceIdScheme);
+  }
+
+  private static List<String> getMemoizedResourceIds(
+      SimpleCacheKey key, @ResourceIdScheme int resourceIdScheme) {
+    // racing threads compute the same ids, the last one to finish wins
+    ResourceIds memoized = key.mResourceIds;
+    if (memoized != null && memoized.mScheme == resourceIdScheme) {
+      return memoized.mIds;
+    }
+    List<String> ids = Collections.singletonList(hashKey(key, resourceIdScheme));
+    key.mResourceIds = new ResourceIds(resourceIdScheme, ids);
+    return ids;
+  }
+
+  private static String hashKey(final CacheKey key, @ResourceIdScheme int resourceIdScheme) {
+    final byte[] bytes;
     try {
-      if (key instanceof MultiCacheKey) {
-        List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
-        return secureHashKey(keys.get(0));
-      } else {
-        return secureHashKey(key);
-      }
+      bytes = key.getUriString().getBytes("UTF-8");
     } catch (UnsupportedEncodingException e) {
       // This should never happen. All VMs support UTF-8
       throw new RuntimeException(e);
     }
-  }
-
-  private static String secureHashKey(final CacheKey key) throws UnsupportedEncodingException {
-    return SecureHashUtil.makeSHA1HashBase64(key.getUriString().getBytes("UTF-8"));
+    switch (resourceIdScheme) {
+      case ResourceIdScheme.MURMUR3_128:
+        return MurmurHashUtil.makeMurmur3Hash128Base64(bytes);
+      case ResourceIdScheme.SHA1:
+      default:
+        return SecureHashUtil.makeSHA1HashBase64(bytes);
+    }
   }
 }
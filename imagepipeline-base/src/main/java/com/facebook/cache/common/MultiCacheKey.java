@@ -9,6 +9,7 @@ package com.facebook.cache.common;
 import android.net.Uri;
 import com.facebook.common.internal.Preconditions;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * A cache key that wraps multiple cache keys.
@@ -26,6 +27,9 @@ public class MultiCacheKey implements CacheKey {
 
   final List<CacheKey> mCacheKeys;
 
+  // resource ids of the keys, memoized by CacheKeyUtil
+  volatile @Nullable CacheKeyUtil.ResourceIds mResourceIds;
+
   public MultiCacheKey(List<CacheKey> cacheKeys) {
     mCacheKeys = Preconditions.checkNotNull(cacheKeys);
   }
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import static com.facebook.cache.common.ResourceIdScheme.MURMUR3_128;
+import static com.facebook.cache.common.ResourceIdScheme.SHA1;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+import androidx.annotation.IntDef;
+import java.lang.annotation.Retention;
+
+/**
+ * How the resource ids of the disk caches are derived from the {@link CacheKey}s. Changing the
+ * scheme of a cache makes its existing content unreachable.
+ */
+@Retention(SOURCE)
+@IntDef({
+  SHA1,
+  MURMUR3_128,
+})
+public @interface ResourceIdScheme {
+
+  /** Base64 of the SHA-1 of the key. */
+  int SHA1 = 0;
+
+  /** Base64 of the 128-bit MurmurHash3 of the key, several times faster to compute than SHA-1. */
+  int MURMUR3_128 = 1;
+}
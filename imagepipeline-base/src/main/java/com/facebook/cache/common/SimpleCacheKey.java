@@ -9,6 +9,7 @@ package com.facebook.cache.common;
 
 import android.net.Uri;
 import com.facebook.common.internal.Preconditions;
+import javax.annotation.Nullable;
 
 /**
  * {@link CacheKey} implementation that is a simple wrapper around a {@link String} object.
@@ -19,6 +20,9 @@ import com.facebook.common.internal.Preconditions;
 public class SimpleCacheKey implements CacheKey {
   final String mKey;
 
+  // resource ids of the key, memoized by CacheKeyUtil
+  volatile @Nullable CacheKeyUtil.ResourceIds mResourceIds;
+
   public SimpleCacheKey(final String key) {
     mKey = Preconditions.checkNotNull(key);
   }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.WriterCallback;
+import java.util.List;
+
+/**
+ * {@link FileCache} that can insert several resources at once, and tell the keys it does not have
+ * without a disk read. The callers check for it with instanceof: they insert the resources one by
+ * one into the other caches, and never know a key to be missing from them.
+ */
+public interface BatchingFileCache extends FileCache {
+
+  /**
+   * Returns true if the key is known not to be in the cache.
+   *
+   * If it returns false, the cache may or may not have the key.
+   *
+   * Avoids a disk read.
+   */
+  boolean isMissingSync(CacheKey key);
+
+  /**
+   * Inserts several resources. A resource that fails to be inserted does not stop the others.
+   * @param keys cache keys
+   * @param writers callbacks that write the resources, in the order of the keys
+   * @return the inserted resources in the order of the keys, null for the ones that failed
+   */
+  List<BinaryResource> insert(List<CacheKey> keys, List<WriterCallback> writers);
+}
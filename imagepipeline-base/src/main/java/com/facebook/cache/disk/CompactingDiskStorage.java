@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.IOException;
+
+/**
+ * Optional capability of a {@link DiskStorage} that keeps the space of the removed resources in
+ * use until it compacts its files. {@link DiskStorageCache} counts that space toward the size of
+ * the cache, so that it stays within its size limit.
+ */
+interface CompactingDiskStorage {
+
+  /** Gets the size in bytes of the removed resources whose space has not been reclaimed yet. */
+  long getUnreclaimedSize() throws IOException;
+}
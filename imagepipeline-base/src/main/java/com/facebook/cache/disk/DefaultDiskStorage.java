@@ -12,6 +12,7 @@ import androidx.annotation.StringDef;
 import com.facebook.binaryresource.BinaryResource;
 import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.ResourceIdScheme;
 import com.facebook.cache.common.WriterCallback;
 import com.facebook.common.file.FileTree;
 import com.facebook.common.file.FileTreeVisitor;
@@ -25,10 +26,14 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
@@ -36,7 +41,7 @@ import javax.annotation.Nullable;
  * The default disk storage implementation. Subsumes both 'simple' and 'sharded' implementations
  * via a new SubdirectorySupplier.
  */
-public class DefaultDiskStorage implements DiskStorage {
+public class DefaultDiskStorage implements DiskStorage, ResourceIdSchemeStorage {
 
   private static final Class<?> TAG = DefaultDiskStorage.class;
 
@@ -60,6 +65,13 @@ public class DefaultDiskStorage implements DiskStorage {
    */
   static final long TEMP_FILE_LIFETIME_MS = TimeUnit.MINUTES.toMillis(30);
 
+  /**
+   * When touches are batched, the number of accessed resources that triggers a flush, and how long
+   * an access may wait before the next one triggers a flush.
+   */
+  @VisibleForTesting static final int MAX_PENDING_TOUCHES = 64;
+  @VisibleForTesting static final long MAX_TOUCH_STALENESS_MS = TimeUnit.SECONDS.toMillis(30);
+
   /**
    * The base directory used for the cache
    */
@@ -81,6 +93,27 @@ public class DefaultDiskStorage implements DiskStorage {
 
   private final CacheErrorLogger mCacheErrorLogger;
   private final Clock mClock;
+  private final @ResourceIdScheme int mResourceIdScheme;
+
+  /**
+   * Journal of the entries, kept next to the version directory. When present, the entries are
+   * listed from the journal instead of walking and stat'ing all the content files.
+   */
+  private final @Nullable DiskStorageJournal mJournal;
+
+  /**
+   * Access times waiting to be written, and where they get written. Null when every access updates
+   * the file right away.
+   */
+  private final @Nullable PendingTouches mPendingTouches;
+  private final @Nullable Executor mTouchFlushExecutor;
+  private final Runnable mFlushTouchesRunnable =
+      new Runnable() {
+        @Override
+        public void run() {
+          flushPendingTouches();
+        }
+      };
 
   /**
    * Instantiates a ShardedDiskStorage that will use the directory to save a map between
@@ -96,7 +129,23 @@ public class DefaultDiskStorage implements DiskStorage {
       File rootDirectory,
       int version,
       CacheErrorLogger cacheErrorLogger) {
+    this(rootDirectory, version, cacheErrorLogger, DiskStorageOptions.newBuilder().build());
+  }
+
+  /**
+   * @param rootDirectory root directory to create all content under
+   * @param version version of the format used in the files
+   * @param cacheErrorLogger logger for various events
+   * @param options the optional behaviors of the storage
+   */
+  public DefaultDiskStorage(
+      File rootDirectory,
+      int version,
+      CacheErrorLogger cacheErrorLogger,
+      DiskStorageOptions options) {
     Preconditions.checkNotNull(rootDirectory);
+    @ResourceIdScheme int resourceIdScheme = options.getResourceIdScheme();
+    mResourceIdScheme = resourceIdScheme;
 
     mRootDirectory = rootDirectory;
     mIsExternal = isExternal(rootDirectory, cacheErrorLogger);
@@ -105,13 +154,30 @@ public class DefaultDiskStorage implements DiskStorage {
     // - the content's version (version value)
     // if structure changes, prefix will change... if content changes version will be different
     // the ideal would be asking mSharding its name, but it's created receiving the directory
-    mVersionDirectory = new File(mRootDirectory, getVersionSubdirectoryName(version));
+    mVersionDirectory =
+        new File(mRootDirectory, getVersionSubdirectoryName(version, resourceIdScheme));
     mCacheErrorLogger = cacheErrorLogger;
-    recreateDirectoryIfVersionChanges();
+    boolean recreated = recreateDirectoryIfVersionChanges();
     mClock = SystemClock.get();
-  }
-
-  private static boolean isExternal(File directory, CacheErrorLogger cacheErrorLogger) {
+    mJournal =
+        options.isJournalEnabled()
+            ? new DiskStorageJournal(
+                mRootDirectory,
+                getVersionSubdirectoryName(version, resourceIdScheme),
+                cacheErrorLogger)
+            : null;
+    mTouchFlushExecutor = options.getTouchFlushExecutor();
+    mPendingTouches =
+        mTouchFlushExecutor != null
+            ? new PendingTouches(MAX_PENDING_TOUCHES, MAX_TOUCH_STALENESS_MS)
+            : null;
+    if (mJournal != null && recreated) {
+      // nothing to scan, the journal can be trusted right away
+      mJournal.clear();
+    }
+  }
+
+  static boolean isExternal(File directory, CacheErrorLogger cacheErrorLogger) {
     boolean state = false;
     String appCacheDirPath = null;
 
@@ -144,12 +210,20 @@ public class DefaultDiskStorage implements DiskStorage {
 
   @VisibleForTesting
   static String getVersionSubdirectoryName(int version) {
-    return String.format(
-        (Locale) null,
-        "%s.ols%d.%d",
-        DEFAULT_DISK_STORAGE_VERSION_PREFIX,
-        SHARDING_BUCKET_COUNT,
-        version);
+    return getVersionSubdirectoryName(version, ResourceIdScheme.SHA1);
+  }
+
+  @VisibleForTesting
+  static String getVersionSubdirectoryName(int version, @ResourceIdScheme int resourceIdScheme) {
+    String name =
+        String.format(
+            (Locale) null,
+            "%s.ols%d.%d",
+            DEFAULT_DISK_STORAGE_VERSION_PREFIX,
+            SHARDING_BUCKET_COUNT,
+            version);
+    // the sha-1 ids predate the schemes, their directory keeps its name
+    return resourceIdScheme == ResourceIdScheme.SHA1 ? name : name + ".h" + resourceIdScheme;
   }
 
   @Override
@@ -157,6 +231,11 @@ public class DefaultDiskStorage implements DiskStorage {
     return true;
   }
 
+  @Override
+  public @ResourceIdScheme int getResourceIdScheme() {
+    return mResourceIdScheme;
+  }
+
   @Override
   public boolean isExternal() {
     return mIsExternal;
@@ -175,8 +254,9 @@ public class DefaultDiskStorage implements DiskStorage {
    * in the same dir, and Samsung's RFS has a bug that after the 13.000th creation fails.
    * So if cache is not already in expected version let's destroy everything
    * (if not in expected version... there's nothing to reuse here anyway).
+   * @return true if the directory has been (re)created empty
    */
-  private void recreateDirectoryIfVersionChanges() {
+  private boolean recreateDirectoryIfVersionChanges() {
     boolean recreateBase = false;
     if (!mRootDirectory.exists()) {
       recreateBase = true;
@@ -197,6 +277,7 @@ public class DefaultDiskStorage implements DiskStorage {
             null);
       }
     }
+    return recreateBase;
   }
 
   private static class IncompleteFileException extends IOException {
@@ -279,6 +360,10 @@ public class DefaultDiskStorage implements DiskStorage {
   private class PurgingVisitor implements FileTreeVisitor {
     private boolean insideBaseDirectory;
 
+    // the content files found, by resource id; only collected when there is a journal
+    private final @Nullable Map<String, File> contentFiles =
+        mJournal != null ? new HashMap<String, File>() : null;
+
     @Override
     public void preVisitDirectory(File directory) {
       if (!insideBaseDirectory && directory.equals(mVersionDirectory)) {
@@ -289,6 +374,9 @@ public class DefaultDiskStorage implements DiskStorage {
 
     @Override
     public void visitFile(File file) {
+      if (mJournal != null && mJournal.isJournalFile(file)) {
+        return;
+      }
       if (!insideBaseDirectory || !isExpectedFile(file)) {
         file.delete();
       }
@@ -317,6 +405,9 @@ public class DefaultDiskStorage implements DiskStorage {
         return isRecentFile(file);
       }
       Preconditions.checkState(info.type == FileType.CONTENT);
+      if (contentFiles != null) {
+        contentFiles.put(info.resourceId, file);
+      }
       return true;
     }
 
@@ -330,7 +421,13 @@ public class DefaultDiskStorage implements DiskStorage {
 
   @Override
   public void purgeUnexpectedResources() {
-    FileTree.walkFileTree(mRootDirectory, new PurgingVisitor());
+    long walkStartTime = mClock.now();
+    PurgingVisitor visitor = new PurgingVisitor();
+    FileTree.walkFileTree(mRootDirectory, visitor);
+    if (mJournal != null) {
+      // the walk lists every content file anyway, use it to fix up the journal
+      mJournal.reconcile(Preconditions.checkNotNull(visitor.contentFiles), walkStartTime);
+    }
   }
 
   /**
@@ -382,9 +479,10 @@ public class DefaultDiskStorage implements DiskStorage {
   public @Nullable BinaryResource getResource(String resourceId, Object debugInfo) {
     final File file = getContentFileFor(resourceId);
     if (file.exists()) {
-      file.setLastModified(mClock.now());
+      touchContentFile(resourceId, file);
       return FileBinaryResource.createOrNull(file);
     }
+    journalRemove(resourceId);
     return null;
   }
 
@@ -408,22 +506,80 @@ public class DefaultDiskStorage implements DiskStorage {
     File contentFile = getContentFileFor(resourceId);
     boolean exists = contentFile.exists();
     if (touch && exists) {
-      contentFile.setLastModified(mClock.now());
+      touchContentFile(resourceId, contentFile);
+    } else if (!exists) {
+      journalRemove(resourceId);
     }
     return exists;
   }
 
+  private void touchContentFile(String resourceId, File contentFile) {
+    long now = mClock.now();
+    if (mPendingTouches != null) {
+      if (mPendingTouches.add(resourceId, now)) {
+        Preconditions.checkNotNull(mTouchFlushExecutor).execute(mFlushTouchesRunnable);
+      }
+      return;
+    }
+    contentFile.setLastModified(now);
+    journalTouch(resourceId, contentFile, now);
+  }
+
+  /** Writes the access times that are waiting in memory, if any. */
+  @VisibleForTesting
+  void flushPendingTouches() {
+    if (mPendingTouches == null) {
+      return;
+    }
+    for (Map.Entry<String, Long> touch : mPendingTouches.drain().entrySet()) {
+      File contentFile = getContentFileFor(touch.getKey());
+      // fails if the file has been removed in the meantime
+      if (contentFile.setLastModified(touch.getValue())) {
+        journalTouch(touch.getKey(), contentFile, touch.getValue());
+      }
+    }
+  }
+
+  private void discardPendingTouch(String resourceId) {
+    if (mPendingTouches != null) {
+      mPendingTouches.remove(resourceId);
+    }
+  }
+
+  private void journalTouch(String resourceId, File contentFile, long now) {
+    if (mJournal != null && !mJournal.recordTouch(resourceId, now)) {
+      // not journaled yet, e.g. because the app died right after the file was committed
+      mJournal.recordInsert(resourceId, contentFile.length(), now);
+    }
+  }
+
+  private void journalRemove(String resourceId) {
+    if (mJournal != null) {
+      mJournal.recordRemove(resourceId);
+    }
+  }
+
   @Override
   public long remove(Entry entry) {
     // it should be one entry return by us :)
     EntryImpl entryImpl = (EntryImpl) entry;
+    discardPendingTouch(entryImpl.getId());
     FileBinaryResource resource = entryImpl.getResource();
-    return doRemove(resource.getFile());
+    long removedSize = doRemove(resource.getFile());
+    if (removedSize >= 0) {
+      journalRemove(entryImpl.getId());
+    }
+    return removedSize;
   }
 
   @Override
   public long remove(final String resourceId) {
-    return doRemove(getContentFileFor(resourceId));
+    discardPendingTouch(resourceId);
+    long removedSize = doRemove(getContentFileFor(resourceId));
+    if (removedSize >= 0) {
+      journalRemove(resourceId);
+    }
+    return removedSize;
   }
 
   private long doRemove(final File contentFile) {
@@ -440,7 +596,13 @@ public class DefaultDiskStorage implements DiskStorage {
   }
 
   public void clearAll() {
+    if (mPendingTouches != null) {
+      mPendingTouches.drain();
+    }
     FileTree.deleteContents(mRootDirectory);
+    if (mJournal != null) {
+      mJournal.clear();
+    }
   }
 
   @Override
@@ -495,9 +657,31 @@ public class DefaultDiskStorage implements DiskStorage {
    * <p>This list is immutable.
    */
   public List<Entry> getEntries() throws IOException {
+    // the listed timestamps must account for all the accesses so far
+    flushPendingTouches();
+    if (mJournal != null) {
+      // the inserts interrupted by a crash are resolved against the files before listing
+      for (String id : mJournal.getUnconfirmedIds()) {
+        mJournal.confirmPendingInsert(id, getContentFileFor(id));
+      }
+      List<DiskStorageJournal.Item> items = mJournal.getItems();
+      if (items != null) {
+        List<Entry> entries = new ArrayList<>(items.size());
+        for (DiskStorageJournal.Item item : items) {
+          entries.add(
+              new EntryImpl(item.id, getContentFileFor(item.id), item.size, item.timestamp));
+        }
+        return Collections.unmodifiableList(entries);
+      }
+    }
     EntriesCollector collector = new EntriesCollector();
     FileTree.walkFileTree(mVersionDirectory, collector);
-    return collector.getEntries();
+    List<Entry> entries = collector.getEntries();
+    if (mJournal != null) {
+      // the journal is missing or corrupt, start over from the files we just listed
+      mJournal.rebuild(entries);
+    }
+    return entries;
   }
 
   /**
@@ -511,11 +695,15 @@ public class DefaultDiskStorage implements DiskStorage {
     private long timestamp;
 
     private EntryImpl(String id, File cachedFile) {
+      this(id, cachedFile, -1, -1);
+    }
+
+    private EntryImpl(String id, File cachedFile, long size, long timestamp) {
       Preconditions.checkNotNull(cachedFile);
       this.id = Preconditions.checkNotNull(id);
       this.resource = FileBinaryResource.createOrNull(cachedFile);
-      this.size = -1;
-      this.timestamp = -1;
+      this.size = size;
+      this.timestamp = timestamp;
     }
 
     @Override
@@ -641,7 +829,7 @@ public class DefaultDiskStorage implements DiskStorage {
   }
 
   @VisibleForTesting
-  /* package protected */ class InserterImpl implements Inserter {
+  /* package protected */ class InserterImpl implements StreamingInserter {
 
     private final String mResourceId;
 
@@ -654,10 +842,9 @@ public class DefaultDiskStorage implements DiskStorage {
     }
 
     @Override
-    public void writeData(WriterCallback callback, Object debugInfo) throws IOException {
-      FileOutputStream fileStream;
+    public OutputStream openStream() throws IOException {
       try {
-        fileStream = new FileOutputStream(mTemporaryFile);
+        return new FileOutputStream(mTemporaryFile);
       } catch (FileNotFoundException fne) {
         mCacheErrorLogger.logError(
             CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND,
@@ -666,7 +853,11 @@ public class DefaultDiskStorage implements DiskStorage {
             fne);
         throw fne;
       }
+    }
 
+    @Override
+    public void writeData(WriterCallback callback, Object debugInfo) throws IOException {
+      OutputStream fileStream = openStream();
       long length;
       try {
         CountingOutputStream countingStream = new CountingOutputStream(fileStream);
@@ -693,9 +884,21 @@ public class DefaultDiskStorage implements DiskStorage {
       // the temp resource must be ours!
       File targetFile = getContentFileFor(mResourceId);
 
+      if (mJournal != null) {
+        // journaled before the rename, so that a crash cannot leave an unlisted file behind
+        mJournal.recordPendingInsert(mResourceId, mTemporaryFile.length(), mClock.now());
+      }
       try {
         FileUtils.rename(mTemporaryFile, targetFile);
       } catch (FileUtils.RenameException re) {
+        if (mJournal != null) {
+          // any previous content is still in place
+          if (targetFile.exists()) {
+            mJournal.recordInsert(mResourceId, targetFile.length(), targetFile.lastModified());
+          } else {
+            mJournal.recordRemove(mResourceId);
+          }
+        }
         CacheErrorLogger.CacheErrorCategory category;
         Throwable cause = re.getCause();
         if (cause == null) {
@@ -715,8 +918,16 @@ public class DefaultDiskStorage implements DiskStorage {
             re);
         throw re;
       }
+      // an older access must not overwrite the timestamp of the new content
+      discardPendingTouch(mResourceId);
       if (targetFile.exists()) {
-        targetFile.setLastModified(mClock.now());
+        long now = mClock.now();
+        targetFile.setLastModified(now);
+        if (mJournal != null) {
+          mJournal.recordInsert(mResourceId, targetFile.length(), now);
+        }
+      } else if (mJournal != null) {
+        mJournal.recordRemove(mResourceId);
       }
       return FileBinaryResource.createOrNull(targetFile);
     }
@@ -12,6 +12,7 @@ import com.facebook.cache.common.CacheErrorLogger;
 import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.NoOpCacheErrorLogger;
 import com.facebook.cache.common.NoOpCacheEventListener;
+import com.facebook.cache.common.ResourceIdScheme;
 import com.facebook.common.disk.DiskTrimmable;
 import com.facebook.common.disk.DiskTrimmableRegistry;
 import com.facebook.common.disk.NoOpDiskTrimmableRegistry;
@@ -20,6 +21,9 @@ import com.facebook.common.internal.Supplier;
 import com.facebook.common.internal.Suppliers;
 import com.facebook.common.util.ByteConstants;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
@@ -39,6 +43,12 @@ public class DiskCacheConfig {
   private final DiskTrimmableRegistry mDiskTrimmableRegistry;
   private final Context mContext;
   private final boolean mIndexPopulateAtStartupEnabled;
+  private final boolean mIndexJournalEnabled;
+  private final boolean mBatchedTouchesEnabled;
+  private final int mPackFileSizeThreshold;
+  private final @ResourceIdScheme int mResourceIdScheme;
+  private final boolean mNegativeLookupFilterEnabled;
+  private final List<Supplier<File>> mShardBaseDirectoryPathSuppliers;
 
   private DiskCacheConfig(Builder builder) {
     mVersion = builder.mVersion;
@@ -63,6 +73,13 @@ public class DiskCacheConfig {
             builder.mDiskTrimmableRegistry;
     mContext = builder.mContext;
     mIndexPopulateAtStartupEnabled = builder.mIndexPopulateAtStartupEnabled;
+    mIndexJournalEnabled = builder.mIndexJournalEnabled;
+    mBatchedTouchesEnabled = builder.mBatchedTouchesEnabled;
+    mPackFileSizeThreshold = builder.mPackFileSizeThreshold;
+    mResourceIdScheme = builder.mResourceIdScheme;
+    mNegativeLookupFilterEnabled = builder.mNegativeLookupFilterEnabled;
+    mShardBaseDirectoryPathSuppliers =
+        Collections.unmodifiableList(new ArrayList<>(builder.mShardBaseDirectoryPathSuppliers));
   }
 
   public int getVersion() {
@@ -113,6 +130,60 @@ public class DiskCacheConfig {
     return mIndexPopulateAtStartupEnabled;
   }
 
+  public boolean getIndexJournalEnabled() {
+    return mIndexJournalEnabled;
+  }
+
+  public boolean getBatchedTouchesEnabled() {
+    return mBatchedTouchesEnabled;
+  }
+
+  public int getPackFileSizeThreshold() {
+    return mPackFileSizeThreshold;
+  }
+
+  public @ResourceIdScheme int getResourceIdScheme() {
+    return mResourceIdScheme;
+  }
+
+  public boolean getNegativeLookupFilterEnabled() {
+    return mNegativeLookupFilterEnabled;
+  }
+
+  /** Returns the number of shards of the cache, one per base directory. */
+  public int getShardCount() {
+    return 1 + mShardBaseDirectoryPathSuppliers.size();
+  }
+
+  /**
+   * Returns the config of one shard of the cache. The first shard is in the base directory, the
+   * others in the directories added with {@link Builder#addShardBaseDirectoryPathSupplier}. The
+   * size limits are split evenly between the shards.
+   */
+  public DiskCacheConfig getShardConfig(int shard) {
+    Preconditions.checkElementIndex(shard, getShardCount());
+    final int shardCount = getShardCount();
+    Builder builder = new Builder(mContext);
+    builder.mVersion = mVersion;
+    builder.mBaseDirectoryName = mBaseDirectoryName;
+    builder.mBaseDirectoryPathSupplier =
+        shard == 0 ? mBaseDirectoryPathSupplier : mShardBaseDirectoryPathSuppliers.get(shard - 1);
+    builder.mMaxCacheSize = mDefaultSizeLimit / shardCount;
+    builder.mMaxCacheSizeOnLowDiskSpace = mLowDiskSpaceSizeLimit / shardCount;
+    builder.mMaxCacheSizeOnVeryLowDiskSpace = mMinimumSizeLimit / shardCount;
+    builder.mEntryEvictionComparatorSupplier = mEntryEvictionComparatorSupplier;
+    builder.mCacheErrorLogger = mCacheErrorLogger;
+    builder.mCacheEventListener = mCacheEventListener;
+    builder.mDiskTrimmableRegistry = mDiskTrimmableRegistry;
+    builder.mIndexPopulateAtStartupEnabled = mIndexPopulateAtStartupEnabled;
+    builder.mIndexJournalEnabled = mIndexJournalEnabled;
+    builder.mBatchedTouchesEnabled = mBatchedTouchesEnabled;
+    builder.mPackFileSizeThreshold = mPackFileSizeThreshold;
+    builder.mResourceIdScheme = mResourceIdScheme;
+    builder.mNegativeLookupFilterEnabled = mNegativeLookupFilterEnabled;
+    return new DiskCacheConfig(builder);
+  }
+
   /**
    * Create a new builder.
    *
@@ -140,6 +211,12 @@ public class DiskCacheConfig {
     private CacheEventListener mCacheEventListener;
     private DiskTrimmableRegistry mDiskTrimmableRegistry;
     private boolean mIndexPopulateAtStartupEnabled;
+    private boolean mIndexJournalEnabled;
+    private boolean mBatchedTouchesEnabled;
+    private int mPackFileSizeThreshold;
+    private @ResourceIdScheme int mResourceIdScheme = ResourceIdScheme.SHA1;
+    private boolean mNegativeLookupFilterEnabled;
+    private final List<Supplier<File>> mShardBaseDirectoryPathSuppliers = new ArrayList<>();
 
     private final @Nullable Context mContext;
 
@@ -248,6 +325,82 @@ public class DiskCacheConfig {
       return this;
     }
 
+    /**
+     * Keeps an append-only journal of the cache entries next to the cache directory, so that the
+     * size and the eviction order of the cache can be restored without listing every file.
+     *
+     * <p>The journal assumes that only one process writes to the cache directory.
+     */
+    public Builder setIndexJournalEnabled(boolean indexJournalEnabled) {
+      mIndexJournalEnabled = indexJournalEnabled;
+      return this;
+    }
+
+    /**
+     * Keeps the access times of the cached files in memory and writes them in batches, instead of
+     * updating the file metadata on every cache hit. The eviction order of the cache is unaffected
+     * while the app is running, accesses that are not written yet are lost if the process dies.
+     *
+     * <p>The batches are written on the executor given to the storage factory, the access times
+     * are written on every access if it has none.
+     */
+    public Builder setBatchedTouchesEnabled(boolean batchedTouchesEnabled) {
+      mBatchedTouchesEnabled = batchedTouchesEnabled;
+      return this;
+    }
+
+    /**
+     * Packs the resources of up to this many bytes into a few large files, instead of writing one
+     * file per resource. This saves most of the file system operations for small images such as
+     * thumbnails. Zero, the default, disables packing.
+     *
+     * <p>Every resource is buffered in memory before being written when packing is enabled.
+     */
+    public Builder setPackFileSizeThreshold(int packFileSizeThreshold) {
+      Preconditions.checkArgument(packFileSizeThreshold >= 0);
+      mPackFileSizeThreshold = packFileSizeThreshold;
+      return this;
+    }
+
+    /**
+     * Sets how the names of the cached files are derived from the cache keys. {@link
+     * ResourceIdScheme#MURMUR3_128} is faster to compute than the default SHA-1.
+     *
+     * <p>Changing the scheme of an existing cache clears it the next time it is opened, the same
+     * as changing its version.
+     */
+    public Builder setResourceIdScheme(@ResourceIdScheme int resourceIdScheme) {
+      mResourceIdScheme = resourceIdScheme;
+      return this;
+    }
+
+    /**
+     * Keeps a Bloom filter of the cached files, so that most lookups of images that are not cached
+     * return without touching the disk. The filter takes about ten bits per cached file.
+     *
+     * <p>The filter is built the first time the cache lists its files, shortly after startup if the
+     * index is populated at startup and on the first write otherwise. It assumes that only this
+     * process writes to the cache directory.
+     */
+    public Builder setNegativeLookupFilterEnabled(boolean negativeLookupFilterEnabled) {
+      mNegativeLookupFilterEnabled = negativeLookupFilterEnabled;
+      return this;
+    }
+
+    /**
+     * Adds a shard of the cache in another base directory, typically on another volume. The
+     * resources are spread over the shards, each one with its own lock, size limit and eviction.
+     * Each shard keeps falling back to the low disk space limit when its own volume, internal or
+     * external, is low on space.
+     *
+     * <p>The shards must always be added in the same order, changing the order or removing a
+     * shard makes part of the content unreachable until it is evicted.
+     */
+    public Builder addShardBaseDirectoryPathSupplier(Supplier<File> baseDirectoryPathSupplier) {
+      mShardBaseDirectoryPathSuppliers.add(Preconditions.checkNotNull(baseDirectoryPathSupplier));
+      return this;
+    }
+
     public DiskCacheConfig build() {
       Preconditions.checkState(
           mBaseDirectoryPathSupplier != null || mContext != null,
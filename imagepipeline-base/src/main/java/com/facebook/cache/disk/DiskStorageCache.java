@@ -13,9 +13,11 @@ import com.facebook.cache.common.CacheErrorLogger;
 import com.facebook.cache.common.CacheEventListener;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.ResourceIdScheme;
 import com.facebook.cache.common.WriterCallback;
 import com.facebook.common.disk.DiskTrimmable;
 import com.facebook.common.disk.DiskTrimmableRegistry;
+import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.logging.FLog;
 import com.facebook.common.statfs.StatFsHelper;
@@ -28,9 +30,11 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
@@ -39,7 +43,7 @@ import javax.annotation.concurrent.ThreadSafe;
  * Cache that manages disk storage.
  */
 @ThreadSafe
-public class DiskStorageCache implements FileCache, DiskTrimmable {
+public class DiskStorageCache implements BatchingFileCache, DiskTrimmable {
 
   private static final Class<?> TAG = DiskStorageCache.class;
 
@@ -54,19 +58,21 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   private static final double TRIMMING_LOWER_BOUND = 0.02;
   private static final long UNINITIALIZED = -1;
   private static final String SHARED_PREFS_FILENAME_PREFIX = "disk_entries_list";
+  // Number of locks the resource ids are spread over
+  @VisibleForTesting static final int RESOURCE_LOCK_STRIPES = 32;
 
   private final long mLowDiskSpaceCacheSizeLimit;
   private final long mDefaultCacheSizeLimit;
   private final CountDownLatch mCountDownLatch;
+  @GuardedBy("mEvictionLock")
   private long mCacheSizeLimit;
 
   private final CacheEventListener mCacheEventListener;
 
-  @GuardedBy("mLock")
   // All resourceId stored on disk (if any).
   @VisibleForTesting final Set<String> mResourceIndex;
 
-  private long mCacheSizeLastUpdateTime;
+  private volatile long mCacheSizeLastUpdateTime;
 
   private final long mCacheSizeLimitMinimum;
 
@@ -76,16 +82,55 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   private final EntryEvictionComparatorSupplier mEntryEvictionComparatorSupplier;
   private final CacheErrorLogger mCacheErrorLogger;
   private final boolean mIndexPopulateAtStartupEnabled;
+  private final boolean mNegativeLookupFilterEnabled;
+  private final @ResourceIdScheme int mResourceIdScheme;
 
   private final CacheStats mCacheStats;
 
   private final Clock mClock;
 
-  // synchronization object.
-  private final Object mLock = new Object();
+  /*
+   * Locking, to be acquired in this order:
+   * - mEvictionLock serializes the passes that decide what to evict.
+   * - mListingLock serializes the listings of the storage that rebuild the size stats.
+   * - mStorageLock is held for reading by the operations on single resources and by the listings,
+   *   and for writing by the operations that clear the whole storage and to swap in the result of
+   *   a listing.
+   * - mResourceLocks serialize the operations on the same resource id, without blocking the
+   *   operations on other ids. Filesystem calls are only made under these locks.
+   * - mIndexLock guards the eviction index, it is never held across filesystem calls.
+   */
+  private final Object mEvictionLock = new Object();
+  private final Object mListingLock = new Object();
+  private final ReentrantReadWriteLock mStorageLock = new ReentrantReadWriteLock();
+  private final Object[] mResourceLocks;
+  private final Object mIndexLock = new Object();
 
   private boolean mIndexReady;
 
+  // Eviction order of the entries, rebuilt along with the size stats. Null until the first listing
+  // of the storage or after the cache has been cleared.
+  @GuardedBy("mIndexLock")
+  private @Nullable EntryEvictionIndex mEvictionIndex;
+
+  // The inserts and removals made while the storage is being listed, replayed on the result of the
+  // listing before it is swapped in. Null when no listing is in progress.
+  @GuardedBy("mIndexLock")
+  private @Nullable List<IndexChange> mChangesDuringListing;
+
+  // Incremented by every clearAll, a listing that started before the storage was cleared is
+  // dropped.
+  @GuardedBy("mStorageLock")
+  private int mClearCount;
+
+  // All the resource ids stored on disk, and some removed ones. Rebuilt along with the size stats,
+  // null until the first listing of the storage or when the negative lookup filter is disabled.
+  private volatile @Nullable ResourceIdBloomFilter mResidentIdFilter;
+
+  // The number of entries found by the last listing of the storage, used to size the filter of the
+  // resident ids when it is recreated without a listing.
+  private volatile int mLastListedEntryCount;
+
   /**
    * Stats about the cache - currently size of the cache (in bytes) and number of items in
    * the cache
@@ -154,6 +199,35 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       final Context context,
       final Executor executorForBackgrountInit,
       boolean indexPopulateAtStartupEnabled) {
+    this(
+        diskStorage,
+        entryEvictionComparatorSupplier,
+        params,
+        cacheEventListener,
+        cacheErrorLogger,
+        diskTrimmableRegistry,
+        context,
+        executorForBackgrountInit,
+        indexPopulateAtStartupEnabled,
+        false);
+  }
+
+  /**
+   * @param negativeLookupFilterEnabled whether to keep a Bloom filter of the stored resource ids,
+   *     so that {@link #isMissingSync} can tell most of the misses without a disk read once the
+   *     storage has been listed
+   */
+  public DiskStorageCache(
+      DiskStorage diskStorage,
+      EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+      Params params,
+      CacheEventListener cacheEventListener,
+      CacheErrorLogger cacheErrorLogger,
+      @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
+      final Context context,
+      final Executor executorForBackgrountInit,
+      boolean indexPopulateAtStartupEnabled,
+      boolean negativeLookupFilterEnabled) {
     this.mLowDiskSpaceCacheSizeLimit = params.mLowDiskSpaceCacheSizeLimit;
     this.mDefaultCacheSizeLimit = params.mDefaultCacheSizeLimit;
     this.mCacheSizeLimit = params.mDefaultCacheSizeLimit;
@@ -176,8 +250,14 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     this.mClock = SystemClock.get();
 
     mIndexPopulateAtStartupEnabled = indexPopulateAtStartupEnabled;
+    mNegativeLookupFilterEnabled = negativeLookupFilterEnabled;
+    mResourceIdScheme = getResourceIdScheme(diskStorage);
 
-    this.mResourceIndex = new HashSet<>();
+    this.mResourceIndex = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    this.mResourceLocks = new Object[RESOURCE_LOCK_STRIPES];
+    for (int i = 0; i < RESOURCE_LOCK_STRIPES; i++) {
+      mResourceLocks[i] = new Object();
+    }
 
     if (diskTrimmableRegistry != null) {
       diskTrimmableRegistry.registerDiskTrimmable(this);
@@ -190,9 +270,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
         @Override
         public void run() {
-          synchronized (mLock) {
-            maybeUpdateFileCacheSize();
-          }
+          maybeUpdateFileCacheSize();
           mIndexReady = true;
           mCountDownLatch.countDown();
         }
@@ -247,27 +325,31 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     String resourceId = null;
     SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
         .setCacheKey(key);
+    mStorageLock.readLock().lock();
     try {
-      synchronized (mLock) {
-        BinaryResource resource = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          cacheEvent.setResourceId(resourceId);
+      BinaryResource resource = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdScheme);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        cacheEvent.setResourceId(resourceId);
+        synchronized (getResourceLock(resourceId)) {
           resource = mStorage.getResource(resourceId, key);
           if (resource != null) {
+            mResourceIndex.add(resourceId);
+            addToResidentIdFilter(resourceId);
+            touchInEvictionIndex(resourceId);
             break;
           }
         }
-        if (resource == null) {
-          mCacheEventListener.onMiss(cacheEvent);
-          mResourceIndex.remove(resourceId);
-        } else {
-          mCacheEventListener.onHit(cacheEvent);
-          mResourceIndex.add(resourceId);
-        }
-        return resource;
       }
+      if (resource == null) {
+        mCacheEventListener.onMiss(cacheEvent);
+        mResourceIndex.remove(resourceId);
+        removeFromEvictionIndex(resourceId);
+      } else {
+        mCacheEventListener.onHit(cacheEvent);
+      }
+      return resource;
     } catch (IOException ioe) {
       mCacheErrorLogger.logError(
           CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
@@ -278,6 +360,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       mCacheEventListener.onReadException(cacheEvent);
       return null;
     } finally {
+      mStorageLock.readLock().unlock();
       cacheEvent.recycle();
     }
   }
@@ -295,18 +378,20 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    */
   public boolean probe(final CacheKey key) {
     String resourceId = null;
+    mStorageLock.readLock().lock();
     try {
-      synchronized (mLock) {
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdScheme);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        synchronized (getResourceLock(resourceId)) {
           if (mStorage.touch(resourceId, key)) {
             mResourceIndex.add(resourceId);
+            touchInEvictionIndex(resourceId);
             return true;
           }
         }
-        return false;
       }
+      return false;
     } catch (IOException e) {
       SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
           .setCacheKey(key)
@@ -315,6 +400,8 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       mCacheEventListener.onReadException(cacheEvent);
       cacheEvent.recycle();
       return false;
+    } finally {
+      mStorageLock.readLock().unlock();
     }
   }
 
@@ -326,7 +413,12 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       final CacheKey key)
       throws IOException {
     maybeEvictFilesInCacheDir();
-    return mStorage.insert(resourceId, key);
+    mStorageLock.readLock().lock();
+    try {
+      return mStorage.insert(resourceId, key);
+    } finally {
+      mStorageLock.readLock().unlock();
+    }
   }
 
   /**
@@ -337,12 +429,42 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       final DiskStorage.Inserter inserter,
       final CacheKey key,
       String resourceId) throws IOException {
-    synchronized (mLock) {
-      BinaryResource resource = inserter.commit(key);
-      mResourceIndex.add(resourceId);
-      mCacheStats.increment(resource.size(), 1);
-      return resource;
+    mStorageLock.readLock().lock();
+    try {
+      synchronized (getResourceLock(resourceId)) {
+        BinaryResource resource = inserter.commit(key);
+        mResourceIndex.add(resourceId);
+        addToResidentIdFilter(resourceId);
+        long size = resource.size();
+        long replacedSize = putInEvictionIndex(resourceId, resource, size);
+        if (replacedSize >= 0) {
+          // the resource overwrote an indexed one
+          mCacheStats.increment(size - replacedSize, 0);
+        } else {
+          mCacheStats.increment(size, 1);
+        }
+        return resource;
+      }
+    } finally {
+      mStorageLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public List<BinaryResource> insert(List<CacheKey> keys, List<WriterCallback> callbacks) {
+    Preconditions.checkArgument(keys.size() == callbacks.size());
+    List<BinaryResource> resources = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      BinaryResource resource = null;
+      try {
+        // each insert checks for eviction, so that the batch cannot overshoot the size limit
+        resource = insert(keys.get(i), callbacks.get(i));
+      } catch (IOException ioe) {
+        // already logged, the other resources of the batch are still written
+      }
+      resources.add(resource);
     }
+    return resources;
   }
 
   @Override
@@ -352,11 +474,8 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
         .setCacheKey(key);
     mCacheEventListener.onWriteAttempt(cacheEvent);
-    String resourceId;
-    synchronized (mLock) {
-      // for multiple resource ids associated with the same image, we only write one file
-      resourceId = CacheKeyUtil.getFirstResourceId(key);
-    }
+    // for multiple resource ids associated with the same image, we only write one file
+    String resourceId = CacheKeyUtil.getFirstResourceId(key, mResourceIdScheme);
     cacheEvent.setResourceId(resourceId);
     try {
       // getting the file is synchronized
@@ -386,22 +505,29 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
   @Override
   public void remove(CacheKey key) {
-    synchronized (mLock) {
-      try {
-        String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          mStorage.remove(resourceId);
+    mStorageLock.readLock().lock();
+    try {
+      String resourceId = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdScheme);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        synchronized (getResourceLock(resourceId)) {
+          long removedSize = mStorage.remove(resourceId);
           mResourceIndex.remove(resourceId);
+          EntryEvictionIndex.IndexedEntry indexedEntry = removeFromEvictionIndex(resourceId);
+          if (indexedEntry != null && removedSize > 0) {
+            mCacheStats.increment(-removedSize, -1);
+          }
         }
-      } catch (IOException e) {
-        mCacheErrorLogger.logError(
-            CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
-            TAG,
-            "delete: " + e.getMessage(),
-            e);
       }
+    } catch (IOException e) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
+          TAG,
+          "delete: " + e.getMessage(),
+          e);
+    } finally {
+      mStorageLock.readLock().unlock();
     }
   }
 
@@ -413,19 +539,24 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   @Override
   public long clearOldEntries(long cacheExpirationMs) {
     long oldestRemainingEntryAgeMs = 0L;
-    synchronized (mLock) {
+    synchronized (mEvictionLock) {
+      int itemsRemovedCount = 0;
+      long itemsRemovedSize = 0L;
+      mStorageLock.readLock().lock();
       try {
         long now = mClock.now();
         Collection<DiskStorage.Entry> allEntries = mStorage.getEntries();
         final long cacheSizeBeforeClearance = mCacheStats.getSize();
-        int itemsRemovedCount = 0;
-        long itemsRemovedSize = 0L;
         for (DiskStorage.Entry entry : allEntries) {
           // entry age of zero is disallowed.
           long entryAgeMs = Math.max(1, Math.abs(now - entry.getTimestamp()));
           if (entryAgeMs >= cacheExpirationMs) {
-            long entryRemovedSize = mStorage.remove(entry);
-            mResourceIndex.remove(entry.getId());
+            long entryRemovedSize;
+            synchronized (getResourceLock(entry.getId())) {
+              entryRemovedSize = mStorage.remove(entry);
+              mResourceIndex.remove(entry.getId());
+              removeFromEvictionIndex(entry.getId());
+            }
             if (entryRemovedSize > 0) {
               itemsRemovedCount++;
               itemsRemovedSize += entryRemovedSize;
@@ -442,16 +573,18 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
           }
         }
         mStorage.purgeUnexpectedResources();
-        if (itemsRemovedCount > 0) {
-          maybeUpdateFileCacheSize();
-          mCacheStats.increment(-itemsRemovedSize, -itemsRemovedCount);
-        }
       } catch (IOException ioe) {
         mCacheErrorLogger.logError(
             CacheErrorLogger.CacheErrorCategory.EVICTION,
             TAG,
             "clearOldEntries: " + ioe.getMessage(),
             ioe);
+      } finally {
+        mStorageLock.readLock().unlock();
+      }
+      if (itemsRemovedCount > 0) {
+        maybeUpdateFileCacheSize();
+        mCacheStats.increment(-itemsRemovedSize, -itemsRemovedCount);
       }
     }
     return oldestRemainingEntryAgeMs;
@@ -461,10 +594,11 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    * Test if the cache size has exceeded its limits, and if so, evict some files.
    * It also calls maybeUpdateFileCacheSize
    *
-   * This method uses mLock for synchronization purposes.
+   * <p>Only one thread evicts at a time, lookups of the entries that are not being evicted are
+   * not blocked.
    */
   private void maybeEvictFilesInCacheDir() throws IOException {
-    synchronized (mLock) {
+    synchronized (mEvictionLock) {
       boolean calculatedRightNow = maybeUpdateFileCacheSize();
 
       // Update the size limit (mCacheSizeLimit)
@@ -472,8 +606,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
       long cacheSize = mCacheStats.getSize();
       // If we are going to evict force a recalculation of the size
-      // (except if it was already calculated!)
-      if (cacheSize > mCacheSizeLimit && !calculatedRightNow) {
+      // (except if it was already calculated, or if it is kept up to date along with the
+      // eviction index)
+      if (cacheSize > mCacheSizeLimit && !calculatedRightNow && !isEvictionIndexValid()) {
         mCacheStats.reset();
         maybeUpdateFileCacheSize();
       }
@@ -487,10 +622,30 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     }
   }
 
-  @GuardedBy("mLock")
+  @GuardedBy("mEvictionLock")
   private void evictAboveSize(
       long desiredSize,
       CacheEventListener.EvictionReason reason) throws IOException {
+    mStorageLock.readLock().lock();
+    try {
+      long unreclaimedSizeBefore = getUnreclaimedSize();
+      if (isEvictionIndexValid()) {
+        evictAboveSizeFromIndex(desiredSize, reason);
+      } else {
+        evictAboveSizeFromListing(desiredSize, reason);
+      }
+      mStorage.purgeUnexpectedResources();
+      // the space of the evicted resources may not have been reclaimed yet
+      mCacheStats.increment(getUnreclaimedSize() - unreclaimedSizeBefore, 0);
+    } finally {
+      mStorageLock.readLock().unlock();
+    }
+  }
+
+  @GuardedBy("mEvictionLock")
+  private void evictAboveSizeFromListing(
+      long desiredSize,
+      CacheEventListener.EvictionReason reason) throws IOException {
     Collection<DiskStorage.Entry> entries;
     try {
       entries = getSortedEntries(mStorage.getEntries());
@@ -511,23 +666,97 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       if (sumItemSizes > (deleteSize)) {
         break;
       }
-      long deletedSize = mStorage.remove(entry);
-      mResourceIndex.remove(entry.getId());
+      long deletedSize;
+      synchronized (getResourceLock(entry.getId())) {
+        deletedSize = mStorage.remove(entry);
+        mResourceIndex.remove(entry.getId());
+        removeFromEvictionIndex(entry.getId());
+      }
       if (deletedSize > 0) {
         itemCount++;
         sumItemSizes += deletedSize;
-        SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
-            .setResourceId(entry.getId())
-            .setEvictionReason(reason)
-            .setItemSize(deletedSize)
-            .setCacheSize(cacheSizeBeforeClearance - sumItemSizes)
-            .setCacheLimit(desiredSize);
-        mCacheEventListener.onEviction(cacheEvent);
-        cacheEvent.recycle();
+        onEvicted(entry.getId(), reason, deletedSize, cacheSizeBeforeClearance - sumItemSizes,
+            desiredSize);
       }
     }
     mCacheStats.increment(-sumItemSizes, -itemCount);
-    mStorage.purgeUnexpectedResources();
+  }
+
+  /**
+   * Evicts entries in the order of the eviction index, only visiting the entries that get evicted.
+   *
+   * <p>The index lock is only held to pick the next entry, and each entry is deleted under its own
+   * resource lock, so that the other entries can be looked up in the meantime.
+   */
+  @GuardedBy("mEvictionLock")
+  private void evictAboveSizeFromIndex(
+      long desiredSize,
+      CacheEventListener.EvictionReason reason) throws IOException {
+    long cacheSizeBeforeClearance = mCacheStats.getSize();
+    long deleteSize = cacheSizeBeforeClearance - desiredSize;
+    int itemCount = 0;
+    long sumItemSizes = 0L;
+    try {
+      while (sumItemSizes <= deleteSize) {
+        EntryEvictionIndex.IndexedEntry entry;
+        synchronized (mIndexLock) {
+          entry = mEvictionIndex != null ? mEvictionIndex.pollFirst() : null;
+          if (entry != null) {
+            recordChangeDuringListing(new IndexChange(entry.getId(), null, 0, 0));
+          }
+        }
+        if (entry == null) {
+          break;
+        }
+        long deletedSize;
+        synchronized (getResourceLock(entry.getId())) {
+          if (isInEvictionIndex(entry.getId())) {
+            // the resource has been written again since it was picked
+            continue;
+          }
+          deletedSize = mStorage.remove(entry.getId());
+          mResourceIndex.remove(entry.getId());
+        }
+        if (deletedSize > 0) {
+          itemCount++;
+          sumItemSizes += deletedSize;
+          onEvicted(entry.getId(), reason, deletedSize, cacheSizeBeforeClearance - sumItemSizes,
+              desiredSize);
+        }
+      }
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.EVICTION,
+          TAG,
+          "evictAboveSize: " + ioe.getMessage(),
+          ioe);
+      throw ioe;
+    } finally {
+      mCacheStats.increment(-sumItemSizes, -itemCount);
+    }
+  }
+
+  /** Gets the space of the removed resources that the storage has not reclaimed yet. */
+  private long getUnreclaimedSize() throws IOException {
+    return mStorage instanceof CompactingDiskStorage
+        ? ((CompactingDiskStorage) mStorage).getUnreclaimedSize()
+        : 0;
+  }
+
+  private void onEvicted(
+      String resourceId,
+      CacheEventListener.EvictionReason reason,
+      long itemSize,
+      long cacheSize,
+      long cacheLimit) {
+    SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
+        .setResourceId(resourceId)
+        .setEvictionReason(reason)
+        .setItemSize(itemSize)
+        .setCacheSize(cacheSize)
+        .setCacheLimit(cacheLimit);
+    mCacheEventListener.onEviction(cacheEvent);
+    cacheEvent.recycle();
   }
 
   /**
@@ -558,7 +787,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    * Helper method that sets the cache size limit to be either a high, or a low limit.
    * If there is not enough free space to satisfy the high limit, it is set to the low limit.
    */
-  @GuardedBy("mLock")
+  @GuardedBy("mEvictionLock")
   private void updateFileCacheSizeLimit() {
     // Test if mCacheSizeLimit can be set to the high limit
     boolean isAvailableSpaceLowerThanHighLimit;
@@ -586,60 +815,91 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   }
 
   public void clearAll() {
-    synchronized (mLock) {
+    mStorageLock.writeLock().lock();
+    try {
       try {
+        // the cache is expected to refill to about its previous number of entries
+        int expectedEntryCount = Math.max(mLastListedEntryCount, (int) mCacheStats.getCount());
+        mClearCount++;
+        mResidentIdFilter = null;
         mStorage.clearAll();
         mResourceIndex.clear();
+        synchronized (mIndexLock) {
+          mEvictionIndex = null;
+        }
+        if (mNegativeLookupFilterEnabled) {
+          // nothing is stored any more
+          mResidentIdFilter = newResidentIdFilter(expectedEntryCount);
+        }
         mCacheEventListener.onCleared();
       } catch (IOException | NullPointerException e) {
         mCacheErrorLogger.logError(
             CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "clearAll: " + e.getMessage(), e);
       }
       mCacheStats.reset();
+    } finally {
+      mStorageLock.writeLock().unlock();
     }
   }
 
   @Override
   public boolean hasKeySync(CacheKey key) {
-    synchronized (mLock) {
-      String resourceId = null;
-      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-      for (int i = 0; i< resourceIds.size(); i++) {
-        resourceId = resourceIds.get(i);
-        if (mResourceIndex.contains(resourceId)) {
-          return true;
-        }
+    String resourceId = null;
+    List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdScheme);
+    for (int i = 0; i< resourceIds.size(); i++) {
+      resourceId = resourceIds.get(i);
+      if (mResourceIndex.contains(resourceId)) {
+        return true;
       }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isMissingSync(CacheKey key) {
+    ResourceIdBloomFilter filter = mResidentIdFilter;
+    if (filter == null) {
       return false;
     }
+    List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdScheme);
+    for (int i = 0; i < resourceIds.size(); i++) {
+      if (filter.mightContain(resourceIds.get(i))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public boolean hasKey(final CacheKey key) {
-    synchronized (mLock) {
-      if (hasKeySync(key)) {
-        return true;
-      }
-      try {
-        String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
+    if (hasKeySync(key)) {
+      return true;
+    }
+    mStorageLock.readLock().lock();
+    try {
+      String resourceId = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key, mResourceIdScheme);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        synchronized (getResourceLock(resourceId)) {
           if (mStorage.contains(resourceId, key)) {
             mResourceIndex.add(resourceId);
+            addToResidentIdFilter(resourceId);
             return true;
           }
         }
-        return false;
-      } catch (IOException e) {
-        return false;
       }
+      return false;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      mStorageLock.readLock().unlock();
     }
   }
 
   @Override
   public void trimToMinimum() {
-    synchronized (mLock) {
+    synchronized (mEvictionLock) {
       maybeUpdateFileCacheSize();
       long cacheSize = mCacheStats.getSize();
       if (mCacheSizeLimitMinimum <= 0 || cacheSize <= 0 || cacheSize < mCacheSizeLimitMinimum) {
@@ -658,7 +918,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   }
 
   private void trimBy(final double trimRatio) {
-    synchronized (mLock) {
+    synchronized (mEvictionLock) {
       try {
         // Force update the ground truth if we are about to evict
         mCacheStats.reset();
@@ -681,20 +941,32 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   /**
    * If file cache size is not calculated or if it was calculated
    * a long time ago (FILECACHE_SIZE_UPDATE_PERIOD_MS) recalculated from file listing.
+   *
+   * <p>The storage is listed under the read lock of mStorageLock, so that the other operations
+   * can proceed in the meantime. The inserts and removals made during the listing are replayed on
+   * its result, which is then swapped in under the write lock. The caller must not hold
+   * mStorageLock.
+   *
    * @return true if it was recalculated, false otherwise.
    */
-  @GuardedBy("mLock")
   private boolean maybeUpdateFileCacheSize() {
+    if (!isFileCacheSizeOutdated()) {
+      return false;
+    }
+    synchronized (mListingLock) {
+      // it may have been recalculated while waiting for the lock
+      return isFileCacheSizeOutdated() && maybeUpdateFileCacheSizeAndIndex();
+    }
+  }
+
+  private boolean isFileCacheSizeOutdated() {
     long now = mClock.now();
-    if ((!mCacheStats.isInitialized()) ||
+    return (!mCacheStats.isInitialized()) ||
         mCacheSizeLastUpdateTime == UNINITIALIZED ||
-        (now - mCacheSizeLastUpdateTime) > FILECACHE_SIZE_UPDATE_PERIOD_MS) {
-      return maybeUpdateFileCacheSizeAndIndex();
-    }
-    return false;
+        (now - mCacheSizeLastUpdateTime) > FILECACHE_SIZE_UPDATE_PERIOD_MS;
   }
 
-  @GuardedBy("mLock")
+  @GuardedBy("mListingLock")
   private boolean maybeUpdateFileCacheSizeAndIndex() {
     long size = 0;
     int count = 0;
@@ -704,44 +976,114 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     long maxTimeDelta = -1;
     long now = mClock.now();
     long timeThreshold = now + FUTURE_TIMESTAMP_THRESHOLD_MS;
-    Set<String> tempResourceIndex;
-    if (mIndexPopulateAtStartupEnabled && mResourceIndex.isEmpty()) {
-      tempResourceIndex = mResourceIndex;
-    } else if (mIndexPopulateAtStartupEnabled) {
-      tempResourceIndex = new HashSet<>();
-    } else {
-      tempResourceIndex = null;
+    // filled while no lock is held, it is swapped in along with the stats
+    Set<String> tempResourceIndex = mIndexPopulateAtStartupEnabled ? new HashSet<String>() : null;
+    Collection<DiskStorage.Entry> entries;
+    int clearCount;
+    mStorageLock.readLock().lock();
+    try {
+      clearCount = mClearCount;
+      synchronized (mIndexLock) {
+        mChangesDuringListing = new ArrayList<>();
+      }
+      entries = mStorage.getEntries();
+    } catch (IOException ioe) {
+      synchronized (mIndexLock) {
+        mChangesDuringListing = null;
+      }
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+          TAG,
+          "calcFileCacheSize: " + ioe.getMessage(),
+          ioe);
+      return false;
+    } finally {
+      mStorageLock.readLock().unlock();
     }
+    for (DiskStorage.Entry entry: entries) {
+      count++;
+      size += entry.getSize();
+
+      //Check if any files have a future timestamp, beyond our threshold
+      if (entry.getTimestamp() > timeThreshold) {
+        foundFutureTimestamp = true;
+        numFutureFiles++;
+        sizeFutureFiles += entry.getSize();
+        maxTimeDelta = Math.max(entry.getTimestamp() - now, maxTimeDelta);
+      } else if (mIndexPopulateAtStartupEnabled) {
+        tempResourceIndex.add(entry.getId());
+      }
+    }
+    if (foundFutureTimestamp) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY,
+          TAG,
+          "Future timestamp found in " + numFutureFiles +
+              " files , with a total size of " + sizeFutureFiles +
+              " bytes, and a maximum time delta of " + maxTimeDelta + "ms",
+          null);
+    }
+    ResourceIdBloomFilter filter = null;
+    if (mNegativeLookupFilterEnabled) {
+      filter = newResidentIdFilter(count);
+      for (DiskStorage.Entry entry : entries) {
+        filter.add(entry.getId());
+      }
+    }
+    EntryEvictionIndex evictionIndex =
+        new EntryEvictionIndex(mEntryEvictionComparatorSupplier.get(), entries, timeThreshold);
+
+    mStorageLock.writeLock().lock();
     try {
-      Collection<DiskStorage.Entry> entries = mStorage.getEntries();
-      for (DiskStorage.Entry entry: entries) {
-        count++;
-        size += entry.getSize();
-
-        //Check if any files have a future timestamp, beyond our threshold
-        if (entry.getTimestamp() > timeThreshold) {
-          foundFutureTimestamp = true;
-          numFutureFiles++;
-          sizeFutureFiles += entry.getSize();
-          maxTimeDelta = Math.max(entry.getTimestamp() - now, maxTimeDelta);
-        } else if (mIndexPopulateAtStartupEnabled) {
-          tempResourceIndex.add(entry.getId());
-        }
+      List<IndexChange> changes;
+      synchronized (mIndexLock) {
+        changes = Preconditions.checkNotNull(mChangesDuringListing);
+        mChangesDuringListing = null;
       }
-      if (foundFutureTimestamp) {
-        mCacheErrorLogger.logError(
-            CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY,
-            TAG,
-            "Future timestamp found in " + numFutureFiles +
-                " files , with a total size of " + sizeFutureFiles +
-                " bytes, and a maximum time delta of " + maxTimeDelta + "ms",
-            null);
-      }
-      if (mCacheStats.getCount() != count || mCacheStats.getSize() != size) {
-        if (mIndexPopulateAtStartupEnabled && mResourceIndex != tempResourceIndex) {
-          mResourceIndex.clear();
-          mResourceIndex.addAll(tempResourceIndex);
+      if (mClearCount != clearCount) {
+        // the listing predates the clearing of the storage
+        return false;
+      }
+      for (int i = 0; i < changes.size(); i++) {
+        IndexChange change = changes.get(i);
+        if (change.resource != null) {
+          long replacedSize =
+              evictionIndex.put(change.id, change.resource, change.size, change.timestamp);
+          if (replacedSize >= 0) {
+            size += change.size - replacedSize;
+          } else {
+            size += change.size;
+            count++;
+          }
+          if (tempResourceIndex != null) {
+            tempResourceIndex.add(change.id);
+          }
+          if (filter != null) {
+            filter.add(change.id);
+          }
+        } else {
+          EntryEvictionIndex.IndexedEntry removed = evictionIndex.remove(change.id);
+          if (removed != null) {
+            size -= removed.getSize();
+            count--;
+          }
+          if (tempResourceIndex != null) {
+            tempResourceIndex.remove(change.id);
+          }
         }
+      }
+      size += getUnreclaimedSize();
+      mResidentIdFilter = filter;
+      mLastListedEntryCount = count;
+      synchronized (mIndexLock) {
+        mEvictionIndex = evictionIndex;
+      }
+      boolean statsChanged = mCacheStats.getCount() != count || mCacheStats.getSize() != size;
+      if (tempResourceIndex != null && (statsChanged || mResourceIndex.isEmpty())) {
+        mResourceIndex.clear();
+        mResourceIndex.addAll(tempResourceIndex);
+      }
+      if (statsChanged) {
         mCacheStats.set(size, count);
       }
     } catch (IOException ioe) {
@@ -751,8 +1093,96 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
           "calcFileCacheSize: " + ioe.getMessage(),
           ioe);
       return false;
+    } finally {
+      mStorageLock.writeLock().unlock();
     }
     mCacheSizeLastUpdateTime = now;
     return true;
   }
+
+  @VisibleForTesting
+  Object getResourceLock(String resourceId) {
+    int hash = resourceId.hashCode();
+    // spread the higher bits, as the modulo only looks at the lower ones
+    hash ^= (hash >>> 16);
+    return mResourceLocks[(hash & Integer.MAX_VALUE) % RESOURCE_LOCK_STRIPES];
+  }
+
+  /** Gets the scheme of the resource ids of the storage, SHA-1 if it does not tell. */
+  static @ResourceIdScheme int getResourceIdScheme(DiskStorage storage) {
+    return storage instanceof ResourceIdSchemeStorage
+        ? ((ResourceIdSchemeStorage) storage).getResourceIdScheme()
+        : ResourceIdScheme.SHA1;
+  }
+
+  private static ResourceIdBloomFilter newResidentIdFilter(int entryCount) {
+    // room for the cache to double before the next listing
+    return new ResourceIdBloomFilter(2 * entryCount);
+  }
+
+  private void addToResidentIdFilter(String resourceId) {
+    ResourceIdBloomFilter filter = mResidentIdFilter;
+    if (filter != null) {
+      filter.add(resourceId);
+    }
+  }
+
+  private boolean isEvictionIndexValid() {
+    synchronized (mIndexLock) {
+      return mEvictionIndex != null;
+    }
+  }
+
+  private boolean isInEvictionIndex(String resourceId) {
+    synchronized (mIndexLock) {
+      return mEvictionIndex != null && mEvictionIndex.contains(resourceId);
+    }
+  }
+
+  private void touchInEvictionIndex(String resourceId) {
+    long now = mClock.now();
+    synchronized (mIndexLock) {
+      if (mEvictionIndex != null) {
+        mEvictionIndex.touch(resourceId, now);
+      }
+    }
+  }
+
+  /** @return the size of the indexed entry that got replaced, or -1 if there was none */
+  private long putInEvictionIndex(String resourceId, BinaryResource resource, long size) {
+    long now = mClock.now();
+    synchronized (mIndexLock) {
+      recordChangeDuringListing(new IndexChange(resourceId, resource, size, now));
+      return mEvictionIndex != null ? mEvictionIndex.put(resourceId, resource, size, now) : -1;
+    }
+  }
+
+  private @Nullable EntryEvictionIndex.IndexedEntry removeFromEvictionIndex(String resourceId) {
+    synchronized (mIndexLock) {
+      recordChangeDuringListing(new IndexChange(resourceId, null, 0, 0));
+      return mEvictionIndex != null ? mEvictionIndex.remove(resourceId) : null;
+    }
+  }
+
+  @GuardedBy("mIndexLock")
+  private void recordChangeDuringListing(IndexChange change) {
+    if (mChangesDuringListing != null) {
+      mChangesDuringListing.add(change);
+    }
+  }
+
+  /** An insert, or a removal if the resource is null, made while the storage is being listed. */
+  private static class IndexChange {
+    final String id;
+    final @Nullable BinaryResource resource;
+    final long size;
+    final long timestamp;
+
+    IndexChange(String id, @Nullable BinaryResource resource, long size, long timestamp) {
+      this.id = id;
+      this.resource = resource;
+      this.size = size;
+      this.timestamp = timestamp;
+    }
+  }
 }
@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.VisibleForTesting;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Append-only journal of the entries of a {@link DefaultDiskStorage}.
+ *
+ * <p> Every insert, touch and remove is appended to the journal file, so that the size and the
+ * timestamp of all the entries can be restored by replaying it instead of listing and stat'ing
+ * every file of the storage. Once the journal holds too many obsolete records it is compacted into
+ * a fresh file that only lists the live entries.
+ *
+ * <p> An insert is journaled as pending before its file is renamed into place, and confirmed
+ * once the rename is done. The inserts still pending when the journal is replayed are the ones
+ * interrupted by a crash, they are checked against the storage with {@link #confirmPendingInsert}
+ * so that a committed file is never left out of the listing.
+ *
+ * <p> The journal is otherwise a hint, not the ground truth: a record lost in a crash either leaves
+ * a file that is not listed (it is adopted again by {@link #reconcile}) or lists a file that is
+ * gone (it is dropped as soon as it is looked up, evicted or reconciled). A journal that is missing
+ * or cannot be parsed is discarded and rebuilt from a full scan of the storage.
+ */
+@ThreadSafe
+class DiskStorageJournal {
+
+  private static final Class<?> TAG = DiskStorageJournal.class;
+
+  static final String JOURNAL_FILE_EXTENSION = ".journal";
+  static final String TEMP_JOURNAL_FILE_EXTENSION = ".journal.tmp";
+
+  private static final int MAGIC = 0x464a524e; // "FJRN"
+  private static final int FORMAT_VERSION = 2;
+
+  private static final byte OP_PENDING = 'P';
+  private static final byte OP_INSERT = 'I';
+  private static final byte OP_TOUCH = 'T';
+  private static final byte OP_REMOVE = 'R';
+
+  // the journal is compacted once it holds this many records and twice as many as live entries
+  @VisibleForTesting static final int MIN_RECORDS_BEFORE_COMPACTION = 1000;
+
+  /** Size and timestamp of a journaled entry. */
+  static class Item {
+    public final String id;
+    public final long size;
+    public final long timestamp;
+
+    Item(String id, long size, long timestamp) {
+      this.id = id;
+      this.size = size;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private final File mJournalFile;
+  private final File mTempFile;
+  private final String mTag;
+  private final CacheErrorLogger mCacheErrorLogger;
+
+  @GuardedBy("this")
+  private final Map<String, Item> mItems = new HashMap<>();
+
+  // the inserts journaled as pending and not confirmed yet
+  @GuardedBy("this")
+  private final Set<String> mPendingIds = new HashSet<>();
+
+  // the pending inserts found by the replay, interrupted before they were confirmed
+  @GuardedBy("this")
+  private final Set<String> mUnconfirmedIds = new HashSet<>();
+
+  @GuardedBy("this")
+  private @Nullable DataOutputStream mWriter;
+
+  @GuardedBy("this")
+  private int mRecordCount;
+
+  // true once mItems reflects the content of the storage
+  @GuardedBy("this")
+  private boolean mLoaded;
+
+  // true if loading has been attempted and failed, a rebuild is needed
+  @GuardedBy("this")
+  private boolean mLoadFailed;
+
+  /**
+   * @param directory the directory to keep the journal in
+   * @param name the name of the journal, also stored in the journal header so that a journal
+   *     written for a different storage version is never replayed
+   */
+  DiskStorageJournal(File directory, String name, CacheErrorLogger cacheErrorLogger) {
+    mJournalFile = new File(directory, name + JOURNAL_FILE_EXTENSION);
+    mTempFile = new File(directory, name + TEMP_JOURNAL_FILE_EXTENSION);
+    mTag = name;
+    mCacheErrorLogger = cacheErrorLogger;
+  }
+
+  /** Returns true if the file is the journal or its temporary compaction file. */
+  boolean isJournalFile(File file) {
+    return mJournalFile.equals(file) || mTempFile.equals(file);
+  }
+
+  /**
+   * Returns the journaled entries, replaying the journal file on first use.
+   *
+   * @return null if the journal is missing or corrupt and must be rebuilt with {@link #rebuild}
+   */
+  synchronized @Nullable List<Item> getItems() {
+    if (!ensureLoaded()) {
+      return null;
+    }
+    return new ArrayList<>(mItems.values());
+  }
+
+  /** Replaces the content of the journal with the given entries, listed by a full scan. */
+  synchronized void rebuild(Collection<DiskStorage.Entry> entries) {
+    // the inserts in progress are kept, they are confirmed by their own commit
+    Map<String, Item> pendingItems = new HashMap<>();
+    for (String id : mPendingIds) {
+      Item item = mItems.get(id);
+      if (item != null) {
+        pendingItems.put(id, item);
+      }
+    }
+    mItems.clear();
+    for (DiskStorage.Entry entry : entries) {
+      mItems.put(entry.getId(), new Item(entry.getId(), entry.getSize(), entry.getTimestamp()));
+    }
+    for (Item item : pendingItems.values()) {
+      if (!mItems.containsKey(item.id)) {
+        mItems.put(item.id, item);
+      }
+    }
+    mPendingIds.retainAll(pendingItems.keySet());
+    mUnconfirmedIds.clear();
+    mLoaded = true;
+    mLoadFailed = false;
+    compact();
+  }
+
+  /** Resets the journal to an empty storage, after all of its files have been deleted. */
+  synchronized void clear() {
+    closeWriter();
+    mItems.clear();
+    mPendingIds.clear();
+    mUnconfirmedIds.clear();
+    mLoaded = true;
+    mLoadFailed = false;
+    compact();
+  }
+
+  synchronized boolean contains(String id) {
+    return ensureLoaded() && mItems.containsKey(id);
+  }
+
+  /**
+   * Records an insert before its file is renamed into place. The insert must then be confirmed
+   * with {@link #recordInsert}, or cancelled with {@link #recordRemove}.
+   */
+  synchronized void recordPendingInsert(String id, long size, long timestamp) {
+    if (!ensureLoaded()) {
+      return;
+    }
+    mItems.put(id, new Item(id, size, timestamp));
+    mPendingIds.add(id);
+    mUnconfirmedIds.remove(id);
+    if (append(OP_PENDING, id, size, timestamp)) {
+      flush();
+    }
+  }
+
+  synchronized void recordInsert(String id, long size, long timestamp) {
+    if (!ensureLoaded()) {
+      return;
+    }
+    mItems.put(id, new Item(id, size, timestamp));
+    mPendingIds.remove(id);
+    mUnconfirmedIds.remove(id);
+    if (append(OP_INSERT, id, size, timestamp)) {
+      flush();
+    }
+  }
+
+  /**
+   * Records an access to an entry.
+   *
+   * @return false if the entry is not journaled, the caller should record an insert instead
+   */
+  synchronized boolean recordTouch(String id, long timestamp) {
+    if (!ensureLoaded()) {
+      return true;
+    }
+    Item item = mItems.get(id);
+    if (item == null) {
+      return false;
+    }
+    mItems.put(id, new Item(id, item.size, timestamp));
+    // touches are not flushed: losing the most recent ones only affects the eviction order
+    append(OP_TOUCH, id, 0, timestamp);
+    return true;
+  }
+
+  synchronized void recordRemove(String id) {
+    if (!ensureLoaded()) {
+      return;
+    }
+    mPendingIds.remove(id);
+    mUnconfirmedIds.remove(id);
+    if (mItems.remove(id) == null) {
+      return;
+    }
+    if (append(OP_REMOVE, id, 0, 0)) {
+      flush();
+    }
+  }
+
+  /**
+   * Returns the ids of the inserts that were pending when the journal was replayed, each of them
+   * must be resolved with {@link #confirmPendingInsert}.
+   */
+  synchronized List<String> getUnconfirmedIds() {
+    if (!ensureLoaded()) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>(mUnconfirmedIds);
+  }
+
+  /**
+   * Resolves an insert interrupted by a crash: it is confirmed if its file has been renamed into
+   * place and dropped otherwise. Does nothing if the entry has been written or removed since.
+   *
+   * @param file the content file of the entry
+   */
+  synchronized void confirmPendingInsert(String id, File file) {
+    if (!mUnconfirmedIds.contains(id)) {
+      return;
+    }
+    if (file.exists()) {
+      recordInsert(id, file.length(), file.lastModified());
+    } else {
+      recordRemove(id);
+    }
+  }
+
+  /**
+   * Reconciles the journal with the content files found by a walk of the storage.
+   *
+   * <p> Files that are not journaled are adopted and journaled entries without a file are dropped,
+   * unless they have been inserted or touched since the walk started.
+   *
+   * @param files the content files found by the walk, by resource id
+   * @param walkStartTime the time at which the walk started
+   */
+  synchronized void reconcile(Map<String, File> files, long walkStartTime) {
+    if (!ensureLoaded()) {
+      return;
+    }
+    List<String> missing = new ArrayList<>();
+    for (Item item : mItems.values()) {
+      if (item.timestamp < walkStartTime
+          && !files.containsKey(item.id)
+          && !mPendingIds.contains(item.id)) {
+        missing.add(item.id);
+      }
+    }
+    for (String id : missing) {
+      mItems.remove(id);
+      append(OP_REMOVE, id, 0, 0);
+    }
+    for (Map.Entry<String, File> entry : files.entrySet()) {
+      File file = entry.getValue();
+      if (!mItems.containsKey(entry.getKey()) && file.exists()) {
+        mItems.put(entry.getKey(), new Item(entry.getKey(), file.length(), file.lastModified()));
+        append(OP_INSERT, entry.getKey(), file.length(), file.lastModified());
+      }
+    }
+    flush();
+  }
+
+  @VisibleForTesting
+  synchronized int getRecordCount() {
+    return mRecordCount;
+  }
+
+  @GuardedBy("this")
+  private boolean ensureLoaded() {
+    if (mLoaded) {
+      return true;
+    }
+    if (mLoadFailed) {
+      return false;
+    }
+    if (replay()) {
+      mLoaded = true;
+    } else {
+      mLoadFailed = true;
+      mItems.clear();
+      mPendingIds.clear();
+      mUnconfirmedIds.clear();
+      mJournalFile.delete();
+    }
+    return mLoaded;
+  }
+
+  /** Replays the journal file into mItems, returns false if it is missing or corrupt. */
+  @GuardedBy("this")
+  private boolean replay() {
+    if (!mJournalFile.exists()) {
+      return false;
+    }
+    DataInputStream in = null;
+    boolean tornTail = false;
+    int recordCount = 0;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournalFile)));
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !mTag.equals(in.readUTF())) {
+        return false;
+      }
+      while (true) {
+        int op = in.read();
+        if (op == -1) {
+          break;
+        }
+        try {
+          if (!replayRecord((byte) op, in)) {
+            return false;
+          }
+        } catch (EOFException eof) {
+          // the last record was not completely written
+          tornTail = true;
+          break;
+        }
+        recordCount++;
+      }
+    } catch (IOException ioe) {
+      // includes a truncated header, nothing can be trusted
+      return false;
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+    mRecordCount = recordCount;
+    if (tornTail || needsCompaction()) {
+      compact();
+    }
+    return true;
+  }
+
+  @GuardedBy("this")
+  private boolean replayRecord(byte op, DataInputStream in) throws IOException {
+    String id = in.readUTF();
+    switch (op) {
+      case OP_PENDING:
+      case OP_INSERT:
+        long size = in.readLong();
+        long timestamp = in.readLong();
+        if (size < 0) {
+          return false;
+        }
+        mItems.put(id, new Item(id, size, timestamp));
+        if (op == OP_PENDING) {
+          mPendingIds.add(id);
+          mUnconfirmedIds.add(id);
+        } else {
+          mPendingIds.remove(id);
+          mUnconfirmedIds.remove(id);
+        }
+        return true;
+      case OP_TOUCH:
+        long touchTimestamp = in.readLong();
+        Item item = mItems.get(id);
+        if (item != null) {
+          mItems.put(id, new Item(id, item.size, touchTimestamp));
+        }
+        return true;
+      case OP_REMOVE:
+        mItems.remove(id);
+        mPendingIds.remove(id);
+        mUnconfirmedIds.remove(id);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  @GuardedBy("this")
+  private boolean needsCompaction() {
+    return mRecordCount >= MIN_RECORDS_BEFORE_COMPACTION && mRecordCount >= 2 * mItems.size();
+  }
+
+  /**
+   * Appends a record to the journal, compacting it first if needed.
+   *
+   * @return false if the journal has been compacted or invalidated instead
+   */
+  @GuardedBy("this")
+  private boolean append(byte op, String id, long size, long timestamp) {
+    if (needsCompaction()) {
+      compact();
+      return false;
+    }
+    try {
+      DataOutputStream writer = getWriter();
+      writer.writeByte(op);
+      writer.writeUTF(id);
+      if (op == OP_INSERT || op == OP_PENDING) {
+        writer.writeLong(size);
+        writer.writeLong(timestamp);
+      } else if (op == OP_TOUCH) {
+        writer.writeLong(timestamp);
+      }
+      mRecordCount++;
+      return true;
+    } catch (IOException ioe) {
+      invalidate("append", ioe);
+      return false;
+    }
+  }
+
+  @GuardedBy("this")
+  private void flush() {
+    if (mWriter == null) {
+      return;
+    }
+    try {
+      mWriter.flush();
+    } catch (IOException ioe) {
+      invalidate("flush", ioe);
+    }
+  }
+
+  @GuardedBy("this")
+  private DataOutputStream getWriter() throws FileNotFoundException {
+    if (mWriter == null) {
+      mWriter =
+          new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(mJournalFile, /* append */ true)));
+    }
+    return mWriter;
+  }
+
+  /**
+   * Rewrites the journal so that it only holds one insert record per live entry, still pending for
+   * the inserts that are not confirmed.
+   */
+  @GuardedBy("this")
+  private void compact() {
+    closeWriter();
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTempFile)));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(mTag);
+      for (Item item : mItems.values()) {
+        out.writeByte(mPendingIds.contains(item.id) ? OP_PENDING : OP_INSERT);
+        out.writeUTF(item.id);
+        out.writeLong(item.size);
+        out.writeLong(item.timestamp);
+      }
+      out.close();
+      out = null;
+      if (!mTempFile.renameTo(mJournalFile)) {
+        throw new IOException("Could not rename " + mTempFile + " to " + mJournalFile);
+      }
+      mRecordCount = mItems.size();
+    } catch (IOException ioe) {
+      closeQuietly(out);
+      mTempFile.delete();
+      invalidate("compact", ioe);
+    }
+  }
+
+  /**
+   * Drops the journal after a write error, the next read of the entries will trigger a full scan
+   * and a rebuild.
+   */
+  @GuardedBy("this")
+  private void invalidate(String message, IOException ioe) {
+    mCacheErrorLogger.logError(
+        CacheErrorLogger.CacheErrorCategory.GENERIC_IO, TAG, message, ioe);
+    closeWriter();
+    mJournalFile.delete();
+    mItems.clear();
+    mPendingIds.clear();
+    mUnconfirmedIds.clear();
+    mLoaded = false;
+    mLoadFailed = true;
+  }
+
+  @GuardedBy("this")
+  private void closeWriter() {
+    closeQuietly(mWriter);
+    mWriter = null;
+  }
+
+  private static void closeQuietly(@Nullable Closeable closeable) {
+    try {
+      Closeables.close(closeable, true);
+    } catch (IOException ioe) {
+      // not thrown when swallowing
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.ResourceIdScheme;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+
+/**
+ * Optional behaviors of a {@link DefaultDiskStorage}, also passed through by a
+ * {@link DynamicDefaultDiskStorage} to the storage it creates. By default, none of them is
+ * enabled.
+ */
+public class DiskStorageOptions {
+
+  private final boolean mJournalEnabled;
+  private final @Nullable Executor mTouchFlushExecutor;
+  private final @ResourceIdScheme int mResourceIdScheme;
+
+  private DiskStorageOptions(Builder builder) {
+    mJournalEnabled = builder.mJournalEnabled;
+    mTouchFlushExecutor = builder.mTouchFlushExecutor;
+    mResourceIdScheme = builder.mResourceIdScheme;
+  }
+
+  public boolean isJournalEnabled() {
+    return mJournalEnabled;
+  }
+
+  public @Nullable Executor getTouchFlushExecutor() {
+    return mTouchFlushExecutor;
+  }
+
+  public @ResourceIdScheme int getResourceIdScheme() {
+    return mResourceIdScheme;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private boolean mJournalEnabled = false;
+    private @Nullable Executor mTouchFlushExecutor;
+    private @ResourceIdScheme int mResourceIdScheme = ResourceIdScheme.SHA1;
+
+    private Builder() {}
+
+    /**
+     * Whether to keep a journal of the entries, so that listing them does not require a full scan
+     * of the directory. The journal assumes that a single storage instance writes to the
+     * directory.
+     */
+    public Builder setJournalEnabled(boolean journalEnabled) {
+      mJournalEnabled = journalEnabled;
+      return this;
+    }
+
+    /**
+     * If not null, the access times of the resources are kept in memory and written in batches on
+     * this executor, instead of updating the file on every access. The pending access times are
+     * written before the entries are listed, an access may however be lost if the process dies
+     * before its batch is written.
+     */
+    public Builder setTouchFlushExecutor(@Nullable Executor touchFlushExecutor) {
+      mTouchFlushExecutor = touchFlushExecutor;
+      return this;
+    }
+
+    /**
+     * How the ids of the stored resources are derived from the cache keys. The scheme is part of
+     * the version, the files stored with another scheme are deleted. A {@link DiskStorageCache}
+     * derives the ids with the scheme of its storage.
+     */
+    public Builder setResourceIdScheme(@ResourceIdScheme int resourceIdScheme) {
+      mResourceIdScheme = resourceIdScheme;
+      return this;
+    }
+
+    public DiskStorageOptions build() {
+      return new DiskStorageOptions(this);
+    }
+  }
+}
@@ -9,6 +9,7 @@ package com.facebook.cache.disk;
 
 import com.facebook.binaryresource.BinaryResource;
 import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.ResourceIdScheme;
 import com.facebook.common.file.FileTree;
 import com.facebook.common.file.FileUtils;
 import com.facebook.common.internal.Preconditions;
@@ -23,13 +24,14 @@ import javax.annotation.Nullable;
 /**
  * A supplier of a DiskStorage concrete implementation.
  */
-public class DynamicDefaultDiskStorage implements DiskStorage {
+public class DynamicDefaultDiskStorage implements DiskStorage, ResourceIdSchemeStorage {
   private static final Class<?> TAG = DynamicDefaultDiskStorage.class;
 
   private final int mVersion;
   private final Supplier<File> mBaseDirectoryPathSupplier;
   private final String mBaseDirectoryName;
   private final CacheErrorLogger mCacheErrorLogger;
+  private final DiskStorageOptions mOptions;
 
   @VisibleForTesting
   volatile State mCurrentState;
@@ -52,7 +54,25 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
       Supplier<File> baseDirectoryPathSupplier,
       String baseDirectoryName,
       CacheErrorLogger cacheErrorLogger) {
+    this(
+        version,
+        baseDirectoryPathSupplier,
+        baseDirectoryName,
+        cacheErrorLogger,
+        DiskStorageOptions.newBuilder().build());
+  }
+
+  /**
+   * @param options the optional behaviors of the {@link DefaultDiskStorage}
+   */
+  public DynamicDefaultDiskStorage(
+      int version,
+      Supplier<File> baseDirectoryPathSupplier,
+      String baseDirectoryName,
+      CacheErrorLogger cacheErrorLogger,
+      DiskStorageOptions options) {
     mVersion = version;
+    mOptions = options;
     mCacheErrorLogger = cacheErrorLogger;
     mBaseDirectoryPathSupplier = baseDirectoryPathSupplier;
     mBaseDirectoryName = baseDirectoryName;
@@ -68,6 +88,11 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
     }
   }
 
+  @Override
+  public @ResourceIdScheme int getResourceIdScheme() {
+    return mOptions.getResourceIdScheme();
+  }
+
  @Override
   public boolean isExternal() {
     try {
@@ -177,7 +202,8 @@ public class DynamicDefaultDiskStorage implements DiskStorage {
   private void createStorage() throws IOException {
     File rootDirectory = new File(mBaseDirectoryPathSupplier.get(), mBaseDirectoryName);
     createRootDirectoryIfNecessary(rootDirectory);
-    DiskStorage storage = new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger);
+    DiskStorage storage =
+        new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger, mOptions);
     mCurrentState = new State(rootDirectory, storage);
   }
 
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.common.internal.VisibleForTesting;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Eviction order of the entries of a {@link DiskStorageCache}, kept up to date on every insert,
+ * access and removal so that an eviction pass only has to pop the entries it deletes.
+ *
+ * <p> The entries are kept sorted with a single comparator, obtained when the index is built. The
+ * comparator must therefore order two entries the same way regardless of when it was obtained.
+ * This holds for both {@link DefaultEntryEvictionComparatorSupplier} and
+ * {@link ScoreBasedEvictionComparatorSupplier}: the score of every entry grows with time at the
+ * same rate, so the difference between two scores does not depend on the current time.
+ *
+ * <p> Entries listed with a timestamp too far in the future are not trusted and are evicted
+ * first, until they get accessed again.
+ */
+@NotThreadSafe
+class EntryEvictionIndex {
+
+  /** An indexed entry, immutable so that it never moves while in the sorted set. */
+  @VisibleForTesting
+  static class IndexedEntry implements DiskStorage.Entry {
+    private final String mId;
+    private final BinaryResource mResource;
+    private final long mSize;
+    private final long mTimestamp;
+
+    IndexedEntry(String id, BinaryResource resource, long size, long timestamp) {
+      mId = id;
+      mResource = resource;
+      mSize = size;
+      mTimestamp = timestamp;
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    @Override
+    public BinaryResource getResource() {
+      return mResource;
+    }
+  }
+
+  private final Map<String, IndexedEntry> mEntries = new HashMap<>();
+  private final LinkedHashMap<String, IndexedEntry> mFutureEntries = new LinkedHashMap<>();
+  private final TreeSet<IndexedEntry> mQueue;
+
+  /**
+   * @param comparator the eviction order
+   * @param entries the entries of the storage
+   * @param futureTimestampThreshold entries with a timestamp above this are evicted first
+   */
+  EntryEvictionIndex(
+      final Comparator<DiskStorage.Entry> comparator,
+      Collection<DiskStorage.Entry> entries,
+      long futureTimestampThreshold) {
+    mQueue =
+        new TreeSet<>(
+            new Comparator<IndexedEntry>() {
+              @Override
+              public int compare(IndexedEntry lhs, IndexedEntry rhs) {
+                int result = comparator.compare(lhs, rhs);
+                // entries that tie must still be distinct elements of the set
+                return result != 0 ? result : lhs.getId().compareTo(rhs.getId());
+              }
+            });
+    for (DiskStorage.Entry entry : entries) {
+      IndexedEntry indexedEntry =
+          new IndexedEntry(
+              entry.getId(), entry.getResource(), entry.getSize(), entry.getTimestamp());
+      if (entry.getTimestamp() > futureTimestampThreshold) {
+        mEntries.put(entry.getId(), indexedEntry);
+        mFutureEntries.put(entry.getId(), indexedEntry);
+      } else {
+        add(indexedEntry);
+      }
+    }
+  }
+
+  /**
+   * Adds or replaces an entry.
+   *
+   * @return the size of the replaced entry, or -1 if the entry is new
+   */
+  long put(String id, BinaryResource resource, long size, long timestamp) {
+    IndexedEntry previous = remove(id);
+    add(new IndexedEntry(id, resource, size, timestamp));
+    return previous != null ? previous.getSize() : -1;
+  }
+
+  /** Moves an entry after an access, does nothing if the entry is not indexed. */
+  void touch(String id, long timestamp) {
+    IndexedEntry entry = remove(id);
+    if (entry != null) {
+      add(new IndexedEntry(id, entry.getResource(), entry.getSize(), timestamp));
+    }
+  }
+
+  @Nullable
+  IndexedEntry remove(String id) {
+    IndexedEntry entry = mEntries.remove(id);
+    if (entry != null && mFutureEntries.remove(id) == null) {
+      mQueue.remove(entry);
+    }
+    return entry;
+  }
+
+  /** Removes and returns the next entry to evict, or null if the index is empty. */
+  @Nullable
+  IndexedEntry pollFirst() {
+    IndexedEntry entry;
+    if (!mFutureEntries.isEmpty()) {
+      entry = mFutureEntries.remove(mFutureEntries.keySet().iterator().next());
+    } else {
+      entry = mQueue.pollFirst();
+    }
+    if (entry != null) {
+      mEntries.remove(entry.getId());
+    }
+    return entry;
+  }
+
+  boolean contains(String id) {
+    return mEntries.containsKey(id);
+  }
+
+  int size() {
+    return mEntries.size();
+  }
+
+  private void add(IndexedEntry entry) {
+    mEntries.put(entry.getId(), entry);
+    mQueue.add(entry);
+  }
+}
@@ -0,0 +1,949 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileRangeBinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.ResourceIdScheme;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.Suppliers;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.Clock;
+import com.facebook.common.time.SystemClock;
+import com.facebook.common.util.ByteConstants;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Disk storage that appends the resources to a few large segment files, instead of creating one
+ * file per resource. It is meant for small resources, for which creating, renaming, deleting and
+ * listing a file each costs more than writing the content itself. See
+ * {@link SizeThresholdDiskStorage} to only store the small resources here.
+ *
+ * <p> Resources are appended to the last segment until it reaches the maximum segment size, then
+ * a new segment is started. Every record holds the resource id and its timestamp, so that the
+ * index of the ranges of the segments is rebuilt by reading the segments on first use. Removing a
+ * resource appends a tombstone, and the space of the removed record is only reclaimed when its
+ * segment gets compacted: the live records of the segment are copied to the last segment and the
+ * segment is deleted. The older segments are compacted, the most dead first, as soon as their
+ * unreclaimed space passes {@link #MAX_UNRECLAIMED_RATIO} of the size of the storage, and by
+ * {@link #purgeUnexpectedResources} once they are mostly dead. The unreclaimed space is reported
+ * by {@link #getUnreclaimedSize} so that it is counted toward the size of the cache.
+ *
+ * <p> The index is guarded by the instance lock, which is never held during disk I/O. Appends,
+ * compactions and the loading of the index are serialized by a separate write lock.
+ *
+ * <p> Accesses only update the timestamps kept in memory. They are persisted when the record gets
+ * copied by a compaction, otherwise the entries are ordered by write time after a restart.
+ *
+ * <p> Resources are served as ranges of the segment files. A range opened after its segment has
+ * been compacted fails with an {@link IOException}, as if the resource had been evicted.
+ */
+@ThreadSafe
+public class PackFileDiskStorage
+    implements DiskStorage, CompactingDiskStorage, ResourceIdSchemeStorage {
+
+  private static final Class<?> TAG = PackFileDiskStorage.class;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String VERSION_DIRECTORY_PREFIX = "p1.";
+  private static final String SEGMENT_FILE_PREFIX = "segment-";
+  static final String SEGMENT_FILE_EXTENSION = ".seg";
+
+  public static final long DEFAULT_MAX_SEGMENT_SIZE = 4 * ByteConstants.MB;
+
+  /** Older segments whose ratio of live bytes falls below this are compacted when purging. */
+  @VisibleForTesting static final float COMPACTION_THRESHOLD = 0.5f;
+
+  /** Older segments are compacted as soon as their unreclaimed bytes pass this ratio. */
+  @VisibleForTesting static final float MAX_UNRECLAIMED_RATIO = 0.25f;
+
+  private static final int RECORD_MAGIC = 0x46504b52; // "FPKR"
+  // magic, timestamp, id length, data length or TOMBSTONE
+  private static final int RECORD_HEADER_SIZE = 4 + 8 + 2 + 4;
+  private static final int TOMBSTONE = -1;
+  // a tombstone names the segment and the offset of the record it removes
+  private static final int TOMBSTONE_BODY_SIZE = 4 + 8;
+
+  private final Supplier<File> mRootDirectorySupplier;
+  private final String mVersionDirectoryName;
+  private final @ResourceIdScheme int mResourceIdScheme;
+  private final long mMaxSegmentSize;
+  private final CacheErrorLogger mCacheErrorLogger;
+  private final Clock mClock;
+
+  // resolved on first use, as resolving the directory may touch the file system
+  private volatile @Nullable File mRootDirectory;
+  private volatile @Nullable Boolean mIsExternal;
+
+  // serializes the appends, the compactions and the loading of the index
+  private final Object mWriteLock = new Object();
+
+  @GuardedBy("this")
+  private final Map<String, PackEntry> mEntries = new HashMap<>();
+
+  // by segment id, the last one is the one written to
+  @GuardedBy("this")
+  private final TreeMap<Integer, Segment> mSegments = new TreeMap<>();
+
+  // only set while holding the write lock
+  private volatile boolean mLoaded;
+
+  @GuardedBy("mWriteLock")
+  private @Nullable RandomAccessFile mOutput;
+
+  public PackFileDiskStorage(File rootDirectory, int version, CacheErrorLogger cacheErrorLogger) {
+    this(rootDirectory, version, cacheErrorLogger, DEFAULT_MAX_SEGMENT_SIZE);
+  }
+
+  public PackFileDiskStorage(
+      File rootDirectory,
+      int version,
+      CacheErrorLogger cacheErrorLogger,
+      long maxSegmentSize) {
+    this(
+        Suppliers.of(Preconditions.checkNotNull(rootDirectory)),
+        version,
+        cacheErrorLogger,
+        maxSegmentSize,
+        ResourceIdScheme.SHA1);
+  }
+
+  /**
+   * @param rootDirectorySupplier supplier of the root directory to create all content under, it
+   *     must not be shared with another storage. It is only called on first use
+   * @param version version of the format used in the resources, the segments saved with another
+   *     version are purged
+   * @param cacheErrorLogger logger for various events
+   * @param maxSegmentSize size above which a new segment is started
+   * @param resourceIdScheme the scheme of the ids of the resources, the segments saved with
+   *     another scheme are purged
+   */
+  public PackFileDiskStorage(
+      Supplier<File> rootDirectorySupplier,
+      int version,
+      CacheErrorLogger cacheErrorLogger,
+      long maxSegmentSize,
+      @ResourceIdScheme int resourceIdScheme) {
+    Preconditions.checkArgument(maxSegmentSize > 0);
+    mRootDirectorySupplier = Preconditions.checkNotNull(rootDirectorySupplier);
+    mVersionDirectoryName = getVersionSubdirectoryName(version, resourceIdScheme);
+    mResourceIdScheme = resourceIdScheme;
+    mCacheErrorLogger = cacheErrorLogger;
+    mMaxSegmentSize = maxSegmentSize;
+    mClock = SystemClock.get();
+  }
+
+  @VisibleForTesting
+  static String getVersionSubdirectoryName(int version, @ResourceIdScheme int resourceIdScheme) {
+    String name = VERSION_DIRECTORY_PREFIX + version;
+    // the sha-1 ids predate the schemes, their directory keeps its name
+    return resourceIdScheme == ResourceIdScheme.SHA1 ? name : name + ".h" + resourceIdScheme;
+  }
+
+  private File getRootDirectory() {
+    File rootDirectory = mRootDirectory;
+    if (rootDirectory == null) {
+      rootDirectory = Preconditions.checkNotNull(mRootDirectorySupplier.get());
+      mRootDirectory = rootDirectory;
+    }
+    return rootDirectory;
+  }
+
+  private File getVersionDirectory() {
+    return new File(getRootDirectory(), mVersionDirectoryName);
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public @ResourceIdScheme int getResourceIdScheme() {
+    return mResourceIdScheme;
+  }
+
+  @Override
+  public boolean isExternal() {
+    Boolean isExternal = mIsExternal;
+    if (isExternal == null) {
+      isExternal = DefaultDiskStorage.isExternal(getRootDirectory(), mCacheErrorLogger);
+      mIsExternal = isExternal;
+    }
+    return isExternal;
+  }
+
+  @Override
+  public String getStorageName() {
+    String directoryName = getRootDirectory().getAbsolutePath();
+    return "_" + directoryName.substring(directoryName.lastIndexOf('/') + 1)
+        + "_" + directoryName.hashCode();
+  }
+
+  @Override
+  public @Nullable BinaryResource getResource(String resourceId, Object debugInfo)
+      throws IOException {
+    ensureLoaded();
+    PackEntry entry;
+    synchronized (this) {
+      entry = touchEntry(resourceId);
+    }
+    return entry != null ? entry.getResource() : null;
+  }
+
+  @Override
+  public boolean contains(String resourceId, Object debugInfo) throws IOException {
+    ensureLoaded();
+    synchronized (this) {
+      return mEntries.containsKey(resourceId);
+    }
+  }
+
+  @Override
+  public boolean touch(String resourceId, Object debugInfo) throws IOException {
+    ensureLoaded();
+    synchronized (this) {
+      return touchEntry(resourceId) != null;
+    }
+  }
+
+  @GuardedBy("this")
+  private @Nullable PackEntry touchEntry(String resourceId) {
+    PackEntry entry = mEntries.get(resourceId);
+    if (entry != null) {
+      // entries are immutable, as they may have been handed out by getEntries
+      entry = entry.withTimestamp(mClock.now());
+      mEntries.put(resourceId, entry);
+    }
+    return entry;
+  }
+
+  @Override
+  public Inserter insert(String resourceId, Object debugInfo) {
+    return new InserterImpl(resourceId);
+  }
+
+  /**
+   * Appends a resource, replacing the previous one with the same id if any.
+   *
+   * @param data the content of the resource, only the first length bytes are used
+   */
+  BinaryResource commit(String resourceId, byte[] data, int length) throws IOException {
+    ensureLoaded();
+    synchronized (mWriteLock) {
+      PackEntry entry = appendResource(resourceId, data, length, mClock.now());
+      // the replaced record, if any, is now unreclaimed space
+      maybeCompact();
+      return entry.getResource();
+    }
+  }
+
+  @Override
+  public long remove(Entry entry) throws IOException {
+    return remove(entry.getId());
+  }
+
+  @Override
+  public long remove(String resourceId) throws IOException {
+    ensureLoaded();
+    synchronized (mWriteLock) {
+      PackEntry entry;
+      synchronized (this) {
+        entry = mEntries.get(resourceId);
+      }
+      if (entry == null) {
+        return 0;
+      }
+      appendTombstone(resourceId, entry.mSegmentId, entry.mRecordOffset);
+      synchronized (this) {
+        removeEntry(mEntries, mSegments, resourceId);
+      }
+      maybeCompact();
+      return entry.getSize();
+    }
+  }
+
+  @Override
+  public void clearAll() {
+    synchronized (mWriteLock) {
+      closeOutput();
+      synchronized (this) {
+        mEntries.clear();
+        mSegments.clear();
+      }
+      mLoaded = false;
+      FileTree.deleteContents(getRootDirectory());
+    }
+  }
+
+  @Override
+  public List<Entry> getEntries() throws IOException {
+    ensureLoaded();
+    synchronized (this) {
+      return Collections.unmodifiableList(new ArrayList<Entry>(mEntries.values()));
+    }
+  }
+
+  @Override
+  public long getUnreclaimedSize() throws IOException {
+    ensureLoaded();
+    synchronized (this) {
+      return getUnreclaimedSize(mSegments.values());
+    }
+  }
+
+  /**
+   * Deletes the files that do not belong to the current version, and compacts the segments that
+   * are mostly dead.
+   */
+  @Override
+  public void purgeUnexpectedResources() {
+    synchronized (mWriteLock) {
+      File versionDirectory = getVersionDirectory();
+      File[] rootFiles = getRootDirectory().listFiles();
+      if (rootFiles != null) {
+        for (File file : rootFiles) {
+          if (!file.equals(versionDirectory)) {
+            FileTree.deleteRecursively(file);
+          }
+        }
+      }
+      try {
+        ensureLoaded();
+        File[] files = versionDirectory.listFiles();
+        if (files != null) {
+          for (File file : files) {
+            boolean isSegment;
+            synchronized (this) {
+              isSegment = mSegments.containsKey(getSegmentId(file));
+            }
+            if (!isSegment) {
+              FileTree.deleteRecursively(file);
+            }
+          }
+        }
+        compact(true);
+      } catch (IOException ioe) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+            TAG,
+            "purgeUnexpectedResources: " + ioe.getMessage(),
+            ioe);
+      }
+    }
+  }
+
+  @Override
+  public DiskDumpInfo getDumpInfo() throws IOException {
+    ensureLoaded();
+    DiskDumpInfo dumpInfo = new DiskDumpInfo();
+    synchronized (this) {
+      for (PackEntry entry : mEntries.values()) {
+        FileRangeBinaryResource resource = entry.getResource();
+        dumpInfo.entries.add(
+            new DiskDumpInfoEntry(
+                resource.getFile().getPath() + "@" + resource.getOffset(),
+                "pack",
+                entry.getSize(),
+                ""));
+      }
+      if (!mEntries.isEmpty()) {
+        dumpInfo.typeCounts.put("pack", mEntries.size());
+      }
+    }
+    return dumpInfo;
+  }
+
+  @VisibleForTesting
+  int getSegmentCount() throws IOException {
+    ensureLoaded();
+    synchronized (this) {
+      return mSegments.size();
+    }
+  }
+
+  /** Builds the index from the segments on first use, without holding the instance lock. */
+  private void ensureLoaded() throws IOException {
+    if (mLoaded) {
+      return;
+    }
+    synchronized (mWriteLock) {
+      if (mLoaded) {
+        return;
+      }
+      File versionDirectory = getVersionDirectory();
+      try {
+        FileUtils.mkdirs(versionDirectory);
+      } catch (FileUtils.CreateDirectoryException cde) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.WRITE_CREATE_DIR,
+            TAG,
+            "ensureLoaded: " + versionDirectory,
+            cde);
+        throw cde;
+      }
+      Map<String, PackEntry> entries = new HashMap<>();
+      TreeMap<Integer, Segment> segments = new TreeMap<>();
+      File[] files = versionDirectory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          int segmentId = getSegmentId(file);
+          if (segmentId >= 0) {
+            segments.put(segmentId, new Segment(segmentId, file));
+          }
+        }
+      }
+      for (Segment segment : segments.values()) {
+        loadSegment(segment, entries, segments);
+      }
+      synchronized (this) {
+        mEntries.putAll(entries);
+        mSegments.putAll(segments);
+      }
+      mLoaded = true;
+    }
+  }
+
+  /** Replays the records of a segment, a torn record at the end of the segment is cut off. */
+  @GuardedBy("mWriteLock")
+  private void loadSegment(
+      Segment segment, Map<String, PackEntry> entries, Map<Integer, Segment> segments)
+      throws IOException {
+    long length = segment.mFile.length();
+    long offset = 0;
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(segment.mFile)));
+    try {
+      while (offset < length) {
+        if (in.readInt() != RECORD_MAGIC) {
+          throw new IOException("Bad record at " + offset);
+        }
+        long timestamp = in.readLong();
+        byte[] idBytes = new byte[in.readUnsignedShort()];
+        in.readFully(idBytes);
+        String resourceId = new String(idBytes, UTF_8);
+        int dataLength = in.readInt();
+        long recordSize;
+        if (dataLength == TOMBSTONE) {
+          int targetSegmentId = in.readInt();
+          long targetOffset = in.readLong();
+          recordSize = RECORD_HEADER_SIZE + idBytes.length + TOMBSTONE_BODY_SIZE;
+          PackEntry entry = entries.get(resourceId);
+          if (entry != null
+              && entry.mSegmentId == targetSegmentId
+              && entry.mRecordOffset == targetOffset) {
+            removeEntry(entries, segments, resourceId);
+          }
+          segment.mTombstones.add(new Tombstone(resourceId, targetSegmentId, targetOffset));
+        } else if (dataLength >= 0) {
+          recordSize = RECORD_HEADER_SIZE + idBytes.length + dataLength;
+          // skipping does not detect the end of the file
+          if (offset + recordSize > length) {
+            throw new EOFException();
+          }
+          skipFully(in, dataLength);
+          putEntry(
+              entries,
+              segments,
+              new PackEntry(
+                  resourceId,
+                  segment,
+                  offset,
+                  offset + RECORD_HEADER_SIZE + idBytes.length,
+                  dataLength,
+                  timestamp));
+        } else {
+          throw new IOException("Bad record length at " + offset);
+        }
+        offset += recordSize;
+      }
+    } catch (IOException ioe) {
+      // most likely the process died while appending, the records up to here are fine
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY,
+          TAG,
+          "loadSegment: truncating " + segment.mFile + " at " + offset,
+          ioe);
+      truncate(segment.mFile, offset);
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+    segment.mSize = offset;
+  }
+
+  @GuardedBy("mWriteLock")
+  private PackEntry appendResource(String resourceId, byte[] data, int length, long timestamp)
+      throws IOException {
+    byte[] idBytes = resourceId.getBytes(UTF_8);
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + idBytes.length);
+    header.putInt(RECORD_MAGIC);
+    header.putLong(timestamp);
+    header.putShort((short) idBytes.length);
+    header.put(idBytes);
+    header.putInt(length);
+    Segment segment = getSegmentForAppend(RECORD_HEADER_SIZE + idBytes.length + length);
+    long recordOffset = segment.mSize;
+    append(segment, header.array(), data, length);
+    PackEntry entry =
+        new PackEntry(
+            resourceId,
+            segment,
+            recordOffset,
+            recordOffset + RECORD_HEADER_SIZE + idBytes.length,
+            length,
+            timestamp);
+    synchronized (this) {
+      PackEntry previousEntry = mEntries.get(resourceId);
+      if (previousEntry != null && previousEntry.getTimestamp() > timestamp) {
+        // keep the accesses made while the record was copied by a compaction
+        entry = entry.withTimestamp(previousEntry.getTimestamp());
+      }
+      putEntry(mEntries, mSegments, entry);
+    }
+    return entry;
+  }
+
+  @GuardedBy("mWriteLock")
+  private void appendTombstone(String resourceId, int targetSegmentId, long targetOffset)
+      throws IOException {
+    byte[] idBytes = resourceId.getBytes(UTF_8);
+    int recordSize = RECORD_HEADER_SIZE + idBytes.length + TOMBSTONE_BODY_SIZE;
+    ByteBuffer record = ByteBuffer.allocate(recordSize);
+    record.putInt(RECORD_MAGIC);
+    record.putLong(mClock.now());
+    record.putShort((short) idBytes.length);
+    record.put(idBytes);
+    record.putInt(TOMBSTONE);
+    record.putInt(targetSegmentId);
+    record.putLong(targetOffset);
+    Segment segment = getSegmentForAppend(recordSize);
+    append(segment, record.array(), null, 0);
+    synchronized (this) {
+      segment.mTombstones.add(new Tombstone(resourceId, targetSegmentId, targetOffset));
+    }
+  }
+
+  /** Writes a record at the end of the segment, only taking the instance lock to account it. */
+  @GuardedBy("mWriteLock")
+  private void append(Segment segment, byte[] header, @Nullable byte[] data, int length)
+      throws IOException {
+    // only the appends change the size of the segments, and they hold the write lock
+    long offset = segment.mSize;
+    RandomAccessFile output = mOutput;
+    if (output == null) {
+      output = new RandomAccessFile(segment.mFile, "rw");
+      mOutput = output;
+    }
+    try {
+      output.seek(offset);
+      output.write(header);
+      if (data != null) {
+        output.write(data, 0, length);
+      }
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.WRITE_CREATE_TEMPFILE,
+          TAG,
+          "append: " + ioe.getMessage(),
+          ioe);
+      // drop the partial record, so that the next append starts at a record boundary
+      closeOutput();
+      truncate(segment.mFile, offset);
+      throw ioe;
+    }
+    synchronized (this) {
+      segment.mSize = offset + header.length + length;
+    }
+  }
+
+  /** Gets the last segment, or starts a new one if the record would not fit in it. */
+  @GuardedBy("mWriteLock")
+  private Segment getSegmentForAppend(long recordSize) {
+    Segment segment;
+    synchronized (this) {
+      Map.Entry<Integer, Segment> last = mSegments.lastEntry();
+      if (last != null
+          && (last.getValue().mSize == 0
+              || last.getValue().mSize + recordSize <= mMaxSegmentSize)) {
+        return last.getValue();
+      }
+      int segmentId = last != null ? last.getKey() + 1 : 0;
+      segment = new Segment(segmentId, new File(getVersionDirectory(), getSegmentName(segmentId)));
+      mSegments.put(segmentId, segment);
+    }
+    // the previous segment is not written to anymore
+    closeOutput();
+    return segment;
+  }
+
+  /** Compacts the older segments if their unreclaimed space passes the maximum ratio. */
+  @GuardedBy("mWriteLock")
+  private void maybeCompact() throws IOException {
+    boolean overRatio;
+    synchronized (this) {
+      overRatio = isOverUnreclaimedRatio();
+    }
+    if (overRatio) {
+      compact(false);
+    }
+  }
+
+  /**
+   * Copies the live records of the older segments to the last segment, then deletes them. The
+   * segments with the least live bytes are compacted first, until the unreclaimed space of the
+   * older segments falls below the maximum ratio.
+   *
+   * @param compactMostlyDead whether to also compact every older segment that is mostly dead
+   */
+  @GuardedBy("mWriteLock")
+  private void compact(boolean compactMostlyDead) throws IOException {
+    List<Segment> olderSegments;
+    synchronized (this) {
+      if (mSegments.isEmpty()) {
+        return;
+      }
+      olderSegments = new ArrayList<>(mSegments.headMap(mSegments.lastKey()).values());
+      Collections.sort(olderSegments, LIVE_RATIO_COMPARATOR);
+    }
+    for (Segment segment : olderSegments) {
+      boolean shouldCompact;
+      synchronized (this) {
+        shouldCompact =
+            isOverUnreclaimedRatio()
+                || (compactMostlyDead
+                    && (segment.mLiveSize == 0
+                        || segment.mLiveSize < COMPACTION_THRESHOLD * segment.mSize));
+      }
+      if (shouldCompact) {
+        compactSegment(segment);
+      }
+    }
+  }
+
+  @GuardedBy("mWriteLock")
+  private void compactSegment(Segment segment) throws IOException {
+    List<PackEntry> liveEntries = new ArrayList<>();
+    List<Tombstone> tombstones;
+    synchronized (this) {
+      for (PackEntry entry : mEntries.values()) {
+        if (entry.mSegmentId == segment.mId) {
+          liveEntries.add(entry);
+        }
+      }
+      tombstones = new ArrayList<>(segment.mTombstones);
+    }
+    if (!liveEntries.isEmpty()) {
+      RandomAccessFile input = new RandomAccessFile(segment.mFile, "r");
+      try {
+        for (PackEntry entry : liveEntries) {
+          byte[] data = new byte[(int) entry.getSize()];
+          input.seek(entry.mDataOffset);
+          input.readFully(data);
+          appendResource(entry.getId(), data, data.length, entry.getTimestamp());
+        }
+      } finally {
+        input.close();
+      }
+    }
+    // the tombstones of records that are still around must survive the segment
+    for (Tombstone tombstone : tombstones) {
+      boolean targetExists;
+      synchronized (this) {
+        targetExists = mSegments.containsKey(tombstone.mTargetSegmentId);
+      }
+      if (tombstone.mTargetSegmentId != segment.mId && targetExists) {
+        appendTombstone(
+            tombstone.mResourceId, tombstone.mTargetSegmentId, tombstone.mTargetOffset);
+      }
+    }
+    synchronized (this) {
+      mSegments.remove(segment.mId);
+    }
+    if (!segment.mFile.delete()) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
+          TAG,
+          "compactSegment: failed to delete " + segment.mFile,
+          null);
+    }
+  }
+
+  @GuardedBy("this")
+  private boolean isOverUnreclaimedRatio() {
+    if (mSegments.isEmpty()) {
+      return false;
+    }
+    long size = 0;
+    for (Segment segment : mSegments.values()) {
+      size += segment.mSize;
+    }
+    // the last segment is still written to, its space is only reclaimed once it is older
+    long unreclaimedSize = getUnreclaimedSize(mSegments.headMap(mSegments.lastKey()).values());
+    return unreclaimedSize > MAX_UNRECLAIMED_RATIO * size;
+  }
+
+  private static long getUnreclaimedSize(Collection<Segment> segments) {
+    long unreclaimedSize = 0;
+    for (Segment segment : segments) {
+      unreclaimedSize += segment.mSize - segment.mLiveSize;
+    }
+    return unreclaimedSize;
+  }
+
+  private static void putEntry(
+      Map<String, PackEntry> entries, Map<Integer, Segment> segments, PackEntry entry) {
+    removeEntry(entries, segments, entry.getId());
+    entries.put(entry.getId(), entry);
+    Preconditions.checkNotNull(segments.get(entry.mSegmentId)).mLiveSize += entry.mRecordSize;
+  }
+
+  private static void removeEntry(
+      Map<String, PackEntry> entries, Map<Integer, Segment> segments, String resourceId) {
+    PackEntry entry = entries.remove(resourceId);
+    if (entry != null) {
+      Segment segment = segments.get(entry.mSegmentId);
+      if (segment != null) {
+        segment.mLiveSize -= entry.mRecordSize;
+      }
+    }
+  }
+
+  @GuardedBy("mWriteLock")
+  private void closeOutput() {
+    if (mOutput != null) {
+      try {
+        Closeables.close(mOutput, true);
+      } catch (IOException ioe) {
+        // does not happen, exceptions are swallowed
+      }
+      mOutput = null;
+    }
+  }
+
+  private void truncate(File file, long length) {
+    try {
+      RandomAccessFile output = new RandomAccessFile(file, "rw");
+      try {
+        output.setLength(length);
+      } finally {
+        output.close();
+      }
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+          TAG,
+          "truncate: " + file,
+          ioe);
+    }
+  }
+
+  private static void skipFully(DataInputStream in, int length) throws IOException {
+    int skipped = 0;
+    while (skipped < length) {
+      int count = in.skipBytes(length - skipped);
+      if (count <= 0) {
+        throw new EOFException();
+      }
+      skipped += count;
+    }
+  }
+
+  private static String getSegmentName(int segmentId) {
+    return String.format((Locale) null, "%s%d%s", SEGMENT_FILE_PREFIX, segmentId,
+        SEGMENT_FILE_EXTENSION);
+  }
+
+  /** @return the id of the segment stored in the file, or -1 if it is not a segment */
+  private static int getSegmentId(File file) {
+    String name = file.getName();
+    if (!file.isFile()
+        || !name.startsWith(SEGMENT_FILE_PREFIX)
+        || !name.endsWith(SEGMENT_FILE_EXTENSION)) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(
+          name.substring(
+              SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_EXTENSION.length()));
+    } catch (NumberFormatException nfe) {
+      return -1;
+    }
+  }
+
+  // the segments with the lowest ratio of live bytes come first
+  private static final Comparator<Segment> LIVE_RATIO_COMPARATOR =
+      new Comparator<Segment>() {
+        @Override
+        public int compare(Segment lhs, Segment rhs) {
+          return Double.compare(getLiveRatio(lhs), getLiveRatio(rhs));
+        }
+
+        private double getLiveRatio(Segment segment) {
+          return segment.mSize == 0 ? 1 : (double) segment.mLiveSize / segment.mSize;
+        }
+      };
+
+  private static class Segment {
+    private final int mId;
+    private final File mFile;
+    private final List<Tombstone> mTombstones = new ArrayList<>();
+    // bytes written, and bytes of the records that are still in use, guarded by the storage
+    private long mSize;
+    private long mLiveSize;
+
+    private Segment(int id, File file) {
+      mId = id;
+      mFile = file;
+    }
+  }
+
+  private static class Tombstone {
+    private final String mResourceId;
+    private final int mTargetSegmentId;
+    private final long mTargetOffset;
+
+    private Tombstone(String resourceId, int targetSegmentId, long targetOffset) {
+      mResourceId = resourceId;
+      mTargetSegmentId = targetSegmentId;
+      mTargetOffset = targetOffset;
+    }
+  }
+
+  /** An entry of the storage, immutable. */
+  @VisibleForTesting
+  static class PackEntry implements Entry {
+    private final String mId;
+    private final int mSegmentId;
+    private final long mRecordOffset;
+    private final long mRecordSize;
+    private final long mDataOffset;
+    private final long mTimestamp;
+    private final FileRangeBinaryResource mResource;
+
+    private PackEntry(
+        String id,
+        Segment segment,
+        long recordOffset,
+        long dataOffset,
+        int length,
+        long timestamp) {
+      this(
+          id,
+          segment.mId,
+          recordOffset,
+          dataOffset - recordOffset + length,
+          dataOffset,
+          timestamp,
+          new FileRangeBinaryResource(segment.mFile, dataOffset, length));
+    }
+
+    private PackEntry(
+        String id,
+        int segmentId,
+        long recordOffset,
+        long recordSize,
+        long dataOffset,
+        long timestamp,
+        FileRangeBinaryResource resource) {
+      mId = id;
+      mSegmentId = segmentId;
+      mRecordOffset = recordOffset;
+      mRecordSize = recordSize;
+      mDataOffset = dataOffset;
+      mTimestamp = timestamp;
+      mResource = resource;
+    }
+
+    private PackEntry withTimestamp(long timestamp) {
+      return new PackEntry(
+          mId, mSegmentId, mRecordOffset, mRecordSize, mDataOffset, timestamp, mResource);
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mResource.size();
+    }
+
+    @Override
+    public FileRangeBinaryResource getResource() {
+      return mResource;
+    }
+  }
+
+  /** Buffers the resource in memory, it only touches the segment when committed. */
+  private class InserterImpl implements Inserter {
+    private final String mResourceId;
+    private final ResourceBuffer mBuffer = new ResourceBuffer();
+
+    private InserterImpl(String resourceId) {
+      mResourceId = resourceId;
+    }
+
+    @Override
+    public void writeData(WriterCallback callback, Object debugInfo) throws IOException {
+      mBuffer.reset();
+      callback.write(mBuffer);
+    }
+
+    @Override
+    public BinaryResource commit(Object debugInfo) throws IOException {
+      return PackFileDiskStorage.this.commit(
+          mResourceId, mBuffer.getBuffer(), mBuffer.size());
+    }
+
+    @Override
+    public boolean cleanUp() {
+      return true;
+    }
+  }
+
+  /** Gives access to the buffered bytes without copying them. */
+  static class ResourceBuffer extends ByteArrayOutputStream {
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
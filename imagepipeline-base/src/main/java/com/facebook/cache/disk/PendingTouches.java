@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Access times of the resources of a {@link DefaultDiskStorage} that have not been written to the
+ * filesystem yet.
+ *
+ * <p> Repeated accesses to the same resource are coalesced into the latest one. A flush is
+ * requested once the batch is full, or on the first access after the oldest pending access has
+ * waited for longer than the maximum staleness. Only one flush is requested at a time.
+ */
+@ThreadSafe
+class PendingTouches {
+
+  private final int mMaxBatchSize;
+  private final long mMaxStalenessMs;
+
+  @GuardedBy("this")
+  private Map<String, Long> mTouches = new HashMap<>();
+
+  @GuardedBy("this")
+  private long mOldestTouchTime;
+
+  @GuardedBy("this")
+  private boolean mFlushRequested;
+
+  PendingTouches(int maxBatchSize, long maxStalenessMs) {
+    mMaxBatchSize = maxBatchSize;
+    mMaxStalenessMs = maxStalenessMs;
+  }
+
+  /**
+   * Records an access.
+   *
+   * @return true if the caller must flush the pending accesses
+   */
+  synchronized boolean add(String resourceId, long timestamp) {
+    if (mTouches.isEmpty()) {
+      mOldestTouchTime = timestamp;
+    }
+    mTouches.put(resourceId, timestamp);
+    if (mFlushRequested) {
+      return false;
+    }
+    mFlushRequested =
+        mTouches.size() >= mMaxBatchSize || timestamp - mOldestTouchTime >= mMaxStalenessMs;
+    return mFlushRequested;
+  }
+
+  /** Discards the pending access of a resource, e.g. because it has been removed or rewritten. */
+  synchronized void remove(String resourceId) {
+    mTouches.remove(resourceId);
+  }
+
+  /** Takes all the pending accesses, the next ones start a new batch. */
+  synchronized Map<String, Long> drain() {
+    Map<String, Long> touches = mTouches;
+    mTouches = new HashMap<>();
+    mFlushRequested = false;
+    return touches;
+  }
+
+  synchronized int size() {
+    return mTouches.size();
+  }
+}
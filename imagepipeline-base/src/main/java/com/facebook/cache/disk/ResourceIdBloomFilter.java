@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bloom filter of resource ids. It can tell for sure that an id has never been added, and
+ * otherwise that it probably has.
+ *
+ * <p> Ids cannot be removed, so the filter only grows less precise as resources are evicted and
+ * added; it is meant to be rebuilt from time to time. With the expected number of ids, about 1% of
+ * the lookups of absent ids report a false positive.
+ */
+@ThreadSafe
+class ResourceIdBloomFilter {
+
+  private static final int BITS_PER_ID = 10;
+  private static final int HASH_COUNT = 7;
+  private static final int MIN_EXPECTED_IDS = 1024;
+  private static final int MAX_WORDS = 1 << 24;
+
+  private final AtomicLongArray mWords;
+  private final int mBitCount;
+
+  /** @param expectedIds the number of ids expected to be added */
+  ResourceIdBloomFilter(int expectedIds) {
+    long bitCount = (long) Math.max(expectedIds, MIN_EXPECTED_IDS) * BITS_PER_ID;
+    int wordCount = (int) Math.min((bitCount + 63) / 64, MAX_WORDS);
+    mWords = new AtomicLongArray(wordCount);
+    mBitCount = wordCount * 64;
+  }
+
+  void add(String resourceId) {
+    int hash1 = resourceId.hashCode();
+    int hash2 = mix(hash1);
+    for (int i = 0; i < HASH_COUNT; i++) {
+      int bit = bitOf(hash1, hash2, i);
+      int index = bit >>> 6;
+      long mask = 1L << bit;
+      long word = mWords.get(index);
+      while ((word & mask) == 0 && !mWords.compareAndSet(index, word, word | mask)) {
+        word = mWords.get(index);
+      }
+    }
+  }
+
+  /** Returns false if the id has never been added, true if it probably has. */
+  boolean mightContain(String resourceId) {
+    int hash1 = resourceId.hashCode();
+    int hash2 = mix(hash1);
+    for (int i = 0; i < HASH_COUNT; i++) {
+      int bit = bitOf(hash1, hash2, i);
+      if ((mWords.get(bit >>> 6) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int bitOf(int hash1, int hash2, int i) {
+    return ((hash1 + i * hash2) & Integer.MAX_VALUE) % mBitCount;
+  }
+
+  private static int mix(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    // never a zero step, which would test the same bit every time
+    return ((x >>> 16) ^ x) | 1;
+  }
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.cache.common.ResourceIdScheme;
+
+/**
+ * Optional capability of a {@link DiskStorage} that stores its resources under the ids of a given
+ * {@link ResourceIdScheme}. {@link DiskStorageCache} derives the ids of the keys with the scheme of
+ * its storage, the ids of the other storages are SHA-1 hashes.
+ */
+public interface ResourceIdSchemeStorage {
+
+  /** Gets the scheme of the ids of the resources, which is part of the version of the storage. */
+  @ResourceIdScheme
+  int getResourceIdScheme();
+}
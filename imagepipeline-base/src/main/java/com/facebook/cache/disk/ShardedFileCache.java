@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.MultiCacheKey;
+import com.facebook.cache.common.ResourceIdScheme;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.util.MurmurHashUtil;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * {@link FileCache} that spreads the resources over several caches, typically each one on its own
+ * volume. Each shard keeps its own lock, size limit and eviction, so that the reads and writes of
+ * different shards run in parallel.
+ *
+ * <p> The resources are assigned to the shards by consistent hashing of their resource id: adding
+ * a shard at the end of the list only moves the resources it takes over. The order of the shards
+ * must not change otherwise, the resources that move become unreachable until they are evicted.
+ *
+ * <p> The resource of a {@link MultiCacheKey} is written to the shard of its first key, and
+ * looked up in the shards of all its keys.
+ */
+public class ShardedFileCache implements BatchingFileCache {
+
+  // points of each shard on the hash ring, more points spread the resources more evenly
+  @VisibleForTesting static final int POINTS_PER_SHARD = 64;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final List<FileCache> mShards;
+  private final @ResourceIdScheme int mResourceIdScheme;
+
+  // the ring, sorted by point
+  private final long[] mRingPoints;
+  private final int[] mRingShards;
+
+  /**
+   * @param shards the caches to spread the resources over
+   * @param resourceIdScheme the scheme of the resource ids of the shards
+   */
+  public ShardedFileCache(List<FileCache> shards, @ResourceIdScheme int resourceIdScheme) {
+    Preconditions.checkArgument(!shards.isEmpty() && shards.size() <= 0xffff);
+    mShards = new ArrayList<>(shards);
+    mResourceIdScheme = resourceIdScheme;
+
+    final int pointCount = mShards.size() * POINTS_PER_SHARD;
+    long[] points = new long[pointCount];
+    for (int shard = 0; shard < mShards.size(); shard++) {
+      for (int i = 0; i < POINTS_PER_SHARD; i++) {
+        // the low bits tell the shard apart once the points are sorted
+        points[shard * POINTS_PER_SHARD + i] =
+            (hash("shard-" + shard + "-" + i) & ~0xffffL) | shard;
+      }
+    }
+    Arrays.sort(points);
+    mRingPoints = points;
+    mRingShards = new int[pointCount];
+    for (int i = 0; i < pointCount; i++) {
+      mRingShards[i] = (int) (points[i] & 0xffff);
+    }
+  }
+
+  @Override
+  public boolean isEnabled() {
+    for (int i = 0; i < mShards.size(); i++) {
+      if (mShards.get(i).isEnabled()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public @Nullable BinaryResource getResource(CacheKey key) {
+    List<FileCache> shards = getShards(key);
+    for (int i = 0; i < shards.size(); i++) {
+      BinaryResource resource = shards.get(i).getResource(key);
+      if (resource != null) {
+        return resource;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean hasKeySync(CacheKey key) {
+    List<FileCache> shards = getShards(key);
+    for (int i = 0; i < shards.size(); i++) {
+      if (shards.get(i).hasKeySync(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isMissingSync(CacheKey key) {
+    List<FileCache> shards = getShards(key);
+    for (int i = 0; i < shards.size(); i++) {
+      FileCache shard = shards.get(i);
+      // the other caches cannot tell a missing key
+      if (!(shard instanceof BatchingFileCache)
+          || !((BatchingFileCache) shard).isMissingSync(key)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean hasKey(CacheKey key) {
+    List<FileCache> shards = getShards(key);
+    for (int i = 0; i < shards.size(); i++) {
+      if (shards.get(i).hasKey(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean probe(CacheKey key) {
+    List<FileCache> shards = getShards(key);
+    for (int i = 0; i < shards.size(); i++) {
+      if (shards.get(i).probe(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public BinaryResource insert(CacheKey key, WriterCallback writer) throws IOException {
+    return mShards.get(getShardIndex(firstKey(key))).insert(key, writer);
+  }
+
+  @Override
+  public List<BinaryResource> insert(List<CacheKey> keys, List<WriterCallback> writers) {
+    Preconditions.checkArgument(keys.size() == writers.size());
+    // one batch per shard
+    List<List<Integer>> shardPositions = new ArrayList<>(mShards.size());
+    for (int i = 0; i < mShards.size(); i++) {
+      shardPositions.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      shardPositions.get(getShardIndex(firstKey(keys.get(i)))).add(i);
+    }
+    BinaryResource[] resources = new BinaryResource[keys.size()];
+    for (int shard = 0; shard < mShards.size(); shard++) {
+      List<Integer> positions = shardPositions.get(shard);
+      if (positions.isEmpty()) {
+        continue;
+      }
+      List<CacheKey> shardKeys = new ArrayList<>(positions.size());
+      List<WriterCallback> shardWriters = new ArrayList<>(positions.size());
+      for (int i = 0; i < positions.size(); i++) {
+        shardKeys.add(keys.get(positions.get(i)));
+        shardWriters.add(writers.get(positions.get(i)));
+      }
+      List<BinaryResource> shardResources = insert(mShards.get(shard), shardKeys, shardWriters);
+      for (int i = 0; i < positions.size(); i++) {
+        resources[positions.get(i)] = shardResources.get(i);
+      }
+    }
+    return Arrays.asList(resources);
+  }
+
+  @Override
+  public void remove(CacheKey key) {
+    List<FileCache> shards = getShards(key);
+    for (int i = 0; i < shards.size(); i++) {
+      shards.get(i).remove(key);
+    }
+  }
+
+  @Override
+  public long getSize() {
+    long size = 0;
+    for (int i = 0; i < mShards.size(); i++) {
+      size += mShards.get(i).getSize();
+    }
+    return size;
+  }
+
+  @Override
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < mShards.size(); i++) {
+      count += mShards.get(i).getCount();
+    }
+    return count;
+  }
+
+  @Override
+  public long clearOldEntries(long cacheExpirationMs) {
+    long oldestRemainingEntryAgeMs = 0L;
+    for (int i = 0; i < mShards.size(); i++) {
+      oldestRemainingEntryAgeMs =
+          Math.max(oldestRemainingEntryAgeMs, mShards.get(i).clearOldEntries(cacheExpirationMs));
+    }
+    return oldestRemainingEntryAgeMs;
+  }
+
+  @Override
+  public void clearAll() {
+    for (int i = 0; i < mShards.size(); i++) {
+      mShards.get(i).clearAll();
+    }
+  }
+
+  @Override
+  public DiskStorage.DiskDumpInfo getDumpInfo() throws IOException {
+    DiskStorage.DiskDumpInfo dumpInfo = new DiskStorage.DiskDumpInfo();
+    for (int i = 0; i < mShards.size(); i++) {
+      DiskStorage.DiskDumpInfo shardDumpInfo = mShards.get(i).getDumpInfo();
+      dumpInfo.entries.addAll(shardDumpInfo.entries);
+      for (Map.Entry<String, Integer> typeCount : shardDumpInfo.typeCounts.entrySet()) {
+        Integer count = dumpInfo.typeCounts.get(typeCount.getKey());
+        dumpInfo.typeCounts.put(
+            typeCount.getKey(), (count != null ? count : 0) + typeCount.getValue());
+      }
+    }
+    return dumpInfo;
+  }
+
+  @Override
+  public void trimToMinimum() {
+    for (int i = 0; i < mShards.size(); i++) {
+      mShards.get(i).trimToMinimum();
+    }
+  }
+
+  @Override
+  public void trimToNothing() {
+    for (int i = 0; i < mShards.size(); i++) {
+      mShards.get(i).trimToNothing();
+    }
+  }
+
+  /** Inserts a batch into the shard, one resource at a time if it cannot batch them. */
+  private static List<BinaryResource> insert(
+      FileCache shard, List<CacheKey> keys, List<WriterCallback> writers) {
+    if (shard instanceof BatchingFileCache) {
+      return ((BatchingFileCache) shard).insert(keys, writers);
+    }
+    List<BinaryResource> resources = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      BinaryResource resource = null;
+      try {
+        resource = shard.insert(keys.get(i), writers.get(i));
+      } catch (IOException ioe) {
+        // the other resources of the batch are still written
+      }
+      resources.add(resource);
+    }
+    return resources;
+  }
+
+  /** Returns the shards that may have the resource of the key, the one it is written to first. */
+  private List<FileCache> getShards(CacheKey key) {
+    if (!(key instanceof MultiCacheKey)) {
+      return Collections.singletonList(mShards.get(getShardIndex(key)));
+    }
+    List<CacheKey> keys = ((MultiCacheKey) key).getCacheKeys();
+    List<FileCache> shards = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      FileCache shard = mShards.get(getShardIndex(keys.get(i)));
+      if (!shards.contains(shard)) {
+        shards.add(shard);
+      }
+    }
+    return shards;
+  }
+
+  @VisibleForTesting
+  int getShardIndex(CacheKey key) {
+    final long hash = hash(CacheKeyUtil.getFirstResourceId(key, mResourceIdScheme));
+    int index = Arrays.binarySearch(mRingPoints, hash);
+    if (index < 0) {
+      // the first point after the hash
+      index = -index - 1;
+    }
+    return mRingShards[index < mRingPoints.length ? index : 0];
+  }
+
+  private static CacheKey firstKey(CacheKey key) {
+    return key instanceof MultiCacheKey ? ((MultiCacheKey) key).getCacheKeys().get(0) : key;
+  }
+
+  private static long hash(String value) {
+    byte[] hash = MurmurHashUtil.makeMurmur3Hash128(value.getBytes(UTF_8));
+    long h = 0;
+    for (int i = 7; i >= 0; i--) {
+      h = (h << 8) | (hash[i] & 0xffL);
+    }
+    return h;
+  }
+}
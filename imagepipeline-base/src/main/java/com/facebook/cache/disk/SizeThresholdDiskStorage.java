@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.ResourceIdScheme;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.internal.Preconditions;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Disk storage that keeps the small resources in a {@link PackFileDiskStorage}, and the other
+ * ones in a regular storage.
+ *
+ * <p> The size of a resource is only known once it has been written, so the inserter buffers the
+ * content in memory up to the threshold. Once the content grows past the threshold, the buffered
+ * bytes and the rest of the content are streamed to the regular storage, if its inserters support
+ * it. A resource moved from one storage to the other by a rewrite is removed from the storage it
+ * was in.
+ */
+public class SizeThresholdDiskStorage
+    implements DiskStorage, CompactingDiskStorage, ResourceIdSchemeStorage {
+
+  private final PackFileDiskStorage mSmallResourceStorage;
+  private final DiskStorage mLargeResourceStorage;
+  private final int mSizeThreshold;
+
+  /**
+   * @param smallResourceStorage storage of the resources of up to sizeThreshold bytes
+   * @param largeResourceStorage storage of the bigger resources
+   * @param sizeThreshold the size in bytes of the biggest resource kept with the small ones
+   * @throws IllegalArgumentException if the two storages use different resource id schemes
+   */
+  public SizeThresholdDiskStorage(
+      PackFileDiskStorage smallResourceStorage,
+      DiskStorage largeResourceStorage,
+      int sizeThreshold) {
+    Preconditions.checkArgument(sizeThreshold > 0);
+    mSmallResourceStorage = Preconditions.checkNotNull(smallResourceStorage);
+    mLargeResourceStorage = Preconditions.checkNotNull(largeResourceStorage);
+    Preconditions.checkArgument(
+        smallResourceStorage.getResourceIdScheme()
+            == DiskStorageCache.getResourceIdScheme(largeResourceStorage));
+    mSizeThreshold = sizeThreshold;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return mLargeResourceStorage.isEnabled() && mSmallResourceStorage.isEnabled();
+  }
+
+  @Override
+  public @ResourceIdScheme int getResourceIdScheme() {
+    return mSmallResourceStorage.getResourceIdScheme();
+  }
+
+  @Override
+  public boolean isExternal() {
+    return mLargeResourceStorage.isExternal();
+  }
+
+  @Override
+  public String getStorageName() {
+    return mLargeResourceStorage.getStorageName();
+  }
+
+  @Override
+  public @Nullable BinaryResource getResource(String resourceId, Object debugInfo)
+      throws IOException {
+    BinaryResource resource = mSmallResourceStorage.getResource(resourceId, debugInfo);
+    return resource != null
+        ? resource
+        : mLargeResourceStorage.getResource(resourceId, debugInfo);
+  }
+
+  @Override
+  public boolean contains(String resourceId, Object debugInfo) throws IOException {
+    return mSmallResourceStorage.contains(resourceId, debugInfo)
+        || mLargeResourceStorage.contains(resourceId, debugInfo);
+  }
+
+  @Override
+  public boolean touch(String resourceId, Object debugInfo) throws IOException {
+    return mSmallResourceStorage.touch(resourceId, debugInfo)
+        || mLargeResourceStorage.touch(resourceId, debugInfo);
+  }
+
+  @Override
+  public void purgeUnexpectedResources() {
+    mSmallResourceStorage.purgeUnexpectedResources();
+    mLargeResourceStorage.purgeUnexpectedResources();
+  }
+
+  @Override
+  public Inserter insert(String resourceId, Object debugInfo) throws IOException {
+    return new InserterImpl(resourceId);
+  }
+
+  @Override
+  public long getUnreclaimedSize() throws IOException {
+    return mSmallResourceStorage.getUnreclaimedSize();
+  }
+
+  @Override
+  public List<Entry> getEntries() throws IOException {
+    List<Entry> entries = new ArrayList<>(mSmallResourceStorage.getEntries());
+    entries.addAll(mLargeResourceStorage.getEntries());
+    return Collections.unmodifiableList(entries);
+  }
+
+  @Override
+  public long remove(Entry entry) throws IOException {
+    return entry instanceof PackFileDiskStorage.PackEntry
+        ? mSmallResourceStorage.remove(entry)
+        : mLargeResourceStorage.remove(entry);
+  }
+
+  @Override
+  public long remove(String resourceId) throws IOException {
+    long smallRemovedSize = mSmallResourceStorage.remove(resourceId);
+    long largeRemovedSize = mLargeResourceStorage.remove(resourceId);
+    if (smallRemovedSize < 0 || largeRemovedSize < 0) {
+      return -1;
+    }
+    return smallRemovedSize + largeRemovedSize;
+  }
+
+  @Override
+  public void clearAll() throws IOException {
+    mSmallResourceStorage.clearAll();
+    mLargeResourceStorage.clearAll();
+  }
+
+  @Override
+  public DiskDumpInfo getDumpInfo() throws IOException {
+    DiskDumpInfo dumpInfo = mLargeResourceStorage.getDumpInfo();
+    DiskDumpInfo smallDumpInfo = mSmallResourceStorage.getDumpInfo();
+    dumpInfo.entries.addAll(smallDumpInfo.entries);
+    for (Map.Entry<String, Integer> typeCount : smallDumpInfo.typeCounts.entrySet()) {
+      Integer count = dumpInfo.typeCounts.get(typeCount.getKey());
+      dumpInfo.typeCounts.put(
+          typeCount.getKey(), (count != null ? count : 0) + typeCount.getValue());
+    }
+    return dumpInfo;
+  }
+
+  private class InserterImpl implements Inserter {
+    private final String mResourceId;
+    private final PackFileDiskStorage.ResourceBuffer mBuffer =
+        new PackFileDiskStorage.ResourceBuffer();
+    // created once the content grows past the threshold
+    private @Nullable Inserter mLargeResourceInserter;
+    private boolean mLargeResourceStreamed;
+
+    private InserterImpl(String resourceId) {
+      mResourceId = resourceId;
+    }
+
+    @Override
+    public void writeData(WriterCallback callback, Object debugInfo) throws IOException {
+      cleanUp();
+      mBuffer.reset();
+      ThresholdOutputStream stream = new ThresholdOutputStream(debugInfo);
+      try {
+        callback.write(stream);
+      } finally {
+        stream.close();
+      }
+    }
+
+    @Override
+    public BinaryResource commit(Object debugInfo) throws IOException {
+      Inserter largeResourceInserter = mLargeResourceInserter;
+      if (largeResourceInserter == null) {
+        BinaryResource resource =
+            mSmallResourceStorage.commit(mResourceId, mBuffer.getBuffer(), mBuffer.size());
+        mLargeResourceStorage.remove(mResourceId);
+        return resource;
+      }
+      if (!mLargeResourceStreamed) {
+        // the regular storage could not take a stream, the whole content got buffered
+        largeResourceInserter.writeData(
+            new WriterCallback() {
+              @Override
+              public void write(OutputStream os) throws IOException {
+                mBuffer.writeTo(os);
+              }
+            },
+            debugInfo);
+      }
+      BinaryResource resource = largeResourceInserter.commit(debugInfo);
+      mSmallResourceStorage.remove(mResourceId);
+      return resource;
+    }
+
+    @Override
+    public boolean cleanUp() {
+      Inserter largeResourceInserter = mLargeResourceInserter;
+      mLargeResourceInserter = null;
+      mLargeResourceStreamed = false;
+      return largeResourceInserter == null || largeResourceInserter.cleanUp();
+    }
+
+    /** Buffers the content up to the threshold, then forwards it to the regular storage. */
+    private class ThresholdOutputStream extends OutputStream {
+      private final Object mDebugInfo;
+      private @Nullable OutputStream mLargeResourceStream;
+
+      private ThresholdOutputStream(Object debugInfo) {
+        mDebugInfo = debugInfo;
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+        getStreamFor(1).write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        getStreamFor(len).write(b, off, len);
+      }
+
+      @Override
+      public void flush() throws IOException {
+        if (mLargeResourceStream != null) {
+          mLargeResourceStream.flush();
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (mLargeResourceStream != null) {
+          mLargeResourceStream.close();
+          mLargeResourceStream = null;
+        }
+      }
+
+      private OutputStream getStreamFor(int length) throws IOException {
+        if (mLargeResourceStream != null) {
+          return mLargeResourceStream;
+        }
+        if (mLargeResourceInserter == null && mBuffer.size() + length > mSizeThreshold) {
+          Inserter largeResourceInserter = mLargeResourceStorage.insert(mResourceId, mDebugInfo);
+          mLargeResourceInserter = largeResourceInserter;
+          if (largeResourceInserter instanceof StreamingInserter) {
+            OutputStream stream = ((StreamingInserter) largeResourceInserter).openStream();
+            mLargeResourceStream = stream;
+            mLargeResourceStreamed = true;
+            mBuffer.writeTo(stream);
+            mBuffer.reset();
+            return stream;
+          }
+        }
+        return mBuffer;
+      }
+    }
+  }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Optional capability of a {@link DiskStorage.Inserter} that lets the content be written through a
+ * stream, in place of {@link DiskStorage.Inserter#writeData}. This lets a storage that delegates to
+ * another one start forwarding the content before it has all been written.
+ */
+interface StreamingInserter extends DiskStorage.Inserter {
+
+  /**
+   * Opens the stream the content is written to. It must be closed before the inserter is committed.
+   */
+  OutputStream openStream() throws IOException;
+}
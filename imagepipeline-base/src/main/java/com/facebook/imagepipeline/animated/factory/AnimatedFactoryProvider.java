@@ -8,7 +8,7 @@ package com.facebook.imagepipeline.animated.factory;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
-import com.facebook.imagepipeline.cache.CountingMemoryCache;
+import com.facebook.imagepipeline.cache.CountingCache;
 import com.facebook.imagepipeline.core.ExecutorSupplier;
 import com.facebook.imagepipeline.image.CloseableImage;
 import java.lang.reflect.Constructor;
@@ -22,7 +22,7 @@ public class AnimatedFactoryProvider {
   public static AnimatedFactory getAnimatedFactory(
       PlatformBitmapFactory platformBitmapFactory,
       ExecutorSupplier executorSupplier,
-      CountingMemoryCache<CacheKey, CloseableImage> backingCache,
+      CountingCache<CacheKey, CloseableImage> backingCache,
       boolean downscaleFrameToDrawableDimensions) {
     if (!sImplLoaded) {
       try {
@@ -32,7 +32,7 @@ public class AnimatedFactoryProvider {
             clazz.getConstructor(
                 PlatformBitmapFactory.class,
                 ExecutorSupplier.class,
-                CountingMemoryCache.class,
+                CountingCache.class,
                 Boolean.TYPE);
         sImpl =
             (AnimatedFactory)
@@ -11,6 +11,7 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.image.CloseableImage;
+import javax.annotation.Nullable;
 
 public class BitmapCountingMemoryCacheFactory {
 
@@ -28,19 +29,67 @@ public class BitmapCountingMemoryCacheFactory {
      MemoryTrimmableRegistry memoryTrimmableRegistry,
      CountingMemoryCache.CacheTrimStrategy trimStrategy) {
 
-    ValueDescriptor<CloseableImage> valueDescriptor =
-        new ValueDescriptor<CloseableImage>() {
-          @Override
-          public int getSizeInBytes(CloseableImage value) {
-            return value.getSizeInBytes();
-          }
-        };
-
     CountingMemoryCache<CacheKey, CloseableImage> countingCache =
-        new CountingMemoryCache<>(valueDescriptor, trimStrategy, bitmapMemoryCacheParamsSupplier);
+        new CountingMemoryCache<>(
+            newValueDescriptor(), trimStrategy, bitmapMemoryCacheParamsSupplier);
+
+     memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
+
+    return countingCache;
+  }
+
+  public static CountingCache<CacheKey, CloseableImage> get(
+      Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+      MemoryTrimmableRegistry memoryTrimmableRegistry,
+      CountingMemoryCache.CacheTrimStrategy trimStrategy,
+      int segmentCount) {
+    return get(
+        bitmapMemoryCacheParamsSupplier,
+        memoryTrimmableRegistry,
+        trimStrategy,
+        segmentCount,
+        null);
+  }
+
+  /**
+   * Creates the bitmap counting memory cache.
+   *
+   * @param segmentCount number of independently locked segments, 1 creates a plain
+   *     {@link CountingMemoryCache} and anything larger a {@link SegmentedCountingMemoryCache}
+   * @param admissionPolicy the admission policy, or null to admit every entry and evict in pure
+   *     LRU order
+   */
+  public static CountingCache<CacheKey, CloseableImage> get(
+      Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+      MemoryTrimmableRegistry memoryTrimmableRegistry,
+      CountingMemoryCache.CacheTrimStrategy trimStrategy,
+      int segmentCount,
+      @Nullable CountingMemoryCache.CacheAdmissionPolicy<CacheKey> admissionPolicy) {
+
+    ValueDescriptor<CloseableImage> valueDescriptor = newValueDescriptor();
+
+    CountingCache<CacheKey, CloseableImage> countingCache =
+        segmentCount > 1
+            ? new SegmentedCountingMemoryCache<>(
+                valueDescriptor,
+                trimStrategy,
+                bitmapMemoryCacheParamsSupplier,
+                segmentCount,
+                admissionPolicy)
+            : new CountingMemoryCache<>(
+                valueDescriptor, trimStrategy, bitmapMemoryCacheParamsSupplier, admissionPolicy);
 
      memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
 
     return countingCache;
   }
+
+  private static ValueDescriptor<CloseableImage> newValueDescriptor() {
+    return new ValueDescriptor<CloseableImage>() {
+      @Override
+      public int getSizeInBytes(CloseableImage value) {
+        return value.getSizeInBytes();
+      }
+    };
+  }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.memory.MemoryTrimmable;
+import com.facebook.common.references.CloseableReference;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A memory cache that counts the clients of its items and only evicts the exclusively owned ones,
+ * i.e. the items not referenced by any client. Implemented by a single {@link CountingMemoryCache}
+ * and by a {@link SegmentedCountingMemoryCache} spreading the items over several of them.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public interface CountingCache<K, V>
+    extends MemoryCache<K, V>, GroupedMemoryCache<K, V>, MemoryTrimmable {
+
+  /**
+   * Caches the given key-value pair.
+   *
+   * <p>Important: the client should use the returned reference instead of the original one. It is
+   * the caller's responsibility to close the returned reference once not needed anymore.
+   *
+   * @return the new reference to be used, null if the value cannot be cached
+   */
+  @Nullable
+  CloseableReference<V> cache(
+      K key,
+      CloseableReference<V> valueRef,
+      @Nullable CountingMemoryCache.EntryStateObserver<K> observer);
+
+  /**
+   * Gets the value with the given key to be reused, or null if there is no such value.
+   *
+   * <p> The item can be reused only if it is exclusively owned by the cache.
+   */
+  @Nullable
+  CloseableReference<V> reuse(K key);
+
+  /** Removes all the items from the cache. */
+  void clear();
+
+  /**
+   * Gets the keys of up to {@code maxCount} cached items, the most frequently retrieved first.
+   * Items retrieved equally often are ordered from the most recently to the least recently cached.
+   */
+  List<K> getHottestKeys(int maxCount);
+
+  /**
+   * Sets the releaser the evicted references are handed to, so that the bitmaps or the memory
+   * they hold are freed off the calling thread. Pass null to close them synchronously again.
+   */
+  void setDeferredReferenceReleaser(@Nullable DeferredReferenceReleaser referenceReleaser);
+
+  /**
+   * Attaches a tracker that estimates the hit ratios this cache would achieve with smaller or
+   * bigger budgets. Pass null to detach the current tracker.
+   */
+  void setShadowCacheTracker(@Nullable ShadowCacheTracker<K> shadowCacheTracker);
+
+  /**
+   * Sets the grouper the keys are indexed by for {@link #getMatchingInGroup}. The items already
+   * cached are indexed right away. Pass null to drop the index.
+   */
+  void setKeyGrouper(@Nullable KeyGrouper<K> keyGrouper);
+
+  /** Gets the cache params (constraints) the cache currently enforces as a whole. */
+  MemoryCacheParams getMemoryCacheParams();
+
+  /** Gets the total number of all currently cached items. */
+  int getCount();
+
+  /** Gets the total size in bytes of all currently cached items. */
+  int getSizeInBytes();
+
+  /** Gets the number of the cached items that are used by at least one client. */
+  int getInUseCount();
+
+  /** Gets the total size in bytes of the cached items that are used by at least one client. */
+  int getInUseSizeInBytes();
+
+  /** Gets the number of the exclusively owned items. */
+  int getEvictionQueueCount();
+
+  /** Gets the total size in bytes of the exclusively owned items. */
+  int getEvictionQueueSizeInBytes();
+}
@@ -17,6 +17,14 @@ import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * Map that keeps track of the elements order (according to the LRU policy) and their size.
+ *
+ * <p> The map can optionally work as a segmented LRU (SLRU): elements are added to a
+ * probationary segment, unless they are put as repeated hits, in which case they are added to a
+ * protected segment. The protected segment is bounded by {@link #setMaxProtectedSizeInBytes};
+ * its least recently used elements overflow back to the most recently used end of the
+ * probationary segment. The probationary elements always come first in the eviction order, so a
+ * burst of new elements only ever displaces other new elements and the elements hit more than
+ * once. With the default protected size of 0, the map is a plain LRU map.
  */
 @ThreadSafe
 public class CountingLruMap<K, V> {
@@ -26,7 +34,13 @@ public class CountingLruMap<K, V> {
   @GuardedBy("this")
   private final LinkedHashMap<K, V> mMap = new LinkedHashMap<>();
   @GuardedBy("this")
+  private final LinkedHashMap<K, V> mProtectedMap = new LinkedHashMap<>();
+  @GuardedBy("this")
   private int mSizeInBytes = 0;
+  @GuardedBy("this")
+  private int mProtectedSizeInBytes = 0;
+  @GuardedBy("this")
+  private int mMaxProtectedSizeInBytes = 0;
 
   public CountingLruMap(ValueDescriptor<V> valueDescriptor) {
     mValueDescriptor = valueDescriptor;
@@ -34,17 +48,21 @@ public class CountingLruMap<K, V> {
 
   @VisibleForTesting
   synchronized ArrayList<K> getKeys() {
-    return new ArrayList<>(mMap.keySet());
+    ArrayList<K> keys = new ArrayList<>(mMap.keySet());
+    keys.addAll(mProtectedMap.keySet());
+    return keys;
   }
 
   @VisibleForTesting
   synchronized ArrayList<V> getValues() {
-    return new ArrayList<>(mMap.values());
+    ArrayList<V> values = new ArrayList<>(mMap.values());
+    values.addAll(mProtectedMap.values());
+    return values;
   }
 
   /** Gets the count of the elements in the map. */
   public synchronized int getCount() {
-    return mMap.size();
+    return mMap.size() + mProtectedMap.size();
   }
 
   /** Gets the total size in bytes of the elements in the map. */
@@ -52,78 +70,156 @@ public class CountingLruMap<K, V> {
     return mSizeInBytes;
   }
 
-  /** Gets the key of the first element in the map. */
+  /** Gets the count of the elements in the protected segment. */
+  public synchronized int getProtectedCount() {
+    return mProtectedMap.size();
+  }
+
+  /** Gets the total size in bytes of the elements in the protected segment. */
+  public synchronized int getProtectedSizeInBytes() {
+    return mProtectedSizeInBytes;
+  }
+
+  /**
+   * Sets the maximum size in bytes of the protected segment, 0 disables the segmentation.
+   *
+   * <p> If the protected segment is above the new limit, its least recently used elements are
+   * moved to the probationary segment.
+   */
+  public synchronized void setMaxProtectedSizeInBytes(int maxProtectedSizeInBytes) {
+    mMaxProtectedSizeInBytes = Math.max(maxProtectedSizeInBytes, 0);
+    demoteProtectedOverflow();
+  }
+
+  /** Gets the key of the first element in the map, i.e. the next element to be evicted. */
   @Nullable
   public synchronized K getFirstKey() {
-    return mMap.isEmpty() ? null : mMap.keySet().iterator().next();
+    if (!mMap.isEmpty()) {
+      return mMap.keySet().iterator().next();
+    }
+    return mProtectedMap.isEmpty() ? null : mProtectedMap.keySet().iterator().next();
   }
 
   /** Gets the all matching elements. */
   public synchronized ArrayList<LinkedHashMap.Entry<K, V>> getMatchingEntries(
       @Nullable Predicate<K> predicate) {
-    ArrayList<LinkedHashMap.Entry<K, V>> matchingEntries = new ArrayList<>(mMap.entrySet().size());
-    for (LinkedHashMap.Entry<K, V> entry : mMap.entrySet()) {
+    ArrayList<LinkedHashMap.Entry<K, V>> matchingEntries = new ArrayList<>(getCount());
+    addMatchingEntries(mMap, predicate, matchingEntries);
+    addMatchingEntries(mProtectedMap, predicate, matchingEntries);
+    return matchingEntries;
+  }
+
+  private static <K, V> void addMatchingEntries(
+      LinkedHashMap<K, V> map,
+      @Nullable Predicate<K> predicate,
+      ArrayList<LinkedHashMap.Entry<K, V>> matchingEntries) {
+    for (LinkedHashMap.Entry<K, V> entry : map.entrySet()) {
       if (predicate == null || predicate.apply(entry.getKey())) {
         matchingEntries.add(entry);
       }
     }
-    return matchingEntries;
   }
 
   /** Returns whether the map contains an element with the given key.  */
   public synchronized boolean contains(K key) {
-    return mMap.containsKey(key);
+    return mMap.containsKey(key) || mProtectedMap.containsKey(key);
   }
 
   /** Gets the element from the map. */
   @Nullable
   public synchronized V get(K key) {
-    return mMap.get(key);
+    V value = mMap.get(key);
+    return (value != null) ? value : mProtectedMap.get(key);
   }
 
   /** Adds the element to the map, and removes the old element with the same key if any. */
   @Nullable
   public synchronized V put(K key, V value) {
+    return put(key, value, false);
+  }
+
+  /**
+   * Adds the element to the map, and removes the old element with the same key if any.
+   *
+   * @param isRepeatedHit whether the element has been accessed more than once, in which case it
+   *     is added to the protected segment (if enabled) instead of the probationary one
+   */
+  @Nullable
+  public synchronized V put(K key, V value, boolean isRepeatedHit) {
     // We do remove and insert instead of just replace, in order to cause a structural change
     // to the map, as we always want the latest inserted element to be last in the queue.
-    V oldValue = mMap.remove(key);
-    mSizeInBytes -= getValueSizeInBytes(oldValue);
-    mMap.put(key, value);
-    mSizeInBytes += getValueSizeInBytes(value);
+    V oldValue = remove(key);
+    int valueSize = getValueSizeInBytes(value);
+    if (isRepeatedHit && valueSize <= mMaxProtectedSizeInBytes) {
+      mProtectedMap.put(key, value);
+      mProtectedSizeInBytes += valueSize;
+      demoteProtectedOverflow();
+    } else {
+      mMap.put(key, value);
+    }
+    mSizeInBytes += valueSize;
     return oldValue;
   }
 
   /** Removes the element from the map. */
   @Nullable
   public synchronized V remove(K key) {
-      V oldValue = mMap.remove(key);
-      mSizeInBytes -= getValueSizeInBytes(oldValue);
-      return oldValue;
+    V oldValue = mMap.remove(key);
+    if (oldValue == null) {
+      oldValue = mProtectedMap.remove(key);
+      mProtectedSizeInBytes -= getValueSizeInBytes(oldValue);
+    }
+    mSizeInBytes -= getValueSizeInBytes(oldValue);
+    return oldValue;
   }
 
   /** Removes all the matching elements from the map. */
   public synchronized ArrayList<V> removeAll(@Nullable Predicate<K> predicate) {
     ArrayList<V> oldValues = new ArrayList<>();
-    Iterator<LinkedHashMap.Entry<K, V>> iterator = mMap.entrySet().iterator();
+    removeAll(mMap, predicate, oldValues);
+    int protectedRemovedSize = removeAll(mProtectedMap, predicate, oldValues);
+    mProtectedSizeInBytes -= protectedRemovedSize;
+    return oldValues;
+  }
+
+  /** Removes the matching elements of the given segment, returns their total size in bytes. */
+  private int removeAll(
+      LinkedHashMap<K, V> map, @Nullable Predicate<K> predicate, ArrayList<V> oldValues) {
+    int removedSize = 0;
+    Iterator<LinkedHashMap.Entry<K, V>> iterator = map.entrySet().iterator();
     while (iterator.hasNext()) {
       LinkedHashMap.Entry<K, V> entry = iterator.next();
       if (predicate == null || predicate.apply(entry.getKey())) {
         oldValues.add(entry.getValue());
-        mSizeInBytes -= getValueSizeInBytes(entry.getValue());
+        int valueSize = getValueSizeInBytes(entry.getValue());
+        mSizeInBytes -= valueSize;
+        removedSize += valueSize;
         iterator.remove();
       }
     }
-    return oldValues;
+    return removedSize;
   }
 
   /** Clears the map. */
   public synchronized ArrayList<V> clear() {
-    ArrayList<V> oldValues = new ArrayList<>(mMap.values());
+    ArrayList<V> oldValues = getValues();
     mMap.clear();
+    mProtectedMap.clear();
     mSizeInBytes = 0;
+    mProtectedSizeInBytes = 0;
     return oldValues;
   }
 
+  /** Moves the least recently used protected elements to the probationary segment. */
+  private synchronized void demoteProtectedOverflow() {
+    while (mProtectedSizeInBytes > mMaxProtectedSizeInBytes && !mProtectedMap.isEmpty()) {
+      K key = mProtectedMap.keySet().iterator().next();
+      V value = mProtectedMap.remove(key);
+      mProtectedSizeInBytes -= getValueSizeInBytes(value);
+      mMap.put(key, value);
+    }
+  }
+
   private int getValueSizeInBytes(V value) {
     return (value == null) ? 0 : mValueDescriptor.getSizeInBytes(value);
   }
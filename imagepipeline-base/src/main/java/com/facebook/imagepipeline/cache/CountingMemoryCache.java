@@ -14,13 +14,17 @@ import com.facebook.common.internal.Predicate;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.memory.MemoryTrimType;
-import com.facebook.common.memory.MemoryTrimmable;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.references.ResourceReleaser;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
@@ -38,7 +42,7 @@ import javax.annotation.concurrent.ThreadSafe;
  * @param <V> the value type
  */
 @ThreadSafe
-public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimmable {
+public class CountingMemoryCache<K, V> implements CountingCache<K, V> {
 
   /**
    * Interface used to specify the trimming strategy for the cache.
@@ -60,27 +64,56 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     void onExclusivityChanged(K key, boolean isExclusive);
   }
 
+  /**
+   * Interface used to decide whether a new entry is worth caching when that requires evicting an
+   * existing one.
+   *
+   * <p> Without an admission policy every new entry is admitted and the entries are evicted in
+   * pure LRU order.
+   */
+  public interface CacheAdmissionPolicy<K> {
+
+    /** Called on every lookup of the key, regardless of whether it is a hit or a miss. */
+    void recordAccess(K key);
+
+    /**
+     * Called when caching the candidate would evict the victim, the least recently used of the
+     * exclusively owned entries.
+     *
+     * @return true if the candidate should be cached, false if the victim should be kept instead
+     */
+    boolean admit(K candidate, K victim);
+  }
+
   /**
    * The internal representation of a key-value pair stored by the cache.
    */
   @VisibleForTesting
   static class Entry<K, V> {
+    private static final AtomicLong sNextSequenceNumber = new AtomicLong();
+
     public final K key;
     public final CloseableReference<V> valueRef;
     // The number of clients that reference the value.
     public int clientCount;
+    // The number of times the entry has been retrieved from the cache after it was cached.
+    public int hitCount;
     // Whether or not this entry is tracked by this cache. Orphans are not tracked by the cache and
     // as soon as the last client of an orphaned entry closes their reference, the entry's copy is
     // closed too.
     public boolean isOrphan;
     @Nullable public final EntryStateObserver<K> observer;
+    // Increases with every entry created, so that entries of different caches can be ordered.
+    public final long sequenceNumber;
 
     private Entry(K key, CloseableReference<V> valueRef, @Nullable EntryStateObserver<K> observer) {
       this.key = Preconditions.checkNotNull(key);
       this.valueRef = Preconditions.checkNotNull(CloseableReference.cloneOrNull(valueRef));
       this.clientCount = 0;
+      this.hitCount = 0;
       this.isOrphan = false;
       this.observer = observer;
+      this.sequenceNumber = sNextSequenceNumber.incrementAndGet();
     }
 
     /** Creates a new entry with the usage count of 0. */
@@ -115,6 +148,19 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
 
   private final CacheTrimStrategy mCacheTrimStrategy;
 
+  @Nullable private final CacheAdmissionPolicy<K> mAdmissionPolicy;
+
+  @Nullable private volatile ShadowCacheTracker<K> mShadowCacheTracker;
+
+  @Nullable private volatile DeferredReferenceReleaser mReferenceReleaser;
+
+  @Nullable private volatile KeyGrouper<K> mKeyGrouper;
+
+  // The cached items of each key group, the most recently cached last. Only kept while a key
+  // grouper is set.
+  @GuardedBy("this")
+  private final Map<String, ArrayList<Entry<K, V>>> mGroupedEntries = new HashMap<>();
+
   // Cache size constraints.
   private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
   @GuardedBy("this")
@@ -126,6 +172,14 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       ValueDescriptor<V> valueDescriptor,
       CacheTrimStrategy cacheTrimStrategy,
       Supplier<MemoryCacheParams> memoryCacheParamsSupplier) {
+    this(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier, null);
+  }
+
+  public CountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      @Nullable CacheAdmissionPolicy<K> admissionPolicy) {
     mValueDescriptor = valueDescriptor;
     mExclusiveEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
     mCachedEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
@@ -133,6 +187,8 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
     mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
     mLastCacheParamsCheck = SystemClock.uptimeMillis();
+    mAdmissionPolicy = admissionPolicy;
+    updateMaxProtectedSize();
   }
 
   private ValueDescriptor<Entry<K, V>> wrapValueDescriptor(
@@ -153,6 +209,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
    *
    * @return the new reference to be used, null if the value cannot be cached
    */
+  @Override
   public CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef) {
     return cache(key, valueRef, null);
   }
@@ -165,8 +222,11 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
    *
    * @return the new reference to be used, null if the value cannot be cached
    */
+  @Override
   public @Nullable CloseableReference<V> cache(
-      final K key, final CloseableReference<V> valueRef, final EntryStateObserver<K> observer) {
+      final K key,
+      final CloseableReference<V> valueRef,
+      final @Nullable EntryStateObserver<K> observer) {
     Preconditions.checkNotNull(key);
     Preconditions.checkNotNull(valueRef);
 
@@ -181,53 +241,219 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       Entry<K, V> oldEntry = mCachedEntries.remove(key);
       if (oldEntry != null) {
         makeOrphan(oldEntry);
+        removeFromGroup(oldEntry);
         oldRefToClose = referenceToClose(oldEntry);
       }
 
-      if (canCacheNewValue(valueRef.get())) {
+      if (canCacheNewValue(valueRef.get())
+          && (oldEntry != null || shouldAdmitNewValue(key, valueRef.get()))) {
         Entry<K, V> newEntry = Entry.of(key, valueRef, observer);
         mCachedEntries.put(key, newEntry);
+        addToGroup(newEntry);
         clientRef = newClientReference(newEntry);
       }
     }
-    CloseableReference.closeSafely(oldRefToClose);
+    closeReference(oldRefToClose);
     maybeNotifyExclusiveEntryRemoval(oldExclusive);
+    if (clientRef != null) {
+      maybeTrackPut(key, clientRef);
+    }
 
     maybeEvictEntries();
     return clientRef;
   }
 
-  /** Checks the cache constraints to determine whether the new value can be cached or not. */
-  private synchronized boolean canCacheNewValue(V value) {
+  /**
+   * Checks the cache constraints to determine whether the new value can be cached or not.
+   *
+   * <p> Overridden by the segments of a {@link SegmentedCountingMemoryCache} to check the limits
+   * of the whole cache instead.
+   */
+  synchronized boolean canCacheNewValue(V value) {
     int newValueSize = mValueDescriptor.getSizeInBytes(value);
     return (newValueSize <= mMemoryCacheParams.maxCacheEntrySize) &&
         (getInUseCount() <= mMemoryCacheParams.maxCacheEntries - 1) &&
         (getInUseSizeInBytes() <= mMemoryCacheParams.maxCacheSize - newValueSize);
   }
 
+  /**
+   * Asks the admission policy, if any, whether the new value is worth evicting the least recently
+   * used exclusively owned entry. Values that fit without any eviction are always admitted.
+   */
+  private synchronized boolean shouldAdmitNewValue(K key, V value) {
+    if (mAdmissionPolicy == null) {
+      return true;
+    }
+    K victim = mExclusiveEntries.getFirstKey();
+    if (victim == null) {
+      return true;
+    }
+    int newValueSize = mValueDescriptor.getSizeInBytes(value);
+    boolean needsEviction =
+        (mCachedEntries.getCount() >= mMemoryCacheParams.maxCacheEntries)
+            || (mCachedEntries.getSizeInBytes() > mMemoryCacheParams.maxCacheSize - newValueSize)
+            || (mExclusiveEntries.getCount() >= mMemoryCacheParams.maxEvictionQueueEntries)
+            || (mExclusiveEntries.getSizeInBytes()
+                > mMemoryCacheParams.maxEvictionQueueSize - newValueSize);
+    return !needsEviction || mAdmissionPolicy.admit(key, victim);
+  }
+
   /**
    * Gets the item with the given key, or null if there is no such item.
    *
    * <p> It is the caller's responsibility to close the returned reference once not needed anymore.
    */
+  @Override
   @Nullable
   public CloseableReference<V> get(final K key) {
     Preconditions.checkNotNull(key);
     Entry<K, V> oldExclusive;
     CloseableReference<V> clientRef = null;
     synchronized (this) {
+      if (mAdmissionPolicy != null) {
+        mAdmissionPolicy.recordAccess(key);
+      }
       oldExclusive = mExclusiveEntries.remove(key);
       Entry<K, V> entry = mCachedEntries.get(key);
       if (entry != null) {
+        entry.hitCount++;
         clientRef = newClientReference(entry);
       }
     }
     maybeNotifyExclusiveEntryRemoval(oldExclusive);
+    maybeTrackGet(key, clientRef);
     maybeUpdateCacheParams();
     maybeEvictEntries();
     return clientRef;
   }
 
+  /**
+   * Gets the most recently used item whose key and value match the specified predicates, or null
+   * if there is no such item.
+   *
+   * <p> It is the caller's responsibility to close the returned reference once not needed anymore.
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> getMatchingInGroup(
+      String group, Predicate<K> keyPredicate, Predicate<V> valuePredicate) {
+    if (mKeyGrouper == null) {
+      return null;
+    }
+    Entry<K, V> oldExclusive = null;
+    CloseableReference<V> clientRef = null;
+    synchronized (this) {
+      Entry<K, V> entry = getMostRecentEntryInGroup(group, keyPredicate, valuePredicate);
+      if (entry != null) {
+        // neither an admission access nor a hit, the key of the entry has not been requested
+        oldExclusive = mExclusiveEntries.remove(entry.key);
+        clientRef = newClientReference(entry);
+      }
+    }
+    maybeNotifyExclusiveEntryRemoval(oldExclusive);
+    maybeUpdateCacheParams();
+    maybeEvictEntries();
+    return clientRef;
+  }
+
+  /** Gets the most recently cached entry of the group that matches the predicates, if any. */
+  @Nullable
+  synchronized Entry<K, V> getMostRecentEntryInGroup(
+      String group, Predicate<K> keyPredicate, Predicate<V> valuePredicate) {
+    ArrayList<Entry<K, V>> entries = mGroupedEntries.get(group);
+    if (entries != null) {
+      for (int i = entries.size() - 1; i >= 0; i--) {
+        Entry<K, V> entry = entries.get(i);
+        if (keyPredicate.apply(entry.key) && valuePredicate.apply(entry.valueRef.get())) {
+          return entry;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized void setKeyGrouper(@Nullable KeyGrouper<K> keyGrouper) {
+    mKeyGrouper = keyGrouper;
+    mGroupedEntries.clear();
+    for (Entry<K, V> entry : mCachedEntries.getValues()) {
+      addToGroup(entry);
+    }
+  }
+
+  /** Adds the entry to the index of its key group, if any. */
+  private synchronized void addToGroup(Entry<K, V> entry) {
+    String group = getGroup(entry);
+    if (group != null) {
+      ArrayList<Entry<K, V>> entries = mGroupedEntries.get(group);
+      if (entries == null) {
+        entries = new ArrayList<>();
+        mGroupedEntries.put(group, entries);
+      }
+      entries.add(entry);
+    }
+  }
+
+  /** Removes the entries from the index of their key groups. */
+  private synchronized void removeFromGroups(@Nullable ArrayList<Entry<K, V>> oldEntries) {
+    if (oldEntries != null) {
+      for (Entry<K, V> oldEntry : oldEntries) {
+        removeFromGroup(oldEntry);
+      }
+    }
+  }
+
+  /** Removes the entry from the index of its key group, if any. */
+  private synchronized void removeFromGroup(Entry<K, V> entry) {
+    String group = getGroup(entry);
+    ArrayList<Entry<K, V>> entries = (group == null) ? null : mGroupedEntries.get(group);
+    if (entries != null) {
+      entries.remove(entry);
+      if (entries.isEmpty()) {
+        mGroupedEntries.remove(group);
+      }
+    }
+  }
+
+  @Nullable
+  private synchronized String getGroup(Entry<K, V> entry) {
+    KeyGrouper<K> keyGrouper = mKeyGrouper;
+    return (keyGrouper == null) ? null : keyGrouper.getGroup(entry.key);
+  }
+
+  @Override
+  public void setDeferredReferenceReleaser(@Nullable DeferredReferenceReleaser referenceReleaser) {
+    mReferenceReleaser = referenceReleaser;
+  }
+
+  @Override
+  public void setShadowCacheTracker(@Nullable ShadowCacheTracker<K> shadowCacheTracker) {
+    mShadowCacheTracker = shadowCacheTracker;
+  }
+
+  @Override
+  public synchronized MemoryCacheParams getMemoryCacheParams() {
+    return mMemoryCacheParams;
+  }
+
+  /** Reports the lookup to the shadow cache tracker, if any. */
+  private void maybeTrackGet(K key, @Nullable CloseableReference<V> clientRef) {
+    ShadowCacheTracker<K> shadowCacheTracker = mShadowCacheTracker;
+    if (shadowCacheTracker != null) {
+      int sizeInBytes = (clientRef == null) ? -1 : mValueDescriptor.getSizeInBytes(clientRef.get());
+      shadowCacheTracker.onCacheGet(key, sizeInBytes, getMemoryCacheParams());
+    }
+  }
+
+  /** Reports the newly cached value to the shadow cache tracker, if any. */
+  private void maybeTrackPut(K key, CloseableReference<V> clientRef) {
+    ShadowCacheTracker<K> shadowCacheTracker = mShadowCacheTracker;
+    if (shadowCacheTracker != null) {
+      shadowCacheTracker.onCachePut(
+          key, mValueDescriptor.getSizeInBytes(clientRef.get()), getMemoryCacheParams());
+    }
+  }
+
   /** Creates a new reference for the client. */
   private synchronized CloseableReference<V> newClientReference(final Entry<K, V> entry) {
     increaseClientCount(entry);
@@ -251,7 +477,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       isExclusiveAdded = maybeAddToExclusives(entry);
       oldRefToClose = referenceToClose(entry);
     }
-    CloseableReference.closeSafely(oldRefToClose);
+    closeReference(oldRefToClose);
     maybeNotifyExclusiveEntryInsertion(isExclusiveAdded ? entry : null);
     maybeUpdateCacheParams();
     maybeEvictEntries();
@@ -260,17 +486,13 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   /** Adds the entry to the exclusively owned queue if it is viable for eviction. */
   private synchronized boolean maybeAddToExclusives(Entry<K, V> entry) {
     if (!entry.isOrphan && entry.clientCount == 0) {
-      mExclusiveEntries.put(entry.key, entry);
+      mExclusiveEntries.put(entry.key, entry, entry.hitCount > 0);
       return true;
     }
     return false;
   }
 
-  /**
-   * Gets the value with the given key to be reused, or null if there is no such value.
-   *
-   * <p> The item can be reused only if it is exclusively owned by the cache.
-   */
+  @Override
   @Nullable
   public CloseableReference<V> reuse(K key) {
     Preconditions.checkNotNull(key);
@@ -283,6 +505,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
         Entry<K, V> entry = mCachedEntries.remove(key);
         Preconditions.checkNotNull(entry);
         Preconditions.checkState(entry.clientCount == 0);
+        removeFromGroup(entry);
         // optimization: instead of cloning and then closing the original reference,
         // we just do a move
         clientRef = entry.valueRef;
@@ -301,6 +524,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
    * @param predicate returns true if an item with the given key should be removed
    * @return number of the items removed from the cache
    */
+  @Override
   public int removeAll(Predicate<K> predicate) {
     ArrayList<Entry<K, V>> oldExclusives;
     ArrayList<Entry<K, V>> oldEntries;
@@ -308,6 +532,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       oldExclusives = mExclusiveEntries.removeAll(predicate);
       oldEntries = mCachedEntries.removeAll(predicate);
       makeOrphans(oldEntries);
+      removeFromGroups(oldEntries);
     }
     maybeClose(oldEntries);
     maybeNotifyExclusiveEntryRemoval(oldExclusives);
@@ -316,7 +541,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     return oldEntries.size();
   }
 
-  /** Removes all the items from the cache. */
+  @Override
   public void clear() {
     ArrayList<Entry<K, V>> oldExclusives;
     ArrayList<Entry<K, V>> oldEntries;
@@ -324,6 +549,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       oldExclusives = mExclusiveEntries.clear();
       oldEntries = mCachedEntries.clear();
       makeOrphans(oldEntries);
+      mGroupedEntries.clear();
     }
     maybeClose(oldEntries);
     maybeNotifyExclusiveEntryRemoval(oldExclusives);
@@ -363,7 +589,16 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       oldEntries = trimExclusivelyOwnedEntries(Integer.MAX_VALUE, targetEvictionQueueSize);
       makeOrphans(oldEntries);
     }
-    maybeClose(oldEntries);
+    if (DeferredReferenceReleaser.isCriticalTrim(trimType)) {
+      // memory is needed right now, free it on this thread, including the deferred backlog
+      maybeClose(oldEntries, true);
+      DeferredReferenceReleaser referenceReleaser = mReferenceReleaser;
+      if (referenceReleaser != null) {
+        referenceReleaser.drain();
+      }
+    } else {
+      maybeClose(oldEntries);
+    }
     maybeNotifyExclusiveEntryRemoval(oldEntries);
     maybeUpdateCacheParams();
     maybeEvictEntries();
@@ -378,6 +613,28 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     }
     mLastCacheParamsCheck = SystemClock.uptimeMillis();
     mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+    updateMaxProtectedSize();
+  }
+
+  /**
+   * Replaces the cache params (constraints) right away. The entries over the new limits are
+   * evicted by the next operation on the cache, not by the caller.
+   *
+   * <p> Used by {@link SegmentedCountingMemoryCache} to apply a rebalanced per-segment budget
+   * without waiting for the next periodic params check.
+   */
+  synchronized void forceUpdateCacheParams(MemoryCacheParams memoryCacheParams) {
+    mMemoryCacheParams = memoryCacheParams;
+    mLastCacheParamsCheck = SystemClock.uptimeMillis();
+    updateMaxProtectedSize();
+  }
+
+  /** Sizes the protected segment of the eviction queue according to the cache params. */
+  private synchronized void updateMaxProtectedSize() {
+    int evictionQueueSize =
+        Math.min(mMemoryCacheParams.maxEvictionQueueSize, mMemoryCacheParams.maxCacheSize);
+    mExclusiveEntries.setMaxProtectedSizeInBytes(
+        (int) (evictionQueueSize * mMemoryCacheParams.protectedEvictionQueueRatio));
   }
 
   /**
@@ -421,7 +678,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     while (mExclusiveEntries.getCount() > count || mExclusiveEntries.getSizeInBytes() > size) {
       K key = mExclusiveEntries.getFirstKey();
       mExclusiveEntries.remove(key);
-      oldEntries.add(mCachedEntries.remove(key));
+      Entry<K, V> oldEntry = mCachedEntries.remove(key);
+      removeFromGroup(oldEntry);
+      oldEntries.add(oldEntry);
     }
     return oldEntries;
   }
@@ -433,13 +692,32 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
    * so it must not be called while holding the <code>this</code> lock.
    */
   private void maybeClose(@Nullable ArrayList<Entry<K, V>> oldEntries) {
+    maybeClose(oldEntries, false);
+  }
+
+  private void maybeClose(
+      @Nullable ArrayList<Entry<K, V>> oldEntries, boolean forceSynchronousClose) {
     if (oldEntries != null) {
       for (Entry<K, V> oldEntry : oldEntries) {
-        CloseableReference.closeSafely(referenceToClose(oldEntry));
+        if (forceSynchronousClose) {
+          CloseableReference.closeSafely(referenceToClose(oldEntry));
+        } else {
+          closeReference(referenceToClose(oldEntry));
+        }
       }
     }
   }
 
+  /** Closes the reference, deferring it to the reference releaser if there is one. */
+  private void closeReference(@Nullable CloseableReference<V> ref) {
+    DeferredReferenceReleaser referenceReleaser = mReferenceReleaser;
+    if (referenceReleaser != null) {
+      referenceReleaser.release(ref);
+    } else {
+      CloseableReference.closeSafely(ref);
+    }
+  }
+
   private void maybeNotifyExclusiveEntryRemoval(@Nullable ArrayList<Entry<K, V>> entries) {
     if (entries != null) {
       for (Entry<K, V> entry : entries) {
@@ -497,32 +775,83 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     return (entry.isOrphan && entry.clientCount == 0) ? entry.valueRef : null;
   }
 
-  /** Gets the total number of all currently cached items. */
+  @Override
+  public List<K> getHottestKeys(int maxCount) {
+    ArrayList<Entry<K, V>> entries = getHottestEntries(maxCount);
+    List<K> keys = new ArrayList<>(entries.size());
+    for (Entry<K, V> entry : entries) {
+      keys.add(entry.key);
+    }
+    return keys;
+  }
+
+  /** Gets up to {@code maxCount} cached entries, ordered as {@link #getHottestKeys}. */
+  synchronized ArrayList<Entry<K, V>> getHottestEntries(int maxCount) {
+    ArrayList<Entry<K, V>> entries = mCachedEntries.getValues();
+    Collections.reverse(entries);
+    return sortByHitCount(entries, maxCount);
+  }
+
+  /** Stable sorts the entries by decreasing hit count and keeps the first {@code maxCount}. */
+  static <K, V> ArrayList<Entry<K, V>> sortByHitCount(
+      ArrayList<Entry<K, V>> entries, int maxCount) {
+    Collections.sort(
+        entries,
+        new Comparator<Entry<K, V>>() {
+          @Override
+          public int compare(Entry<K, V> lhs, Entry<K, V> rhs) {
+            return (lhs.hitCount < rhs.hitCount) ? 1 : ((lhs.hitCount == rhs.hitCount) ? 0 : -1);
+          }
+        });
+    if (entries.size() > maxCount) {
+      return new ArrayList<>(entries.subList(0, maxCount));
+    }
+    return entries;
+  }
+
+  @Override
   public synchronized int getCount() {
     return mCachedEntries.getCount();
   }
 
-  /** Gets the total size in bytes of all currently cached items. */
+  @Override
   public synchronized int getSizeInBytes() {
     return mCachedEntries.getSizeInBytes();
   }
 
-  /** Gets the number of the cached items that are used by at least one client. */
+  @Override
   public synchronized int getInUseCount() {
     return mCachedEntries.getCount() - mExclusiveEntries.getCount();
   }
 
-  /** Gets the total size in bytes of the cached items that are used by at least one client. */
+  @Override
   public synchronized int getInUseSizeInBytes() {
     return mCachedEntries.getSizeInBytes() - mExclusiveEntries.getSizeInBytes();
   }
 
-  /** Gets the number of the exclusively owned items. */
+  /**
+   * Gets the number of the cached items that are used by at least one client without taking the
+   * cache lock, so that it can be summed over several caches. The result is only approximate
+   * while the cache is being modified.
+   */
+  int peekInUseCount() {
+    return mCachedEntries.getCount() - mExclusiveEntries.getCount();
+  }
+
+  /**
+   * Gets the total size in bytes of the cached items that are used by at least one client without
+   * taking the cache lock. The result is only approximate while the cache is being modified.
+   */
+  int peekInUseSizeInBytes() {
+    return mCachedEntries.getSizeInBytes() - mExclusiveEntries.getSizeInBytes();
+  }
+
+  @Override
   public synchronized int getEvictionQueueCount() {
     return mExclusiveEntries.getCount();
   }
 
-  /** Gets the total size in bytes of the exclusively owned items. */
+  @Override
   public synchronized int getEvictionQueueSizeInBytes() {
     return mExclusiveEntries.getSizeInBytes();
   }
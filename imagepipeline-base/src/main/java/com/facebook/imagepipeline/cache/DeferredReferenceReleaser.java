@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Closes the references evicted by a {@link CountingMemoryCache} on a background executor.
+ *
+ * <p> Closing the last reference to a cached value recycles the bitmap or frees the native memory
+ * behind it, which can take long enough to drop frames when evictions and trims happen on the UI
+ * thread. The references handed to this releaser are queued and closed in batches by a single
+ * task running on the executor.
+ *
+ * <p> The backlog is bounded: once it holds {@code maxBacklog} references, the new ones are
+ * closed synchronously, so that deferring never lets the freed memory pile up. The backlog is
+ * also drained synchronously on critical memory trims, see {@link #isCriticalTrim}.
+ */
+@ThreadSafe
+public class DeferredReferenceReleaser {
+
+  public static final int DEFAULT_MAX_BACKLOG = 256;
+
+  private final Executor mExecutor;
+  private final int mMaxBacklog;
+
+  @GuardedBy("this")
+  private ArrayList<CloseableReference<?>> mBacklog = new ArrayList<>();
+  @GuardedBy("this")
+  private boolean mIsDrainScheduled;
+
+  private final Runnable mDrainRunnable =
+      new Runnable() {
+        @Override
+        public void run() {
+          drain();
+        }
+      };
+
+  public DeferredReferenceReleaser(Executor executor) {
+    this(executor, DEFAULT_MAX_BACKLOG);
+  }
+
+  public DeferredReferenceReleaser(Executor executor, int maxBacklog) {
+    Preconditions.checkArgument(maxBacklog > 0);
+    mExecutor = Preconditions.checkNotNull(executor);
+    mMaxBacklog = maxBacklog;
+  }
+
+  /**
+   * Closes the given reference later on the executor, or right away if the backlog is full.
+   */
+  public void release(@Nullable CloseableReference<?> ref) {
+    if (ref == null) {
+      return;
+    }
+    boolean isQueued = false;
+    boolean shouldSchedule = false;
+    synchronized (this) {
+      if (mBacklog.size() < mMaxBacklog) {
+        mBacklog.add(ref);
+        isQueued = true;
+        shouldSchedule = !mIsDrainScheduled;
+        mIsDrainScheduled = true;
+      }
+    }
+    if (!isQueued) {
+      ref.close();
+    } else if (shouldSchedule) {
+      mExecutor.execute(mDrainRunnable);
+    }
+  }
+
+  /** Closes all the queued references on the calling thread. */
+  public void drain() {
+    List<CloseableReference<?>> backlog;
+    synchronized (this) {
+      backlog = mBacklog;
+      mBacklog = new ArrayList<>();
+      mIsDrainScheduled = false;
+    }
+    for (CloseableReference<?> ref : backlog) {
+      CloseableReference.closeSafely(ref);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getBacklogSize() {
+    return mBacklog.size();
+  }
+
+  /**
+   * Whether memory is so low that the trimmed references have to be closed synchronously.
+   */
+  public static boolean isCriticalTrim(MemoryTrimType trimType) {
+    return trimType == MemoryTrimType.OnCloseToDalvikHeapLimit
+        || trimType == MemoryTrimType.OnSystemMemoryCriticallyLowWhileAppInForeground;
+  }
+}
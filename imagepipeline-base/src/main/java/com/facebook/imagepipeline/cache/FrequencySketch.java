@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.VisibleForTesting;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Probabilistic estimator of how often a key has been seen recently (a Count-Min sketch).
+ *
+ * <p> Each key is mapped to four 4-bit counters, so the estimated frequency of a key saturates at
+ * 15. The estimate can only be higher than the real count, never lower. To keep the sketch biased
+ * towards recent history, all the counters are halved once the number of recorded increments
+ * reaches ten times the expected number of keys.
+ *
+ * <p> The sketch only takes a few bytes per expected key and never stores the keys themselves.
+ *
+ * @param <K> the key type
+ */
+@NotThreadSafe
+public class FrequencySketch<K> {
+
+  @VisibleForTesting static final int MAX_FREQUENCY = 15;
+
+  private static final long[] SEEDS =
+      new long[] {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  // every long holds sixteen 4-bit counters
+  private final long[] mTable;
+  private final int mTableMask;
+  private final int mSampleSize;
+  private int mSize;
+
+  /** @param expectedKeys the expected number of distinct keys being tracked */
+  public FrequencySketch(int expectedKeys) {
+    int maximum = Math.min(Math.max(expectedKeys, 1), 1 << 30);
+    mTable = new long[ceilingPowerOfTwo(maximum)];
+    mTableMask = mTable.length - 1;
+    mSampleSize = (maximum > Integer.MAX_VALUE / 10) ? Integer.MAX_VALUE : 10 * maximum;
+  }
+
+  /** Returns the estimated number of occurrences of the key, up to {@link #MAX_FREQUENCY}. */
+  public int frequency(K key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /** Increments the estimated number of occurrences of the key. */
+  public void increment(K key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++mSize == mSampleSize) {
+      reset();
+    }
+  }
+
+  /** Increments the counter at the given table index and counter offset, unless saturated. */
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = (0xfL << offset);
+    if ((mTable[index] & mask) != mask) {
+      mTable[index] += (1L << offset);
+      return true;
+    }
+    return false;
+  }
+
+  /** Halves every counter, so that old accesses weigh less than recent ones. */
+  @VisibleForTesting
+  void reset() {
+    int oddCounters = 0;
+    for (int i = 0; i < mTable.length; i++) {
+      oddCounters += Long.bitCount(mTable[i] & ONE_MASK);
+      mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+    }
+    mSize = (mSize >>> 1) - (oddCounters >>> 2);
+  }
+
+  private int indexOf(int hash, int i) {
+    long index = (hash + SEEDS[i]) * SEEDS[i];
+    index += (index >>> 32);
+    return ((int) index) & mTableMask;
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+
+  private static int ceilingPowerOfTwo(int x) {
+    return 1 << (32 - Integer.numberOfLeadingZeros(x - 1));
+  }
+}
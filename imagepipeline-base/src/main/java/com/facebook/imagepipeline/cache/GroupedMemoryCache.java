@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.references.CloseableReference;
+import javax.annotation.Nullable;
+
+/**
+ * Optional capability of a {@link MemoryCache} that indexes its keys by group, e.g. the keys of
+ * all the resolutions cached for one image, so that the items of a group can be looked up without
+ * scanning the whole cache.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public interface GroupedMemoryCache<K, V> {
+
+  /**
+   * Interface used to assign the keys to their groups.
+   */
+  interface KeyGrouper<K> {
+
+    /** Gets the group of the key, or null if the key is not part of any group. */
+    @Nullable
+    String getGroup(K key);
+  }
+
+  /**
+   * Gets the most recently cached item of the group whose key and value match the specified
+   * predicates, or null if there is no such item or no key grouper is set. The items whose value
+   * does not match are skipped, the lookup goes on with the older items of the group.
+   *
+   * <p> The lookup is not an access of the returned item's key: it is neither counted as a hit nor
+   * reported to the admission policy.
+   *
+   * @param group the group of the keys to match
+   * @param keyPredicate returns true if the item with the given key is acceptable
+   * @param valuePredicate returns true if the item with the given value is acceptable, only
+   *     applied to the items whose key is acceptable
+   * @return a reference to the cached value, or null if no item was found
+   */
+  @Nullable
+  CloseableReference<V> getMatchingInGroup(
+      String group, Predicate<K> keyPredicate, Predicate<V> valuePredicate);
+}
@@ -17,6 +17,7 @@ public class MemoryCacheParams {
   public final int maxEvictionQueueSize;
   public final int maxEvictionQueueEntries;
   public final int maxCacheEntrySize;
+  public final float protectedEvictionQueueRatio;
 
   /**
    * Pass arguments to control the cache's behavior in the constructor.
@@ -35,10 +36,42 @@ public class MemoryCacheParams {
       int maxEvictionQueueSize,
       int maxEvictionQueueEntries,
       int maxCacheEntrySize) {
+    this(
+        maxCacheSize,
+        maxCacheEntries,
+        maxEvictionQueueSize,
+        maxEvictionQueueEntries,
+        maxCacheEntrySize,
+        0);
+  }
+
+  /**
+   * Pass arguments to control the cache's behavior in the constructor.
+   *
+   * @param maxCacheSize The maximum size of the cache, in bytes.
+   * @param maxCacheEntries The maximum number of items that can live in the cache.
+   * @param maxEvictionQueueSize The eviction queue is an area of memory that stores items ready
+   *                             for eviction but have not yet been deleted. This is the maximum
+   *                             size of that queue in bytes.
+   * @param maxEvictionQueueEntries The maximum number of entries in the eviction queue.
+   * @param maxCacheEntrySize The maximum size of a single cache entry.
+   * @param protectedEvictionQueueRatio The share of the eviction queue size reserved for the
+   *                                    items that have been hit more than once, which are evicted
+   *                                    only after all the other items (segmented LRU). 0 keeps a
+   *                                    plain LRU eviction queue.
+   */
+  public MemoryCacheParams(
+      int maxCacheSize,
+      int maxCacheEntries,
+      int maxEvictionQueueSize,
+      int maxEvictionQueueEntries,
+      int maxCacheEntrySize,
+      float protectedEvictionQueueRatio) {
     this.maxCacheSize = maxCacheSize;
     this.maxCacheEntries = maxCacheEntries;
     this.maxEvictionQueueSize = maxEvictionQueueSize;
     this.maxEvictionQueueEntries = maxEvictionQueueEntries;
     this.maxCacheEntrySize = maxCacheEntrySize;
+    this.protectedEvictionQueueRatio = protectedEvictionQueueRatio;
   }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Snapshot of the hit ratios a memory cache would achieve with different budgets, as estimated by
+ * a {@link ShadowCacheTracker}.
+ *
+ * <p> Each point of the curve pairs a multiplier of the current cache budget
+ * ({@link MemoryCacheParams#maxCacheSize}) with the hit ratio observed by a simulated cache of
+ * that size.
+ */
+@Immutable
+public class MissRatioCurve {
+
+  private final float[] mBudgetMultipliers;
+  private final float[] mHitRatios;
+  private final long mRequestCount;
+
+  public MissRatioCurve(float[] budgetMultipliers, float[] hitRatios, long requestCount) {
+    Preconditions.checkArgument(budgetMultipliers.length == hitRatios.length);
+    mBudgetMultipliers = budgetMultipliers.clone();
+    mHitRatios = hitRatios.clone();
+    mRequestCount = requestCount;
+  }
+
+  /** Gets the number of points of the curve. */
+  public int getPointCount() {
+    return mBudgetMultipliers.length;
+  }
+
+  /** Gets the budget multiplier of the given point, e.g. 0.5 for half of the current budget. */
+  public float getBudgetMultiplier(int point) {
+    return mBudgetMultipliers[point];
+  }
+
+  /** Gets the estimated hit ratio, between 0 and 1, of the given point. */
+  public float getHitRatio(int point) {
+    return mHitRatios[point];
+  }
+
+  /** Gets the estimated miss ratio, between 0 and 1, of the given point. */
+  public float getMissRatio(int point) {
+    return 1 - mHitRatios[point];
+  }
+
+  /** Gets the number of lookups the curve is based on. */
+  public long getRequestCount() {
+    return mRequestCount;
+  }
+}
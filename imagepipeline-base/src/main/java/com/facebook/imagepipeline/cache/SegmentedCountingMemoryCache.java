@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import android.os.SystemClock;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * {@link CountingCache} that spreads its keys over several independent segments.
+ *
+ * <p> Each segment is a regular {@link CountingMemoryCache} with its own lock, LRU maps and byte
+ * budget, so that lookups of keys that fall into different segments never contend with each
+ * other.
+ *
+ * <p> The global {@link MemoryCacheParams} limits are split among the segments. Every
+ * {@link #REBALANCE_INTERVAL_MS} the split is recomputed: each segment is guaranteed half of an
+ * equal share and the rest of the budget is distributed proportionally to the current segment
+ * sizes. The sum of the segment limits never exceeds the global limits. The new segment limits
+ * are enforced by the next operation on each segment, not by the thread that rebalances.
+ *
+ * <p> Whether a new value can be cached is decided against the global limits, so that a value
+ * as large as the global max entry size can be cached in any segment.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@ThreadSafe
+public class SegmentedCountingMemoryCache<K, V> implements CountingCache<K, V> {
+
+  // How often the segment budgets get redistributed.
+  @VisibleForTesting
+  static final long REBALANCE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
+
+  private final List<CountingMemoryCache<K, V>> mSegments;
+  private final ValueDescriptor<V> mValueDescriptor;
+  private final AtomicReferenceArray<MemoryCacheParams> mSegmentParams;
+  private final Supplier<MemoryCacheParams> mGlobalParamsSupplier;
+  private volatile MemoryCacheParams mGlobalParams;
+  private volatile long mLastGlobalParamsCheck;
+  private final AtomicLong mLastRebalance;
+  @Nullable private volatile ShadowCacheTracker<K> mShadowCacheTracker;
+  private volatile boolean mKeyGroupsIndexed;
+
+  public SegmentedCountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CountingMemoryCache.CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      int segmentCount) {
+    this(valueDescriptor, cacheTrimStrategy, memoryCacheParamsSupplier, segmentCount, null);
+  }
+
+  /**
+   * @param admissionPolicy shared by all the segments, it must therefore be thread-safe
+   */
+  public SegmentedCountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CountingMemoryCache.CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      int segmentCount,
+      @Nullable CountingMemoryCache.CacheAdmissionPolicy<K> admissionPolicy) {
+    Preconditions.checkArgument(segmentCount > 0);
+    mValueDescriptor = valueDescriptor;
+    mGlobalParamsSupplier = memoryCacheParamsSupplier;
+    mGlobalParams = memoryCacheParamsSupplier.get();
+    mLastGlobalParamsCheck = SystemClock.uptimeMillis();
+    mLastRebalance = new AtomicLong(mLastGlobalParamsCheck);
+    mSegmentParams = new AtomicReferenceArray<>(segmentCount);
+    mSegments = new ArrayList<>(segmentCount);
+    for (int i = 0; i < segmentCount; i++) {
+      mSegmentParams.set(i, getEqualShare(mGlobalParams, segmentCount));
+      mSegments.add(
+          new CountingMemoryCache<K, V>(
+              valueDescriptor,
+              cacheTrimStrategy,
+              newSegmentParamsSupplier(i),
+              admissionPolicy) {
+            @Override
+            boolean canCacheNewValue(V value) {
+              return canCacheNewValueInSegments(value);
+            }
+          });
+    }
+  }
+
+  /**
+   * Checks the new value against the limits of the whole cache rather than against the share of
+   * its segment, so that a value the global budget has room for is cached even if its segment
+   * already has other items in use.
+   *
+   * <p> Called with the lock of the segment held, the other segments are therefore only peeked at
+   * without taking their locks.
+   */
+  private boolean canCacheNewValueInSegments(V value) {
+    final MemoryCacheParams globalParams = mGlobalParams;
+    final int newValueSize = mValueDescriptor.getSizeInBytes(value);
+    long inUseSize = 0;
+    int inUseCount = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      inUseSize += segment.peekInUseSizeInBytes();
+      inUseCount += segment.peekInUseCount();
+    }
+    return (newValueSize <= globalParams.maxCacheEntrySize)
+        && (inUseCount <= globalParams.maxCacheEntries - 1)
+        && (inUseSize <= globalParams.maxCacheSize - newValueSize);
+  }
+
+  private Supplier<MemoryCacheParams> newSegmentParamsSupplier(final int segmentIndex) {
+    return new Supplier<MemoryCacheParams>() {
+      @Override
+      public MemoryCacheParams get() {
+        return mSegmentParams.get(segmentIndex);
+      }
+    };
+  }
+
+  @Override
+  public CloseableReference<V> cache(final K key, final CloseableReference<V> valueRef) {
+    return cache(key, valueRef, null);
+  }
+
+  @Override
+  public @Nullable CloseableReference<V> cache(
+      final K key,
+      final CloseableReference<V> valueRef,
+      final @Nullable CountingMemoryCache.EntryStateObserver<K> observer) {
+    Preconditions.checkNotNull(key);
+    maybeRebalance();
+    CloseableReference<V> clientRef = getSegment(key).cache(key, valueRef, observer);
+    if (clientRef != null) {
+      maybeTrackPut(key, clientRef);
+    }
+    return clientRef;
+  }
+
+  @Override
+  @Nullable
+  public CloseableReference<V> get(final K key) {
+    Preconditions.checkNotNull(key);
+    maybeRebalance();
+    CloseableReference<V> clientRef = getSegment(key).get(key);
+    maybeTrackGet(key, clientRef);
+    return clientRef;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p> The keys of a group may be spread over several segments, the most recently cached match of
+   * all the segments is returned.
+   */
+  @Override
+  @Nullable
+  public CloseableReference<V> getMatchingInGroup(
+      String group, Predicate<K> keyPredicate, Predicate<V> valuePredicate) {
+    if (!mKeyGroupsIndexed) {
+      return null;
+    }
+    maybeRebalance();
+    CountingMemoryCache<K, V> matchingSegment = null;
+    long matchingSequenceNumber = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      CountingMemoryCache.Entry<K, V> entry =
+          segment.getMostRecentEntryInGroup(group, keyPredicate, valuePredicate);
+      if (entry != null && entry.sequenceNumber > matchingSequenceNumber) {
+        matchingSegment = segment;
+        matchingSequenceNumber = entry.sequenceNumber;
+      }
+    }
+    // the segment may have changed in the meantime, in which case its current match is returned
+    return (matchingSegment == null)
+        ? null
+        : matchingSegment.getMatchingInGroup(group, keyPredicate, valuePredicate);
+  }
+
+  @Override
+  public void setKeyGrouper(@Nullable KeyGrouper<K> keyGrouper) {
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      segment.setKeyGrouper(keyGrouper);
+    }
+    mKeyGroupsIndexed = keyGrouper != null;
+  }
+
+  @Override
+  @Nullable
+  public CloseableReference<V> reuse(K key) {
+    Preconditions.checkNotNull(key);
+    return getSegment(key).reuse(key);
+  }
+
+  @Override
+  public int removeAll(Predicate<K> predicate) {
+    int removed = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      removed += segment.removeAll(predicate);
+    }
+    return removed;
+  }
+
+  @Override
+  public void clear() {
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      segment.clear();
+    }
+  }
+
+  @Override
+  public boolean contains(Predicate<K> predicate) {
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      if (segment.contains(predicate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean contains(K key) {
+    return getSegment(key).contains(key);
+  }
+
+  @Override
+  public void trim(MemoryTrimType trimType) {
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      segment.trim(trimType);
+    }
+  }
+
+  @Override
+  public int getCount() {
+    int count = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      count += segment.getCount();
+    }
+    return count;
+  }
+
+  @Override
+  public int getSizeInBytes() {
+    int size = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      size += segment.getSizeInBytes();
+    }
+    return size;
+  }
+
+  @Override
+  public int getInUseCount() {
+    int count = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      count += segment.getInUseCount();
+    }
+    return count;
+  }
+
+  @Override
+  public int getInUseSizeInBytes() {
+    int size = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      size += segment.getInUseSizeInBytes();
+    }
+    return size;
+  }
+
+  @Override
+  public int getEvictionQueueCount() {
+    int count = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      count += segment.getEvictionQueueCount();
+    }
+    return count;
+  }
+
+  @Override
+  public int getEvictionQueueSizeInBytes() {
+    int size = 0;
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      size += segment.getEvictionQueueSizeInBytes();
+    }
+    return size;
+  }
+
+  @Override
+  public void setDeferredReferenceReleaser(@Nullable DeferredReferenceReleaser referenceReleaser) {
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      segment.setDeferredReferenceReleaser(referenceReleaser);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p> The tracker simulates one cache of the global budget, not the individual segments.
+   */
+  @Override
+  public void setShadowCacheTracker(@Nullable ShadowCacheTracker<K> shadowCacheTracker) {
+    mShadowCacheTracker = shadowCacheTracker;
+  }
+
+  /** Gets the global cache params, the segments enforce their share of them. */
+  @Override
+  public MemoryCacheParams getMemoryCacheParams() {
+    return mGlobalParams;
+  }
+
+  @Override
+  public List<K> getHottestKeys(int maxCount) {
+    ArrayList<CountingMemoryCache.Entry<K, V>> entries = new ArrayList<>();
+    for (CountingMemoryCache<K, V> segment : mSegments) {
+      entries.addAll(segment.getHottestEntries(maxCount));
+    }
+    entries = CountingMemoryCache.sortByHitCount(entries, maxCount);
+    List<K> keys = new ArrayList<>(entries.size());
+    for (CountingMemoryCache.Entry<K, V> entry : entries) {
+      keys.add(entry.key);
+    }
+    return keys;
+  }
+
+  private void maybeTrackGet(K key, @Nullable CloseableReference<V> clientRef) {
+    ShadowCacheTracker<K> shadowCacheTracker = mShadowCacheTracker;
+    if (shadowCacheTracker != null) {
+      int sizeInBytes = (clientRef == null) ? -1 : mValueDescriptor.getSizeInBytes(clientRef.get());
+      shadowCacheTracker.onCacheGet(key, sizeInBytes, mGlobalParams);
+    }
+  }
+
+  private void maybeTrackPut(K key, CloseableReference<V> clientRef) {
+    ShadowCacheTracker<K> shadowCacheTracker = mShadowCacheTracker;
+    if (shadowCacheTracker != null) {
+      shadowCacheTracker.onCachePut(
+          key, mValueDescriptor.getSizeInBytes(clientRef.get()), mGlobalParams);
+    }
+  }
+
+  /** Gets the number of segments. */
+  public int getSegmentCount() {
+    return mSegments.size();
+  }
+
+  /** Gets the segments, for the tools that inspect the cache content. */
+  List<CountingMemoryCache<K, V>> getSegments() {
+    return mSegments;
+  }
+
+  @VisibleForTesting
+  CountingMemoryCache<K, V> getSegment(K key) {
+    int hash = key.hashCode();
+    // spread the higher bits, as the modulo only looks at the lower ones
+    hash ^= (hash >>> 16);
+    return mSegments.get((hash & Integer.MAX_VALUE) % mSegments.size());
+  }
+
+  @VisibleForTesting
+  MemoryCacheParams getSegmentParams(int segmentIndex) {
+    return mSegmentParams.get(segmentIndex);
+  }
+
+  /**
+   * Rebalances the segment budgets if enough time has passed since the last rebalance.
+   *
+   * <p> Only one of the racing threads gets to perform the rebalance, the others return
+   * immediately.
+   */
+  private void maybeRebalance() {
+    long now = SystemClock.uptimeMillis();
+    long lastRebalance = mLastRebalance.get();
+    if (lastRebalance + REBALANCE_INTERVAL_MS > now
+        || !mLastRebalance.compareAndSet(lastRebalance, now)) {
+      return;
+    }
+    if (mLastGlobalParamsCheck + CountingMemoryCache.PARAMS_INTERCHECK_INTERVAL_MS <= now) {
+      mLastGlobalParamsCheck = now;
+      mGlobalParams = mGlobalParamsSupplier.get();
+    }
+    rebalance();
+  }
+
+  /** Redistributes the global budget among the segments according to their current usage. */
+  @VisibleForTesting
+  void rebalance() {
+    final MemoryCacheParams globalParams = mGlobalParams;
+    final int segmentCount = mSegments.size();
+    final int[] sizes = new int[segmentCount];
+    final int[] counts = new int[segmentCount];
+    long totalSize = 0;
+    long totalCount = 0;
+    for (int i = 0; i < segmentCount; i++) {
+      CountingMemoryCache<K, V> segment = mSegments.get(i);
+      sizes[i] = segment.getSizeInBytes();
+      counts[i] = segment.getCount();
+      totalSize += sizes[i];
+      totalCount += counts[i];
+    }
+    for (int i = 0; i < segmentCount; i++) {
+      MemoryCacheParams segmentParams =
+          new MemoryCacheParams(
+              getShare(globalParams.maxCacheSize, sizes[i], totalSize, segmentCount),
+              getShare(globalParams.maxCacheEntries, counts[i], totalCount, segmentCount),
+              getShare(globalParams.maxEvictionQueueSize, sizes[i], totalSize, segmentCount),
+              getShare(globalParams.maxEvictionQueueEntries, counts[i], totalCount, segmentCount),
+              globalParams.maxCacheEntrySize,
+              globalParams.protectedEvictionQueueRatio);
+      mSegmentParams.set(i, segmentParams);
+      mSegments.get(i).forceUpdateCacheParams(segmentParams);
+    }
+  }
+
+  private static MemoryCacheParams getEqualShare(MemoryCacheParams params, int segmentCount) {
+    return new MemoryCacheParams(
+        params.maxCacheSize / segmentCount,
+        params.maxCacheEntries / segmentCount,
+        params.maxEvictionQueueSize / segmentCount,
+        params.maxEvictionQueueEntries / segmentCount,
+        params.maxCacheEntrySize,
+        params.protectedEvictionQueueRatio);
+  }
+
+  /**
+   * Computes the share of the global limit for a segment: half of an equal share is guaranteed,
+   * the remainder is distributed proportionally to the segment usage.
+   */
+  @VisibleForTesting
+  static int getShare(int globalLimit, int segmentUsage, long totalUsage, int segmentCount) {
+    long guaranteed = globalLimit / (2L * segmentCount);
+    long remainder = globalLimit - guaranteed * segmentCount;
+    long proportional =
+        (totalUsage == 0) ? remainder / segmentCount : remainder * segmentUsage / totalUsage;
+    return (int) (guaranteed + proportional);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Estimates the miss-ratio curve of a {@link CountingMemoryCache} at runtime.
+ *
+ * <p> For each of the {@link #DEFAULT_BUDGET_MULTIPLIERS}, the tracker simulates an LRU cache
+ * whose byte and entry limits are that multiple of the current limits of the real cache. The
+ * simulated caches only keep the keys and the sizes of the values, including the ghosts of the
+ * entries the real cache already evicted. They hold no values, but the keys are kept until the
+ * simulated caches evict them, so at most {@code maxTrackedKeys} keys are tracked.
+ *
+ * <p> The resulting {@link MissRatioCurve} tells how many more hits a bigger cache would get, or
+ * how few hits would be lost with a smaller one, so that a {@code Supplier<MemoryCacheParams>}
+ * can size the cache according to the observed working set.
+ *
+ * <p> Attach the tracker with {@link CountingMemoryCache#setShadowCacheTracker}, or set it with
+ * {@code ImagePipelineConfig.Builder#setBitmapMemoryCacheShadowCacheTracker} for the bitmap
+ * memory cache of the pipeline.
+ */
+@ThreadSafe
+public class ShadowCacheTracker<K> {
+
+  public static final float[] DEFAULT_BUDGET_MULTIPLIERS = new float[] {0.5f, 1f, 2f, 4f};
+
+  // Hard limit on the keys tracked by the biggest simulated cache, to bound the memory overhead.
+  @VisibleForTesting static final int DEFAULT_MAX_TRACKED_KEYS = 4096;
+
+  /** LRU cache simulated over the keys and the sizes of the values. */
+  private static class ShadowCache<K> {
+    private final float mBudgetMultiplier;
+    private final int mMaxKeys;
+    // access-ordered, the least recently used key comes first
+    private final LinkedHashMap<K, Integer> mSizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSizeInBytes;
+    private long mHitCount;
+
+    private ShadowCache(float budgetMultiplier, int maxKeys) {
+      mBudgetMultiplier = budgetMultiplier;
+      mMaxKeys = maxKeys;
+    }
+
+    private long getMaxSizeInBytes(MemoryCacheParams params) {
+      return (long) (params.maxCacheSize * (double) mBudgetMultiplier);
+    }
+
+    private long getMaxCount(MemoryCacheParams params) {
+      return Math.min(mMaxKeys, (long) (params.maxCacheEntries * (double) mBudgetMultiplier));
+    }
+
+    /** Looks the key up, moving it to the most recently used position if present. */
+    private boolean get(K key) {
+      if (mSizes.get(key) != null) {
+        mHitCount++;
+        return true;
+      }
+      return false;
+    }
+
+    private void put(K key, int sizeInBytes, MemoryCacheParams params) {
+      Integer oldSize = mSizes.put(key, sizeInBytes);
+      if (oldSize != null) {
+        mSizeInBytes -= oldSize;
+      }
+      mSizeInBytes += sizeInBytes;
+      trim(params);
+    }
+
+    private void trim(MemoryCacheParams params) {
+      long maxSizeInBytes = getMaxSizeInBytes(params);
+      long maxCount = getMaxCount(params);
+      Iterator<Map.Entry<K, Integer>> iterator = mSizes.entrySet().iterator();
+      while ((mSizeInBytes > maxSizeInBytes || mSizes.size() > maxCount) && iterator.hasNext()) {
+        mSizeInBytes -= iterator.next().getValue();
+        iterator.remove();
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private final List<ShadowCache<K>> mShadowCaches;
+  @GuardedBy("this")
+  private long mRequestCount;
+
+  public ShadowCacheTracker() {
+    this(DEFAULT_BUDGET_MULTIPLIERS, DEFAULT_MAX_TRACKED_KEYS);
+  }
+
+  /**
+   * @param budgetMultipliers the multiples of the real cache budget to simulate
+   * @param maxTrackedKeys the maximum number of keys tracked by the biggest simulated cache, the
+   *     smaller ones track proportionally fewer keys
+   */
+  public ShadowCacheTracker(float[] budgetMultipliers, int maxTrackedKeys) {
+    float maxMultiplier = 0;
+    for (float budgetMultiplier : budgetMultipliers) {
+      maxMultiplier = Math.max(maxMultiplier, budgetMultiplier);
+    }
+    mShadowCaches = new ArrayList<>(budgetMultipliers.length);
+    for (float budgetMultiplier : budgetMultipliers) {
+      int maxKeys = (int) Math.max(1, maxTrackedKeys * budgetMultiplier / maxMultiplier);
+      mShadowCaches.add(new ShadowCache<K>(budgetMultiplier, maxKeys));
+    }
+  }
+
+  /**
+   * Called on every lookup of the real cache.
+   *
+   * @param sizeInBytes the size of the value if the lookup was a hit, -1 if it was a miss
+   * @param params the current limits of the real cache
+   */
+  public synchronized void onCacheGet(K key, int sizeInBytes, MemoryCacheParams params) {
+    mRequestCount++;
+    for (ShadowCache<K> shadowCache : mShadowCaches) {
+      if (!shadowCache.get(key) && sizeInBytes >= 0) {
+        // the real cache still has a value the simulated one has evicted, the simulated cache
+        // would have fetched it again
+        shadowCache.put(key, sizeInBytes, params);
+      }
+    }
+  }
+
+  /**
+   * Called when a value is cached by the real cache.
+   *
+   * @param params the current limits of the real cache
+   */
+  public synchronized void onCachePut(K key, int sizeInBytes, MemoryCacheParams params) {
+    for (ShadowCache<K> shadowCache : mShadowCaches) {
+      shadowCache.put(key, sizeInBytes, params);
+    }
+  }
+
+  /** Gets the miss-ratio curve observed since the creation or the last reset of the tracker. */
+  public synchronized MissRatioCurve getMissRatioCurve() {
+    float[] budgetMultipliers = new float[mShadowCaches.size()];
+    float[] hitRatios = new float[mShadowCaches.size()];
+    for (int i = 0; i < mShadowCaches.size(); i++) {
+      ShadowCache<K> shadowCache = mShadowCaches.get(i);
+      budgetMultipliers[i] = shadowCache.mBudgetMultiplier;
+      hitRatios[i] = (mRequestCount == 0) ? 0 : (float) shadowCache.mHitCount / mRequestCount;
+    }
+    return new MissRatioCurve(budgetMultipliers, hitRatios, mRequestCount);
+  }
+
+  /**
+   * Resets the hit and request counters, e.g. to start a new observation window. The tracked
+   * keys are kept.
+   */
+  public synchronized void resetCounters() {
+    mRequestCount = 0;
+    for (ShadowCache<K> shadowCache : mShadowCaches) {
+      shadowCache.mHitCount = 0;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * TinyLFU admission policy for the {@link CountingMemoryCache}.
+ *
+ * <p> Every lookup is recorded in a {@link FrequencySketch}. While the cache has room, new entries
+ * are always admitted. Once caching a new entry would require an eviction, the new entry is
+ * admitted only if its key has been requested at least as often as the key of the least recently
+ * used entry that would be evicted in its place. Ties go to the new entry, as with plain LRU, so
+ * that an image requested once replaces an old image that was also requested only once. This
+ * keeps frequently shown images (avatars, icons) from being pushed out by a burst of one-off
+ * images.
+ *
+ * <p> Unlike W-TinyLFU, there is no admission window: a new entry gets no chance to build up its
+ * frequency in the cache before it has to win against the victim.
+ *
+ * <p> The keys are spread over several sketches, each with its own lock, the same way a
+ * {@link SegmentedCountingMemoryCache} spreads them over its segments. An instance can therefore
+ * be shared by the segments without them contending on it, but should not be shared between
+ * different caches.
+ */
+@ThreadSafe
+public class TinyLfuAdmissionPolicy<K> implements CountingMemoryCache.CacheAdmissionPolicy<K> {
+
+  @VisibleForTesting static final int DEFAULT_STRIPE_COUNT = 8;
+
+  // Below this number of expected keys per sketch, the estimates get too coarse.
+  @VisibleForTesting static final int MIN_EXPECTED_KEYS_PER_STRIPE = 64;
+
+  private final List<FrequencySketch<K>> mSketches;
+
+  /** @param expectedEntries the expected number of distinct keys requested from the cache */
+  public TinyLfuAdmissionPolicy(int expectedEntries) {
+    this(
+        expectedEntries,
+        Math.max(
+            1,
+            Math.min(DEFAULT_STRIPE_COUNT, expectedEntries / MIN_EXPECTED_KEYS_PER_STRIPE)));
+  }
+
+  /**
+   * @param expectedEntries the expected number of distinct keys requested from the cache
+   * @param stripeCount the number of independently locked sketches the keys are spread over
+   */
+  public TinyLfuAdmissionPolicy(int expectedEntries, int stripeCount) {
+    Preconditions.checkArgument(stripeCount > 0);
+    mSketches = new ArrayList<>(stripeCount);
+    for (int i = 0; i < stripeCount; i++) {
+      mSketches.add(new FrequencySketch<K>((expectedEntries + stripeCount - 1) / stripeCount));
+    }
+  }
+
+  @Override
+  public void recordAccess(K key) {
+    FrequencySketch<K> sketch = getSketch(key);
+    synchronized (sketch) {
+      sketch.increment(key);
+    }
+  }
+
+  @Override
+  public boolean admit(K candidate, K victim) {
+    return frequency(candidate) >= frequency(victim);
+  }
+
+  private int frequency(K key) {
+    FrequencySketch<K> sketch = getSketch(key);
+    synchronized (sketch) {
+      return sketch.frequency(key);
+    }
+  }
+
+  @VisibleForTesting
+  FrequencySketch<K> getSketch(K key) {
+    int hash = key.hashCode();
+    // spread the higher bits, as the modulo only looks at the lower ones
+    hash ^= (hash >>> 16);
+    return mSketches.get((hash & Integer.MAX_VALUE) % mSketches.size());
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.common.util.SecureHashUtil;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link CacheKeyUtil} */
+@RunWith(RobolectricTestRunner.class)
+public class CacheKeyUtilTest {
+
+  @Test
+  public void testSha1ResourceId() throws Exception {
+    CacheKey key = new SimpleCacheKey("http://www.facebook.com/image.jpg");
+    assertEquals(
+        SecureHashUtil.makeSHA1HashBase64("http://www.facebook.com/image.jpg".getBytes("UTF-8")),
+        CacheKeyUtil.getFirstResourceId(key));
+  }
+
+  @Test
+  public void testResourceIdsAreMemoized() {
+    CacheKey key = new SimpleCacheKey("http://www.facebook.com/image.jpg");
+    List<String> ids = CacheKeyUtil.getResourceIds(key);
+    assertSame(ids, CacheKeyUtil.getResourceIds(key));
+    assertSame(ids.get(0), CacheKeyUtil.getFirstResourceId(key));
+  }
+
+  @Test
+  public void testSchemes() {
+    CacheKey key = new SimpleCacheKey("http://www.facebook.com/image.jpg");
+    String sha1Id = CacheKeyUtil.getFirstResourceId(key, ResourceIdScheme.SHA1);
+    String murmurId = CacheKeyUtil.getFirstResourceId(key, ResourceIdScheme.MURMUR3_128);
+    assertNotEquals(sha1Id, murmurId);
+    assertEquals(22, murmurId.length());
+    assertEquals(
+        murmurId,
+        CacheKeyUtil.getFirstResourceId(
+            new SimpleCacheKey("http://www.facebook.com/image.jpg"),
+            ResourceIdScheme.MURMUR3_128));
+    assertEquals(sha1Id, CacheKeyUtil.getFirstResourceId(key, ResourceIdScheme.SHA1));
+  }
+
+  @Test
+  public void testMultiCacheKey() {
+    CacheKey key1 = new SimpleCacheKey("key1");
+    CacheKey key2 = new SimpleCacheKey("key2");
+    MultiCacheKey multiKey = new MultiCacheKey(Arrays.asList(key1, key2));
+    List<String> ids = CacheKeyUtil.getResourceIds(multiKey, ResourceIdScheme.MURMUR3_128);
+    assertEquals(
+        Arrays.asList(
+            CacheKeyUtil.getFirstResourceId(key1, ResourceIdScheme.MURMUR3_128),
+            CacheKeyUtil.getFirstResourceId(key2, ResourceIdScheme.MURMUR3_128)),
+        ids);
+    assertSame(ids, CacheKeyUtil.getResourceIds(multiKey, ResourceIdScheme.MURMUR3_128));
+    assertEquals(
+        ids.get(0), CacheKeyUtil.getFirstResourceId(multiKey, ResourceIdScheme.MURMUR3_128));
+  }
+}
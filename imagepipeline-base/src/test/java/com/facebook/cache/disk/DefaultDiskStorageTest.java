@@ -17,6 +17,7 @@ import static org.mockito.Mockito.when;
 import com.facebook.binaryresource.BinaryResource;
 import com.facebook.binaryresource.FileBinaryResource;
 import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.ResourceIdScheme;
 import com.facebook.cache.common.WriterCallback;
 import com.facebook.common.file.FileTree;
 import com.facebook.common.internal.Files;
@@ -27,12 +28,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Before;
@@ -82,6 +85,21 @@ public class DefaultDiskStorageTest {
     };
   }
 
+  private DefaultDiskStorage getJournaledStorage() {
+    return new DefaultDiskStorage(
+        mDirectory,
+        1,
+        mock(CacheErrorLogger.class),
+        DiskStorageOptions.newBuilder().setJournalEnabled(true).build());
+  }
+
+  private File getJournalFile() {
+    return new File(
+        mDirectory,
+        DefaultDiskStorage.getVersionSubdirectoryName(1)
+            + DiskStorageJournal.JOURNAL_FILE_EXTENSION);
+  }
+
   @Test
   public void testStartup() throws Exception {
     // create a bogus file
@@ -102,6 +120,33 @@ public class DefaultDiskStorageTest {
     Assert.assertTrue(new File(mDirectory, version2Dir).exists());
   }
 
+  @Test
+  public void testResourceIdSchemeChange() throws Exception {
+    DefaultDiskStorage storage = getStorageSupplier(1).get();
+    writeToStorage(storage, "R1", new byte[] {0, 1, 2});
+    Assert.assertEquals(
+        DefaultDiskStorage.getVersionSubdirectoryName(1),
+        DefaultDiskStorage.getVersionSubdirectoryName(1, ResourceIdScheme.SHA1));
+
+    // the resources stored with the previous scheme are dropped
+    storage =
+        new DefaultDiskStorage(
+            mDirectory,
+            1,
+            mock(CacheErrorLogger.class),
+            DiskStorageOptions.newBuilder()
+                .setResourceIdScheme(ResourceIdScheme.MURMUR3_128)
+                .build());
+    Assert.assertFalse(storage.contains("R1", null));
+    Assert.assertFalse(
+        new File(mDirectory, DefaultDiskStorage.getVersionSubdirectoryName(1)).exists());
+    Assert.assertTrue(
+        new File(
+                mDirectory,
+                DefaultDiskStorage.getVersionSubdirectoryName(1, ResourceIdScheme.MURMUR3_128))
+            .exists());
+  }
+
   @Test
   public void testIsEnabled() {
     DefaultDiskStorage storage = getStorageSupplier(1).get();
@@ -523,6 +568,172 @@ public class DefaultDiskStorageTest {
     Assert.assertEquals(files.get(2), entriesAfterRemoval.get(1).getResource().getFile());
   }
 
+  @Test
+  public void testJournalRestoresEntries() throws Exception {
+    DefaultDiskStorage storage = getJournaledStorage();
+    File file1 = writeFileToStorage(storage, "resource1", new byte[100]);
+    writeFileToStorage(storage, "resource2", new byte[200]);
+    writeFileToStorage(storage, "resource3", new byte[300]);
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(1));
+    storage.touch("resource1", null);
+    storage.remove("resource3");
+    assertTrue(getJournalFile().exists());
+
+    // the timestamp of the file no longer matters, entries come from the journal
+    assertTrue(file1.setLastModified(TimeUnit.HOURS.toMillis(5)));
+    storage = getJournaledStorage();
+    purgeUnexpectedFiles(storage);
+    assertTrue(getJournalFile().exists());
+    List<DefaultDiskStorage.EntryImpl> entries = retrieveEntries(storage);
+    assertEquals(2, entries.size());
+    assertEquals("resource2", entries.get(0).getId());
+    assertEquals(200, entries.get(0).getSize());
+    assertEquals("resource1", entries.get(1).getId());
+    assertEquals(100, entries.get(1).getSize());
+    assertEquals(TimeUnit.HOURS.toMillis(1), entries.get(1).getTimestamp());
+  }
+
+  @Test
+  public void testCorruptJournalIsRebuilt() throws Exception {
+    DefaultDiskStorage storage = getJournaledStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+    writeFileToStorage(storage, "resource2", new byte[200]);
+
+    FileOutputStream fos = new FileOutputStream(getJournalFile());
+    try {
+      fos.write(new byte[] {1, 2, 3});
+    } finally {
+      fos.close();
+    }
+    storage = getJournaledStorage();
+    assertEquals(2, storage.getEntries().size());
+    // the rebuilt journal is used by the next instance
+    storage = getJournaledStorage();
+    assertEquals(2, storage.getEntries().size());
+    assertTrue(getJournalFile().length() > 3);
+  }
+
+  @Test
+  public void testInterruptedInsertsAreResolvedOnLoad() throws Exception {
+    DefaultDiskStorage storage = getJournaledStorage();
+    writeFileToStorage(storage, "resource1", new byte[100]);
+
+    // a crash after the rename of resource2, and before the rename of resource3
+    DiskStorageJournal journal =
+        new DiskStorageJournal(
+            mDirectory,
+            DefaultDiskStorage.getVersionSubdirectoryName(1),
+            mock(CacheErrorLogger.class));
+    journal.recordPendingInsert("resource2", 200, 0);
+    journal.recordPendingInsert("resource3", 300, 0);
+    writeFileToStorage(
+        new DefaultDiskStorage(mDirectory, 1, mock(CacheErrorLogger.class)),
+        "resource2",
+        new byte[200]);
+
+    storage = getJournaledStorage();
+    Set<String> ids = new HashSet<>();
+    for (DiskStorage.Entry entry : storage.getEntries()) {
+      ids.add(entry.getId());
+    }
+    assertEquals(new HashSet<>(Arrays.asList("resource1", "resource2")), ids);
+    // the resolved inserts are journaled
+    assertEquals(2, getJournaledStorage().getEntries().size());
+  }
+
+  @Test
+  public void testJournalIsReconciledByPurge() throws Exception {
+    DefaultDiskStorage storage = getJournaledStorage();
+    File file1 = writeFileToStorage(storage, "resource1", new byte[100]);
+    writeFileToStorage(storage, "resource2", new byte[200]);
+    assertEquals(2, storage.getEntries().size());
+
+    // a file deleted behind the storage's back is dropped from the journal
+    assertTrue(file1.delete());
+    when(mClock.now()).thenReturn(TimeUnit.HOURS.toMillis(1));
+    purgeUnexpectedFiles(storage);
+    List<DiskStorage.Entry> entries = storage.getEntries();
+    assertEquals(1, entries.size());
+    assertEquals("resource2", entries.get(0).getId());
+
+    storage.clearAll();
+    assertTrue(storage.getEntries().isEmpty());
+  }
+
+  @Test
+  public void testBatchedTouchesAreWrittenBeforeListing() throws Exception {
+    List<Runnable> flushes = new ArrayList<>();
+    DefaultDiskStorage storage = getStorageWithBatchedTouches(flushes);
+    File file1 = writeFileToStorage(storage, "resource1", new byte[100]);
+    assertTrue(Math.abs(file1.lastModified()) <= 500);
+
+    long time2 = TimeUnit.HOURS.toMillis(1);
+    when(mClock.now()).thenReturn(time2);
+    assertTrue(storage.touch("resource1", null));
+    assertTrue(storage.getResource("resource1", null) != null);
+    // the file is not updated on access
+    assertTrue(Math.abs(file1.lastModified()) <= 500);
+    assertTrue(flushes.isEmpty());
+
+    List<DiskStorage.Entry> entries = storage.getEntries();
+    assertEquals(1, entries.size());
+    assertEquals(time2, entries.get(0).getTimestamp());
+  }
+
+  @Test
+  public void testBatchedTouchesAreFlushedOnExecutor() throws Exception {
+    List<Runnable> flushes = new ArrayList<>();
+    DefaultDiskStorage storage = getStorageWithBatchedTouches(flushes);
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < DefaultDiskStorage.MAX_PENDING_TOUCHES; i++) {
+      files.add(writeFileToStorage(storage, "resource" + i, new byte[10]));
+    }
+    long time2 = TimeUnit.HOURS.toMillis(1);
+    when(mClock.now()).thenReturn(time2);
+    for (int i = 0; i < DefaultDiskStorage.MAX_PENDING_TOUCHES; i++) {
+      // repeated accesses are coalesced
+      storage.touch("resource" + i, null);
+      storage.touch("resource" + i, null);
+    }
+    assertEquals(1, flushes.size());
+    // a removed resource is not written back
+    storage.remove("resource0");
+    flushes.get(0).run();
+    assertFalse(files.get(0).exists());
+    for (int i = 1; i < files.size(); i++) {
+      assertTrue(Math.abs(files.get(i).lastModified() - time2) <= 500);
+    }
+  }
+
+  @Test
+  public void testStaleBatchedTouchesAreFlushed() throws Exception {
+    List<Runnable> flushes = new ArrayList<>();
+    DefaultDiskStorage storage = getStorageWithBatchedTouches(flushes);
+    writeFileToStorage(storage, "resource1", new byte[10]);
+    writeFileToStorage(storage, "resource2", new byte[10]);
+    storage.touch("resource1", null);
+    assertTrue(flushes.isEmpty());
+    when(mClock.now()).thenReturn(DefaultDiskStorage.MAX_TOUCH_STALENESS_MS);
+    storage.touch("resource2", null);
+    assertEquals(1, flushes.size());
+  }
+
+  private DefaultDiskStorage getStorageWithBatchedTouches(final List<Runnable> flushes) {
+    return new DefaultDiskStorage(
+        mDirectory,
+        1,
+        mock(CacheErrorLogger.class),
+        DiskStorageOptions.newBuilder()
+            .setTouchFlushExecutor(
+                new Executor() {
+                  @Override
+                  public void execute(Runnable runnable) {
+                    flushes.add(runnable);
+                  }
+                })
+            .build());
+  }
+
   private static FileBinaryResource writeToStorage(
       final DefaultDiskStorage storage,
       final String resourceId,
@@ -15,6 +15,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
@@ -47,6 +49,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CyclicBarrier;
@@ -57,6 +61,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
@@ -131,6 +137,23 @@ public class DiskStorageCacheTest {
   private DiskStorageCache createDiskCache(
       DiskStorage diskStorage,
       boolean indexPopulateAtStartupEnabled) {
+    return createDiskCache(
+        diskStorage, indexPopulateAtStartupEnabled, new DefaultEntryEvictionComparatorSupplier());
+  }
+
+  private DiskStorageCache createDiskCache(
+      DiskStorage diskStorage,
+      boolean indexPopulateAtStartupEnabled,
+      EntryEvictionComparatorSupplier entryEvictionComparatorSupplier) {
+    return createDiskCache(
+        diskStorage, indexPopulateAtStartupEnabled, entryEvictionComparatorSupplier, false);
+  }
+
+  private DiskStorageCache createDiskCache(
+      DiskStorage diskStorage,
+      boolean indexPopulateAtStartupEnabled,
+      EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+      boolean negativeLookupFilterEnabled) {
     DiskStorageCache.Params diskStorageCacheParams =
         new DiskStorageCache.Params(
             0,
@@ -141,14 +164,15 @@ public class DiskStorageCacheTest {
 
     return new DiskStorageCache(
         diskStorage,
-        new DefaultEntryEvictionComparatorSupplier(),
+        entryEvictionComparatorSupplier,
         diskStorageCacheParams,
         new DuplicatingCacheEventListener(mCacheEventListener),
         mock(CacheErrorLogger.class),
         mDiskTrimmableRegistry,
         context,
         mBackgroundExecutor,
-        indexPopulateAtStartupEnabled);
+        indexPopulateAtStartupEnabled,
+        negativeLookupFilterEnabled);
   }
 
   @Test
@@ -511,6 +535,47 @@ public class DiskStorageCacheTest {
     t2.join(1000);
   }
 
+  /**
+   * Verify that reads of resources that use different locks do not wait for each other.
+   */
+  @Test
+  public void testConcurrentReads() throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(3);
+    DiskStorage storageMock = mock(DiskStorage.class);
+    when(storageMock.getResource(anyString(), any()))
+        .thenAnswer(
+            new Answer<BinaryResource>() {
+              @Override
+              public BinaryResource answer(InvocationOnMock invocation) throws Throwable {
+                // if reads are serialized, the second reader never gets here
+                barrier.await(10, TimeUnit.SECONDS);
+                return mock(BinaryResource.class);
+              }
+            });
+    final DiskStorageCache cache = createDiskCache(storageMock, false);
+    final CacheKey key1 = new SimpleCacheKey("concurrent1");
+    final CacheKey key2 = new SimpleCacheKey("concurrent2");
+    assertThat(cache.getResourceLock(CacheKeyUtil.getFirstResourceId(key1)))
+        .isNotSameAs(cache.getResourceLock(CacheKeyUtil.getFirstResourceId(key2)));
+    Thread t1 = runReadInSeparateThread(cache, key1);
+    Thread t2 = runReadInSeparateThread(cache, key2);
+    barrier.await(10, TimeUnit.SECONDS);
+    t1.join(1000);
+    t2.join(1000);
+  }
+
+  private static Thread runReadInSeparateThread(final DiskStorageCache cache, final CacheKey key) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        cache.getResource(key);
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
   @Test
   public void testIsEnabled() throws Exception {
     DiskStorage storageMock = mock(DiskStorage.class);
@@ -636,6 +701,101 @@ public class DiskStorageCacheTest {
     assertThat(cache.isIndexReady()).isTrue();
   }
 
+  @Test
+  public void testNegativeLookupFilter() throws Exception {
+    CacheKey key = putOneThingInCache();
+    CacheKey missingKey = new SimpleCacheKey("missing");
+    assertFalse(mCache.isMissingSync(missingKey));
+
+    // A new cache object in the same directory. The filter is built once the index is populated.
+    DiskStorageCache cache =
+        createDiskCache(mStorage, true, new DefaultEntryEvictionComparatorSupplier(), true);
+    assertFalse(cache.isMissingSync(missingKey));
+    mBackgroundExecutor.runUntilIdle();
+    assertTrue(cache.isMissingSync(missingKey));
+    assertFalse(cache.isMissingSync(key));
+
+    CacheKey newKey = new SimpleCacheKey("new");
+    cache.insert(newKey, WriterCallbacks.from(new byte[10]));
+    assertFalse(cache.isMissingSync(newKey));
+
+    cache.clearAll();
+    assertTrue(cache.isMissingSync(key));
+    assertTrue(cache.isMissingSync(newKey));
+  }
+
+  @Test
+  public void testRemovalDuringListingIsReplayed() throws Exception {
+    final CacheKey key = putOneThingInCache();
+    final List<DiskStorageCache> caches = new ArrayList<>();
+    DiskStorage storage =
+        new DiskStorageWithReadFailures(
+            TESTCACHE_VERSION_START_OF_VERSIONING,
+            Suppliers.of(RuntimeEnvironment.application.getApplicationContext().getCacheDir()),
+            CACHE_TYPE,
+            mock(CacheErrorLogger.class)) {
+          @Override
+          public Collection<Entry> getEntries() throws IOException {
+            Collection<Entry> entries = super.getEntries();
+            // the listing does not block the other operations
+            caches.get(0).remove(key);
+            return entries;
+          }
+        };
+    DiskStorageCache cache = createDiskCache(storage, true);
+    caches.add(cache);
+    mBackgroundExecutor.runUntilIdle();
+
+    assertEquals(0, cache.getCount());
+    assertEquals(0, cache.getSize());
+    assertFalse(cache.hasKeySync(key));
+  }
+
+  @Test
+  public void testBatchInsert() throws Exception {
+    putOneThingInCache();
+    long size = mCache.getSize();
+    long count = mCache.getCount();
+
+    CacheKey key1 = new SimpleCacheKey("bar");
+    CacheKey key2 = new SimpleCacheKey("duck");
+    byte[] value2 = new byte[20];
+    value2[10] = 'c';
+    List<BinaryResource> resources =
+        mCache.insert(
+            Arrays.asList(key1, key2),
+            Arrays.asList(WriterCallbacks.from(new byte[10]), WriterCallbacks.from(value2)));
+
+    assertEquals(2, resources.size());
+    assertEquals(10, resources.get(0).size());
+    assertArrayEquals(value2, getContents(resources.get(1)));
+    assertTrue(mCache.hasKeySync(key1));
+    assertArrayEquals(value2, getContents(getResource(key2)));
+    assertEquals(size + 30, mCache.getSize());
+    assertEquals(count + 2, mCache.getCount());
+  }
+
+  @Test
+  public void testBatchInsertEvictsWithinTheBatch() throws Exception {
+    CacheKey key1 = new SimpleCacheKey("foo");
+    CacheKey key2 = new SimpleCacheKey("bar");
+    CacheKey key3 = new SimpleCacheKey("foobar");
+    byte[] value3 = new byte[103];
+    value3[80] = 'e';
+    mCache.insert(
+        Arrays.asList(key1, key2, key3),
+        Arrays.asList(
+            WriterCallbacks.from(new byte[101]),
+            WriterCallbacks.from(new byte[102]),
+            WriterCallbacks.from(value3)));
+
+    // the first resource is evicted before the third one is written, as with single inserts
+    assertNull(getResource(key1));
+    assertNotNull(getResource(key2));
+    assertArrayEquals(value3, getContents(getResource(key3)));
+    assertEquals(205, mCache.getSize());
+  }
+
   @Test
   public void testClearIndex() throws Exception {
     CacheKey key = putOneThingInCache();
@@ -672,6 +832,47 @@ public class DiskStorageCacheTest {
     assertTrue(mCache.hasKey(key3));
   }
 
+  @Test
+  public void testSizeEvictionFollowsAccessOrder() throws Exception {
+    when(mClock.now()).thenReturn(TimeUnit.DAYS.toMillis(1));
+    CacheKey key1 = putOneThingInCache();
+    CacheKey key2 = new SimpleCacheKey("bar");
+    CacheKey key3 = new SimpleCacheKey("duck");
+    WriterCallback callback = WriterCallbacks.from(new byte[101]);
+    when(mClock.now()).thenReturn(TimeUnit.DAYS.toMillis(2));
+    mCache.insert(key2, callback);
+    // key1 becomes the most recently used entry
+    when(mClock.now()).thenReturn(TimeUnit.DAYS.toMillis(3));
+    assertNotNull(mCache.getResource(key1));
+    // now over limit. Next write will evict key2 only
+    when(mClock.now()).thenReturn(TimeUnit.DAYS.toMillis(4));
+    mCache.insert(key3, callback);
+    assertTrue(mCache.hasKey(key1));
+    assertFalse(mCache.hasKey(key2));
+    assertTrue(mCache.hasKey(key3));
+    assertEquals(202, mCache.getSize());
+    assertEquals(2, mCache.getCount());
+  }
+
+  @Test
+  public void testSizeEvictionWithScoreBasedComparator() throws Exception {
+    DiskStorageCache cache =
+        createDiskCache(mStorage, false, new ScoreBasedEvictionComparatorSupplier(0f, 1f));
+    when(mClock.now()).thenReturn(TimeUnit.DAYS.toMillis(1));
+    CacheKey smallKey = new SimpleCacheKey("small");
+    cache.insert(smallKey, WriterCallbacks.from(new byte[50]));
+    when(mClock.now()).thenReturn(TimeUnit.DAYS.toMillis(2));
+    CacheKey bigKey = new SimpleCacheKey("big");
+    cache.insert(bigKey, WriterCallbacks.from(new byte[160]));
+    // the biggest entry goes first, even though it is the most recent one
+    when(mClock.now()).thenReturn(TimeUnit.DAYS.toMillis(3));
+    CacheKey key3 = new SimpleCacheKey("duck");
+    cache.insert(key3, WriterCallbacks.from(new byte[10]));
+    assertTrue(cache.hasKey(smallKey));
+    assertFalse(cache.hasKey(bigKey));
+    assertTrue(cache.hasKey(key3));
+  }
+
   @Test
   public void testTimeEvictionClearsIndex() throws Exception {
     if(true)
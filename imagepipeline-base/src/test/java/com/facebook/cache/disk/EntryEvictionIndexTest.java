@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.facebook.binaryresource.BinaryResource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test for {@link EntryEvictionIndex} */
+public class EntryEvictionIndexTest {
+
+  private static final long FUTURE_THRESHOLD = 1000;
+
+  private List<DiskStorage.Entry> mEntries;
+
+  @Before
+  public void setUp() {
+    mEntries = new ArrayList<>();
+    mEntries.add(newEntry("a", 10, 300));
+    mEntries.add(newEntry("b", 20, 100));
+    mEntries.add(newEntry("c", 30, 200));
+    mEntries.add(newEntry("future", 40, 5000));
+  }
+
+  @Test
+  public void testPollsFutureEntriesThenOldestFirst() {
+    EntryEvictionIndex index = newIndex(new DefaultEntryEvictionComparatorSupplier());
+    assertEquals(4, index.size());
+    assertEquals("future", index.pollFirst().getId());
+    assertEquals("b", index.pollFirst().getId());
+    assertEquals("c", index.pollFirst().getId());
+    assertEquals("a", index.pollFirst().getId());
+    assertNull(index.pollFirst());
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testTouchPutAndRemove() {
+    EntryEvictionIndex index = newIndex(new DefaultEntryEvictionComparatorSupplier());
+    index.touch("b", 400);
+    index.touch("future", 350);
+    assertEquals(-1, index.put("d", mock(BinaryResource.class), 50, 250));
+    assertEquals(30, index.put("c", mock(BinaryResource.class), 35, 500));
+    assertEquals(20, index.remove("b").getSize());
+    assertFalse(index.contains("b"));
+    assertEquals("d", index.pollFirst().getId());
+    assertEquals("a", index.pollFirst().getId());
+    assertEquals("future", index.pollFirst().getId());
+    EntryEvictionIndex.IndexedEntry last = index.pollFirst();
+    assertEquals("c", last.getId());
+    assertEquals(35, last.getSize());
+    assertNull(index.pollFirst());
+  }
+
+  @Test
+  public void testScoreBasedOrder() {
+    mEntries.clear();
+    mEntries.add(newEntry("old", 0, 0));
+    mEntries.add(newEntry("recent", 0, TimeUnit.HOURS.toMillis(5)));
+    mEntries.add(newEntry("huge", TimeUnit.HOURS.toMillis(20), TimeUnit.HOURS.toMillis(10)));
+    EntryEvictionIndex index =
+        new EntryEvictionIndex(
+            new ScoreBasedEvictionComparatorSupplier(1f, 1f).get(), mEntries, Long.MAX_VALUE);
+    // the order only depends on the score differences, whatever the current time
+    assertEquals("huge", index.pollFirst().getId());
+    assertEquals("old", index.pollFirst().getId());
+    assertEquals("recent", index.pollFirst().getId());
+  }
+
+  private EntryEvictionIndex newIndex(EntryEvictionComparatorSupplier supplier) {
+    return new EntryEvictionIndex(supplier.get(), mEntries, FUTURE_THRESHOLD);
+  }
+
+  private static DiskStorage.Entry newEntry(String id, long size, long timestamp) {
+    DiskStorage.Entry entry = mock(DiskStorage.Entry.class);
+    when(entry.getId()).thenReturn(id);
+    when(entry.getSize()).thenReturn(size);
+    when(entry.getTimestamp()).thenReturn(timestamp);
+    return entry;
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.ResourceIdScheme;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.Suppliers;
+import com.facebook.common.time.SystemClock;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Tests for {@link PackFileDiskStorage} */
+@RunWith(RobolectricTestRunner.class)
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@PrepareOnlyThisForTest({SystemClock.class})
+public class PackFileDiskStorageTest {
+
+  private static final long MAX_SEGMENT_SIZE = 1000;
+
+  @Rule
+  public PowerMockRule rule = new PowerMockRule();
+
+  private File mDirectory;
+  private SystemClock mClock;
+
+  @Before
+  public void setUp() {
+    mClock = mock(SystemClock.class);
+    PowerMockito.mockStatic(SystemClock.class);
+    PowerMockito.when(SystemClock.get()).thenReturn(mClock);
+    mDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "pack-disk-storage-test");
+    mDirectory.mkdirs();
+    FileTree.deleteContents(mDirectory);
+  }
+
+  private PackFileDiskStorage createStorage() {
+    return new PackFileDiskStorage(mDirectory, 1, mock(CacheErrorLogger.class), MAX_SEGMENT_SIZE);
+  }
+
+  @Test
+  public void testInsertAndRead() throws Exception {
+    PackFileDiskStorage storage = createStorage();
+    byte[] value1 = newValue(100, 1);
+    byte[] value2 = newValue(200, 2);
+    BinaryResource resource1 = write(storage, "resource1", value1);
+    write(storage, "resource2", value2);
+
+    assertEquals(100, resource1.size());
+    assertArrayEquals(value1, resource1.read());
+    BinaryResource resource2 = storage.getResource("resource2", null);
+    assertNotNull(resource2);
+    assertArrayEquals(value2, resource2.read());
+    InputStream inputStream = resource2.openStream();
+    try {
+      assertArrayEquals(value2, ByteStreams.toByteArray(inputStream));
+    } finally {
+      inputStream.close();
+    }
+    assertTrue(storage.contains("resource1", null));
+    assertFalse(storage.contains("resource3", null));
+    assertNull(storage.getResource("resource3", null));
+  }
+
+  @Test
+  public void testEntriesAreRestored() throws Exception {
+    PackFileDiskStorage storage = createStorage();
+    write(storage, "resource1", newValue(100, 1));
+    write(storage, "resource2", newValue(100, 2));
+    when(mClock.now()).thenReturn(1000L);
+    write(storage, "resource1", newValue(50, 3));
+    assertEquals(100, storage.remove("resource2"));
+
+    storage = createStorage();
+    List<DiskStorage.Entry> entries = storage.getEntries();
+    assertEquals(1, entries.size());
+    assertEquals("resource1", entries.get(0).getId());
+    assertEquals(50, entries.get(0).getSize());
+    assertEquals(1000L, entries.get(0).getTimestamp());
+    assertArrayEquals(newValue(50, 3), entries.get(0).getResource().read());
+  }
+
+  @Test
+  public void testTornRecordIsDropped() throws Exception {
+    PackFileDiskStorage storage = createStorage();
+    write(storage, "resource1", newValue(100, 1));
+    write(storage, "resource2", newValue(100, 2));
+    File segment = getSegmentFiles()[0];
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    try {
+      file.setLength(file.length() - 10);
+    } finally {
+      file.close();
+    }
+
+    storage = createStorage();
+    assertTrue(storage.contains("resource1", null));
+    assertFalse(storage.contains("resource2", null));
+    // the storage keeps appending after the last good record
+    write(storage, "resource3", newValue(100, 3));
+    storage = createStorage();
+    assertEquals(2, storage.getEntries().size());
+    assertArrayEquals(newValue(100, 3), storage.getResource("resource3", null).read());
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    PackFileDiskStorage storage = createStorage();
+    for (int i = 0; i < 10; i++) {
+      write(storage, "resource" + i, newValue(200, i));
+    }
+    int segmentCount = storage.getSegmentCount();
+    assertTrue(segmentCount > 2);
+    for (int i = 0; i < 8; i++) {
+      storage.remove("resource" + i);
+    }
+
+    storage.purgeUnexpectedResources();
+    assertTrue(storage.getSegmentCount() < segmentCount);
+    assertEquals(storage.getSegmentCount(), getSegmentFiles().length);
+    assertEquals(2, storage.getEntries().size());
+    assertArrayEquals(newValue(200, 8), storage.getResource("resource8", null).read());
+
+    // the removed resources do not come back with the remaining segments
+    storage = createStorage();
+    assertEquals(2, storage.getEntries().size());
+    assertArrayEquals(newValue(200, 9), storage.getResource("resource9", null).read());
+  }
+
+  @Test
+  public void testUnreclaimedSpaceIsCompacted() throws Exception {
+    PackFileDiskStorage storage = createStorage();
+    // records of 227 bytes, 4 of them per segment
+    for (int i = 0; i < 10; i++) {
+      write(storage, "resource" + i, newValue(200, i));
+    }
+    assertEquals(3, storage.getSegmentCount());
+    assertEquals(0, storage.getUnreclaimedSize());
+    storage.remove("resource0");
+    // the removed record, and the tombstone appended to the last segment
+    assertEquals(227 + 39, storage.getUnreclaimedSize());
+    storage.remove("resource1");
+    assertEquals(3, storage.getSegmentCount());
+
+    // the third removal passes the maximum ratio, the first segment gets compacted
+    storage.remove("resource2");
+    assertEquals(3, storage.getUnreclaimedSize() / 39);
+    assertFalse(new File(getSegmentFiles()[0].getParentFile(), "segment-0.seg").exists());
+    assertEquals(7, storage.getEntries().size());
+    assertArrayEquals(newValue(200, 3), storage.getResource("resource3", null).read());
+  }
+
+  @Test
+  public void testRootDirectoryIsResolvedOnFirstUse() throws Exception {
+    final AtomicInteger resolveCount = new AtomicInteger();
+    PackFileDiskStorage storage =
+        new PackFileDiskStorage(
+            new Supplier<File>() {
+              @Override
+              public File get() {
+                resolveCount.incrementAndGet();
+                return mDirectory;
+              }
+            },
+            1,
+            mock(CacheErrorLogger.class),
+            MAX_SEGMENT_SIZE,
+            ResourceIdScheme.SHA1);
+    assertEquals(0, resolveCount.get());
+    write(storage, "resource1", newValue(100, 1));
+    assertEquals(1, storage.getEntries().size());
+    assertEquals(1, resolveCount.get());
+  }
+
+  @Test
+  public void testResourceIdSchemeChange() throws Exception {
+    write(createStorage(), "resource1", newValue(100, 1));
+    File sha1Directory =
+        new File(
+            mDirectory, PackFileDiskStorage.getVersionSubdirectoryName(1, ResourceIdScheme.SHA1));
+    assertTrue(sha1Directory.exists());
+
+    PackFileDiskStorage storage =
+        new PackFileDiskStorage(
+            Suppliers.of(mDirectory),
+            1,
+            mock(CacheErrorLogger.class),
+            MAX_SEGMENT_SIZE,
+            ResourceIdScheme.MURMUR3_128);
+    assertEquals(ResourceIdScheme.MURMUR3_128, storage.getResourceIdScheme());
+    assertTrue(storage.getEntries().isEmpty());
+    // the segments of the previous scheme are purged
+    storage.purgeUnexpectedResources();
+    assertFalse(sha1Directory.exists());
+  }
+
+  @Test
+  public void testClearAll() throws Exception {
+    PackFileDiskStorage storage = createStorage();
+    write(storage, "resource1", newValue(100, 1));
+    storage.clearAll();
+    assertTrue(storage.getEntries().isEmpty());
+    write(storage, "resource2", newValue(100, 2));
+    assertEquals(1, createStorage().getEntries().size());
+  }
+
+  private File[] getSegmentFiles() {
+    return new File(
+            mDirectory, PackFileDiskStorage.getVersionSubdirectoryName(1, ResourceIdScheme.SHA1))
+        .listFiles();
+  }
+
+  private static BinaryResource write(DiskStorage storage, String resourceId, final byte[] value)
+      throws IOException {
+    DiskStorage.Inserter inserter = storage.insert(resourceId, null);
+    inserter.writeData(
+        new WriterCallback() {
+          @Override
+          public void write(OutputStream os) throws IOException {
+            os.write(value);
+          }
+        },
+        null);
+    return inserter.commit(null);
+  }
+
+  private static byte[] newValue(int size, int seed) {
+    byte[] value = new byte[size];
+    for (int i = 0; i < size; i++) {
+      value[i] = (byte) (i * 31 + seed);
+    }
+    return value;
+  }
+}
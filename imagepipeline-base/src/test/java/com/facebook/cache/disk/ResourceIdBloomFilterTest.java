@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.common.util.SecureHashUtil;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link ResourceIdBloomFilter} */
+@RunWith(RobolectricTestRunner.class)
+public class ResourceIdBloomFilterTest {
+
+  @Test
+  public void testEmpty() {
+    ResourceIdBloomFilter filter = new ResourceIdBloomFilter(0);
+    assertFalse(filter.mightContain("id"));
+    assertFalse(filter.mightContain(""));
+  }
+
+  @Test
+  public void testNoFalseNegatives() {
+    ResourceIdBloomFilter filter = new ResourceIdBloomFilter(2000);
+    for (int i = 0; i < 2000; i++) {
+      filter.add(resourceId(i));
+    }
+    for (int i = 0; i < 2000; i++) {
+      assertTrue(filter.mightContain(resourceId(i)));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    ResourceIdBloomFilter filter = new ResourceIdBloomFilter(2000);
+    for (int i = 0; i < 2000; i++) {
+      filter.add(resourceId(i));
+    }
+    int falsePositives = 0;
+    for (int i = 2000; i < 12000; i++) {
+      if (filter.mightContain(resourceId(i))) {
+        falsePositives++;
+      }
+    }
+    assertTrue("false positives: " + falsePositives, falsePositives < 300);
+  }
+
+  private static String resourceId(int i) {
+    return SecureHashUtil.makeSHA1HashBase64(("http://test.uri/" + i).getBytes());
+  }
+}
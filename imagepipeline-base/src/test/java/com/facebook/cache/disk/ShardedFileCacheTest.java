@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.MultiCacheKey;
+import com.facebook.cache.common.ResourceIdScheme;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link ShardedFileCache} */
+@RunWith(RobolectricTestRunner.class)
+public class ShardedFileCacheTest {
+
+  private static final int SHARD_COUNT = 4;
+  private static final int KEY_COUNT = 2000;
+
+  private List<FileCache> mShards;
+  private ShardedFileCache mCache;
+
+  @Before
+  public void setUp() {
+    mShards = new ArrayList<>();
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      mShards.add(mock(FileCache.class));
+    }
+    mCache = new ShardedFileCache(mShards, ResourceIdScheme.SHA1);
+  }
+
+  @Test
+  public void testSpreadsKeys() {
+    int[] counts = new int[SHARD_COUNT];
+    for (int i = 0; i < KEY_COUNT; i++) {
+      counts[mCache.getShardIndex(new SimpleCacheKey("http://key/" + i))]++;
+    }
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      assertTrue(Arrays.toString(counts), counts[i] > KEY_COUNT / SHARD_COUNT / 2);
+      assertTrue(Arrays.toString(counts), counts[i] < KEY_COUNT / SHARD_COUNT * 3 / 2);
+    }
+  }
+
+  @Test
+  public void testAddingShardOnlyMovesKeysToIt() {
+    ShardedFileCache smallerCache =
+        new ShardedFileCache(mShards.subList(0, SHARD_COUNT - 1), ResourceIdScheme.SHA1);
+    int movedCount = 0;
+    for (int i = 0; i < KEY_COUNT; i++) {
+      CacheKey key = new SimpleCacheKey("http://key/" + i);
+      int shard = mCache.getShardIndex(key);
+      if (shard != smallerCache.getShardIndex(key)) {
+        assertEquals(SHARD_COUNT - 1, shard);
+        movedCount++;
+      }
+    }
+    assertTrue(movedCount > 0);
+  }
+
+  @Test
+  public void testRoutesToOneShard() throws Exception {
+    CacheKey key = new SimpleCacheKey("http://key");
+    FileCache shard = mShards.get(mCache.getShardIndex(key));
+    BinaryResource resource = mock(BinaryResource.class);
+    WriterCallback writer = mock(WriterCallback.class);
+    when(shard.insert(key, writer)).thenReturn(resource);
+    when(shard.getResource(key)).thenReturn(resource);
+
+    assertSame(resource, mCache.insert(key, writer));
+    assertSame(resource, mCache.getResource(key));
+    for (FileCache otherShard : mShards) {
+      if (otherShard != shard) {
+        verify(otherShard, never()).getResource(key);
+      }
+    }
+  }
+
+  @Test
+  public void testLooksUpMultiCacheKeyInTheShardsOfAllItsKeys() {
+    CacheKey firstKey = new SimpleCacheKey("http://key/0");
+    CacheKey otherKey = firstKey;
+    for (int i = 1; mCache.getShardIndex(otherKey) == mCache.getShardIndex(firstKey); i++) {
+      otherKey = new SimpleCacheKey("http://key/" + i);
+    }
+    MultiCacheKey key = new MultiCacheKey(Arrays.asList(firstKey, otherKey));
+    BinaryResource resource = mock(BinaryResource.class);
+    when(mShards.get(mCache.getShardIndex(otherKey)).getResource(key)).thenReturn(resource);
+
+    assertSame(resource, mCache.getResource(key));
+    verify(mShards.get(mCache.getShardIndex(firstKey))).getResource(key);
+  }
+
+  @Test
+  public void testSumsShardSizes() {
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      when(mShards.get(i).getSize()).thenReturn(100L * (i + 1));
+      when(mShards.get(i).getCount()).thenReturn((long) i);
+    }
+    assertEquals(1000, mCache.getSize());
+    assertEquals(6, mCache.getCount());
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.cache.disk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
+import com.facebook.binaryresource.FileRangeBinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.time.SystemClock;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Tests for {@link SizeThresholdDiskStorage} */
+@RunWith(RobolectricTestRunner.class)
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@PrepareOnlyThisForTest({SystemClock.class})
+public class SizeThresholdDiskStorageTest {
+
+  private static final int SIZE_THRESHOLD = 100;
+
+  @Rule
+  public PowerMockRule rule = new PowerMockRule();
+
+  private File mLargeResourceDirectory;
+  private PackFileDiskStorage mSmallResourceStorage;
+  private DefaultDiskStorage mLargeResourceStorage;
+  private SizeThresholdDiskStorage mStorage;
+
+  @Before
+  public void setUp() {
+    PowerMockito.mockStatic(SystemClock.class);
+    PowerMockito.when(SystemClock.get()).thenReturn(mock(SystemClock.class));
+    File directory =
+        new File(RuntimeEnvironment.application.getCacheDir(), "size-threshold-storage-test");
+    directory.mkdirs();
+    FileTree.deleteContents(directory);
+    mSmallResourceStorage =
+        new PackFileDiskStorage(
+            new File(directory, "packs"), 1, mock(CacheErrorLogger.class));
+    mLargeResourceDirectory = new File(directory, "files");
+    mLargeResourceStorage =
+        new DefaultDiskStorage(mLargeResourceDirectory, 1, mock(CacheErrorLogger.class));
+    mStorage =
+        new SizeThresholdDiskStorage(mSmallResourceStorage, mLargeResourceStorage, SIZE_THRESHOLD);
+  }
+
+  @Test
+  public void testResourcesAreRoutedBySize() throws Exception {
+    byte[] smallValue = new byte[SIZE_THRESHOLD];
+    byte[] largeValue = new byte[SIZE_THRESHOLD + 1];
+    largeValue[SIZE_THRESHOLD] = 42;
+    assertTrue(write("small", smallValue) instanceof FileRangeBinaryResource);
+    assertTrue(write("large", largeValue) instanceof FileBinaryResource);
+
+    assertTrue(mSmallResourceStorage.contains("small", null));
+    assertFalse(mLargeResourceStorage.contains("small", null));
+    assertTrue(mLargeResourceStorage.contains("large", null));
+    assertArrayEquals(largeValue, mStorage.getResource("large", null).read());
+    assertEquals(2, mStorage.getEntries().size());
+  }
+
+  @Test
+  public void testRewriteMovesResource() throws Exception {
+    write("resource", new byte[SIZE_THRESHOLD + 1]);
+    write("resource", new byte[10]);
+    assertFalse(mLargeResourceStorage.contains("resource", null));
+    assertEquals(10, mStorage.getResource("resource", null).size());
+
+    write("resource", new byte[SIZE_THRESHOLD + 1]);
+    assertFalse(mSmallResourceStorage.contains("resource", null));
+    assertEquals(1, mStorage.getEntries().size());
+    assertEquals(SIZE_THRESHOLD + 1, mStorage.remove(mStorage.getEntries().get(0)));
+    assertFalse(mStorage.contains("resource", null));
+  }
+
+  @Test
+  public void testLargeResourceIsStreamed() throws Exception {
+    final File largeResourceDirectory = mLargeResourceDirectory;
+    DiskStorage.Inserter inserter = mStorage.insert("resource", null);
+    inserter.writeData(
+        new WriterCallback() {
+          @Override
+          public void write(OutputStream os) throws IOException {
+            os.write(new byte[SIZE_THRESHOLD]);
+            assertEquals(0, getFileSizes(largeResourceDirectory));
+            // crossing the threshold streams the buffered bytes to the regular storage
+            os.write(new byte[10]);
+            assertEquals(SIZE_THRESHOLD + 10, getFileSizes(largeResourceDirectory));
+            os.write(new byte[SIZE_THRESHOLD]);
+            assertEquals(2 * SIZE_THRESHOLD + 10, getFileSizes(largeResourceDirectory));
+          }
+        },
+        null);
+    BinaryResource resource = inserter.commit(null);
+    inserter.cleanUp();
+    assertTrue(resource instanceof FileBinaryResource);
+    assertEquals(2 * SIZE_THRESHOLD + 10, resource.size());
+    assertFalse(mSmallResourceStorage.contains("resource", null));
+  }
+
+  private static long getFileSizes(File directory) {
+    long size = 0;
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        size += file.isDirectory() ? getFileSizes(file) : file.length();
+      }
+    }
+    return size;
+  }
+
+  private BinaryResource write(String resourceId, final byte[] value) throws IOException {
+    DiskStorage.Inserter inserter = mStorage.insert(resourceId, null);
+    inserter.writeData(
+        new WriterCallback() {
+          @Override
+          public void write(OutputStream os) throws IOException {
+            os.write(value);
+          }
+        },
+        null);
+    return inserter.commit(null);
+  }
+}
@@ -269,6 +269,78 @@ public class CountingLruMapTest {
     assertEquals(null, mCountingLruMap.getFirstKey());
   }
 
+  @Test
+  public void testPut_RepeatedHitWithoutProtectedSegment() {
+    mCountingLruMap.put("key1", 110);
+    mCountingLruMap.put("key2", 120, true);
+    mCountingLruMap.put("key3", 130);
+    assertKeyOrder("key1", "key2", "key3");
+    assertEquals(0, mCountingLruMap.getProtectedCount());
+  }
+
+  @Test
+  public void testSegmentedEvictionOrder() {
+    mCountingLruMap.setMaxProtectedSizeInBytes(300);
+    mCountingLruMap.put("key1", 110, true);
+    mCountingLruMap.put("key2", 120);
+    mCountingLruMap.put("key3", 130);
+    // protected elements are evicted only after all the probationary ones
+    assertKeyOrder("key2", "key3", "key1");
+    assertEquals("key2", mCountingLruMap.getFirstKey());
+    assertEquals(1, mCountingLruMap.getProtectedCount());
+    assertEquals(110, mCountingLruMap.getProtectedSizeInBytes());
+    assertEquals(360, mCountingLruMap.getSizeInBytes());
+
+    mCountingLruMap.remove("key2");
+    mCountingLruMap.remove("key3");
+    assertEquals("key1", mCountingLruMap.getFirstKey());
+    assertEquals(110, mCountingLruMap.getSizeInBytes());
+  }
+
+  @Test
+  public void testSegmentedOverflowIsDemoted() {
+    mCountingLruMap.setMaxProtectedSizeInBytes(270);
+    mCountingLruMap.put("key1", 110, true);
+    mCountingLruMap.put("key2", 120, true);
+    mCountingLruMap.put("key3", 130);
+    // key1 overflows the protected segment and lands at the end of the probationary one
+    mCountingLruMap.put("key4", 140, true);
+    assertKeyOrder("key3", "key1", "key2", "key4");
+    assertEquals(2, mCountingLruMap.getProtectedCount());
+    assertEquals(260, mCountingLruMap.getProtectedSizeInBytes());
+
+    // shrinking the protected segment demotes its oldest elements
+    mCountingLruMap.setMaxProtectedSizeInBytes(0);
+    assertKeyOrder("key3", "key1", "key2", "key4");
+    assertEquals(0, mCountingLruMap.getProtectedCount());
+    assertEquals(0, mCountingLruMap.getProtectedSizeInBytes());
+    assertEquals(500, mCountingLruMap.getSizeInBytes());
+  }
+
+  @Test
+  public void testSegmentedRemoveAll() {
+    mCountingLruMap.setMaxProtectedSizeInBytes(300);
+    mCountingLruMap.put("key1", 110, true);
+    mCountingLruMap.put("key2", 120);
+    mCountingLruMap.put("key3", 130, true);
+    List<Integer> values =
+        mCountingLruMap.removeAll(
+            new Predicate<String>() {
+              @Override
+              public boolean apply(String key) {
+                return key.equals("key1") || key.equals("key2");
+              }
+            });
+    assertEquals(2, values.size());
+    assertKeyOrder("key3");
+    assertEquals(130, mCountingLruMap.getProtectedSizeInBytes());
+    assertEquals(130, mCountingLruMap.getSizeInBytes());
+
+    mCountingLruMap.clear();
+    assertEquals(0, mCountingLruMap.getCount());
+    assertEquals(0, mCountingLruMap.getProtectedSizeInBytes());
+  }
+
   private void assertKeyOrder(String... expectedKeys) {
     assertArrayEquals(expectedKeys, mCountingLruMap.getKeys().toArray());
   }
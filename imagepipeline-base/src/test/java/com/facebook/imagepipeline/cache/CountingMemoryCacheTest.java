@@ -23,6 +23,7 @@ import static org.mockito.Mockito.when;
 
 import android.graphics.Bitmap;
 import android.os.SystemClock;
+import com.facebook.common.internal.AndroidPredicates;
 import com.facebook.common.internal.Predicate;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.memory.MemoryTrimType;
@@ -58,6 +59,7 @@ public class CountingMemoryCacheTest {
   @Mock public CountingMemoryCache.CacheTrimStrategy mCacheTrimStrategy;
   @Mock public Supplier<MemoryCacheParams> mParamsSupplier;
   @Mock public CountingMemoryCache.EntryStateObserver<String> mEntryStateObserver;
+  @Mock public CountingMemoryCache.CacheAdmissionPolicy<String> mAdmissionPolicy;
   @Mock public Bitmap mBitmap;
 
   @Rule
@@ -675,6 +677,124 @@ public class CountingMemoryCacheTest {
     inOrder.verify(mReleaser).release(105);
   }
 
+  @Test
+  public void testAdmissionPolicy() {
+    mCache =
+        new CountingMemoryCache<>(
+            mValueDescriptor,
+            mCacheTrimStrategy,
+            mParamsSupplier,
+            new TinyLfuAdmissionPolicy<String>(16));
+    mCache.cache(KEYS[0], newReference(100)).close();
+    mCache.cache(KEYS[1], newReference(101)).close();
+    mCache.cache(KEYS[2], newReference(102)).close();
+    mCache.get(KEYS[0]).close();
+    mCache.get(KEYS[1]).close();
+    mCache.get(KEYS[2]).close();
+    assertExclusivelyOwnedSize(3, 303);
+
+    // the eviction queue is full and the new key is less popular than the victim
+    assertNull(mCache.cache(KEYS[3], newReference(103)));
+    assertExclusivelyOwned(KEYS[0], 100);
+    assertNotCached(KEYS[3], 103);
+
+    // once requested as often as the victim, the new key gets admitted
+    assertNull(mCache.get(KEYS[3]));
+    CloseableReference<Integer> cachedRef = mCache.cache(KEYS[3], newReference(103));
+    assertNotNull(cachedRef);
+    cachedRef.close();
+    assertNotCached(KEYS[0], 100);
+    assertExclusivelyOwned(KEYS[3], 103);
+    assertExclusivelyOwnedSize(3, 306);
+  }
+
+  @Test
+  public void testSegmentedEvictionQueue() {
+    when(mParamsSupplier.get())
+        .thenReturn(
+            new MemoryCacheParams(
+                CACHE_MAX_SIZE,
+                CACHE_MAX_COUNT,
+                CACHE_EVICTION_QUEUE_MAX_SIZE,
+                CACHE_EVICTION_QUEUE_MAX_COUNT,
+                CACHE_ENTRY_MAX_SIZE,
+                0.5f));
+    mCache = new CountingMemoryCache<>(mValueDescriptor, mCacheTrimStrategy, mParamsSupplier);
+    mCache.cache(KEYS[0], newReference(100)).close();
+    mCache.cache(KEYS[1], newReference(101)).close();
+    mCache.cache(KEYS[2], newReference(102)).close();
+    // the second hit moves the entry to the protected segment
+    mCache.get(KEYS[0]).close();
+    assertEquals(1, mCache.mExclusiveEntries.getProtectedCount());
+
+    mCache.cache(KEYS[3], newReference(103)).close();
+    mCache.cache(KEYS[4], newReference(104)).close();
+    mCache.cache(KEYS[5], newReference(105)).close();
+    // the entries hit only once get evicted first
+    assertExclusivelyOwned(KEYS[0], 100);
+    assertExclusivelyOwned(KEYS[4], 104);
+    assertExclusivelyOwned(KEYS[5], 105);
+    assertNotCached(KEYS[3], 103);
+    assertExclusivelyOwnedSize(3, 309);
+  }
+
+  @Test
+  public void testGetMatchingInGroup() {
+    mCache =
+        new CountingMemoryCache<>(
+            mValueDescriptor, mCacheTrimStrategy, mParamsSupplier, mAdmissionPolicy);
+    mCache.cache(KEYS[0], newReference(100)).close();
+    mCache.cache(KEYS[1], newReference(101)).close();
+    mCache.cache(KEY, newReference(102)).close();
+    Predicate<String> anyKey = AndroidPredicates.True();
+    Predicate<Integer> anyValue = AndroidPredicates.True();
+    assertNull(mCache.getMatchingInGroup("k", anyKey, anyValue));
+
+    // the items cached before the grouper is set get indexed too
+    mCache.setKeyGrouper(
+        new GroupedMemoryCache.KeyGrouper<String>() {
+          @Override
+          public String getGroup(String key) {
+            return key.substring(0, 1);
+          }
+        });
+    CloseableReference<Integer> ref = mCache.getMatchingInGroup("k", anyKey, anyValue);
+    assertNotNull(ref);
+    assertEquals(101, (int) ref.get());
+    assertSharedWithCount(KEYS[1], 101, 1);
+    // the key of the item has not been requested
+    verify(mAdmissionPolicy, never()).recordAccess(anyString());
+    assertEquals(0, mCache.mCachedEntries.get(KEYS[1]).hitCount);
+    ref.close();
+
+    // the items whose value does not match are skipped
+    ref =
+        mCache.getMatchingInGroup(
+            "k",
+            anyKey,
+            new Predicate<Integer>() {
+              @Override
+              public boolean apply(Integer value) {
+                return value != 101;
+              }
+            });
+    assertEquals(100, (int) ref.get());
+    ref.close();
+
+    mCache.removeAll(
+        new Predicate<String>() {
+          @Override
+          public boolean apply(String key) {
+            return key.equals(KEYS[1]);
+          }
+        });
+    ref = mCache.getMatchingInGroup("k", anyKey, anyValue);
+    assertEquals(100, (int) ref.get());
+    ref.close();
+    mCache.clear();
+    assertNull(mCache.getMatchingInGroup("k", anyKey, anyValue));
+  }
+
   @Test
   public void testContains() {
     assertFalse(mCache.contains(KEY));
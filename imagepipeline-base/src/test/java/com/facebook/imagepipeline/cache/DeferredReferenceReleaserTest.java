@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class DeferredReferenceReleaserTest {
+
+  private static final int MAX_BACKLOG = 3;
+
+  @Mock public ResourceReleaser<Integer> mResourceReleaser;
+
+  private List<Runnable> mScheduledRunnables;
+  private DeferredReferenceReleaser mReferenceReleaser;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    mScheduledRunnables = new ArrayList<>();
+    Executor executor =
+        new Executor() {
+          @Override
+          public void execute(Runnable runnable) {
+            mScheduledRunnables.add(runnable);
+          }
+        };
+    mReferenceReleaser = new DeferredReferenceReleaser(executor, MAX_BACKLOG);
+  }
+
+  @Test
+  public void testReleaseIsDeferredAndBatched() {
+    CloseableReference<Integer> ref1 = CloseableReference.of(1, mResourceReleaser);
+    CloseableReference<Integer> ref2 = CloseableReference.of(2, mResourceReleaser);
+    mReferenceReleaser.release(ref1);
+    mReferenceReleaser.release(ref2);
+    verify(mResourceReleaser, never()).release(any(Integer.class));
+    assertEquals(2, mReferenceReleaser.getBacklogSize());
+    // a single task drains the whole batch
+    assertEquals(1, mScheduledRunnables.size());
+    mScheduledRunnables.get(0).run();
+    verify(mResourceReleaser).release(1);
+    verify(mResourceReleaser).release(2);
+    assertFalse(ref1.isValid());
+    assertEquals(0, mReferenceReleaser.getBacklogSize());
+  }
+
+  @Test
+  public void testNewTaskScheduledAfterDrain() {
+    mReferenceReleaser.release(CloseableReference.of(1, mResourceReleaser));
+    mScheduledRunnables.get(0).run();
+    mReferenceReleaser.release(CloseableReference.of(2, mResourceReleaser));
+    assertEquals(2, mScheduledRunnables.size());
+  }
+
+  @Test
+  public void testFullBacklogReleasesSynchronously() {
+    for (int i = 0; i < MAX_BACKLOG; i++) {
+      mReferenceReleaser.release(CloseableReference.of(i, mResourceReleaser));
+    }
+    verify(mResourceReleaser, never()).release(any(Integer.class));
+    mReferenceReleaser.release(CloseableReference.of(MAX_BACKLOG, mResourceReleaser));
+    verify(mResourceReleaser).release(MAX_BACKLOG);
+    assertEquals(MAX_BACKLOG, mReferenceReleaser.getBacklogSize());
+  }
+
+  @Test
+  public void testDrain() {
+    mReferenceReleaser.release(CloseableReference.of(1, mResourceReleaser));
+    mReferenceReleaser.release(null);
+    mReferenceReleaser.drain();
+    verify(mResourceReleaser, times(1)).release(1);
+    // the scheduled task finds nothing left to release
+    mScheduledRunnables.get(0).run();
+    verify(mResourceReleaser, times(1)).release(any(Integer.class));
+  }
+
+  @Test
+  public void testIsCriticalTrim() {
+    assertTrue(DeferredReferenceReleaser.isCriticalTrim(MemoryTrimType.OnCloseToDalvikHeapLimit));
+    assertTrue(
+        DeferredReferenceReleaser.isCriticalTrim(
+            MemoryTrimType.OnSystemMemoryCriticallyLowWhileAppInForeground));
+    assertFalse(DeferredReferenceReleaser.isCriticalTrim(MemoryTrimType.OnAppBackgrounded));
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FrequencySketchTest {
+
+  private FrequencySketch<String> mSketch;
+
+  @Before
+  public void setUp() {
+    mSketch = new FrequencySketch<>(64);
+  }
+
+  @Test
+  public void testUnknownKey() {
+    assertEquals(0, mSketch.frequency("key"));
+  }
+
+  @Test
+  public void testIncrement() {
+    mSketch.increment("key");
+    mSketch.increment("key");
+    mSketch.increment("other");
+    assertEquals(2, mSketch.frequency("key"));
+    assertEquals(1, mSketch.frequency("other"));
+  }
+
+  @Test
+  public void testSaturation() {
+    for (int i = 0; i < 2 * FrequencySketch.MAX_FREQUENCY; i++) {
+      mSketch.increment("key");
+    }
+    assertEquals(FrequencySketch.MAX_FREQUENCY, mSketch.frequency("key"));
+  }
+
+  @Test
+  public void testReset() {
+    for (int i = 0; i < 8; i++) {
+      mSketch.increment("key");
+    }
+    mSketch.reset();
+    assertEquals(4, mSketch.frequency("key"));
+  }
+
+  @Test
+  public void testAgingKeepsRecentKeysAhead() {
+    for (int i = 0; i < 10; i++) {
+      mSketch.increment("old");
+    }
+    // enough distinct keys to trigger several resets
+    for (int i = 0; i < 2000; i++) {
+      mSketch.increment("key" + i);
+      mSketch.increment("recent");
+    }
+    assertTrue(mSketch.frequency("recent") > mSketch.frequency("old"));
+  }
+}
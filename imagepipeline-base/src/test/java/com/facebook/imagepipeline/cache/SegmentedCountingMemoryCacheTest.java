@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.SystemClock;
+import com.facebook.common.internal.AndroidPredicates;
+import com.facebook.common.internal.Predicate;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@PrepareForTest({SystemClock.class})
+@PowerMockIgnore({"org.mockito.*", "org.robolectric.*", "androidx.*", "android.*"})
+@Config(manifest = Config.NONE)
+public class SegmentedCountingMemoryCacheTest {
+
+  private static final int SEGMENT_COUNT = 4;
+  private static final int CACHE_MAX_SIZE = 4000;
+  private static final int CACHE_MAX_COUNT = 40;
+  private static final int CACHE_EVICTION_QUEUE_MAX_SIZE = 4000;
+  private static final int CACHE_EVICTION_QUEUE_MAX_COUNT = 40;
+  private static final int CACHE_ENTRY_MAX_SIZE = 1000;
+
+  private static final String[] KEYS =
+      new String[] {"k0", "k1", "k2", "k3", "k4", "k5", "k6", "k7", "k8", "k9"};
+
+  private static final String GROUP = "k";
+  private static final GroupedMemoryCache.KeyGrouper<String> KEY_GROUPER =
+      new GroupedMemoryCache.KeyGrouper<String>() {
+        @Override
+        public String getGroup(String key) {
+          return key.substring(0, 1);
+        }
+      };
+
+  @Mock public ResourceReleaser<Integer> mReleaser;
+  @Mock public CountingMemoryCache.CacheTrimStrategy mCacheTrimStrategy;
+  @Mock public Supplier<MemoryCacheParams> mParamsSupplier;
+
+  @Rule
+  public PowerMockRule rule = new PowerMockRule();
+
+  private SegmentedCountingMemoryCache<String, Integer> mCache;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    PowerMockito.mockStatic(SystemClock.class);
+    PowerMockito.when(SystemClock.uptimeMillis()).thenReturn(0L);
+    ValueDescriptor<Integer> valueDescriptor =
+        new ValueDescriptor<Integer>() {
+          @Override
+          public int getSizeInBytes(Integer value) {
+            return value;
+          }
+        };
+    when(mParamsSupplier.get())
+        .thenReturn(
+            new MemoryCacheParams(
+                CACHE_MAX_SIZE,
+                CACHE_MAX_COUNT,
+                CACHE_EVICTION_QUEUE_MAX_SIZE,
+                CACHE_EVICTION_QUEUE_MAX_COUNT,
+                CACHE_ENTRY_MAX_SIZE));
+    mCache =
+        new SegmentedCountingMemoryCache<>(
+            valueDescriptor, mCacheTrimStrategy, mParamsSupplier, SEGMENT_COUNT);
+  }
+
+  @Test
+  public void testSegmentsStartWithEqualShares() {
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      MemoryCacheParams params = mCache.getSegmentParams(i);
+      assertEquals(CACHE_MAX_SIZE / SEGMENT_COUNT, params.maxCacheSize);
+      assertEquals(CACHE_MAX_COUNT / SEGMENT_COUNT, params.maxCacheEntries);
+      assertEquals(CACHE_ENTRY_MAX_SIZE, params.maxCacheEntrySize);
+    }
+  }
+
+  @Test
+  public void testCacheAndGet() {
+    for (String key : KEYS) {
+      mCache.cache(key, newReference(100)).close();
+    }
+    assertEquals(KEYS.length, mCache.getCount());
+    assertEquals(KEYS.length * 100, mCache.getSizeInBytes());
+    assertEquals(KEYS.length, mCache.getEvictionQueueCount());
+
+    CloseableReference<Integer> ref = mCache.get(KEYS[3]);
+    assertNotNull(ref);
+    assertEquals(100, (int) ref.get());
+    assertEquals(1, mCache.getInUseCount());
+    assertEquals(100, mCache.getInUseSizeInBytes());
+    assertTrue(mCache.getSegment(KEYS[3]).contains(KEYS[3]));
+    ref.close();
+    assertEquals(0, mCache.getInUseCount());
+  }
+
+  @Test
+  public void testSameKeyAlwaysMapsToSameSegment() {
+    for (String key : KEYS) {
+      assertSame(mCache.getSegment(key), mCache.getSegment(new String(key)));
+    }
+  }
+
+  @Test
+  public void testReuse() {
+    mCache.cache(KEYS[0], newReference(100)).close();
+    CloseableReference<Integer> reused = mCache.reuse(KEYS[0]);
+    assertNotNull(reused);
+    assertFalse(mCache.contains(KEYS[0]));
+    assertEquals(0, mCache.getCount());
+    reused.close();
+  }
+
+  @Test
+  public void testRemoveAllAndClear() {
+    for (String key : KEYS) {
+      mCache.cache(key, newReference(100)).close();
+    }
+    int removed =
+        mCache.removeAll(
+            new Predicate<String>() {
+              @Override
+              public boolean apply(String key) {
+                return key.equals(KEYS[1]) || key.equals(KEYS[2]);
+              }
+            });
+    assertEquals(2, removed);
+    assertFalse(mCache.contains(KEYS[1]));
+    assertTrue(mCache.contains(KEYS[0]));
+    mCache.clear();
+    assertEquals(0, mCache.getCount());
+    assertNull(mCache.get(KEYS[0]));
+  }
+
+  @Test
+  public void testRebalanceKeepsGlobalLimits() {
+    CloseableReference<Integer> ref = mCache.cache(KEYS[0], newReference(900));
+    mCache.rebalance();
+    int totalSize = 0;
+    int totalCount = 0;
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      totalSize += mCache.getSegmentParams(i).maxCacheSize;
+      totalCount += mCache.getSegmentParams(i).maxCacheEntries;
+    }
+    assertTrue(totalSize <= CACHE_MAX_SIZE);
+    assertTrue(totalCount <= CACHE_MAX_COUNT);
+    ref.close();
+  }
+
+  @Test
+  public void testLargeValuesAreCheckedAgainstTheGlobalLimits() {
+    // two keys of the same segment, whose share of the budget only fits one of the values
+    String key = KEYS[0];
+    String otherKey = null;
+    for (int i = 0; otherKey == null; i++) {
+      if (mCache.getSegment("x" + i) == mCache.getSegment(key)) {
+        otherKey = "x" + i;
+      }
+    }
+    CloseableReference<Integer> ref = mCache.cache(key, newReference(CACHE_ENTRY_MAX_SIZE));
+    CloseableReference<Integer> otherRef =
+        mCache.cache(otherKey, newReference(CACHE_ENTRY_MAX_SIZE));
+    assertNotNull(otherRef);
+    assertEquals(2 * CACHE_ENTRY_MAX_SIZE, mCache.getInUseSizeInBytes());
+
+    CloseableReference<Integer> thirdRef =
+        mCache.cache(KEYS[1], newReference(CACHE_ENTRY_MAX_SIZE));
+    CloseableReference<Integer> fourthRef =
+        mCache.cache(KEYS[2], newReference(CACHE_ENTRY_MAX_SIZE));
+    assertNotNull(thirdRef);
+    assertNotNull(fourthRef);
+    // the values in use take the whole global budget
+    assertNull(mCache.cache(KEYS[3], newReference(1)));
+    ref.close();
+    otherRef.close();
+    thirdRef.close();
+    fourthRef.close();
+  }
+
+  @Test
+  public void testRebalanceLeavesTheEvictionsToTheSegments() {
+    mCache.cache(KEYS[0], newReference(300)).close();
+    String otherKey = null;
+    for (int i = 0; otherKey == null; i++) {
+      if (mCache.getSegment("x" + i) != mCache.getSegment(KEYS[0])) {
+        otherKey = "x" + i;
+      }
+    }
+    when(mParamsSupplier.get()).thenReturn(new MemoryCacheParams(200, 40, 200, 40, 1000));
+    PowerMockito.when(SystemClock.uptimeMillis())
+        .thenReturn(CountingMemoryCache.PARAMS_INTERCHECK_INTERVAL_MS);
+
+    // rebalanced by an operation on another segment
+    assertNull(mCache.get(otherKey));
+    assertTrue(mCache.getSegment(KEYS[0]).getMemoryCacheParams().maxCacheSize < 300);
+    assertTrue(mCache.getSegment(KEYS[0]).contains(KEYS[0]));
+
+    // evicted by the next operation on its own segment
+    mCache.get(KEYS[0]).close();
+    assertFalse(mCache.getSegment(KEYS[0]).contains(KEYS[0]));
+  }
+
+  @Test
+  public void testRebalanceFavorsBusySegment() {
+    CloseableReference<Integer> ref = mCache.cache(KEYS[0], newReference(900));
+    mCache.rebalance();
+    int maxSegmentSize = 0;
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      MemoryCacheParams params = mCache.getSegmentParams(i);
+      assertTrue(params.maxCacheSize >= CACHE_MAX_SIZE / (2 * SEGMENT_COUNT));
+      maxSegmentSize = Math.max(maxSegmentSize, params.maxCacheSize);
+    }
+    assertEquals(
+        CACHE_MAX_SIZE - (SEGMENT_COUNT - 1) * CACHE_MAX_SIZE / (2 * SEGMENT_COUNT),
+        maxSegmentSize);
+    ref.close();
+  }
+
+  @Test
+  public void testGetShareWithoutUsage() {
+    assertEquals(
+        CACHE_MAX_SIZE / SEGMENT_COUNT,
+        SegmentedCountingMemoryCache.getShare(CACHE_MAX_SIZE, 0, 0, SEGMENT_COUNT));
+  }
+
+  @Test
+  public void testGetMatchingInGroup() {
+    for (String key : KEYS) {
+      mCache.cache(key, newReference(100)).close();
+    }
+    assertNull(
+        mCache.getMatchingInGroup(
+            GROUP, AndroidPredicates.<String>True(), AndroidPredicates.<Integer>True()));
+    mCache.setKeyGrouper(KEY_GROUPER);
+    CloseableReference<Integer> ref =
+        mCache.getMatchingInGroup(
+            GROUP,
+            new Predicate<String>() {
+              @Override
+              public boolean apply(String key) {
+                return key.equals(KEYS[5]);
+              }
+            },
+            AndroidPredicates.<Integer>True());
+    assertNotNull(ref);
+    assertEquals(1, mCache.getInUseCount());
+    ref.close();
+    assertNull(
+        mCache.getMatchingInGroup(
+            GROUP,
+            new Predicate<String>() {
+              @Override
+              public boolean apply(String key) {
+                return false;
+              }
+            },
+            AndroidPredicates.<Integer>True()));
+  }
+
+  @Test
+  public void testGetMatchingInGroupReturnsMostRecentlyCachedOfAllSegments() {
+    mCache.setKeyGrouper(KEY_GROUPER);
+    // the older key lives in a segment that is searched before the one of the newer key
+    String older = KEYS[0];
+    String newer = KEYS[1];
+    List<CountingMemoryCache<String, Integer>> segments = mCache.getSegments();
+    for (int i = 1; segments.indexOf(mCache.getSegment(older))
+        >= segments.indexOf(mCache.getSegment(newer)); i++) {
+      older = KEYS[i / KEYS.length];
+      newer = KEYS[i % KEYS.length];
+    }
+    mCache.cache(newer, newReference(300)).close();
+    mCache.cache(older, newReference(100)).close();
+    mCache.cache(newer, newReference(200)).close();
+    final String finalOlder = older;
+    final String finalNewer = newer;
+    CloseableReference<Integer> ref =
+        mCache.getMatchingInGroup(
+            GROUP,
+            new Predicate<String>() {
+              @Override
+              public boolean apply(String key) {
+                return key.equals(finalOlder) || key.equals(finalNewer);
+              }
+            },
+            AndroidPredicates.<Integer>True());
+    assertNotNull(ref);
+    assertEquals(200, (int) ref.get());
+    ref.close();
+  }
+
+  @Test
+  public void testDeferredReferenceReleaser() {
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable runnable) {
+        // never runs, the backlog is only drained by the critical trim below
+      }
+    };
+    mCache.setDeferredReferenceReleaser(new DeferredReferenceReleaser(executor));
+    CloseableReference<Integer> ref1 = newReference(100);
+    CloseableReference<Integer> ref2 = newReference(200);
+    mCache.cache(KEYS[0], ref1).close();
+    mCache.cache(KEYS[1], ref2).close();
+    // the cache now holds the only references left
+    ref1.close();
+    ref2.close();
+    mCache.removeAll(
+        new Predicate<String>() {
+          @Override
+          public boolean apply(String key) {
+            return key.equals(KEYS[0]);
+          }
+        });
+    verify(mReleaser, never()).release(100);
+    when(mCacheTrimStrategy.getTrimRatio(MemoryTrimType.OnCloseToDalvikHeapLimit)).thenReturn(1.0);
+    mCache.trim(MemoryTrimType.OnCloseToDalvikHeapLimit);
+    verify(mReleaser).release(100);
+    verify(mReleaser).release(200);
+  }
+
+  @Test
+  public void testGetHottestKeys() {
+    for (String key : KEYS) {
+      mCache.cache(key, newReference(100)).close();
+    }
+    for (int i = 0; i < 3; i++) {
+      mCache.get(KEYS[7]).close();
+    }
+    mCache.get(KEYS[2]).close();
+    List<String> hottestKeys = mCache.getHottestKeys(2);
+    assertEquals(2, hottestKeys.size());
+    assertEquals(KEYS[7], hottestKeys.get(0));
+    assertEquals(KEYS[2], hottestKeys.get(1));
+    assertEquals(KEYS.length, mCache.getHottestKeys(100).size());
+  }
+
+  @Test
+  public void testShadowCacheTracker() {
+    ShadowCacheTracker<String> tracker = new ShadowCacheTracker<>();
+    mCache.setShadowCacheTracker(tracker);
+    assertNull(mCache.get(KEYS[0]));
+    mCache.cache(KEYS[0], newReference(100)).close();
+    CloseableReference<Integer> ref = mCache.get(KEYS[0]);
+    assertNotNull(ref);
+    ref.close();
+    MissRatioCurve curve = tracker.getMissRatioCurve();
+    assertEquals(2, curve.getRequestCount());
+    for (int i = 0; i < curve.getPointCount(); i++) {
+      assertEquals(0.5f, curve.getHitRatio(i), 0);
+    }
+  }
+
+  private CloseableReference<Integer> newReference(int size) {
+    return CloseableReference.of(size, mReleaser);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ShadowCacheTrackerTest {
+
+  private static final int VALUE_SIZE = 100;
+  private static final MemoryCacheParams PARAMS =
+      new MemoryCacheParams(400, 100, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+  private ShadowCacheTracker<String> mTracker;
+
+  @Before
+  public void setUp() {
+    mTracker = new ShadowCacheTracker<>();
+  }
+
+  @Test
+  public void testEmptyCurve() {
+    MissRatioCurve curve = mTracker.getMissRatioCurve();
+    assertEquals(ShadowCacheTracker.DEFAULT_BUDGET_MULTIPLIERS.length, curve.getPointCount());
+    assertEquals(0, curve.getRequestCount());
+    for (int i = 0; i < curve.getPointCount(); i++) {
+      assertEquals(ShadowCacheTracker.DEFAULT_BUDGET_MULTIPLIERS[i], curve.getBudgetMultiplier(i), 0);
+      assertEquals(0f, curve.getHitRatio(i), 0);
+      assertEquals(1f, curve.getMissRatio(i), 0);
+    }
+  }
+
+  @Test
+  public void testWorkingSetTwiceTheBudget() {
+    // 8 keys of 100 bytes cycled in LRU order: only the 2x and 4x caches can hold them all
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 8; i++) {
+        access("k" + i);
+      }
+    }
+    MissRatioCurve curve = mTracker.getMissRatioCurve();
+    assertEquals(80, curve.getRequestCount());
+    assertEquals(0f, curve.getHitRatio(0), 0);
+    assertEquals(0f, curve.getHitRatio(1), 0);
+    assertEquals(72f / 80, curve.getHitRatio(2), 0);
+    assertEquals(72f / 80, curve.getHitRatio(3), 0);
+  }
+
+  @Test
+  public void testWorkingSetWithinHalfTheBudget() {
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 2; i++) {
+        access("k" + i);
+      }
+    }
+    MissRatioCurve curve = mTracker.getMissRatioCurve();
+    for (int i = 0; i < curve.getPointCount(); i++) {
+      assertEquals(8f / 10, curve.getHitRatio(i), 0);
+    }
+  }
+
+  @Test
+  public void testRealHitMissingFromSmallerShadowCache() {
+    mTracker.onCacheGet("k0", VALUE_SIZE, PARAMS);
+    MissRatioCurve curve = mTracker.getMissRatioCurve();
+    assertEquals(0f, curve.getHitRatio(0), 0);
+    // the value is now tracked by every simulated cache
+    mTracker.onCacheGet("k0", VALUE_SIZE, PARAMS);
+    curve = mTracker.getMissRatioCurve();
+    for (int i = 0; i < curve.getPointCount(); i++) {
+      assertEquals(0.5f, curve.getHitRatio(i), 0);
+    }
+  }
+
+  @Test
+  public void testBudgetShrinkEvictsGhosts() {
+    for (int i = 0; i < 8; i++) {
+      access("k" + i);
+    }
+    // with a budget of 100 bytes, even the 4x cache only keeps the last 4 keys
+    MemoryCacheParams params =
+        new MemoryCacheParams(
+            VALUE_SIZE, 100, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    mTracker.onCachePut("k8", VALUE_SIZE, params);
+    mTracker.onCacheGet("k0", -1, params);
+    mTracker.onCacheGet("k7", -1, params);
+    MissRatioCurve curve = mTracker.getMissRatioCurve();
+    assertEquals(1f / 10, curve.getHitRatio(3), 0);
+  }
+
+  @Test
+  public void testEntryLimit() {
+    // with room for 2 entries, the 4x cache keeps 8 keys and the 1x cache only 2 of them
+    MemoryCacheParams params =
+        new MemoryCacheParams(
+            Integer.MAX_VALUE / 8, 2, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 8; i++) {
+        mTracker.onCacheGet("k" + i, -1, params);
+        mTracker.onCachePut("k" + i, 1, params);
+      }
+    }
+    MissRatioCurve curve = mTracker.getMissRatioCurve();
+    assertEquals(0f, curve.getHitRatio(1), 0);
+    assertEquals(0.5f, curve.getHitRatio(3), 0);
+  }
+
+  @Test
+  public void testCollidingKeysAreDistinct() {
+    // "Aa" and "BB" have the same hash code
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    access("Aa");
+    access("BB");
+    assertEquals(0f, mTracker.getMissRatioCurve().getHitRatio(3), 0);
+    access("Aa");
+    assertEquals(1f / 3, mTracker.getMissRatioCurve().getHitRatio(3), 0);
+  }
+
+  @Test
+  public void testMaxTrackedKeys() {
+    mTracker = new ShadowCacheTracker<>(new float[] {1f}, 2);
+    for (int i = 0; i < 3; i++) {
+      access("k" + i);
+    }
+    access("k0");
+    access("k2");
+    assertEquals(1f / 5, mTracker.getMissRatioCurve().getHitRatio(0), 0);
+  }
+
+  @Test
+  public void testResetCounters() {
+    access("k0");
+    access("k0");
+    mTracker.resetCounters();
+    assertEquals(0, mTracker.getMissRatioCurve().getRequestCount());
+    access("k0");
+    assertEquals(1f, mTracker.getMissRatioCurve().getHitRatio(1), 0);
+  }
+
+  /** Simulates a lookup of the key followed, on a miss, by caching its value. */
+  private void access(String key) {
+    mTracker.onCacheGet(key, -1, PARAMS);
+    mTracker.onCachePut(key, VALUE_SIZE, PARAMS);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TinyLfuAdmissionPolicyTest {
+
+  @Test
+  public void testAdmitsMoreFrequentCandidate() {
+    TinyLfuAdmissionPolicy<String> policy = new TinyLfuAdmissionPolicy<>(1024, 4);
+    for (int i = 0; i < 100; i++) {
+      String candidate = "candidate" + i;
+      String victim = "victim" + i;
+      policy.recordAccess(victim);
+      policy.recordAccess(victim);
+      assertFalse(policy.admit(candidate, victim));
+      policy.recordAccess(candidate);
+      assertFalse(policy.admit(candidate, victim));
+      policy.recordAccess(candidate);
+      policy.recordAccess(candidate);
+      assertTrue(policy.admit(candidate, victim));
+    }
+  }
+
+  @Test
+  public void testAdmitsCandidateAsFrequentAsVictim() {
+    TinyLfuAdmissionPolicy<String> policy = new TinyLfuAdmissionPolicy<>(1024, 4);
+    assertTrue(policy.admit("candidate", "victim"));
+    policy.recordAccess("victim");
+    policy.recordAccess("candidate");
+    assertTrue(policy.admit("candidate", "victim"));
+  }
+
+  @Test
+  public void testSpreadsKeysOverSketches() {
+    TinyLfuAdmissionPolicy<String> policy = new TinyLfuAdmissionPolicy<>(1024, 4);
+    assertSame(policy.getSketch("key"), policy.getSketch(new String("key")));
+    boolean spread = false;
+    for (int i = 1; i < 100; i++) {
+      spread |= policy.getSketch("key0") != policy.getSketch("key" + i);
+    }
+    assertTrue(spread);
+  }
+
+  @Test
+  public void testSmallPolicyUsesOneSketch() {
+    TinyLfuAdmissionPolicy<String> policy =
+        new TinyLfuAdmissionPolicy<>(TinyLfuAdmissionPolicy.MIN_EXPECTED_KEYS_PER_STRIPE);
+    for (int i = 1; i < 100; i++) {
+      assertSame(policy.getSketch("key0"), policy.getSketch("key" + i));
+    }
+    policy = new TinyLfuAdmissionPolicy<>(1 << 20);
+    assertNotSame(policy.getSketch("key0"), policy.getSketch("key1"));
+  }
+}
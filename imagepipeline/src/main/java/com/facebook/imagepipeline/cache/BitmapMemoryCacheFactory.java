@@ -13,10 +13,14 @@ import com.facebook.imagepipeline.image.CloseableImage;
 public class BitmapMemoryCacheFactory {
 
   public static InstrumentedMemoryCache<CacheKey, CloseableImage> get(
-      final CountingMemoryCache<CacheKey, CloseableImage> bitmapCountingMemoryCache,
+      final CountingCache<CacheKey, CloseableImage> bitmapCountingMemoryCache,
       final ImageCacheStatsTracker imageCacheStatsTracker) {
 
-    imageCacheStatsTracker.registerBitmapMemoryCache(bitmapCountingMemoryCache);
+    // the tracker only accepts a single cache, the segments of a segmented cache are not registered
+    if (bitmapCountingMemoryCache instanceof CountingMemoryCache) {
+      imageCacheStatsTracker.registerBitmapMemoryCache(
+          (CountingMemoryCache<CacheKey, CloseableImage>) bitmapCountingMemoryCache);
+    }
 
     MemoryCacheTracker memoryCacheTracker = new MemoryCacheTracker<CacheKey>() {
       @Override
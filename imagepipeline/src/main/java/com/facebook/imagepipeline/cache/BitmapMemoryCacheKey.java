@@ -26,6 +26,20 @@ import javax.annotation.concurrent.Immutable;
 @Immutable
 public class BitmapMemoryCacheKey implements CacheKey {
 
+  /**
+   * Groups the bitmap cache keys by source, so that the keys that may be served by each other,
+   * see {@link #canBeServedBy}, are in the same group.
+   */
+  public static final GroupedMemoryCache.KeyGrouper<CacheKey> SOURCE_KEY_GROUPER =
+      new GroupedMemoryCache.KeyGrouper<CacheKey>() {
+        @Override
+        public @Nullable String getGroup(CacheKey key) {
+          return (key instanceof BitmapMemoryCacheKey)
+              ? ((BitmapMemoryCacheKey) key).mSourceString
+              : null;
+        }
+      };
+
   private final String mSourceString;
   private final @Nullable ResizeOptions mResizeOptions;
   private final RotationOptions mRotationOptions;
@@ -91,6 +105,46 @@ public class BitmapMemoryCacheKey implements CacheKey {
     return mSourceString;
   }
 
+  /**
+   * Checks whether the image cached under the other key can be used in place of the image
+   * requested by this key, which is the case when both keys refer to the same source decoded the
+   * same way, and the other image has at least the resolution this key asks for.
+   */
+  public boolean canBeServedBy(BitmapMemoryCacheKey otherKey) {
+    if (!mSourceString.equals(otherKey.mSourceString)
+        || !Objects.equal(mRotationOptions, otherKey.mRotationOptions)
+        || !Objects.equal(mImageDecodeOptions, otherKey.mImageDecodeOptions)
+        || !Objects.equal(mPostprocessorCacheKey, otherKey.mPostprocessorCacheKey)
+        || !Objects.equal(mPostprocessorName, otherKey.mPostprocessorName)) {
+      return false;
+    }
+    if (otherKey.mResizeOptions == null) {
+      // the other image has been decoded at full resolution
+      return true;
+    }
+    return mResizeOptions != null
+        && otherKey.mResizeOptions.width >= mResizeOptions.width
+        && otherKey.mResizeOptions.height >= mResizeOptions.height;
+  }
+
+  @Nullable
+  public ResizeOptions getResizeOptions() {
+    return mResizeOptions;
+  }
+
+  public RotationOptions getRotationOptions() {
+    return mRotationOptions;
+  }
+
+  public ImageDecodeOptions getImageDecodeOptions() {
+    return mImageDecodeOptions;
+  }
+
+  @Nullable
+  public CacheKey getPostprocessorCacheKey() {
+    return mPostprocessorCacheKey;
+  }
+
   @Nullable
   public String getPostprocessorName() {
     return mPostprocessorName;
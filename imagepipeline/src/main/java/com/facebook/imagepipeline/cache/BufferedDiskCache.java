@@ -7,10 +7,15 @@
 
 package com.facebook.imagepipeline.cache;
 
+import android.os.SystemClock;
 import bolts.Task;
+import bolts.TaskCompletionSource;
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
+import com.facebook.binaryresource.FileRangeBinaryResource;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.BatchingFileCache;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.logging.FLog;
@@ -18,16 +23,25 @@ import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.memory.PooledByteBufferFactory;
 import com.facebook.common.memory.PooledByteStreams;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.ByteConstants;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.systrace.FrescoSystrace;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * BufferedDiskCache provides get and put operations to take care of scheduling disk-cache
@@ -36,6 +50,8 @@ import javax.annotation.Nullable;
 public class BufferedDiskCache {
   private static final Class<?> TAG = BufferedDiskCache.class;
 
+  public static final int DEFAULT_MEMORY_MAPPED_READ_MIN_SIZE = 64 * ByteConstants.KB;
+
   private final FileCache mFileCache;
   private final PooledByteBufferFactory mPooledByteBufferFactory;
   private final PooledByteStreams mPooledByteStreams;
@@ -43,6 +59,71 @@ public class BufferedDiskCache {
   private final Executor mWriteExecutor;
   private final StagingArea mStagingArea;
   private final ImageCacheStatsTracker mImageCacheStatsTracker;
+  private final int mMemoryMappedReadMinSize;
+  private final @Nullable DiskCacheAdmissionPolicy mAdmissionPolicy;
+  private final int mWriteBatchMaxSizeBytes;
+
+  // Disk reads in progress, shared by the concurrent gets of the same key
+  @GuardedBy("itself")
+  private final Map<CacheKey, InFlightRead> mInFlightReads = new HashMap<>();
+
+  private static class ReadWaiter {
+    final TaskCompletionSource<EncodedImage> source;
+    final AtomicBoolean isCancelled;
+
+    ReadWaiter(TaskCompletionSource<EncodedImage> source, AtomicBoolean isCancelled) {
+      this.source = source;
+      this.isCancelled = isCancelled;
+    }
+  }
+
+  private static class InFlightRead {
+    @GuardedBy("mInFlightReads")
+    final List<ReadWaiter> waiters = new ArrayList<>(1);
+  }
+
+  // Images waiting for the batch writer, when the writes are batched
+  @GuardedBy("itself")
+  private final ArrayDeque<PendingWrite> mPendingWrites = new ArrayDeque<>();
+
+  @GuardedBy("mPendingWrites")
+  private boolean mIsBatchWriterScheduled;
+
+  private static class PendingWrite {
+    final CacheKey key;
+    final EncodedImage encodedImage;
+    final long stagedTimeMs;
+
+    PendingWrite(CacheKey key, EncodedImage encodedImage, long stagedTimeMs) {
+      this.key = key;
+      this.encodedImage = encodedImage;
+      this.stagedTimeMs = stagedTimeMs;
+    }
+  }
+
+  private final Runnable mBatchWriter =
+      new Runnable() {
+        @Override
+        public void run() {
+          List<PendingWrite> batch;
+          while ((batch = takeWriteBatch()) != null) {
+            writeBatchToDiskCache(batch);
+          }
+        }
+      };
+
+  /**
+   * Decides which images are worth writing to the disk cache. The images that are not admitted
+   * are only kept by the memory caches.
+   */
+  public interface DiskCacheAdmissionPolicy {
+
+    /** Records that the disk cache has been looked up for the key. */
+    void recordRequest(CacheKey key);
+
+    /** Returns true if the image of the key should be written to the disk cache. */
+    boolean admit(CacheKey key);
+  }
 
   public BufferedDiskCache(
       FileCache fileCache,
@@ -51,13 +132,37 @@ public class BufferedDiskCache {
       Executor readExecutor,
       Executor writeExecutor,
       ImageCacheStatsTracker imageCacheStatsTracker) {
+    this(
+        fileCache,
+        pooledByteBufferFactory,
+        pooledByteStreams,
+        readExecutor,
+        writeExecutor,
+        imageCacheStatsTracker,
+        BufferedDiskCacheOptions.newBuilder().build());
+  }
+
+  /**
+   * @param options the optional behaviors of the cache
+   */
+  public BufferedDiskCache(
+      FileCache fileCache,
+      PooledByteBufferFactory pooledByteBufferFactory,
+      PooledByteStreams pooledByteStreams,
+      Executor readExecutor,
+      Executor writeExecutor,
+      ImageCacheStatsTracker imageCacheStatsTracker,
+      BufferedDiskCacheOptions options) {
     mFileCache = fileCache;
     mPooledByteBufferFactory = pooledByteBufferFactory;
     mPooledByteStreams = pooledByteStreams;
     mReadExecutor = readExecutor;
     mWriteExecutor = writeExecutor;
     mImageCacheStatsTracker = imageCacheStatsTracker;
-    mStagingArea = StagingArea.getInstance();
+    mMemoryMappedReadMinSize = options.getMemoryMappedReadMinSize();
+    mAdmissionPolicy = options.getAdmissionPolicy();
+    mWriteBatchMaxSizeBytes = options.getWriteBatchMaxSizeBytes();
+    mStagingArea = StagingArea.getInstance(options.getStagingAreaMaxSizeBytes());
   }
 
   /**
@@ -83,6 +188,9 @@ public class BufferedDiskCache {
     if (containsSync(key)) {
       return Task.forResult(true);
     }
+    if (isKnownMissing(key)) {
+      return Task.forResult(false);
+    }
     return containsAsync(key);
   }
 
@@ -117,6 +225,9 @@ public class BufferedDiskCache {
     if (containsSync(key)) {
       return true;
     }
+    if (isKnownMissing(key)) {
+      return false;
+    }
     return checkInStagingAreaAndFileCache(key);
   }
 
@@ -133,10 +244,20 @@ public class BufferedDiskCache {
       if (FrescoSystrace.isTracing()) {
         FrescoSystrace.beginSection("BufferedDiskCache#get");
       }
+      if (mAdmissionPolicy != null) {
+        mAdmissionPolicy.recordRequest(key);
+      }
       final EncodedImage pinnedImage = mStagingArea.get(key);
       if (pinnedImage != null) {
         return foundPinnedImage(key, pinnedImage);
       }
+      if (isKnownMissing(key)) {
+        // fail fast, without a thread hop or a disk read
+        FLog.v(TAG, "Disk cache read for %s skipped, the key is not cached", key.getUriString());
+        mImageCacheStatsTracker.onStagingAreaMiss();
+        mImageCacheStatsTracker.onDiskCacheMiss();
+        return Task.forResult(null);
+      }
       return getAsync(key, isCancelled);
     } finally {
       if (FrescoSystrace.isTracing()) {
@@ -170,59 +291,27 @@ public class BufferedDiskCache {
   }
 
   private Task<EncodedImage> getAsync(final CacheKey key, final AtomicBoolean isCancelled) {
+    final TaskCompletionSource<EncodedImage> waiter = new TaskCompletionSource<>();
+    final InFlightRead read;
+    synchronized (mInFlightReads) {
+      InFlightRead existingRead = mInFlightReads.get(key);
+      if (existingRead != null) {
+        // share the read already in progress
+        existingRead.waiters.add(new ReadWaiter(waiter, isCancelled));
+        return waiter.getTask();
+      }
+      read = new InFlightRead();
+      read.waiters.add(new ReadWaiter(waiter, isCancelled));
+      mInFlightReads.put(key, read);
+    }
     try {
-      return Task.call(
-          new Callable<EncodedImage>() {
+      mReadExecutor.execute(
+          new Runnable() {
             @Override
-            public @Nullable EncodedImage call() throws Exception {
-              try {
-                if (FrescoSystrace.isTracing()) {
-                  FrescoSystrace.beginSection("BufferedDiskCache#getAsync");
-                }
-                if (isCancelled.get()) {
-                  throw new CancellationException();
-                }
-                EncodedImage result = mStagingArea.get(key);
-                if (result != null) {
-                  FLog.v(TAG, "Found image for %s in staging area", key.getUriString());
-                  mImageCacheStatsTracker.onStagingAreaHit(key);
-                } else {
-                  FLog.v(TAG, "Did not find image for %s in staging area", key.getUriString());
-                  mImageCacheStatsTracker.onStagingAreaMiss();
-
-                  try {
-                    final PooledByteBuffer buffer = readFromDiskCache(key);
-                    if (buffer == null) {
-                      return null;
-                    }
-                    CloseableReference<PooledByteBuffer> ref = CloseableReference.of(buffer);
-                    try {
-                      result = new EncodedImage(ref);
-                    } finally {
-                      CloseableReference.closeSafely(ref);
-                    }
-                  } catch (Exception exception) {
-                    return null;
-                  }
-                }
-
-                if (Thread.interrupted()) {
-                  FLog.v(TAG, "Host thread was interrupted, decreasing reference count");
-                  if (result != null) {
-                    result.close();
-                  }
-                  throw new InterruptedException();
-                } else {
-                  return result;
-                }
-              } finally {
-                if (FrescoSystrace.isTracing()) {
-                  FrescoSystrace.endSection();
-                }
-              }
+            public void run() {
+              readAndDispatch(key, read);
             }
-          },
-          mReadExecutor);
+          });
     } catch (Exception exception) {
       // Log failure
       // TODO: 3697790
@@ -231,7 +320,112 @@ public class BufferedDiskCache {
           exception,
           "Failed to schedule disk-cache read for %s",
           key.getUriString());
-      return Task.forError(exception);
+      dispatchResult(key, read, null, exception);
+    }
+    return waiter.getTask();
+  }
+
+  /**
+   * Reads the image of a key for all the gets waiting for it, unless all of them have been
+   * cancelled in the meantime. The gets are always completed, so that the read does not stay
+   * registered if anything fails.
+   */
+  private void readAndDispatch(CacheKey key, InFlightRead read) {
+    EncodedImage result = null;
+    Exception error = null;
+    try {
+      if (FrescoSystrace.isTracing()) {
+        FrescoSystrace.beginSection("BufferedDiskCache#getAsync");
+      }
+      if (areAllWaitersCancelled(read)) {
+        error = new CancellationException();
+      } else {
+        result = readFromStagingAreaOrDiskCache(key);
+        if (Thread.interrupted()) {
+          FLog.v(TAG, "Host thread was interrupted, decreasing reference count");
+          EncodedImage.closeSafely(result);
+          result = null;
+          error = new InterruptedException();
+        }
+      }
+    } catch (Exception exception) {
+      FLog.w(TAG, exception, "Failed to read %s from the disk cache", key.getUriString());
+      EncodedImage.closeSafely(result);
+      result = null;
+      error = exception;
+    } finally {
+      if (FrescoSystrace.isTracing()) {
+        FrescoSystrace.endSection();
+      }
+      dispatchResult(key, read, result, error);
+    }
+  }
+
+  private @Nullable EncodedImage readFromStagingAreaOrDiskCache(CacheKey key) {
+    EncodedImage result = mStagingArea.get(key);
+    if (result != null) {
+      FLog.v(TAG, "Found image for %s in staging area", key.getUriString());
+      mImageCacheStatsTracker.onStagingAreaHit(key);
+      return result;
+    }
+    FLog.v(TAG, "Did not find image for %s in staging area", key.getUriString());
+    mImageCacheStatsTracker.onStagingAreaMiss();
+    try {
+      final PooledByteBuffer buffer = readFromDiskCache(key);
+      if (buffer == null) {
+        return null;
+      }
+      CloseableReference<PooledByteBuffer> ref = CloseableReference.of(buffer);
+      try {
+        return new EncodedImage(ref);
+      } finally {
+        CloseableReference.closeSafely(ref);
+      }
+    } catch (Exception exception) {
+      return null;
+    }
+  }
+
+  private boolean areAllWaitersCancelled(InFlightRead read) {
+    synchronized (mInFlightReads) {
+      for (int i = 0; i < read.waiters.size(); i++) {
+        if (!read.waiters.get(i).isCancelled.get()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Completes the gets waiting for a read. The first one gets the image that has been read and
+   * the others get their own clone of it. The gets that start afterwards start a new read.
+   */
+  private void dispatchResult(
+      CacheKey key,
+      InFlightRead read,
+      @Nullable EncodedImage result,
+      @Nullable Exception error) {
+    synchronized (mInFlightReads) {
+      mInFlightReads.remove(key);
+    }
+    // no waiter can be added once the read has been unregistered
+    List<ReadWaiter> waiters = read.waiters;
+    boolean resultHandedOver = false;
+    for (int i = 0; i < waiters.size(); i++) {
+      ReadWaiter waiter = waiters.get(i);
+      if (error instanceof CancellationException || waiter.isCancelled.get()) {
+        waiter.source.trySetCancelled();
+      } else if (error != null) {
+        waiter.source.trySetError(error);
+      } else if (!resultHandedOver) {
+        resultHandedOver = waiter.source.trySetResult(result);
+      } else {
+        waiter.source.trySetResult(EncodedImage.cloneOrNull(result));
+      }
+    }
+    if (!resultHandedOver) {
+      EncodedImage.closeSafely(result);
     }
   }
 
@@ -242,6 +436,20 @@ public class BufferedDiskCache {
   public void put(
       final CacheKey key,
       EncodedImage encodedImage) {
+    put(key, encodedImage, false);
+  }
+
+  /**
+   * Associates encodedImage with given key in disk cache. Disk write is performed on background
+   * thread, so the caller of this method is not blocked
+   *
+   * @param bypassAdmissionPolicy whether to write the image even if the admission policy would not
+   *     admit it, e.g. for the images explicitly prefetched to the disk cache
+   */
+  public void put(
+      final CacheKey key,
+      EncodedImage encodedImage,
+      boolean bypassAdmissionPolicy) {
     try {
       if (FrescoSystrace.isTracing()) {
         FrescoSystrace.beginSection("BufferedDiskCache#put");
@@ -249,13 +457,28 @@ public class BufferedDiskCache {
       Preconditions.checkNotNull(key);
       Preconditions.checkArgument(EncodedImage.isValid(encodedImage));
 
-      // Store encodedImage in staging area
-      mStagingArea.put(key, encodedImage);
+      if (!bypassAdmissionPolicy && mAdmissionPolicy != null && !mAdmissionPolicy.admit(key)) {
+        FLog.v(TAG, "Image for %s not admitted to the disk cache", key.getUriString());
+        return;
+      }
+
+      // Store encodedImage in staging area. If it is full, the writes already pending are not
+      // keeping up and this one is dropped rather than queued.
+      if (!mStagingArea.put(key, encodedImage)) {
+        mImageCacheStatsTracker.onStagingAreaPutDropped(key, mStagingArea.getSizeBytes());
+        return;
+      }
+      mImageCacheStatsTracker.onStagingAreaPut(key, mStagingArea.getSizeBytes());
+      final long stagedTimeMs = SystemClock.uptimeMillis();
 
       // Write to disk cache. This will be executed on background thread, so increment the ref
       // count. When this write completes (with success/failure), then we will bump down the
       // ref count again.
       final EncodedImage finalEncodedImage = EncodedImage.cloneOrNull(encodedImage);
+      if (mWriteBatchMaxSizeBytes > 0) {
+        enqueueWrite(new PendingWrite(key, finalEncodedImage, stagedTimeMs));
+        return;
+      }
       try {
 
         mWriteExecutor.execute(
@@ -266,7 +489,10 @@ public class BufferedDiskCache {
                   if (FrescoSystrace.isTracing()) {
                     FrescoSystrace.beginSection("BufferedDiskCache#putAsync");
                   }
-                  writeToDiskCache(key, finalEncodedImage);
+                  if (writeToDiskCache(key, finalEncodedImage)) {
+                    mImageCacheStatsTracker.onDiskCacheWrite(
+                        key, SystemClock.uptimeMillis() - stagedTimeMs);
+                  }
                 } finally {
                   mStagingArea.remove(key, finalEncodedImage);
                   EncodedImage.closeSafely(finalEncodedImage);
@@ -296,6 +522,7 @@ public class BufferedDiskCache {
   public Task<Void> remove(final CacheKey key) {
     Preconditions.checkNotNull(key);
     mStagingArea.remove(key);
+    dropPendingWrites(key);
     try {
       return Task.call(
           new Callable<Void>() {
@@ -329,6 +556,7 @@ public class BufferedDiskCache {
    */
   public Task<Void> clearAll() {
     mStagingArea.clearAll();
+    dropPendingWrites(null);
     try {
       return Task.call(
           new Callable<Void>() {
@@ -373,12 +601,14 @@ public class BufferedDiskCache {
         mImageCacheStatsTracker.onDiskCacheHit(key);
       }
 
-      PooledByteBuffer byteBuffer;
-      final InputStream is = diskCacheResource.openStream();
-      try {
-        byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, (int) diskCacheResource.size());
-      } finally {
-        is.close();
+      PooledByteBuffer byteBuffer = mapResource(diskCacheResource);
+      if (byteBuffer == null) {
+        final InputStream is = diskCacheResource.openStream();
+        try {
+          byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, (int) diskCacheResource.size());
+        } finally {
+          is.close();
+        }
       }
 
       FLog.v(TAG, "Successful read from disk cache for %s", key.getUriString());
@@ -393,28 +623,183 @@ public class BufferedDiskCache {
     }
   }
 
+  /**
+   * Maps the resource in memory if it is big enough and backed by a file.
+   *
+   * @return the mapped resource, or null if it has to be copied
+   */
+  private @Nullable PooledByteBuffer mapResource(BinaryResource resource) {
+    if (mMemoryMappedReadMinSize < 0 || resource.size() < mMemoryMappedReadMinSize) {
+      return null;
+    }
+    try {
+      if (resource instanceof FileBinaryResource) {
+        return MappedPooledByteBuffer.map(
+            ((FileBinaryResource) resource).getFile(), 0, (int) resource.size());
+      } else if (resource instanceof FileRangeBinaryResource) {
+        FileRangeBinaryResource rangeResource = (FileRangeBinaryResource) resource;
+        return MappedPooledByteBuffer.map(
+            rangeResource.getFile(), rangeResource.getOffset(), (int) rangeResource.size());
+      }
+    } catch (IOException ioe) {
+      FLog.w(TAG, ioe, "Failed to map %s, copying it instead", resource);
+    }
+    return null;
+  }
+
   /**
    * Writes to disk cache
-   * @throws IOException
+   * @return true if the write succeeded
    */
-  private void writeToDiskCache(
+  private boolean writeToDiskCache(
       final CacheKey key,
       final EncodedImage encodedImage) {
     FLog.v(TAG, "About to write to disk-cache for key %s", key.getUriString());
     try {
-      mFileCache.insert(
-          key, new WriterCallback() {
-            @Override
-            public void write(OutputStream os) throws IOException {
-              mPooledByteStreams.copy(encodedImage.getInputStream(), os);
-            }
-          }
-      );
+      mFileCache.insert(key, newWriterCallback(encodedImage));
       FLog.v(TAG, "Successful disk-cache write for key %s", key.getUriString());
+      return true;
     } catch (IOException ioe) {
       // Log failure
       // TODO: 3697790
       FLog.w(TAG, ioe, "Failed to write to disk-cache for key %s", key.getUriString());
+      return false;
+    }
+  }
+
+  private WriterCallback newWriterCallback(final EncodedImage encodedImage) {
+    return new WriterCallback() {
+      @Override
+      public void write(OutputStream os) throws IOException {
+        mPooledByteStreams.copy(encodedImage.getInputStream(), os);
+      }
+    };
+  }
+
+  /** Queues a write for the batch writer, and schedules the writer if it is not already. */
+  private void enqueueWrite(PendingWrite write) {
+    synchronized (mPendingWrites) {
+      mPendingWrites.add(write);
+      if (mIsBatchWriterScheduled) {
+        return;
+      }
+      mIsBatchWriterScheduled = true;
+    }
+    try {
+      mWriteExecutor.execute(mBatchWriter);
+    } catch (Exception exception) {
+      // We failed to enqueue cache write. Log failure and decrement ref count
+      // TODO: 3697790
+      FLog.w(
+          TAG, exception, "Failed to schedule disk-cache write for %s", write.key.getUriString());
+      synchronized (mPendingWrites) {
+        mIsBatchWriterScheduled = false;
+      }
+      dropPendingWrites(null);
+    }
+  }
+
+  /**
+   * Takes the next writes, up to the max batch size but at least one.
+   *
+   * @return the writes, or null if there are none left, in which case the writer is no longer
+   *     scheduled
+   */
+  private @Nullable List<PendingWrite> takeWriteBatch() {
+    synchronized (mPendingWrites) {
+      if (mPendingWrites.isEmpty()) {
+        mIsBatchWriterScheduled = false;
+        return null;
+      }
+      List<PendingWrite> batch = new ArrayList<>();
+      int batchSize = 0;
+      do {
+        PendingWrite write = mPendingWrites.poll();
+        batch.add(write);
+        batchSize += write.encodedImage.getSize();
+      } while (!mPendingWrites.isEmpty()
+          && batchSize + mPendingWrites.peek().encodedImage.getSize() <= mWriteBatchMaxSizeBytes);
+      return batch;
+    }
+  }
+
+  private void writeBatchToDiskCache(List<PendingWrite> batch) {
+    try {
+      if (FrescoSystrace.isTracing()) {
+        FrescoSystrace.beginSection("BufferedDiskCache#putBatchAsync");
+      }
+      FLog.v(TAG, "About to write a batch of %d images to disk-cache", batch.size());
+      List<CacheKey> keys = new ArrayList<>(batch.size());
+      List<WriterCallback> writers = new ArrayList<>(batch.size());
+      for (int i = 0; i < batch.size(); i++) {
+        keys.add(batch.get(i).key);
+        writers.add(newWriterCallback(batch.get(i).encodedImage));
+      }
+      List<BinaryResource> resources = insertBatch(keys, writers);
+      final long nowMs = SystemClock.uptimeMillis();
+      for (int i = 0; i < batch.size(); i++) {
+        PendingWrite write = batch.get(i);
+        if (resources.get(i) != null) {
+          mImageCacheStatsTracker.onDiskCacheWrite(write.key, nowMs - write.stagedTimeMs);
+        }
+      }
+    } catch (Exception exception) {
+      // Log failure
+      // TODO: 3697790
+      FLog.w(TAG, exception, "Failed to write a batch of %d images to disk-cache", batch.size());
+    } finally {
+      for (int i = 0; i < batch.size(); i++) {
+        PendingWrite write = batch.get(i);
+        mStagingArea.remove(write.key, write.encodedImage);
+        EncodedImage.closeSafely(write.encodedImage);
+      }
+      if (FrescoSystrace.isTracing()) {
+        FrescoSystrace.endSection();
+      }
+    }
+  }
+
+  /** Returns true if the file cache can tell that the key is not cached, without a disk read. */
+  private boolean isKnownMissing(CacheKey key) {
+    return mFileCache instanceof BatchingFileCache
+        && ((BatchingFileCache) mFileCache).isMissingSync(key);
+  }
+
+  /** Inserts the batch at once if the file cache can, one image at a time otherwise. */
+  private List<BinaryResource> insertBatch(List<CacheKey> keys, List<WriterCallback> writers) {
+    if (mFileCache instanceof BatchingFileCache) {
+      return ((BatchingFileCache) mFileCache).insert(keys, writers);
+    }
+    List<BinaryResource> resources = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); i++) {
+      BinaryResource resource = null;
+      try {
+        resource = mFileCache.insert(keys.get(i), writers.get(i));
+      } catch (IOException ioe) {
+        FLog.w(TAG, ioe, "Failed to write to disk-cache for key %s", keys.get(i).getUriString());
+      }
+      resources.add(resource);
+    }
+    return resources;
+  }
+
+  /** Drops the writes of the key that are waiting for the batch writer, all of them if null. */
+  private void dropPendingWrites(@Nullable CacheKey key) {
+    List<PendingWrite> dropped = new ArrayList<>();
+    synchronized (mPendingWrites) {
+      Iterator<PendingWrite> iterator = mPendingWrites.iterator();
+      while (iterator.hasNext()) {
+        PendingWrite write = iterator.next();
+        if (key == null || key.equals(write.key)) {
+          iterator.remove();
+          dropped.add(write);
+        }
+      }
+    }
+    for (int i = 0; i < dropped.size(); i++) {
+      PendingWrite write = dropped.get(i);
+      mStagingArea.remove(write.key, write.encodedImage);
+      EncodedImage.closeSafely(write.encodedImage);
     }
   }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import javax.annotation.Nullable;
+
+/**
+ * Optional behaviors of a {@link BufferedDiskCache}. By default, none of them is enabled.
+ */
+public class BufferedDiskCacheOptions {
+
+  private final int mMemoryMappedReadMinSize;
+  private final @Nullable BufferedDiskCache.DiskCacheAdmissionPolicy mAdmissionPolicy;
+  private final int mStagingAreaMaxSizeBytes;
+  private final int mWriteBatchMaxSizeBytes;
+
+  private BufferedDiskCacheOptions(Builder builder) {
+    mMemoryMappedReadMinSize = builder.mMemoryMappedReadMinSize;
+    mAdmissionPolicy = builder.mAdmissionPolicy;
+    mStagingAreaMaxSizeBytes = builder.mStagingAreaMaxSizeBytes;
+    mWriteBatchMaxSizeBytes = builder.mWriteBatchMaxSizeBytes;
+  }
+
+  public int getMemoryMappedReadMinSize() {
+    return mMemoryMappedReadMinSize;
+  }
+
+  public @Nullable BufferedDiskCache.DiskCacheAdmissionPolicy getAdmissionPolicy() {
+    return mAdmissionPolicy;
+  }
+
+  public int getStagingAreaMaxSizeBytes() {
+    return mStagingAreaMaxSizeBytes;
+  }
+
+  public int getWriteBatchMaxSizeBytes() {
+    return mWriteBatchMaxSizeBytes;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private int mMemoryMappedReadMinSize = -1;
+    private @Nullable BufferedDiskCache.DiskCacheAdmissionPolicy mAdmissionPolicy;
+    private int mStagingAreaMaxSizeBytes = StagingArea.UNBOUNDED;
+    private int mWriteBatchMaxSizeBytes = 0;
+
+    private Builder() {}
+
+    /**
+     * The cached files of at least this size are mapped in memory instead of being copied to a
+     * pooled buffer, negative to always copy.
+     */
+    public Builder setMemoryMappedReadMinSize(int memoryMappedReadMinSize) {
+      mMemoryMappedReadMinSize = memoryMappedReadMinSize;
+      return this;
+    }
+
+    /**
+     * Decides which images are written, null to write all of them.
+     */
+    public Builder setAdmissionPolicy(
+        @Nullable BufferedDiskCache.DiskCacheAdmissionPolicy admissionPolicy) {
+      mAdmissionPolicy = admissionPolicy;
+      return this;
+    }
+
+    /**
+     * The max size of the images waiting to be written, the writes that would exceed it are
+     * dropped. {@link StagingArea#UNBOUNDED} for no limit.
+     */
+    public Builder setStagingAreaMaxSizeBytes(int stagingAreaMaxSizeBytes) {
+      mStagingAreaMaxSizeBytes = stagingAreaMaxSizeBytes;
+      return this;
+    }
+
+    /**
+     * If positive, the pending images are written in batches of up to this many bytes by a single
+     * task of the write executor. Otherwise each image is written by its own task.
+     */
+    public Builder setWriteBatchMaxSizeBytes(int writeBatchMaxSizeBytes) {
+      mWriteBatchMaxSizeBytes = writeBatchMaxSizeBytes;
+      return this;
+    }
+
+    public BufferedDiskCacheOptions build() {
+      return new BufferedDiskCacheOptions(this);
+    }
+  }
+}
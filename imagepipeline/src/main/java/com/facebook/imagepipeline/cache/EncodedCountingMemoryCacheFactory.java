@@ -11,12 +11,26 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.common.memory.PooledByteBuffer;
+import javax.annotation.Nullable;
 
 public class EncodedCountingMemoryCacheFactory {
 
   public static CountingMemoryCache<CacheKey, PooledByteBuffer> get(
       Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier,
       MemoryTrimmableRegistry memoryTrimmableRegistry) {
+    return get(encodedMemoryCacheParamsSupplier, memoryTrimmableRegistry, null);
+  }
+
+  /**
+   * Creates the encoded counting memory cache.
+   *
+   * @param admissionPolicy the admission policy, or null to admit every entry and evict in pure
+   *     LRU order
+   */
+  public static CountingMemoryCache<CacheKey, PooledByteBuffer> get(
+      Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier,
+      MemoryTrimmableRegistry memoryTrimmableRegistry,
+      @Nullable CountingMemoryCache.CacheAdmissionPolicy<CacheKey> admissionPolicy) {
 
     ValueDescriptor<PooledByteBuffer> valueDescriptor =
         new ValueDescriptor<PooledByteBuffer>() {
@@ -29,7 +43,8 @@ public class EncodedCountingMemoryCacheFactory {
     CountingMemoryCache.CacheTrimStrategy trimStrategy = new NativeMemoryCacheTrimStrategy();
 
     CountingMemoryCache<CacheKey, PooledByteBuffer> countingCache =
-        new CountingMemoryCache<>(valueDescriptor, trimStrategy, encodedMemoryCacheParamsSupplier);
+        new CountingMemoryCache<>(
+            valueDescriptor, trimStrategy, encodedMemoryCacheParamsSupplier, admissionPolicy);
 
     memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
 
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Preconditions;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Disk cache admission policy that only writes the images requested a minimum number of times.
+ *
+ * <p> The disk cache lookups are counted in a {@link FrequencySketch}. With the default threshold
+ * of two requests, the first time an image is fetched it is only kept by the memory caches; it is
+ * written to disk when it is fetched again after having left them. One-off images then no longer
+ * push out of the disk cache the ones that are shown repeatedly. The sketch ages its counts, so a
+ * key has to be requested again within roughly ten times expectedKeys requests.
+ *
+ * <p> An instance should not be shared between different disk caches.
+ */
+@ThreadSafe
+public class FrequencyDiskCacheAdmissionPolicy
+    implements BufferedDiskCache.DiskCacheAdmissionPolicy {
+
+  public static final int DEFAULT_MIN_REQUEST_COUNT = 2;
+
+  private final FrequencySketch<CacheKey> mSketch;
+  private final int mMinRequestCount;
+
+  /** @param expectedKeys the expected number of distinct keys requested from the disk cache */
+  public FrequencyDiskCacheAdmissionPolicy(int expectedKeys) {
+    this(expectedKeys, DEFAULT_MIN_REQUEST_COUNT);
+  }
+
+  /**
+   * @param expectedKeys the expected number of distinct keys requested from the disk cache
+   * @param minRequestCount how many times a key must have been requested to be written
+   */
+  public FrequencyDiskCacheAdmissionPolicy(int expectedKeys, int minRequestCount) {
+    Preconditions.checkArgument(
+        minRequestCount > 0 && minRequestCount <= FrequencySketch.MAX_FREQUENCY);
+    mSketch = new FrequencySketch<>(expectedKeys);
+    mMinRequestCount = minRequestCount;
+  }
+
+  @Override
+  public synchronized void recordRequest(CacheKey key) {
+    mSketch.increment(key);
+  }
+
+  @Override
+  public synchronized boolean admit(CacheKey key) {
+    return mSketch.frequency(key) >= mMinRequestCount;
+  }
+}
@@ -47,6 +47,27 @@ public interface ImageCacheStatsTracker {
   /** Called on a staging area miss hit. */
   void onStagingAreaMiss();
 
+  /**
+   * Called whenever encoded images are put into the staging area, to be written to disk cache.
+   *
+   * @param pendingSizeBytes the total size of the images of the staging area waiting to be written
+   */
+  void onStagingAreaPut(CacheKey cacheKey, int pendingSizeBytes);
+
+  /**
+   * Called when an image is not written to disk cache because its staging area is full.
+   *
+   * @param pendingSizeBytes the total size of the images of the staging area waiting to be written
+   */
+  void onStagingAreaPutDropped(CacheKey cacheKey, int pendingSizeBytes);
+
+  /**
+   * Called once an image of the staging area has been written to disk cache.
+   *
+   * @param writeLagMs the time between the put into the staging area and the end of the write
+   */
+  void onDiskCacheWrite(CacheKey cacheKey, long writeLagMs);
+
   /** Called on a disk cache hit. */
   void onDiskCacheHit(CacheKey cacheKey);
 
@@ -9,8 +9,9 @@ package com.facebook.imagepipeline.cache;
 
 import com.facebook.common.internal.Predicate;
 import com.facebook.common.references.CloseableReference;
+import javax.annotation.Nullable;
 
-public class InstrumentedMemoryCache<K, V> implements MemoryCache<K, V> {
+public class InstrumentedMemoryCache<K, V> implements MemoryCache<K, V>, GroupedMemoryCache<K, V> {
 
   private final MemoryCache<K, V> mDelegate;
   private final MemoryCacheTracker mTracker;
@@ -31,6 +32,18 @@ public class InstrumentedMemoryCache<K, V> implements MemoryCache<K, V> {
     return result;
   }
 
+  @Override
+  @Nullable
+  public CloseableReference<V> getMatchingInGroup(
+      String group, Predicate<K> keyPredicate, Predicate<V> valuePredicate) {
+    if (!(mDelegate instanceof GroupedMemoryCache)) {
+      return null;
+    }
+    // not tracked: callers only look for matches after the exact lookup, which tracked the miss
+    return ((GroupedMemoryCache<K, V>) mDelegate)
+        .getMatchingInGroup(group, keyPredicate, valuePredicate);
+  }
+
   @Override
   public CloseableReference<V> cache(K key, CloseableReference<V> value) {
     mTracker.onCachePut();
@@ -57,6 +57,18 @@ public class NoOpImageCacheStatsTracker implements ImageCacheStatsTracker {
   public void onStagingAreaMiss() {
   }
 
+  @Override
+  public void onStagingAreaPut(CacheKey cacheKey, int pendingSizeBytes) {
+  }
+
+  @Override
+  public void onStagingAreaPutDropped(CacheKey cacheKey, int pendingSizeBytes) {
+  }
+
+  @Override
+  public void onDiskCacheWrite(CacheKey cacheKey, long writeLagMs) {
+  }
+
   @Override
   public void onDiskCacheHit(CacheKey cacheKey) {}
 
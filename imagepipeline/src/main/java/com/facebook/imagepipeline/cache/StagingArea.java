@@ -13,30 +13,55 @@ import com.facebook.common.logging.FLog;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * This is class encapsulates Map that maps ImageCacheKeys to EncodedImages pointing to
  * PooledByteBuffers. It is used by SimpleImageCache to store values that are being written
  * to disk cache, so that they can be returned by parallel cache get operations.
+ *
+ * <p>Each disk cache has its own staging area. The size of the images it holds can be bounded, so
+ * that the pending writes cannot pile up in memory when the disk falls behind.
  */
+@ThreadSafe
 public class StagingArea {
   private static final Class<?> TAG = StagingArea.class;
 
-  @GuardedBy("this")
-  private Map<CacheKey, EncodedImage> mMap;
+  /** Max size that lets the staging area hold any number of images. */
+  public static final int UNBOUNDED = -1;
+
+  private final ConcurrentHashMap<CacheKey, StagedImage> mMap;
+  private final int mMaxSizeBytes;
+  private final AtomicInteger mSizeBytes;
+
+  private static class StagedImage {
+    final EncodedImage encodedImage;
+    final int size;
 
-  private StagingArea() {
-    mMap = new HashMap<>();
+    StagedImage(EncodedImage encodedImage, int size) {
+      this.encodedImage = encodedImage;
+      this.size = size;
+    }
+  }
+
+  private StagingArea(int maxSizeBytes) {
+    mMap = new ConcurrentHashMap<>();
+    mMaxSizeBytes = maxSizeBytes;
+    mSizeBytes = new AtomicInteger();
   }
 
   public static StagingArea getInstance() {
-    return new StagingArea();
+    return new StagingArea(UNBOUNDED);
+  }
+
+  /**
+   * @param maxSizeBytes the max total size of the staged images, {@link #UNBOUNDED} for no limit
+   */
+  public static StagingArea getInstance(int maxSizeBytes) {
+    return new StagingArea(maxSizeBytes);
   }
 
   /**
@@ -44,31 +69,36 @@ public class StagingArea {
    * of stored reference if
    * @param key
    * @param encodedImage EncodedImage to be associated with key
+   * @return false if the image was not stored because the staging area is full
    */
-  public synchronized void put(final CacheKey key, final EncodedImage encodedImage) {
+  public boolean put(final CacheKey key, final EncodedImage encodedImage) {
     Preconditions.checkNotNull(key);
     Preconditions.checkArgument(EncodedImage.isValid(encodedImage));
 
+    final int size = Math.max(encodedImage.getSize(), 0);
+    if (!reserve(size)) {
+      FLog.v(
+          TAG,
+          "Staging area full, dropping %s (%d bytes, %d pending)",
+          key.getUriString(),
+          size,
+          mSizeBytes.get());
+      return false;
+    }
     // we're making a 'copy' of this reference - so duplicate it
-    final EncodedImage oldEntry = mMap.put(key, EncodedImage.cloneOrNull(encodedImage));
-    EncodedImage.closeSafely(oldEntry);
+    final StagedImage oldEntry =
+        mMap.put(key, new StagedImage(EncodedImage.cloneOrNull(encodedImage), size));
+    release(oldEntry);
     logStats();
+    return true;
   }
 
   /**
    * Removes all items from the StagingArea.
    */
   public void clearAll() {
-    final List<EncodedImage> old;
-    synchronized (this) {
-      old = new ArrayList<>(mMap.values());
-      mMap.clear();
-    }
-    for (int i = 0; i < old.size(); i++) {
-      EncodedImage encodedImage = old.get(i);
-      if (encodedImage != null) {
-        encodedImage.close();
-      }
+    for (CacheKey key : mMap.keySet()) {
+      release(mMap.remove(key));
     }
   }
 
@@ -79,17 +109,14 @@ public class StagingArea {
    */
   public boolean remove(final CacheKey key) {
     Preconditions.checkNotNull(key);
-    final EncodedImage encodedImage;
-    synchronized (this) {
-      encodedImage = mMap.remove(key);
-    }
-    if (encodedImage == null) {
+    final StagedImage stagedImage = mMap.remove(key);
+    if (stagedImage == null) {
       return false;
     }
     try {
-      return encodedImage.isValid();
+      return stagedImage.encodedImage.isValid();
     } finally {
-      encodedImage.close();
+      release(stagedImage);
     }
   }
 
@@ -99,30 +126,31 @@ public class StagingArea {
    * @param encodedImage value corresponding to key
    * @return true if item was removed
    */
-  public synchronized boolean remove(final CacheKey key, final EncodedImage encodedImage) {
+  public boolean remove(final CacheKey key, final EncodedImage encodedImage) {
     Preconditions.checkNotNull(key);
     Preconditions.checkNotNull(encodedImage);
     Preconditions.checkArgument(EncodedImage.isValid(encodedImage));
 
-    final EncodedImage oldValue = mMap.get(key);
-
-    if (oldValue == null) {
+    final StagedImage stagedImage = mMap.get(key);
+    if (stagedImage == null) {
       return false;
     }
 
-    CloseableReference<PooledByteBuffer> oldRef = oldValue.getByteBufferRef();
+    CloseableReference<PooledByteBuffer> oldRef = stagedImage.encodedImage.getByteBufferRef();
     CloseableReference<PooledByteBuffer> ref = encodedImage.getByteBufferRef();
     try {
       if (oldRef == null || ref == null || oldRef.get() != ref.get()) {
         return false;
       }
-      mMap.remove(key);
     } finally {
       CloseableReference.closeSafely(ref);
       CloseableReference.closeSafely(oldRef);
-      EncodedImage.closeSafely(oldValue);
     }
-
+    // the entry may have been replaced or removed in the meantime
+    if (!mMap.remove(key, stagedImage)) {
+      return false;
+    }
+    release(stagedImage);
     logStats();
     return true;
   }
@@ -131,62 +159,83 @@ public class StagingArea {
    * @param key
    * @return value associated with given key or null if no value is associated
    */
-  public synchronized @Nullable EncodedImage get(final CacheKey key) {
+  public @Nullable EncodedImage get(final CacheKey key) {
     Preconditions.checkNotNull(key);
-    EncodedImage storedEncodedImage = mMap.get(key);
-    if (storedEncodedImage != null) {
-      synchronized (storedEncodedImage) {
-        if (!EncodedImage.isValid(storedEncodedImage)) {
-          // Reference is not valid, this means that someone cleared reference while it was still in
-          // use. Log error
-          // TODO: 3697790
-          mMap.remove(key);
-          FLog.w(
-              TAG,
-              "Found closed reference %d for key %s (%d)",
-              System.identityHashCode(storedEncodedImage),
-              key.getUriString(),
-              System.identityHashCode(key));
-          return null;
-        }
-        storedEncodedImage = EncodedImage.cloneOrNull(storedEncodedImage);
-      }
+    final StagedImage stagedImage = mMap.get(key);
+    if (stagedImage == null || !checkValid(key, stagedImage)) {
+      return null;
     }
-    return storedEncodedImage;
+    // null if the image has been closed since it was checked
+    return EncodedImage.cloneOrNull(stagedImage.encodedImage);
   }
 
   /**
    * Determine if an valid entry for the key exists in the staging area.
    */
-  public synchronized boolean containsKey(CacheKey key) {
+  public boolean containsKey(CacheKey key) {
     Preconditions.checkNotNull(key);
-    if (!mMap.containsKey(key)) {
-      return false;
-    }
-    EncodedImage storedEncodedImage = mMap.get(key);
-    synchronized (storedEncodedImage) {
-      if (!EncodedImage.isValid(storedEncodedImage)) {
-        // Reference is not valid, this means that someone cleared reference while it was still in
-        // use. Log error
-        // TODO: 3697790
-        mMap.remove(key);
-        FLog.w(
-            TAG,
-            "Found closed reference %d for key %s (%d)",
-            System.identityHashCode(storedEncodedImage),
-            key.getUriString(),
-            System.identityHashCode(key));
+    final StagedImage stagedImage = mMap.get(key);
+    return stagedImage != null && checkValid(key, stagedImage);
+  }
+
+  /** Returns the total size of the images waiting to be written. */
+  public int getSizeBytes() {
+    return mSizeBytes.get();
+  }
+
+  /** Returns the number of images waiting to be written. */
+  public int getCount() {
+    return mMap.size();
+  }
+
+  /**
+   * Accounts for an image about to be stored, unless it would exceed the max size. An image is
+   * always accepted when the staging area is empty, however big it is.
+   */
+  private boolean reserve(int size) {
+    while (true) {
+      final int sizeBytes = mSizeBytes.get();
+      if (mMaxSizeBytes != UNBOUNDED && sizeBytes > 0 && sizeBytes + size > mMaxSizeBytes) {
         return false;
       }
+      if (mSizeBytes.compareAndSet(sizeBytes, sizeBytes + size)) {
+        return true;
+      }
+    }
+  }
+
+  /** Closes an image that has been taken out of the map, only one thread can get it from there. */
+  private void release(@Nullable StagedImage stagedImage) {
+    if (stagedImage != null) {
+      mSizeBytes.addAndGet(-stagedImage.size);
+      EncodedImage.closeSafely(stagedImage.encodedImage);
+    }
+  }
+
+  private boolean checkValid(CacheKey key, StagedImage stagedImage) {
+    if (EncodedImage.isValid(stagedImage.encodedImage)) {
       return true;
     }
+    // Reference is not valid, this means that someone cleared reference while it was still in
+    // use. Log error
+    // TODO: 3697790
+    if (mMap.remove(key, stagedImage)) {
+      release(stagedImage);
+    }
+    FLog.w(
+        TAG,
+        "Found closed reference %d for key %s (%d)",
+        System.identityHashCode(stagedImage.encodedImage),
+        key.getUriString(),
+        System.identityHashCode(key));
+    return false;
   }
 
   /**
    * Simple 'debug' logging of stats.
    */
-  private synchronized void logStats() {
-    FLog.v(TAG, "Count = %d", mMap.size());
+  private void logStats() {
+    FLog.v(TAG, "Count = %d, size = %d", mMap.size(), mSizeBytes.get());
   }
 
 }
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.datasource.DataSource;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
+import com.facebook.imagepipeline.cache.CountingCache;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Restores the hottest entries of the bitmap memory cache after a cold start.
+ *
+ * <p> While the app runs, the keys of the most frequently used bitmaps are periodically written to
+ * a small manifest file. On the next start, {@link #warmUp} replays them as low-priority
+ * prefetches to the bitmap cache, so that the first screen finds its images already decoded. The
+ * warm-up stops as soon as the first fetch request is submitted, so that it never competes with
+ * the images the UI actually needs.
+ *
+ * <p> Only the keys that can be rebuilt from an {@link ImageRequest} are saved: keys with a
+ * postprocessor or custom decode options are left out of the manifest.
+ */
+@ThreadSafe
+public class BitmapMemoryCacheWarmer {
+
+  private static final Class<?> TAG = BitmapMemoryCacheWarmer.class;
+
+  public static final String MANIFEST_FILE_NAME = "fresco_bitmap_cache_manifest";
+  public static final int DEFAULT_MAX_KEYS = 50;
+
+  // How often the manifest gets rewritten while requests are being submitted.
+  @VisibleForTesting static final long SNAPSHOT_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final int MANIFEST_VERSION = 1;
+  private static final int ROTATION_USE_EXIF = -1;
+  private static final int ROTATION_DISABLED = -2;
+  private static final String CALLER_CONTEXT = "BitmapMemoryCacheWarmer";
+
+  private final File mManifestFile;
+  private final CountingCache<CacheKey, CloseableImage> mBitmapMemoryCache;
+  private final Executor mBackgroundExecutor;
+  private final int mMaxKeys;
+  private final AtomicLong mLastSnapshotTime;
+
+  @GuardedBy("this")
+  private final List<DataSource<Void>> mWarmUpDataSources = new ArrayList<>();
+  @GuardedBy("this")
+  private boolean mIsWarmUpStopped;
+
+  public BitmapMemoryCacheWarmer(
+      File manifestFile,
+      CountingCache<CacheKey, CloseableImage> bitmapMemoryCache,
+      Executor backgroundExecutor) {
+    this(manifestFile, bitmapMemoryCache, backgroundExecutor, DEFAULT_MAX_KEYS);
+  }
+
+  public BitmapMemoryCacheWarmer(
+      File manifestFile,
+      CountingCache<CacheKey, CloseableImage> bitmapMemoryCache,
+      Executor backgroundExecutor,
+      int maxKeys) {
+    mManifestFile = manifestFile;
+    mBitmapMemoryCache = bitmapMemoryCache;
+    mBackgroundExecutor = backgroundExecutor;
+    mMaxKeys = maxKeys;
+    // the first snapshot waits for a full interval, so that an empty cache does not overwrite the
+    // manifest of the previous run before the warm-up could read it
+    mLastSnapshotTime = new AtomicLong(SystemClock.uptimeMillis());
+  }
+
+  /**
+   * Replays the saved manifest, on the background executor, as low-priority prefetches to the
+   * bitmap cache of the given pipeline.
+   */
+  public void warmUp(final ImagePipeline imagePipeline) {
+    mBackgroundExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            List<ImageRequest> imageRequests = readManifest();
+            for (ImageRequest imageRequest : imageRequests) {
+              synchronized (BitmapMemoryCacheWarmer.this) {
+                if (mIsWarmUpStopped) {
+                  return;
+                }
+                mWarmUpDataSources.add(
+                    imagePipeline.prefetchToBitmapCache(
+                        imageRequest, CALLER_CONTEXT, Priority.LOW));
+              }
+            }
+          }
+        });
+  }
+
+  /**
+   * Called by the pipeline whenever a fetch request is submitted: stops the warm-up and
+   * periodically schedules a new snapshot of the cache.
+   */
+  public void onFetchRequestSubmitted() {
+    stopWarmUp();
+    long now = SystemClock.uptimeMillis();
+    long lastSnapshotTime = mLastSnapshotTime.get();
+    if (now - lastSnapshotTime >= SNAPSHOT_INTERVAL_MS
+        && mLastSnapshotTime.compareAndSet(lastSnapshotTime, now)) {
+      mBackgroundExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              snapshot();
+            }
+          });
+    }
+  }
+
+  /** Cancels the pending warm-up prefetches, if any, and prevents new ones. */
+  public void stopWarmUp() {
+    List<DataSource<Void>> dataSources;
+    synchronized (this) {
+      if (mIsWarmUpStopped) {
+        return;
+      }
+      mIsWarmUpStopped = true;
+      dataSources = new ArrayList<>(mWarmUpDataSources);
+      mWarmUpDataSources.clear();
+    }
+    for (DataSource<Void> dataSource : dataSources) {
+      dataSource.close();
+    }
+  }
+
+  /** Writes the keys of the hottest cached bitmaps to the manifest file. */
+  @VisibleForTesting
+  void snapshot() {
+    List<BitmapMemoryCacheKey> keys = new ArrayList<>();
+    for (CacheKey key : mBitmapMemoryCache.getHottestKeys(mMaxKeys)) {
+      if (isReplayable(key)) {
+        keys.add((BitmapMemoryCacheKey) key);
+      }
+    }
+    if (keys.isEmpty()) {
+      return;
+    }
+    // write to a temporary file first, so that a crash never leaves a truncated manifest
+    File temporaryFile = new File(mManifestFile.getPath() + ".tmp");
+    try {
+      OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+      try {
+        writeManifest(outputStream, keys);
+      } finally {
+        outputStream.close();
+      }
+      if (!temporaryFile.renameTo(mManifestFile)) {
+        FLog.w(TAG, "Failed to rename the bitmap cache manifest");
+      }
+    } catch (IOException exception) {
+      FLog.w(TAG, exception, "Failed to write the bitmap cache manifest");
+    }
+  }
+
+  private List<ImageRequest> readManifest() {
+    if (!mManifestFile.exists()) {
+      return new ArrayList<>();
+    }
+    InputStream inputStream = null;
+    try {
+      inputStream = new BufferedInputStream(new FileInputStream(mManifestFile));
+      return readManifest(inputStream);
+    } catch (IOException exception) {
+      FLog.w(TAG, exception, "Failed to read the bitmap cache manifest");
+      return new ArrayList<>();
+    } finally {
+      Closeables.closeQuietly(inputStream);
+    }
+  }
+
+  @VisibleForTesting
+  static boolean isReplayable(CacheKey key) {
+    if (!(key instanceof BitmapMemoryCacheKey)) {
+      return false;
+    }
+    BitmapMemoryCacheKey bitmapCacheKey = (BitmapMemoryCacheKey) key;
+    return bitmapCacheKey.getPostprocessorCacheKey() == null
+        && bitmapCacheKey.getPostprocessorName() == null
+        && ImageDecodeOptions.defaults().equals(bitmapCacheKey.getImageDecodeOptions());
+  }
+
+  @VisibleForTesting
+  static void writeManifest(OutputStream outputStream, List<BitmapMemoryCacheKey> keys)
+      throws IOException {
+    DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+    dataOutputStream.writeInt(MANIFEST_VERSION);
+    dataOutputStream.writeInt(keys.size());
+    for (BitmapMemoryCacheKey key : keys) {
+      dataOutputStream.writeUTF(key.getUriString());
+      ResizeOptions resizeOptions = key.getResizeOptions();
+      dataOutputStream.writeBoolean(resizeOptions != null);
+      if (resizeOptions != null) {
+        dataOutputStream.writeInt(resizeOptions.width);
+        dataOutputStream.writeInt(resizeOptions.height);
+        dataOutputStream.writeFloat(resizeOptions.maxBitmapSize);
+        dataOutputStream.writeFloat(resizeOptions.roundUpFraction);
+      }
+      RotationOptions rotationOptions = key.getRotationOptions();
+      if (!rotationOptions.rotationEnabled()) {
+        dataOutputStream.writeInt(ROTATION_DISABLED);
+      } else if (rotationOptions.useImageMetadata()) {
+        dataOutputStream.writeInt(ROTATION_USE_EXIF);
+      } else {
+        dataOutputStream.writeInt(rotationOptions.getForcedAngle());
+      }
+      dataOutputStream.writeBoolean(rotationOptions.canDeferUntilRendered());
+    }
+    dataOutputStream.flush();
+  }
+
+  @VisibleForTesting
+  static List<ImageRequest> readManifest(InputStream inputStream) throws IOException {
+    DataInputStream dataInputStream = new DataInputStream(inputStream);
+    List<ImageRequest> imageRequests = new ArrayList<>();
+    if (dataInputStream.readInt() != MANIFEST_VERSION) {
+      return imageRequests;
+    }
+    int count = dataInputStream.readInt();
+    for (int i = 0; i < count; i++) {
+      Uri uri = Uri.parse(dataInputStream.readUTF());
+      ResizeOptions resizeOptions = null;
+      if (dataInputStream.readBoolean()) {
+        resizeOptions =
+            new ResizeOptions(
+                dataInputStream.readInt(),
+                dataInputStream.readInt(),
+                dataInputStream.readFloat(),
+                dataInputStream.readFloat());
+      }
+      int rotation = dataInputStream.readInt();
+      boolean canDeferUntilRendered = dataInputStream.readBoolean();
+      imageRequests.add(
+          ImageRequestBuilder.newBuilderWithSource(uri)
+              .setResizeOptions(resizeOptions)
+              .setRotationOptions(getRotationOptions(rotation, canDeferUntilRendered))
+              .build());
+    }
+    return imageRequests;
+  }
+
+  private static RotationOptions getRotationOptions(int rotation, boolean canDeferUntilRendered) {
+    switch (rotation) {
+      case ROTATION_DISABLED:
+        return RotationOptions.disableRotation();
+      case ROTATION_USE_EXIF:
+        return canDeferUntilRendered
+            ? RotationOptions.autoRotateAtRenderTime()
+            : RotationOptions.autoRotate();
+      default:
+        return RotationOptions.forceRotation(rotation);
+    }
+  }
+}
@@ -11,6 +11,9 @@ import com.facebook.cache.disk.DiskCacheConfig;
 import com.facebook.cache.disk.DiskStorage;
 import com.facebook.cache.disk.DiskStorageCache;
 import com.facebook.cache.disk.FileCache;
+import com.facebook.cache.disk.ShardedFileCache;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -49,11 +52,20 @@ public class DiskStorageCacheFactory implements FileCacheFactory {
         diskCacheConfig.getDiskTrimmableRegistry(),
         diskCacheConfig.getContext(),
         executorForBackgroundInit,
-        diskCacheConfig.getIndexPopulateAtStartupEnabled());
+        diskCacheConfig.getIndexPopulateAtStartupEnabled(),
+        diskCacheConfig.getNegativeLookupFilterEnabled());
   }
 
   @Override
   public FileCache get(DiskCacheConfig diskCacheConfig) {
-    return buildDiskStorageCache(diskCacheConfig, mDiskStorageFactory.get(diskCacheConfig));
+    if (diskCacheConfig.getShardCount() == 1) {
+      return buildDiskStorageCache(diskCacheConfig, mDiskStorageFactory.get(diskCacheConfig));
+    }
+    List<FileCache> shards = new ArrayList<>(diskCacheConfig.getShardCount());
+    for (int i = 0; i < diskCacheConfig.getShardCount(); i++) {
+      DiskCacheConfig shardConfig = diskCacheConfig.getShardConfig(i);
+      shards.add(buildDiskStorageCache(shardConfig, mDiskStorageFactory.get(shardConfig)));
+    }
+    return new ShardedFileCache(shards, diskCacheConfig.getResourceIdScheme());
   }
 }
@@ -8,19 +8,76 @@ package com.facebook.imagepipeline.core;
 
 import com.facebook.cache.disk.DiskCacheConfig;
 import com.facebook.cache.disk.DiskStorage;
+import com.facebook.cache.disk.DiskStorageOptions;
 import com.facebook.cache.disk.DynamicDefaultDiskStorage;
+import com.facebook.cache.disk.PackFileDiskStorage;
+import com.facebook.cache.disk.SizeThresholdDiskStorage;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import java.io.File;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
 
 /**
  * Factory for the default implementation of the DiskStorage.
  */
 public class DynamicDefaultDiskStorageFactory implements DiskStorageFactory {
 
+  // suffix of the directory of the packed resources, next to the regular cache directory
+  private static final String PACK_DIRECTORY_SUFFIX = ".packs";
+
+  @Nullable private final Executor mTouchFlushExecutor;
+
+  /**
+   * The storages created by this factory update the access times on every access, even if the
+   * {@link DiskCacheConfig} enables batched touches, as there is no executor to write them on.
+   */
+  public DynamicDefaultDiskStorageFactory() {
+    mTouchFlushExecutor = null;
+  }
+
+  /**
+   * @param touchFlushExecutor the executor the batched touches are flushed on, when enabled by the
+   *     {@link DiskCacheConfig}, usually the local storage write executor
+   */
+  public DynamicDefaultDiskStorageFactory(Executor touchFlushExecutor) {
+    mTouchFlushExecutor = Preconditions.checkNotNull(touchFlushExecutor);
+  }
+
   @Override
-  public DiskStorage get(DiskCacheConfig diskCacheConfig) {
-    return new DynamicDefaultDiskStorage(
+  public DiskStorage get(final DiskCacheConfig diskCacheConfig) {
+    DiskStorage storage = new DynamicDefaultDiskStorage(
         diskCacheConfig.getVersion(),
         diskCacheConfig.getBaseDirectoryPathSupplier(),
         diskCacheConfig.getBaseDirectoryName(),
-        diskCacheConfig.getCacheErrorLogger());
+        diskCacheConfig.getCacheErrorLogger(),
+        DiskStorageOptions.newBuilder()
+            .setJournalEnabled(diskCacheConfig.getIndexJournalEnabled())
+            .setTouchFlushExecutor(
+                diskCacheConfig.getBatchedTouchesEnabled() ? mTouchFlushExecutor : null)
+            .setResourceIdScheme(diskCacheConfig.getResourceIdScheme())
+            .build());
+    if (diskCacheConfig.getPackFileSizeThreshold() <= 0) {
+      return storage;
+    }
+    // resolved on first use, like the directory of the regular storage
+    Supplier<File> packDirectorySupplier =
+        new Supplier<File>() {
+          @Override
+          public File get() {
+            return new File(
+                diskCacheConfig.getBaseDirectoryPathSupplier().get(),
+                diskCacheConfig.getBaseDirectoryName() + PACK_DIRECTORY_SUFFIX);
+          }
+        };
+    PackFileDiskStorage packStorage =
+        new PackFileDiskStorage(
+            packDirectorySupplier,
+            diskCacheConfig.getVersion(),
+            diskCacheConfig.getCacheErrorLogger(),
+            PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE,
+            diskCacheConfig.getResourceIdScheme());
+    return new SizeThresholdDiskStorage(
+        packStorage, storage, diskCacheConfig.getPackFileSizeThreshold());
   }
 }
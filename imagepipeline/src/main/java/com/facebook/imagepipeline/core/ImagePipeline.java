@@ -63,6 +63,7 @@ public class ImagePipeline {
   private final Supplier<Boolean> mSuppressBitmapPrefetchingSupplier;
   private AtomicLong mIdCounter;
   private final Supplier<Boolean> mLazyDataSource;
+  private final @Nullable BitmapMemoryCacheWarmer mBitmapMemoryCacheWarmer;
 
   public ImagePipeline(
       ProducerSequenceFactory producerSequenceFactory,
@@ -76,6 +77,34 @@ public class ImagePipeline {
       ThreadHandoffProducerQueue threadHandoffProducerQueue,
       Supplier<Boolean> suppressBitmapPrefetchingSupplier,
       Supplier<Boolean> lazyDataSource) {
+    this(
+        producerSequenceFactory,
+        requestListeners,
+        isPrefetchEnabledSupplier,
+        bitmapMemoryCache,
+        encodedMemoryCache,
+        mainBufferedDiskCache,
+        smallImageBufferedDiskCache,
+        cacheKeyFactory,
+        threadHandoffProducerQueue,
+        suppressBitmapPrefetchingSupplier,
+        lazyDataSource,
+        null);
+  }
+
+  public ImagePipeline(
+      ProducerSequenceFactory producerSequenceFactory,
+      Set<RequestListener> requestListeners,
+      Supplier<Boolean> isPrefetchEnabledSupplier,
+      MemoryCache<CacheKey, CloseableImage> bitmapMemoryCache,
+      MemoryCache<CacheKey, PooledByteBuffer> encodedMemoryCache,
+      BufferedDiskCache mainBufferedDiskCache,
+      BufferedDiskCache smallImageBufferedDiskCache,
+      CacheKeyFactory cacheKeyFactory,
+      ThreadHandoffProducerQueue threadHandoffProducerQueue,
+      Supplier<Boolean> suppressBitmapPrefetchingSupplier,
+      Supplier<Boolean> lazyDataSource,
+      @Nullable BitmapMemoryCacheWarmer bitmapMemoryCacheWarmer) {
     mIdCounter = new AtomicLong();
     mProducerSequenceFactory = producerSequenceFactory;
     mRequestListener = new ForwardingRequestListener(requestListeners);
@@ -88,6 +117,7 @@ public class ImagePipeline {
     mThreadHandoffProducerQueue = threadHandoffProducerQueue;
     mSuppressBitmapPrefetchingSupplier = suppressBitmapPrefetchingSupplier;
     mLazyDataSource = lazyDataSource;
+    mBitmapMemoryCacheWarmer = bitmapMemoryCacheWarmer;
   }
 
   /**
@@ -346,6 +376,23 @@ public class ImagePipeline {
   public DataSource<Void> prefetchToBitmapCache(
       ImageRequest imageRequest,
       Object callerContext) {
+    return prefetchToBitmapCache(imageRequest, callerContext, Priority.MEDIUM);
+  }
+
+  /**
+   * Submits a request for prefetching to the bitmap cache.
+   *
+   * <p> Beware that if your network fetcher doesn't support priorities prefetch requests may slow
+   * down images which are immediately required on screen.
+   *
+   * @param imageRequest the request to submit
+   * @param priority custom priority for the fetch
+   * @return a DataSource that can safely be ignored.
+   */
+  public DataSource<Void> prefetchToBitmapCache(
+      ImageRequest imageRequest,
+      Object callerContext,
+      Priority priority) {
     if (!mIsPrefetchEnabledSupplier.get()) {
       return DataSources.immediateFailedDataSource(PREFETCH_EXCEPTION);
     }
@@ -365,7 +412,7 @@ public class ImagePipeline {
           imageRequest,
           ImageRequest.RequestLevel.FULL_FETCH,
           callerContext,
-          Priority.MEDIUM);
+          priority);
     } catch (Exception exception) {
       return DataSources.immediateFailedDataSource(exception);
     }
@@ -701,6 +748,9 @@ public class ImagePipeline {
     }
     final RequestListener finalRequestListener =
         getRequestListenerForRequest(imageRequest, requestListener);
+    if (mBitmapMemoryCacheWarmer != null) {
+      mBitmapMemoryCacheWarmer.onFetchRequestSubmitted();
+    }
 
     try {
       ImageRequest.RequestLevel lowestPermittedRequestLevel =
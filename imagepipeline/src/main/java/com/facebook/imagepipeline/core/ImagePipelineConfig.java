@@ -10,6 +10,7 @@ package com.facebook.imagepipeline.core;
 import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
+import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.disk.DiskCacheConfig;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Supplier;
@@ -22,14 +23,18 @@ import com.facebook.common.webp.WebpSupportStatus;
 import com.facebook.imagepipeline.bitmaps.HoneycombBitmapCreator;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.BitmapMemoryCacheTrimStrategy;
+import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.CountingMemoryCache;
 import com.facebook.imagepipeline.cache.DefaultBitmapMemoryCacheParamsSupplier;
 import com.facebook.imagepipeline.cache.DefaultCacheKeyFactory;
 import com.facebook.imagepipeline.cache.DefaultEncodedMemoryCacheParamsSupplier;
+import com.facebook.imagepipeline.cache.FrequencyDiskCacheAdmissionPolicy;
 import com.facebook.imagepipeline.cache.ImageCacheStatsTracker;
 import com.facebook.imagepipeline.cache.MemoryCacheParams;
 import com.facebook.imagepipeline.cache.NoOpImageCacheStatsTracker;
+import com.facebook.imagepipeline.cache.ShadowCacheTracker;
+import com.facebook.imagepipeline.cache.TinyLfuAdmissionPolicy;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ImageDecoderConfig;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
@@ -67,12 +72,18 @@ public class ImagePipelineConfig {
 
   // There are a lot of parameters in this class. Please follow strict alphabetical order.
   private final Bitmap.Config mBitmapConfig;
+  @Nullable private final CountingMemoryCache.CacheAdmissionPolicy<CacheKey>
+      mBitmapMemoryCacheAdmissionPolicy;
   private final Supplier<MemoryCacheParams> mBitmapMemoryCacheParamsSupplier;
+  private final int mBitmapMemoryCacheSegmentCount;
+  @Nullable private final ShadowCacheTracker<CacheKey> mBitmapMemoryCacheShadowCacheTracker;
   private final CountingMemoryCache.CacheTrimStrategy mBitmapMemoryCacheTrimStrategy;
   private final CacheKeyFactory mCacheKeyFactory;
   private final Context mContext;
   private final boolean mDownsampleEnabled;
   private final FileCacheFactory mFileCacheFactory;
+  @Nullable private final CountingMemoryCache.CacheAdmissionPolicy<CacheKey>
+      mEncodedMemoryCacheAdmissionPolicy;
   private final Supplier<MemoryCacheParams> mEncodedMemoryCacheParamsSupplier;
   private final ExecutorSupplier mExecutorSupplier;
   private final ImageCacheStatsTracker mImageCacheStatsTracker;
@@ -80,6 +91,8 @@ public class ImagePipelineConfig {
   @Nullable private final ImageTranscoderFactory mImageTranscoderFactory;
   @Nullable @ImageTranscoderType private final Integer mImageTranscoderType;
   private final Supplier<Boolean> mIsPrefetchEnabledSupplier;
+  @Nullable private final BufferedDiskCache.DiskCacheAdmissionPolicy
+      mMainDiskCacheAdmissionPolicy;
   private final DiskCacheConfig mMainDiskCacheConfig;
   private final MemoryTrimmableRegistry mMemoryTrimmableRegistry;
   @MemoryChunkType private final int mMemoryChunkType;
@@ -90,6 +103,8 @@ public class ImagePipelineConfig {
   private final ProgressiveJpegConfig mProgressiveJpegConfig;
   private final Set<RequestListener> mRequestListeners;
   private final boolean mResizeAndRotateEnabledForNetwork;
+  @Nullable private final BufferedDiskCache.DiskCacheAdmissionPolicy
+      mSmallImageDiskCacheAdmissionPolicy;
   private final DiskCacheConfig mSmallImageDiskCacheConfig;
   @Nullable private final ImageDecoderConfig mImageDecoderConfig;
   private final ImagePipelineExperiments mImagePipelineExperiments;
@@ -104,11 +119,14 @@ public class ImagePipelineConfig {
     }
     // We have to build experiments before the rest
     mImagePipelineExperiments = builder.mExperimentsBuilder.build();
+    mBitmapMemoryCacheAdmissionPolicy = builder.mBitmapMemoryCacheAdmissionPolicy;
     mBitmapMemoryCacheParamsSupplier =
         builder.mBitmapMemoryCacheParamsSupplier == null
             ? new DefaultBitmapMemoryCacheParamsSupplier(
                 (ActivityManager) builder.mContext.getSystemService(Context.ACTIVITY_SERVICE))
             : builder.mBitmapMemoryCacheParamsSupplier;
+    mBitmapMemoryCacheSegmentCount = builder.mBitmapMemoryCacheSegmentCount;
+    mBitmapMemoryCacheShadowCacheTracker = builder.mBitmapMemoryCacheShadowCacheTracker;
     mBitmapMemoryCacheTrimStrategy =
         builder.mBitmapMemoryCacheTrimStrategy == null
             ? new BitmapMemoryCacheTrimStrategy()
@@ -119,11 +137,8 @@ public class ImagePipelineConfig {
             ? DefaultCacheKeyFactory.getInstance()
             : builder.mCacheKeyFactory;
     mContext = Preconditions.checkNotNull(builder.mContext);
-    mFileCacheFactory =
-        builder.mFileCacheFactory == null
-            ? new DiskStorageCacheFactory(new DynamicDefaultDiskStorageFactory())
-            : builder.mFileCacheFactory;
     mDownsampleEnabled = builder.mDownsampleEnabled;
+    mEncodedMemoryCacheAdmissionPolicy = builder.mEncodedMemoryCacheAdmissionPolicy;
     mEncodedMemoryCacheParamsSupplier =
         builder.mEncodedMemoryCacheParamsSupplier == null
             ? new DefaultEncodedMemoryCacheParamsSupplier()
@@ -144,6 +159,7 @@ public class ImagePipelineConfig {
               }
             }
             : builder.mIsPrefetchEnabledSupplier;
+    mMainDiskCacheAdmissionPolicy = builder.mMainDiskCacheAdmissionPolicy;
     mMainDiskCacheConfig =
         builder.mMainDiskCacheConfig == null
             ? getDefaultMainDiskCacheConfig(builder.mContext)
@@ -181,6 +197,7 @@ public class ImagePipelineConfig {
             ? new HashSet<RequestListener>()
             : builder.mRequestListeners;
     mResizeAndRotateEnabledForNetwork = builder.mResizeAndRotateEnabledForNetwork;
+    mSmallImageDiskCacheAdmissionPolicy = builder.mSmallImageDiskCacheAdmissionPolicy;
     mSmallImageDiskCacheConfig =
         builder.mSmallImageDiskCacheConfig == null
             ? mMainDiskCacheConfig
@@ -192,6 +209,11 @@ public class ImagePipelineConfig {
         builder.mExecutorSupplier == null
             ? new DefaultExecutorSupplier(numCpuBoundThreads)
             : builder.mExecutorSupplier;
+    mFileCacheFactory =
+        builder.mFileCacheFactory == null
+            ? new DiskStorageCacheFactory(
+                new DynamicDefaultDiskStorageFactory(mExecutorSupplier.forLocalStorageWrite()))
+            : builder.mFileCacheFactory;
     mDiskCacheEnabled = builder.mDiskCacheEnabled;
     // Here we manage the WebpBitmapFactory implementation if any
     WebpBitmapFactory webpBitmapFactory = mImagePipelineExperiments.getWebpBitmapFactory();
@@ -251,10 +273,24 @@ public class ImagePipelineConfig {
     return mBitmapConfig;
   }
 
+  @Nullable
+  public CountingMemoryCache.CacheAdmissionPolicy<CacheKey> getBitmapMemoryCacheAdmissionPolicy() {
+    return mBitmapMemoryCacheAdmissionPolicy;
+  }
+
   public Supplier<MemoryCacheParams> getBitmapMemoryCacheParamsSupplier() {
     return mBitmapMemoryCacheParamsSupplier;
   }
 
+  public int getBitmapMemoryCacheSegmentCount() {
+    return mBitmapMemoryCacheSegmentCount;
+  }
+
+  @Nullable
+  public ShadowCacheTracker<CacheKey> getBitmapMemoryCacheShadowCacheTracker() {
+    return mBitmapMemoryCacheShadowCacheTracker;
+  }
+
   public CountingMemoryCache.CacheTrimStrategy getBitmapMemoryCacheTrimStrategy() {
     return mBitmapMemoryCacheTrimStrategy;
   }
@@ -283,6 +319,11 @@ public class ImagePipelineConfig {
     return mDiskCacheEnabled;
   }
 
+  @Nullable
+  public CountingMemoryCache.CacheAdmissionPolicy<CacheKey> getEncodedMemoryCacheAdmissionPolicy() {
+    return mEncodedMemoryCacheAdmissionPolicy;
+  }
+
   public Supplier<MemoryCacheParams> getEncodedMemoryCacheParamsSupplier() {
     return mEncodedMemoryCacheParamsSupplier;
   }
@@ -315,6 +356,11 @@ public class ImagePipelineConfig {
     return mIsPrefetchEnabledSupplier;
   }
 
+  @Nullable
+  public BufferedDiskCache.DiskCacheAdmissionPolicy getMainDiskCacheAdmissionPolicy() {
+    return mMainDiskCacheAdmissionPolicy;
+  }
+
   public DiskCacheConfig getMainDiskCacheConfig() {
     return mMainDiskCacheConfig;
   }
@@ -353,6 +399,11 @@ public class ImagePipelineConfig {
     return mResizeAndRotateEnabledForNetwork;
   }
 
+  @Nullable
+  public BufferedDiskCache.DiskCacheAdmissionPolicy getSmallImageDiskCacheAdmissionPolicy() {
+    return mSmallImageDiskCacheAdmissionPolicy;
+  }
+
   public DiskCacheConfig getSmallImageDiskCacheConfig() {
     return mSmallImageDiskCacheConfig;
   }
@@ -417,11 +468,15 @@ public class ImagePipelineConfig {
   public static class Builder {
 
     private Bitmap.Config mBitmapConfig;
+    private CountingMemoryCache.CacheAdmissionPolicy<CacheKey> mBitmapMemoryCacheAdmissionPolicy;
     private Supplier<MemoryCacheParams> mBitmapMemoryCacheParamsSupplier;
+    private int mBitmapMemoryCacheSegmentCount = 1;
+    private ShadowCacheTracker<CacheKey> mBitmapMemoryCacheShadowCacheTracker;
     private CountingMemoryCache.CacheTrimStrategy mBitmapMemoryCacheTrimStrategy;
     private CacheKeyFactory mCacheKeyFactory;
     private final Context mContext;
     private boolean mDownsampleEnabled = false;
+    private CountingMemoryCache.CacheAdmissionPolicy<CacheKey> mEncodedMemoryCacheAdmissionPolicy;
     private Supplier<MemoryCacheParams> mEncodedMemoryCacheParamsSupplier;
     private ExecutorSupplier mExecutorSupplier;
     private ImageCacheStatsTracker mImageCacheStatsTracker;
@@ -429,6 +484,7 @@ public class ImagePipelineConfig {
     private ImageTranscoderFactory mImageTranscoderFactory;
     @Nullable @ImageTranscoderType private Integer mImageTranscoderType = null;
     private Supplier<Boolean> mIsPrefetchEnabledSupplier;
+    private BufferedDiskCache.DiskCacheAdmissionPolicy mMainDiskCacheAdmissionPolicy;
     private DiskCacheConfig mMainDiskCacheConfig;
     private MemoryTrimmableRegistry mMemoryTrimmableRegistry;
     @Nullable @MemoryChunkType private Integer mMemoryChunkType = null;
@@ -438,6 +494,7 @@ public class ImagePipelineConfig {
     private ProgressiveJpegConfig mProgressiveJpegConfig;
     private Set<RequestListener> mRequestListeners;
     private boolean mResizeAndRotateEnabledForNetwork = true;
+    private BufferedDiskCache.DiskCacheAdmissionPolicy mSmallImageDiskCacheAdmissionPolicy;
     private DiskCacheConfig mSmallImageDiskCacheConfig;
     private FileCacheFactory mFileCacheFactory;
     private ImageDecoderConfig mImageDecoderConfig;
@@ -456,6 +513,16 @@ public class ImagePipelineConfig {
       return this;
     }
 
+    /**
+     * Sets the admission policy of the bitmap memory cache, for example a
+     * {@link TinyLfuAdmissionPolicy}. By default every entry is admitted and evicted in LRU order.
+     */
+    public Builder setBitmapMemoryCacheAdmissionPolicy(
+        CountingMemoryCache.CacheAdmissionPolicy<CacheKey> bitmapMemoryCacheAdmissionPolicy) {
+      mBitmapMemoryCacheAdmissionPolicy = bitmapMemoryCacheAdmissionPolicy;
+      return this;
+    }
+
     public Builder setBitmapMemoryCacheParamsSupplier(
         Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier) {
       mBitmapMemoryCacheParamsSupplier =
@@ -463,6 +530,28 @@ public class ImagePipelineConfig {
       return this;
     }
 
+    /**
+     * Splits the bitmap memory cache into the given number of independently locked segments, in
+     * order to reduce lock contention between the UI thread and the decode threads. The default
+     * of 1 keeps a single {@link CountingMemoryCache}.
+     */
+    public Builder setBitmapMemoryCacheSegmentCount(int bitmapMemoryCacheSegmentCount) {
+      Preconditions.checkArgument(bitmapMemoryCacheSegmentCount > 0);
+      mBitmapMemoryCacheSegmentCount = bitmapMemoryCacheSegmentCount;
+      return this;
+    }
+
+    /**
+     * Attaches a {@link ShadowCacheTracker} to the bitmap memory cache, to estimate the hit ratios
+     * smaller or bigger bitmap memory caches would achieve. It is not attached by default, as it
+     * keeps the recently requested keys and adds some work to every lookup.
+     */
+    public Builder setBitmapMemoryCacheShadowCacheTracker(
+        ShadowCacheTracker<CacheKey> bitmapMemoryCacheShadowCacheTracker) {
+      mBitmapMemoryCacheShadowCacheTracker = bitmapMemoryCacheShadowCacheTracker;
+      return this;
+    }
+
     public Builder setBitmapMemoryCacheTrimStrategy(
         CountingMemoryCache.CacheTrimStrategy trimStrategy) {
       mBitmapMemoryCacheTrimStrategy = trimStrategy;
@@ -502,6 +591,16 @@ public class ImagePipelineConfig {
       return this;
     }
 
+    /**
+     * Sets the admission policy of the encoded memory cache, for example a
+     * {@link TinyLfuAdmissionPolicy}. By default every entry is admitted and evicted in LRU order.
+     */
+    public Builder setEncodedMemoryCacheAdmissionPolicy(
+        CountingMemoryCache.CacheAdmissionPolicy<CacheKey> encodedMemoryCacheAdmissionPolicy) {
+      mEncodedMemoryCacheAdmissionPolicy = encodedMemoryCacheAdmissionPolicy;
+      return this;
+    }
+
     public Builder setEncodedMemoryCacheParamsSupplier(
         Supplier<MemoryCacheParams> encodedMemoryCacheParamsSupplier) {
       mEncodedMemoryCacheParamsSupplier =
@@ -545,6 +644,16 @@ public class ImagePipelineConfig {
       return this;
     }
 
+    /**
+     * Sets the admission policy of the main disk cache, for example a
+     * {@link FrequencyDiskCacheAdmissionPolicy}. By default every fetched image is written.
+     */
+    public Builder setMainDiskCacheAdmissionPolicy(
+        BufferedDiskCache.DiskCacheAdmissionPolicy mainDiskCacheAdmissionPolicy) {
+      mMainDiskCacheAdmissionPolicy = mainDiskCacheAdmissionPolicy;
+      return this;
+    }
+
     public Builder setMainDiskCacheConfig(DiskCacheConfig mainDiskCacheConfig) {
       mMainDiskCacheConfig = mainDiskCacheConfig;
       return this;
@@ -596,6 +705,17 @@ public class ImagePipelineConfig {
       return this;
     }
 
+    /**
+     * Sets the admission policy of the small image disk cache, for example a
+     * {@link FrequencyDiskCacheAdmissionPolicy}. It must not be the policy of the main disk cache.
+     * By default every fetched image is written.
+     */
+    public Builder setSmallImageDiskCacheAdmissionPolicy(
+        BufferedDiskCache.DiskCacheAdmissionPolicy smallImageDiskCacheAdmissionPolicy) {
+      mSmallImageDiskCacheAdmissionPolicy = smallImageDiskCacheAdmissionPolicy;
+      return this;
+    }
+
     public Builder setSmallImageDiskCacheConfig(DiskCacheConfig smallImageDiskCacheConfig) {
       mSmallImageDiskCacheConfig = smallImageDiskCacheConfig;
       return this;
@@ -9,6 +9,7 @@ package com.facebook.imagepipeline.core;
 import android.content.Context;
 import android.graphics.Bitmap;
 import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.memory.ByteArrayPool;
 import com.facebook.common.memory.PooledByteBuffer;
@@ -17,7 +18,9 @@ import com.facebook.common.webp.WebpBitmapFactory;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.DeferredReferenceReleaser;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.cache.StagingArea;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.image.CloseableImage;
@@ -48,6 +51,14 @@ public class ImagePipelineExperiments {
   private final Supplier<Boolean> mLazyDataSource;
   private final boolean mGingerbreadDecoderEnabled;
   private final boolean mDownscaleFrameToDrawableDimensions;
+  private final boolean mResolutionAwareBitmapCacheLookupEnabled;
+  private final boolean mDeferredMemoryCacheReleaseEnabled;
+  private final int mDeferredMemoryCacheReleaseMaxBacklog;
+  private final boolean mBitmapMemoryCacheWarmStartEnabled;
+  private final boolean mMemoryMappedDiskCacheReadsEnabled;
+  private final int mMemoryMappedDiskCacheReadMinSize;
+  private final int mStagingAreaMaxSizeBytes;
+  private final int mDiskCacheWriteBatchMaxSizeBytes;
 
   private ImagePipelineExperiments(Builder builder) {
     mWebpSupportEnabled = builder.mWebpSupportEnabled;
@@ -70,6 +81,14 @@ public class ImagePipelineExperiments {
     mLazyDataSource = builder.mLazyDataSource;
     mGingerbreadDecoderEnabled = builder.mGingerbreadDecoderEnabled;
     mDownscaleFrameToDrawableDimensions = builder.mDownscaleFrameToDrawableDimensions;
+    mResolutionAwareBitmapCacheLookupEnabled = builder.mResolutionAwareBitmapCacheLookupEnabled;
+    mDeferredMemoryCacheReleaseEnabled = builder.mDeferredMemoryCacheReleaseEnabled;
+    mDeferredMemoryCacheReleaseMaxBacklog = builder.mDeferredMemoryCacheReleaseMaxBacklog;
+    mBitmapMemoryCacheWarmStartEnabled = builder.mBitmapMemoryCacheWarmStartEnabled;
+    mMemoryMappedDiskCacheReadsEnabled = builder.mMemoryMappedDiskCacheReadsEnabled;
+    mMemoryMappedDiskCacheReadMinSize = builder.mMemoryMappedDiskCacheReadMinSize;
+    mStagingAreaMaxSizeBytes = builder.mStagingAreaMaxSizeBytes;
+    mDiskCacheWriteBatchMaxSizeBytes = builder.mDiskCacheWriteBatchMaxSizeBytes;
   }
 
   public boolean getUseDownsamplingRatioForResizing() {
@@ -141,6 +160,38 @@ public class ImagePipelineExperiments {
     return mDownscaleFrameToDrawableDimensions;
   }
 
+  public boolean isResolutionAwareBitmapCacheLookupEnabled() {
+    return mResolutionAwareBitmapCacheLookupEnabled;
+  }
+
+  public boolean isDeferredMemoryCacheReleaseEnabled() {
+    return mDeferredMemoryCacheReleaseEnabled;
+  }
+
+  public int getDeferredMemoryCacheReleaseMaxBacklog() {
+    return mDeferredMemoryCacheReleaseMaxBacklog;
+  }
+
+  public boolean isBitmapMemoryCacheWarmStartEnabled() {
+    return mBitmapMemoryCacheWarmStartEnabled;
+  }
+
+  public boolean isMemoryMappedDiskCacheReadsEnabled() {
+    return mMemoryMappedDiskCacheReadsEnabled;
+  }
+
+  public int getMemoryMappedDiskCacheReadMinSize() {
+    return mMemoryMappedDiskCacheReadMinSize;
+  }
+
+  public int getStagingAreaMaxSizeBytes() {
+    return mStagingAreaMaxSizeBytes;
+  }
+
+  public int getDiskCacheWriteBatchMaxSizeBytes() {
+    return mDiskCacheWriteBatchMaxSizeBytes;
+  }
+
   public static class Builder {
 
     private final ImagePipelineConfig.Builder mConfigBuilder;
@@ -160,6 +211,16 @@ public class ImagePipelineExperiments {
     public Supplier<Boolean> mLazyDataSource;
     public boolean mGingerbreadDecoderEnabled;
     public boolean mDownscaleFrameToDrawableDimensions;
+    private boolean mResolutionAwareBitmapCacheLookupEnabled = false;
+    private boolean mDeferredMemoryCacheReleaseEnabled = false;
+    private int mDeferredMemoryCacheReleaseMaxBacklog =
+        DeferredReferenceReleaser.DEFAULT_MAX_BACKLOG;
+    private boolean mBitmapMemoryCacheWarmStartEnabled = false;
+    private boolean mMemoryMappedDiskCacheReadsEnabled = false;
+    private int mMemoryMappedDiskCacheReadMinSize =
+        BufferedDiskCache.DEFAULT_MEMORY_MAPPED_READ_MIN_SIZE;
+    private int mStagingAreaMaxSizeBytes = StagingArea.UNBOUNDED;
+    private int mDiskCacheWriteBatchMaxSizeBytes = 0;
 
     public Builder(ImagePipelineConfig.Builder configBuilder) {
       mConfigBuilder = configBuilder;
@@ -286,6 +347,102 @@ public class ImagePipelineExperiments {
       return mConfigBuilder;
     }
 
+    /**
+     * If enabled, a request that misses the bitmap memory cache is served with a full-quality
+     * bitmap of the same source already cached at an equal or higher resolution, e.g. a thumbnail
+     * request is served with the bitmap decoded for a bigger view, instead of being decoded again.
+     * The bitmap memory cache then indexes its keys by source to find such bitmaps.
+     *
+     * @param resolutionAwareBitmapCacheLookupEnabled set true to serve such cache hits
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setResolutionAwareBitmapCacheLookupEnabled(
+        boolean resolutionAwareBitmapCacheLookupEnabled) {
+      mResolutionAwareBitmapCacheLookupEnabled = resolutionAwareBitmapCacheLookupEnabled;
+      return mConfigBuilder;
+    }
+
+    /**
+     * If enabled, the bitmaps and the encoded images evicted from the memory caches are released
+     * in batches on the lightweight background executor instead of on the thread that triggered
+     * the eviction, which is often the UI thread. Critical memory trims still release them
+     * synchronously.
+     *
+     * @param deferredMemoryCacheReleaseEnabled set true to release evicted values in the
+     *     background
+     * @param maxBacklog the maximum number of values waiting to be released, further values are
+     *     released synchronously. Must be positive if the feature is enabled
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setDeferredMemoryCacheReleaseEnabled(
+        boolean deferredMemoryCacheReleaseEnabled, int maxBacklog) {
+      if (deferredMemoryCacheReleaseEnabled) {
+        Preconditions.checkArgument(maxBacklog > 0);
+      }
+      mDeferredMemoryCacheReleaseEnabled = deferredMemoryCacheReleaseEnabled;
+      mDeferredMemoryCacheReleaseMaxBacklog = maxBacklog;
+      return mConfigBuilder;
+    }
+
+    /**
+     * If enabled, the keys of the hottest bitmaps of the memory cache are periodically saved to a
+     * manifest file, and replayed as low-priority prefetches when the pipeline is created on the
+     * next start. The warm-up stops as soon as the first fetch request is submitted.
+     *
+     * @param bitmapMemoryCacheWarmStartEnabled set true to warm up the bitmap cache on start
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setBitmapMemoryCacheWarmStartEnabled(
+        boolean bitmapMemoryCacheWarmStartEnabled) {
+      mBitmapMemoryCacheWarmStartEnabled = bitmapMemoryCacheWarmStartEnabled;
+      return mConfigBuilder;
+    }
+
+    /**
+     * If enabled, the disk cache files of at least minSizeBytes are mapped in memory instead of
+     * being copied to a pooled buffer, so that the decoders read them straight from the page
+     * cache. Smaller files are still copied, as mapping them costs more than the copy.
+     *
+     * @param memoryMappedDiskCacheReadsEnabled set true to map the big disk cache files
+     * @param minSizeBytes the size of the smallest file to map
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setMemoryMappedDiskCacheReadsEnabled(
+        boolean memoryMappedDiskCacheReadsEnabled, int minSizeBytes) {
+      mMemoryMappedDiskCacheReadsEnabled = memoryMappedDiskCacheReadsEnabled;
+      mMemoryMappedDiskCacheReadMinSize = minSizeBytes;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Bounds the size of the images waiting to be written to each disk cache. When the disk falls
+     * behind and a new image would exceed the bound, it is not written to disk cache and only kept
+     * by the memory caches.
+     *
+     * @param stagingAreaMaxSizeBytes the max size of the pending writes of a disk cache, or
+     *     {@link StagingArea#UNBOUNDED}
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setStagingAreaMaxSizeBytes(int stagingAreaMaxSizeBytes) {
+      mStagingAreaMaxSizeBytes = stagingAreaMaxSizeBytes;
+      return mConfigBuilder;
+    }
+
+    /**
+     * If positive, the images waiting to be written to a disk cache are written in batches of up
+     * to this many bytes, by a single task of the write executor, instead of scheduling a task per
+     * image. The images put while a batch is written are gathered in the next one.
+     *
+     * @param diskCacheWriteBatchMaxSizeBytes the max size of a batch, or zero to write each image
+     *     on its own task
+     * @return The Builder itself for chaining
+     */
+    public ImagePipelineConfig.Builder setDiskCacheWriteBatchMaxSizeBytes(
+        int diskCacheWriteBatchMaxSizeBytes) {
+      mDiskCacheWriteBatchMaxSizeBytes = diskCacheWriteBatchMaxSizeBytes;
+      return mConfigBuilder;
+    }
+
     public ImagePipelineExperiments build() {
       return new ImagePipelineExperiments(this);
     }
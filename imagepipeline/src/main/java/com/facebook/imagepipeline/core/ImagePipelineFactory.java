@@ -24,8 +24,12 @@ import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactoryProvider;
 import com.facebook.imagepipeline.cache.BitmapCountingMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.BitmapMemoryCacheFactory;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
+import com.facebook.imagepipeline.cache.BufferedDiskCacheOptions;
+import com.facebook.imagepipeline.cache.CountingCache;
 import com.facebook.imagepipeline.cache.CountingMemoryCache;
+import com.facebook.imagepipeline.cache.DeferredReferenceReleaser;
 import com.facebook.imagepipeline.cache.EncodedCountingMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.EncodedMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.InstrumentedMemoryCache;
@@ -41,6 +45,7 @@ import com.facebook.imagepipeline.transcoder.ImageTranscoder;
 import com.facebook.imagepipeline.transcoder.ImageTranscoderFactory;
 import com.facebook.imagepipeline.transcoder.MultiImageTranscoderFactory;
 import com.facebook.imagepipeline.transcoder.SimpleImageTranscoderFactory;
+import java.io.File;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -115,11 +120,13 @@ public class ImagePipelineFactory {
   }
 
   private final ImagePipelineConfig mConfig;
-  private CountingMemoryCache<CacheKey, CloseableImage>
+  private CountingCache<CacheKey, CloseableImage>
       mBitmapCountingMemoryCache;
   private InstrumentedMemoryCache<CacheKey, CloseableImage> mBitmapMemoryCache;
   private CountingMemoryCache<CacheKey, PooledByteBuffer> mEncodedCountingMemoryCache;
   private InstrumentedMemoryCache<CacheKey, PooledByteBuffer> mEncodedMemoryCache;
+  private DeferredReferenceReleaser mDeferredReferenceReleaser;
+  private BitmapMemoryCacheWarmer mBitmapMemoryCacheWarmer;
   private BufferedDiskCache mMainBufferedDiskCache;
   private FileCache mMainFileCache;
   private ImageDecoder mImageDecoder;
@@ -167,14 +174,23 @@ public class ImagePipelineFactory {
     return animatedFactory == null ? null : animatedFactory.getAnimatedDrawableFactory(context);
   }
 
-  public CountingMemoryCache<CacheKey, CloseableImage>
+  public CountingCache<CacheKey, CloseableImage>
   getBitmapCountingMemoryCache() {
     if (mBitmapCountingMemoryCache == null) {
       mBitmapCountingMemoryCache =
           BitmapCountingMemoryCacheFactory.get(
               mConfig.getBitmapMemoryCacheParamsSupplier(),
               mConfig.getMemoryTrimmableRegistry(),
-              mConfig.getBitmapMemoryCacheTrimStrategy());
+              mConfig.getBitmapMemoryCacheTrimStrategy(),
+              mConfig.getBitmapMemoryCacheSegmentCount(),
+              mConfig.getBitmapMemoryCacheAdmissionPolicy());
+      mBitmapCountingMemoryCache.setDeferredReferenceReleaser(getDeferredReferenceReleaser());
+      mBitmapCountingMemoryCache.setShadowCacheTracker(
+          mConfig.getBitmapMemoryCacheShadowCacheTracker());
+      if (mConfig.getExperiments().isResolutionAwareBitmapCacheLookupEnabled()) {
+        // lets the bitmap memory cache producers find the other resolutions of a source
+        mBitmapCountingMemoryCache.setKeyGrouper(BitmapMemoryCacheKey.SOURCE_KEY_GROUPER);
+      }
     }
     return mBitmapCountingMemoryCache;
   }
@@ -193,11 +209,32 @@ public class ImagePipelineFactory {
     if (mEncodedCountingMemoryCache == null) {
       mEncodedCountingMemoryCache =
           EncodedCountingMemoryCacheFactory.get(
-              mConfig.getEncodedMemoryCacheParamsSupplier(), mConfig.getMemoryTrimmableRegistry());
+              mConfig.getEncodedMemoryCacheParamsSupplier(),
+              mConfig.getMemoryTrimmableRegistry(),
+              mConfig.getEncodedMemoryCacheAdmissionPolicy());
+      mEncodedCountingMemoryCache.setDeferredReferenceReleaser(getDeferredReferenceReleaser());
     }
     return mEncodedCountingMemoryCache;
   }
 
+  /**
+   * Gets the releaser shared by the memory caches to close evicted references in the background,
+   * null if the experiment is disabled.
+   */
+  @Nullable
+  private DeferredReferenceReleaser getDeferredReferenceReleaser() {
+    if (!mConfig.getExperiments().isDeferredMemoryCacheReleaseEnabled()) {
+      return null;
+    }
+    if (mDeferredReferenceReleaser == null) {
+      mDeferredReferenceReleaser =
+          new DeferredReferenceReleaser(
+              mConfig.getExecutorSupplier().forLightweightBackgroundTasks(),
+              mConfig.getExperiments().getDeferredMemoryCacheReleaseMaxBacklog());
+    }
+    return mDeferredReferenceReleaser;
+  }
+
   public InstrumentedMemoryCache<CacheKey, PooledByteBuffer> getEncodedMemoryCache() {
     if (mEncodedMemoryCache == null) {
       mEncodedMemoryCache =
@@ -253,7 +290,8 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              getBufferedDiskCacheOptions(mConfig.getMainDiskCacheAdmissionPolicy()));
     }
     return mMainBufferedDiskCache;
   }
@@ -280,11 +318,31 @@ public class ImagePipelineFactory {
               mConfig.getCacheKeyFactory(),
               mThreadHandoffProducerQueue,
               Suppliers.of(false),
-              mConfig.getExperiments().isLazyDataSource());
+              mConfig.getExperiments().isLazyDataSource(),
+              getBitmapMemoryCacheWarmer());
+      if (mBitmapMemoryCacheWarmer != null) {
+        mBitmapMemoryCacheWarmer.warmUp(mImagePipeline);
+      }
     }
     return mImagePipeline;
   }
 
+  @Nullable
+  private BitmapMemoryCacheWarmer getBitmapMemoryCacheWarmer() {
+    if (!mConfig.getExperiments().isBitmapMemoryCacheWarmStartEnabled()) {
+      return null;
+    }
+    if (mBitmapMemoryCacheWarmer == null) {
+      mBitmapMemoryCacheWarmer =
+          new BitmapMemoryCacheWarmer(
+              new File(
+                  mConfig.getContext().getCacheDir(), BitmapMemoryCacheWarmer.MANIFEST_FILE_NAME),
+              getBitmapCountingMemoryCache(),
+              mConfig.getExecutorSupplier().forBackgroundTasks());
+    }
+    return mBitmapMemoryCacheWarmer;
+  }
+
   public PlatformBitmapFactory getPlatformBitmapFactory() {
     if (mPlatformBitmapFactory == null) {
       mPlatformBitmapFactory =
@@ -373,11 +431,26 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              getBufferedDiskCacheOptions(mConfig.getSmallImageDiskCacheAdmissionPolicy()));
     }
     return mSmallImageBufferedDiskCache;
   }
 
+  private BufferedDiskCacheOptions getBufferedDiskCacheOptions(
+      @Nullable BufferedDiskCache.DiskCacheAdmissionPolicy admissionPolicy) {
+    ImagePipelineExperiments experiments = mConfig.getExperiments();
+    return BufferedDiskCacheOptions.newBuilder()
+        .setMemoryMappedReadMinSize(
+            experiments.isMemoryMappedDiskCacheReadsEnabled()
+                ? experiments.getMemoryMappedDiskCacheReadMinSize()
+                : -1)
+        .setAdmissionPolicy(admissionPolicy)
+        .setStagingAreaMaxSizeBytes(experiments.getStagingAreaMaxSizeBytes())
+        .setWriteBatchMaxSizeBytes(experiments.getDiskCacheWriteBatchMaxSizeBytes())
+        .build();
+  }
+
   /**
    * Defines the correct {@link ImageTranscoder}. If a custom {@link ImageTranscoder} was define in
    * the config, it will be used whenever possible. Else, if the native code is disabled it uses
@@ -107,6 +107,19 @@ import javax.annotation.concurrent.NotThreadSafe;
  *   cap, in that it will not cause an exception on get; it simply controls the release path.
  *   If the BucketSizes parameter is null, then the pool will dynamically create buckets on demand.
  *   </li>
+ *   <li> {@link PoolParams#threadMagazineSize}
+ *   When set, each thread keeps a {@link ThreadMagazine} of a few free values of each bucketed
+ *   size it has used. {@link #get(int)} and {@link #release(Object)} are then served by the
+ *   magazine without locking the pool, and the magazine is refilled from the free lists and spills
+ *   back to them in batches. The values in the magazines count as used, so that the caps above
+ *   still bound the memory they hold, and {@link #trim(MemoryTrimType)} drains them. The
+ *   magazines of the terminated threads are drained as well, before they could make a
+ *   {@link #get(int)} fail. </li>
+ *   <li> {@link PoolParams#recordRequestSizes} and {@link PoolParams#adaptBucketSizes}
+ *   The pool can count the sizes requested from it, and derive bucket sizes that fit them better
+ *   than the configured ones - see {@link #getRecommendedBucketSizes()}. When adapting, the
+ *   buckets are re-derived each time {@link #trim(MemoryTrimType)} empties the free lists. The
+ *   values of a dropped bucket that are still in use are simply freed on release. </li>
  * </ul>
  */
 public abstract class BasePool<V> implements Pool<V> {
@@ -128,6 +141,19 @@ public abstract class BasePool<V> implements Pool<V> {
   @VisibleForTesting
   final SparseArray<Bucket<V>> mBuckets;
 
+  /**
+   * The bucket sizes and lengths the buckets are created with, the ones of the params unless the
+   * pool adapted them
+   */
+  @GuardedBy("this")
+  @Nullable
+  private SparseIntArray mBucketSizes;
+
+  /**
+   * The sizes requested from the pool, null if the pool does not record them
+   */
+  @Nullable private final RequestSizeHistogram mRequestSizes;
+
   /**
    * An Identity hash-set to keep track of values by reference equality
    */
@@ -155,6 +181,19 @@ public abstract class BasePool<V> implements Pool<V> {
 
   private final PoolStatsTracker mPoolStatsTracker;
 
+  /**
+   * The magazine of the current thread, null if the pool does not use magazines
+   */
+  @Nullable private final ThreadLocal<ThreadMagazine<V>> mThreadMagazine;
+
+  /**
+   * The magazines of the threads that used the pool, to drain them on trim. The magazines of the
+   * threads that have terminated are drained and dropped when new threads start using the pool,
+   * or when the hard cap is reached.
+   */
+  @GuardedBy("this")
+  private final List<ThreadMagazine<V>> mThreadMagazines;
+
   /**
    * Creates a new instance of the pool.
    * @param poolParams pool parameters
@@ -170,6 +209,7 @@ public abstract class BasePool<V> implements Pool<V> {
 
     // initialize the buckets
     mBuckets = new SparseArray<Bucket<V>>();
+    mBucketSizes = mPoolParams.bucketSizes;
     if (mPoolParams.fixBucketsReinitialization) {
       initBuckets();
     } else {
@@ -180,6 +220,30 @@ public abstract class BasePool<V> implements Pool<V> {
 
     mFree = new Counter();
     mUsed = new Counter();
+
+    mThreadMagazines = new ArrayList<>();
+    if (mPoolParams.threadMagazineSize > 0) {
+      mThreadMagazine =
+          new ThreadLocal<ThreadMagazine<V>>() {
+            @Override
+            protected ThreadMagazine<V> initialValue() {
+              ThreadMagazine<V> magazine =
+                  new ThreadMagazine<>(mPoolParams.threadMagazineSize, Thread.currentThread());
+              synchronized (BasePool.this) {
+                reclaimDeadThreadMagazines();
+                mThreadMagazines.add(magazine);
+              }
+              return magazine;
+            }
+          };
+    } else {
+      mThreadMagazine = null;
+    }
+
+    mRequestSizes =
+        mPoolParams.recordRequestSizes || mPoolParams.adaptBucketSizes
+            ? new RequestSizeHistogram()
+            : null;
   }
 
   /**
@@ -209,19 +273,45 @@ public abstract class BasePool<V> implements Pool<V> {
    * @throws InvalidSizeException
    */
   public V get(int size) {
+    int bucketedSize = getBucketedSize(size);
+    if (mRequestSizes != null) {
+      mRequestSizes.record(size);
+    }
+    final ThreadMagazine<V> magazine = mThreadMagazine != null ? mThreadMagazine.get() : null;
+    if (magazine != null) {
+      // the value is already accounted as used
+      V value = magazine.pop(bucketedSize);
+      if (value != null) {
+        prepareForReuse(value);
+        return value;
+      }
+    }
+
     ensurePoolSizeInvariant();
 
-    int bucketedSize = getBucketedSize(size);
     int sizeInBytes = -1;
 
     synchronized (this) {
       Bucket<V> bucket = getBucket(bucketedSize);
 
       if (bucket != null) {
+        if (magazine != null) {
+          magazine.addSize(bucketedSize);
+        }
         // find an existing value that we can reuse
         V value = getValue(bucket);
         if (value != null) {
           Preconditions.checkState(mInUseValues.add(value));
+          if (magazine != null) {
+            // take a few more while we hold the lock
+            magazine.refill(
+                bucketedSize,
+                takeFreeValues(
+                    bucket,
+                    Math.min(
+                        magazine.getRoom(bucketedSize),
+                        (mPoolParams.threadMagazineSize + 1) / 2)));
+          }
 
           // It is possible that we got a 'larger' value than we asked for.
           // lets recompute size in bytes here
@@ -244,7 +334,8 @@ public abstract class BasePool<V> implements Pool<V> {
       }
       // check to see if we can allocate a value of the given size without exceeding the hard cap
       sizeInBytes = getSizeInBytes(bucketedSize);
-      if (!canAllocate(sizeInBytes)) {
+      if (!canAllocate(sizeInBytes)
+          && !(reclaimDeadThreadMagazines() && canAllocate(sizeInBytes))) {
         throw new PoolSizeViolationException(
             mPoolParams.maxSizeHardCap,
             mUsed.mNumBytes,
@@ -316,65 +407,144 @@ public abstract class BasePool<V> implements Pool<V> {
     Preconditions.checkNotNull(value);
 
     final int bucketedSize = getBucketedSizeForValue(value);
-    final int sizeInBytes = getSizeInBytes(bucketedSize);
+    final ThreadMagazine<V> magazine = mThreadMagazine != null ? mThreadMagazine.get() : null;
+    if (magazine != null && isReusable(value)) {
+      final List<V> spilled = magazine.pushOrSpill(bucketedSize, value);
+      if (spilled != null) {
+        releaseToPool(spilled);
+        return;
+      }
+    }
+
     synchronized (this) {
-      final Bucket<V> bucket = getBucketIfPresent(bucketedSize);
-      if (!mInUseValues.remove(value)) {
-        // This value was not 'known' to the pool (i.e.) allocated via the pool.
-        // Something is going wrong, so let's free the value and report soft error.
-        FLog.e(
-            TAG,
-            "release (free, value unrecognized) (object, size) = (%x, %s)",
-            System.identityHashCode(value),
-            bucketedSize);
+      releaseToPool(value, bucketedSize);
+      logStats();
+    }
+  }
+
+  /**
+   * Releases the values of the magazines whose threads have terminated to the pool, and stops
+   * tracking these magazines. Their values would otherwise stay accounted as used.
+   * @return true if any value was released
+   */
+  @GuardedBy("this")
+  private boolean reclaimDeadThreadMagazines() {
+    boolean reclaimed = false;
+    for (int i = mThreadMagazines.size() - 1; i >= 0; i--) {
+      final ThreadMagazine<V> magazine = mThreadMagazines.get(i);
+      if (!magazine.isOwnerAlive()) {
+        mThreadMagazines.remove(i);
+        final List<V> values = magazine.drain();
+        reclaimed |= !values.isEmpty();
+        releaseToPool(values);
+      }
+    }
+    return reclaimed;
+  }
+
+  /**
+   * Releases the values spilled or drained from a magazine to the pool
+   * @param values the values to release
+   */
+  private void releaseToPool(List<V> values) {
+    if (values.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      for (int i = 0; i < values.size(); i++) {
+        releaseToPool(values.get(i), getBucketedSizeForValue(values.get(i)));
+      }
+      logStats();
+    }
+  }
+
+  /**
+   * Releases the value to the free list of its bucket, or frees it - see {@link #release(Object)}
+   * @param value the value to release
+   * @param bucketedSize the bucketed size of the value
+   */
+  @GuardedBy("this")
+  private void releaseToPool(V value, int bucketedSize) {
+    final int sizeInBytes = getSizeInBytes(bucketedSize);
+    final Bucket<V> bucket = getBucketIfPresent(bucketedSize);
+    if (!mInUseValues.remove(value)) {
+      // This value was not 'known' to the pool (i.e.) allocated via the pool.
+      // Something is going wrong, so let's free the value and report soft error.
+      FLog.e(
+          TAG,
+          "release (free, value unrecognized) (object, size) = (%x, %s)",
+          System.identityHashCode(value),
+          bucketedSize);
+      free(value);
+      mPoolStatsTracker.onFree(sizeInBytes);
+    } else {
+      // free the value, if
+      //  - pool exceeds maxSize
+      //  - there is no bucket for this value
+      //  - there is a bucket for this value, but it has exceeded its maxLength
+      //  - the value is not reusable
+      // If no bucket was found for the value, simply free it
+      // We should free the value if no bucket is found, or if the bucket length cap is exceeded.
+      // However, if the pool max size softcap is exceeded, it may not always be best to free
+      // *this* value.
+      if (bucket == null ||
+          bucket.isMaxLengthExceeded() ||
+          isMaxSizeSoftCapExceeded() ||
+          !isReusable(value)) {
+        if (bucket != null) {
+          bucket.decrementInUseCount();
+        }
+
+        if (FLog.isLoggable(FLog.VERBOSE)) {
+          FLog.v(
+              TAG,
+              "release (free) (object, size) = (%x, %s)",
+              System.identityHashCode(value),
+              bucketedSize);
+        }
         free(value);
+        mUsed.decrement(sizeInBytes);
         mPoolStatsTracker.onFree(sizeInBytes);
       } else {
-        // free the value, if
-        //  - pool exceeds maxSize
-        //  - there is no bucket for this value
-        //  - there is a bucket for this value, but it has exceeded its maxLength
-        //  - the value is not reusable
-        // If no bucket was found for the value, simply free it
-        // We should free the value if no bucket is found, or if the bucket length cap is exceeded.
-        // However, if the pool max size softcap is exceeded, it may not always be best to free
-        // *this* value.
-        if (bucket == null ||
-            bucket.isMaxLengthExceeded() ||
-            isMaxSizeSoftCapExceeded() ||
-            !isReusable(value)) {
-          if (bucket != null) {
-            bucket.decrementInUseCount();
-          }
-
-          if (FLog.isLoggable(FLog.VERBOSE)) {
-            FLog.v(
-                TAG,
-                "release (free) (object, size) = (%x, %s)",
-                System.identityHashCode(value),
-                bucketedSize);
-          }
-          free(value);
-          mUsed.decrement(sizeInBytes);
-          mPoolStatsTracker.onFree(sizeInBytes);
-        } else {
-          bucket.release(value);
-          mFree.increment(sizeInBytes);
-          mUsed.decrement(sizeInBytes);
-          mPoolStatsTracker.onValueRelease(sizeInBytes);
-          if (FLog.isLoggable(FLog.VERBOSE)) {
-            FLog.v(
-                TAG,
-                "release (reuse) (object, size) = (%x, %s)",
-                System.identityHashCode(value),
-                bucketedSize);
-          }
+        bucket.release(value);
+        mFree.increment(sizeInBytes);
+        mUsed.decrement(sizeInBytes);
+        mPoolStatsTracker.onValueRelease(sizeInBytes);
+        if (FLog.isLoggable(FLog.VERBOSE)) {
+          FLog.v(
+              TAG,
+              "release (reuse) (object, size) = (%x, %s)",
+              System.identityHashCode(value),
+              bucketedSize);
         }
       }
-      logStats();
     }
   }
 
+  /**
+   * Takes free values of the bucket for a thread magazine, they are accounted as used.
+   * @param bucket the bucket to take the values from
+   * @param count the max number of values to take
+   * @return the values taken
+   */
+  @GuardedBy("this")
+  private List<V> takeFreeValues(Bucket<V> bucket, int count) {
+    List<V> values = new ArrayList<>(Math.max(count, 0));
+    while (values.size() < count) {
+      V value = bucket.pop();
+      if (value == null) {
+        break;
+      }
+      bucket.incrementInUseCount();
+      Preconditions.checkState(mInUseValues.add(value));
+      mUsed.increment(bucket.mItemSize);
+      mFree.decrement(bucket.mItemSize);
+      mPoolStatsTracker.onValueReuse(bucket.mItemSize);
+      values.add(value);
+    }
+    return values;
+  }
+
   /**
    * Trims the pool in response to low-memory states (invoked from MemoryManager)
    * For now, we'll do the simplest thing, and simply clear out the entire pool. We may consider
@@ -444,6 +614,14 @@ public abstract class BasePool<V> implements Pool<V> {
     return true;
   }
 
+  /**
+   * Prepares a value handed out again by a thread magazine. Subclasses that reset the values they
+   * get from the free lists in {@link #getValue(Bucket)} should reset them here as well.
+   * @param value the value to prepare
+   */
+  protected void prepareForReuse(V value) {
+  }
+
   /**
    * Ensure pool size invariants.
    * The pool must either be below the soft-cap OR it must have no free values left
@@ -465,7 +643,7 @@ public abstract class BasePool<V> implements Pool<V> {
     mBuckets.clear();
 
     // create the new buckets
-    final SparseIntArray bucketSizes = mPoolParams.bucketSizes;
+    final SparseIntArray bucketSizes = mBucketSizes;
     if (bucketSizes != null) {
       for (int i = 0; i < bucketSizes.size(); ++i) {
         final int bucketSize = bucketSizes.keyAt(i);
@@ -490,7 +668,7 @@ public abstract class BasePool<V> implements Pool<V> {
    * provider
    */
   private synchronized void initBuckets() {
-    final SparseIntArray bucketSizes = mPoolParams.bucketSizes;
+    final SparseIntArray bucketSizes = mBucketSizes;
 
     // create the buckets
     if (bucketSizes != null) {
@@ -542,6 +720,25 @@ public abstract class BasePool<V> implements Pool<V> {
     return bucketsToTrim;
   }
 
+  /**
+   * Replaces the bucket sizes with the recommended ones, if the pool adapts them
+   *
+   * @return true if the bucket sizes were replaced
+   */
+  @GuardedBy("this")
+  private boolean adaptBucketSizes() {
+    if (!mPoolParams.adaptBucketSizes) {
+      return false;
+    }
+    final SparseIntArray recommended = mRequestSizes.recommendBucketSizes(mBucketSizes);
+    if (recommended == null) {
+      return false;
+    }
+    mRequestSizes.decay();
+    mBucketSizes = recommended;
+    return true;
+  }
+
   /**
    * Gets rid of all free values in the pool
    * At the end of this method, mFreeSpace will be zero (reflecting that there are no more free
@@ -553,7 +750,15 @@ public abstract class BasePool<V> implements Pool<V> {
     final List<Bucket<V>> bucketsToTrim;
 
     synchronized (this) {
-      if (mPoolParams.fixBucketsReinitialization) {
+      // return the values of the magazines first, so that they are freed below. A concurrent get
+      // refills its magazine under the same lock, so it cannot refill a magazine being drained.
+      for (int i = 0; i < mThreadMagazines.size(); i++) {
+        releaseToPool(mThreadMagazines.get(i).drain());
+      }
+
+      // new bucket sizes are created the legacy way, which carries the in use counts by size
+      final boolean bucketSizesChanged = adaptBucketSizes();
+      if (mPoolParams.fixBucketsReinitialization && !bucketSizesChanged) {
         bucketsToTrim = refillBuckets();
       } else {
         bucketsToTrim = new ArrayList<>(mBuckets.size());
@@ -775,6 +980,28 @@ public abstract class BasePool<V> implements Pool<V> {
     }
   }
 
+  /**
+   * Gets the bucket sizes and lengths the buckets are currently created with. Subclasses that map
+   * request sizes to bucket sizes should read them again in {@link #onParamsChanged()}
+   * @return the bucket sizes and lengths, null if the pool creates buckets on demand
+   */
+  @Nullable
+  protected synchronized SparseIntArray getCurrentBucketSizes() {
+    return mBucketSizes;
+  }
+
+  /**
+   * Derives bucket sizes and lengths from the sizes requested from the pool so far. The number of
+   * buckets and the largest bucket size are kept, the other sizes waste the least bytes on the
+   * requests. The result can be shipped as the {@link PoolParams#bucketSizes} of the pool.
+   * @return the recommended bucket sizes and lengths, or null if the pool does not record request
+   *     sizes, has no buckets, or has not been asked for enough values yet
+   */
+  @Nullable
+  public synchronized SparseIntArray getRecommendedBucketSizes() {
+    return mRequestSizes != null ? mRequestSizes.recommendBucketSizes(mBucketSizes) : null;
+  }
+
   /**
    * Export memory stats regarding buckets used, memory caps, reused values.
    */
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+package com.facebook.imagepipeline.memory;
+
+import android.graphics.Bitmap;
+import com.facebook.common.internal.VisibleForTesting;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A pool backend that hands out the smallest free bitmap whose allocation holds the requested
+ * size, instead of one of that exact size. The decoders reuse the bitmaps through {@code
+ * inBitmap}, which reconfigures a bitmap to any width, height and config that fits in its
+ * allocation.
+ *
+ * <p> A bitmap is only handed out for a request of at least {@code 1 / MAX_SIZE_MULTIPLE} of its
+ * size, since the whole allocation stays in use as long as the decoded image. {@link #pop()}
+ * removes the bitmap released first.
+ */
+public class BestFitBitmapPoolBackend implements PoolBackend<Bitmap> {
+  @VisibleForTesting static final int MAX_SIZE_MULTIPLE = 2;
+
+  /** The free bitmaps by allocation size, the ones released last at the end of the lists */
+  @GuardedBy("this")
+  private final TreeMap<Integer, LinkedList<Bitmap>> mFreeBitmaps = new TreeMap<>();
+
+  /** The free bitmaps in the order they were released */
+  @GuardedBy("this")
+  private final LinkedHashSet<Bitmap> mReleaseOrder = new LinkedHashSet<>();
+
+  @Override
+  public void put(Bitmap bitmap) {
+    if (!BitmapPoolBackends.isReusable(bitmap)) {
+      return;
+    }
+    final int size = getSize(bitmap);
+    synchronized (this) {
+      if (!mReleaseOrder.add(bitmap)) {
+        return;
+      }
+      LinkedList<Bitmap> bitmaps = mFreeBitmaps.get(size);
+      if (bitmaps == null) {
+        bitmaps = new LinkedList<>();
+        mFreeBitmaps.put(size, bitmaps);
+      }
+      bitmaps.addLast(bitmap);
+    }
+  }
+
+  @Nullable
+  @Override
+  public Bitmap get(int size) {
+    final Bitmap bitmap;
+    synchronized (this) {
+      final Map.Entry<Integer, LinkedList<Bitmap>> entry = mFreeBitmaps.ceilingEntry(size);
+      if (entry == null || entry.getKey() > (long) size * MAX_SIZE_MULTIPLE) {
+        return null;
+      }
+      bitmap = entry.getValue().removeLast();
+      if (entry.getValue().isEmpty()) {
+        mFreeBitmaps.remove(entry.getKey());
+      }
+      mReleaseOrder.remove(bitmap);
+    }
+    if (BitmapPoolBackends.isReusable(bitmap)) {
+      BitmapPoolBackends.prepareForReuse(bitmap);
+      return bitmap;
+    }
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public synchronized Bitmap pop() {
+    final Iterator<Bitmap> iterator = mReleaseOrder.iterator();
+    if (!iterator.hasNext()) {
+      return null;
+    }
+    final Bitmap bitmap = iterator.next();
+    iterator.remove();
+    final int size = getSize(bitmap);
+    final LinkedList<Bitmap> bitmaps = mFreeBitmaps.get(size);
+    bitmaps.remove(bitmap);
+    if (bitmaps.isEmpty()) {
+      mFreeBitmaps.remove(size);
+    }
+    return bitmap;
+  }
+
+  @Override
+  public int getSize(Bitmap bitmap) {
+    return BitmapPoolBackends.getSize(bitmap);
+  }
+
+  @VisibleForTesting
+  synchronized int valueCount() {
+    return mReleaseOrder.size();
+  }
+}
@@ -9,15 +9,10 @@
 package com.facebook.imagepipeline.memory;
 
 import android.graphics.Bitmap;
-import android.graphics.Color;
-import com.facebook.common.logging.FLog;
-import com.facebook.imageutils.BitmapUtil;
 import javax.annotation.Nullable;
 
 public class BitmapPoolBackend extends LruBucketsPoolBackend<Bitmap> {
 
-  private static final String TAG = "BitmapPoolBackend";
-
   @Override
   public void put(Bitmap bitmap) {
     if (isReusable(bitmap)) {
@@ -30,7 +25,7 @@ public class BitmapPoolBackend extends LruBucketsPoolBackend<Bitmap> {
   public Bitmap get(int size) {
     Bitmap bitmap = super.get(size);
     if (bitmap != null && isReusable(bitmap)) {
-      bitmap.eraseColor(Color.TRANSPARENT);
+      BitmapPoolBackends.prepareForReuse(bitmap);
       return bitmap;
     }
     return null;
@@ -38,21 +33,10 @@ public class BitmapPoolBackend extends LruBucketsPoolBackend<Bitmap> {
 
   @Override
   public int getSize(Bitmap bitmap) {
-    return BitmapUtil.getSizeInBytes(bitmap);
+    return BitmapPoolBackends.getSize(bitmap);
   }
 
   protected boolean isReusable(@Nullable Bitmap bitmap) {
-    if (bitmap == null) {
-      return false;
-    }
-    if (bitmap.isRecycled()) {
-      FLog.wtf(TAG, "Cannot reuse a recycled bitmap: %s", bitmap);
-      return false;
-    }
-    if (!bitmap.isMutable()) {
-      FLog.wtf(TAG, "Cannot reuse an immutable bitmap: %s", bitmap);
-      return false;
-    }
-    return true;
+    return BitmapPoolBackends.isReusable(bitmap);
   }
 }
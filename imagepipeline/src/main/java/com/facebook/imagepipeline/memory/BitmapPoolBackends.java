@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+package com.facebook.imagepipeline.memory;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import com.facebook.common.logging.FLog;
+import com.facebook.imageutils.BitmapUtil;
+import javax.annotation.Nullable;
+
+/** The checks and sizes shared by the {@link PoolBackend}s of bitmaps */
+final class BitmapPoolBackends {
+
+  private static final String TAG = "BitmapPoolBackend";
+
+  private BitmapPoolBackends() {}
+
+  /** Gets the size of the bitmap's allocation, which a reused bitmap can be reconfigured to */
+  static int getSize(Bitmap bitmap) {
+    return BitmapUtil.getSizeInBytes(bitmap);
+  }
+
+  /** Returns true if the bitmap can be kept in a pool and handed out again */
+  static boolean isReusable(@Nullable Bitmap bitmap) {
+    if (bitmap == null) {
+      return false;
+    }
+    if (bitmap.isRecycled()) {
+      FLog.wtf(TAG, "Cannot reuse a recycled bitmap: %s", bitmap);
+      return false;
+    }
+    if (!bitmap.isMutable()) {
+      FLog.wtf(TAG, "Cannot reuse an immutable bitmap: %s", bitmap);
+      return false;
+    }
+    return true;
+  }
+
+  /** Clears a reusable bitmap taken from a pool before it is handed out */
+  static void prepareForReuse(Bitmap bitmap) {
+    bitmap.eraseColor(Color.TRANSPARENT);
+  }
+}
@@ -13,6 +13,7 @@ public @interface BitmapPoolType {
   String LEGACY_DEFAULT_PARAMS = "legacy_default_params";
   String DUMMY = "dummy";
   String EXPERIMENTAL = "experimental";
+  String BEST_FIT = "best_fit";
 
   String DEFAULT = LEGACY;
 }
@@ -125,4 +125,9 @@ public class BucketsBitmapPool extends BasePool<Bitmap> implements BitmapPool {
     }
     return result;
   }
+
+  @Override
+  protected void prepareForReuse(Bitmap value) {
+    value.eraseColor(Color.TRANSPARENT);
+  }
 }
@@ -31,14 +31,35 @@ public class BufferMemoryChunk implements MemoryChunk, Closeable {
   /** Unique identifier of the chunk */
   private final long mId;
 
+  /** The range of the arena slab this chunk views, null if the chunk owns its buffer */
+  @Nullable private final MemoryChunkArena<?>.Slot mSlot;
+
   public BufferMemoryChunk(final int size) {
     mBuffer = ByteBuffer.allocateDirect(size);
     mSize = size;
     mId = System.identityHashCode(this);
+    mSlot = null;
+  }
+
+  /**
+   * Creates a chunk viewing a range of an arena slab, the range is released when the chunk is
+   * closed.
+   *
+   * @param buffer a buffer sliced from the slab for the range
+   * @param slot the slot of the range in its slab
+   */
+  BufferMemoryChunk(final ByteBuffer buffer, final MemoryChunkArena<?>.Slot slot) {
+    mBuffer = Preconditions.checkNotNull(buffer);
+    mSize = buffer.capacity();
+    mId = System.identityHashCode(this);
+    mSlot = Preconditions.checkNotNull(slot);
   }
 
   @Override
   public synchronized void close() {
+    if (mBuffer != null && mSlot != null) {
+      mSlot.release();
+    }
     mBuffer = null;
   }
 
@@ -156,13 +177,13 @@ public class BufferMemoryChunk implements MemoryChunk, Closeable {
     Preconditions.checkState(!isClosed());
     Preconditions.checkState(!other.isClosed());
     MemoryChunkUtil.checkBounds(offset, other.getSize(), otherOffset, count, mSize);
-    mBuffer.position(offset);
+    // copy directly between the buffers, through views that have their own positions
+    final ByteBuffer source = mBuffer.duplicate();
+    source.position(offset);
+    source.limit(offset + count);
     // ByteBuffer can't be null at this point
-    other.getByteBuffer().position(otherOffset);
-    // Recover the necessary part to be copied as a byte array.
-    // This requires a copy, for now there is not a more efficient alternative.
-    byte[] b = new byte[count];
-    mBuffer.get(b, 0, count);
-    other.getByteBuffer().put(b, 0, count);
+    final ByteBuffer destination = other.getByteBuffer().duplicate();
+    destination.position(otherOffset);
+    destination.put(source);
   }
 }
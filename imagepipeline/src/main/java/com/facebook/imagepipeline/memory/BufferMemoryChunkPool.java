@@ -6,22 +6,55 @@
  */
 package com.facebook.imagepipeline.memory;
 
+import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
+import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 /** Manages a pool of buffer memory chunks ({@link BufferMemoryChunk}) */
 @ThreadSafe
 public class BufferMemoryChunkPool extends MemoryChunkPool {
 
+  @VisibleForTesting @Nullable final MemoryChunkArena<BufferMemoryChunk> mArena;
+
   public BufferMemoryChunkPool(
       MemoryTrimmableRegistry memoryTrimmableRegistry,
       PoolParams poolParams,
       PoolStatsTracker bufferMemoryChunkPoolStatsTracker) {
     super(memoryTrimmableRegistry, poolParams, bufferMemoryChunkPoolStatsTracker);
+    mArena =
+        poolParams.slabSize > 0
+            ? new MemoryChunkArena<BufferMemoryChunk>(
+                poolParams.slabSize, poolParams.maxSizeHardCap) {
+              @Override
+              protected BufferMemoryChunk allocSlab(int size) {
+                return new BufferMemoryChunk(size);
+              }
+
+              @Override
+              protected BufferMemoryChunk carve(
+                  BufferMemoryChunk slab, int offset, int size, Slot slot) {
+                final ByteBuffer buffer = slab.getByteBuffer().duplicate();
+                buffer.position(offset);
+                buffer.limit(offset + size);
+                return new BufferMemoryChunk(buffer.slice(), slot);
+              }
+            }
+            : null;
+  }
+
+  @Override
+  @Nullable
+  MemoryChunkArena<BufferMemoryChunk> getArena() {
+    return mArena;
   }
 
   @Override
   protected BufferMemoryChunk alloc(int bucketedSize) {
+    if (mArena != null) {
+      return mArena.alloc(bucketedSize);
+    }
     return new BufferMemoryChunk(bucketedSize);
   }
 }
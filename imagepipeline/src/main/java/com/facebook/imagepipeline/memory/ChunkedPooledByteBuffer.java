@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.PooledByteBuffer;
+import com.facebook.common.references.CloseableReference;
+import java.nio.ByteBuffer;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} that stores its data in a sequence of {@link
+ * MemoryChunk}s of the same size, read as one logical buffer.
+ *
+ * <p> The data is only copied to a single region when {@link #getByteBuffer()} is called on a
+ * buffer of several chunks. That copy is not pooled and lives as long as this buffer.
+ */
+@ThreadSafe
+public class ChunkedPooledByteBuffer implements PooledByteBuffer {
+
+  private final int mChunkSize;
+  private final int mSize;
+
+  @GuardedBy("this")
+  @VisibleForTesting
+  List<CloseableReference<MemoryChunk>> mChunkRefs;
+
+  @GuardedBy("this")
+  private @Nullable ByteBuffer mFlattenedBuffer;
+
+  /**
+   * @param chunkRefs the chunks holding the data, the buffer keeps its own references to them
+   * @param chunkSize the number of bytes stored in each chunk but the last one
+   * @param size the size of the data
+   */
+  public ChunkedPooledByteBuffer(
+      List<CloseableReference<MemoryChunk>> chunkRefs, int chunkSize, int size) {
+    Preconditions.checkNotNull(chunkRefs);
+    Preconditions.checkArgument(chunkSize > 0);
+    Preconditions.checkArgument(size >= 0 && size <= chunkRefs.size() * chunkSize);
+    // only the chunks holding data are kept
+    mChunkRefs =
+        CloseableReference.cloneOrNull(chunkRefs.subList(0, (size + chunkSize - 1) / chunkSize));
+    mChunkSize = chunkSize;
+    mSize = size;
+  }
+
+  /**
+   * Gets the size of the ByteBuffer if it is valid. Otherwise, an exception is raised
+   *
+   * @return the size of the ByteBuffer if it is not closed.
+   * @throws {@link ClosedException}
+   */
+  @Override
+  public synchronized int size() {
+    ensureValid();
+    return mSize;
+  }
+
+  @Override
+  public synchronized byte read(int offset) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset < mSize);
+    return mChunkRefs.get(offset / mChunkSize).get().read(offset % mChunkSize);
+  }
+
+  @Override
+  public synchronized int read(int offset, byte[] buffer, int bufferOffset, int length) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0 && length >= 0 && offset + length <= mSize);
+    int read = 0;
+    while (read < length) {
+      final int position = offset + read;
+      final int chunkOffset = position % mChunkSize;
+      read +=
+          mChunkRefs
+              .get(position / mChunkSize)
+              .get()
+              .read(
+                  chunkOffset,
+                  buffer,
+                  bufferOffset + read,
+                  Math.min(length - read, mChunkSize - chunkOffset));
+    }
+    return read;
+  }
+
+  /**
+   * Gets the pointer to the native memory of the data, only available when it fits in one chunk.
+   *
+   * @throws UnsupportedOperationException if the data spans several chunks or the chunk has no
+   *     pointer
+   */
+  @Override
+  public synchronized long getNativePtr() throws UnsupportedOperationException {
+    ensureValid();
+    if (mChunkRefs.size() != 1) {
+      throw new UnsupportedOperationException("Cannot get the pointer of a chunked buffer");
+    }
+    return mChunkRefs.get(0).get().getNativePtr();
+  }
+
+  /**
+   * Gets a ByteBuffer of the data. The chunk's own buffer is returned when the data fits in one
+   * chunk, otherwise the data is copied once to a direct buffer.
+   */
+  @Override
+  @Nullable
+  public synchronized ByteBuffer getByteBuffer() {
+    if (isClosed()) {
+      return null;
+    }
+    if (mChunkRefs.size() == 1) {
+      return mChunkRefs.get(0).get().getByteBuffer();
+    }
+    if (mFlattenedBuffer == null) {
+      ByteBuffer flattenedBuffer = ByteBuffer.allocateDirect(mSize);
+      byte[] chunk = new byte[mChunkSize];
+      for (int offset = 0; offset < mSize; offset += mChunkSize) {
+        final int length = Math.min(mChunkSize, mSize - offset);
+        read(offset, chunk, 0, length);
+        flattenedBuffer.put(chunk, 0, length);
+      }
+      flattenedBuffer.flip();
+      mFlattenedBuffer = flattenedBuffer;
+    }
+    return mFlattenedBuffer.duplicate();
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return mChunkRefs == null;
+  }
+
+  /**
+   * Closes this instance, and releases the underlying chunks to the pool. Note: It is not an error
+   * to close an already closed ByteBuffer
+   */
+  @Override
+  public synchronized void close() {
+    CloseableReference.closeSafely(mChunkRefs);
+    mChunkRefs = null;
+    mFlattenedBuffer = null;
+  }
+
+  private synchronized void ensureValid() {
+    if (isClosed()) {
+      throw new ClosedException();
+    }
+  }
+}
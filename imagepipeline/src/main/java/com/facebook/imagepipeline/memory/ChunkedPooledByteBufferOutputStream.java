@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBufferOutputStream;
+import com.facebook.common.references.CloseableReference;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBufferOutputStream} that appends fixed-size chunks from the
+ * pool as it grows, and produces a {@link ChunkedPooledByteBuffer}.
+ *
+ * <p> Unlike {@link MemoryPooledByteBufferOutputStream}, the bytes already written are never
+ * copied, which suits streams whose final size is not known upfront.
+ */
+@NotThreadSafe
+public class ChunkedPooledByteBufferOutputStream extends PooledByteBufferOutputStream {
+  private final MemoryChunkPool mPool; // the pool to allocate memory chunks from
+  private final int mChunkSize; // number of bytes used in each chunk
+  private List<CloseableReference<MemoryChunk>> mChunkRefs; // the chunks written so far
+  private int mCount; // number of bytes written to the stream
+
+  /**
+   * Construct a new instance of this OutputStream
+   *
+   * @param pool the pool to use
+   * @param chunkSize the number of bytes to store in each chunk
+   */
+  public ChunkedPooledByteBufferOutputStream(MemoryChunkPool pool, int chunkSize) {
+    super();
+
+    Preconditions.checkArgument(chunkSize > 0);
+    mPool = Preconditions.checkNotNull(pool);
+    mChunkSize = chunkSize;
+    mChunkRefs = new ArrayList<>();
+    mCount = 0;
+  }
+
+  /**
+   * Gets a PooledByteBuffer from the current contents. If the stream has already been closed, then
+   * an InvalidStreamException is thrown.
+   *
+   * @return a PooledByteBuffer instance for the contents of the stream
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  @Override
+  public ChunkedPooledByteBuffer toByteBuffer() {
+    ensureValid();
+    return new ChunkedPooledByteBuffer(mChunkRefs, mChunkSize, mCount);
+  }
+
+  /**
+   * Returns the total number of bytes written to this stream so far.
+   * @return the number of bytes written to this stream.
+   */
+  @Override
+  public int size() {
+    return mCount;
+  }
+
+  /**
+   * Write one byte to the underlying stream. The underlying stream MUST be valid
+   * @param oneByte the one byte to write
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   * @throws IOException in case of an I/O error during the write
+   */
+  @Override
+  public void write(int oneByte) throws IOException {
+    byte[] buf = new byte[1];
+    buf[0] = (byte) oneByte;
+    this.write(buf);
+  }
+
+  /**
+   * Writes {@code count} bytes from the byte array {@code buffer} starting at
+   * position {@code offset} to this stream, filling the last chunk before appending new ones.
+   * The underlying stream MUST be valid
+   *
+   * @param buffer the source buffer to read from
+   * @param offset the start position in {@code buffer} from where to get bytes.
+   * @param count the number of bytes from {@code buffer} to write to this stream.
+   * @throws IOException if an error occurs while writing to this stream.
+   * @throws IndexOutOfBoundsException
+   *             if {@code offset < 0} or {@code count < 0}, or if
+   *             {@code offset + count} is bigger than the length of
+   *             {@code buffer}.
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  @Override
+  public void write(byte[] buffer, int offset, int count) throws IOException {
+    if (offset < 0 || count < 0 || offset + count > buffer.length) {
+      throw new ArrayIndexOutOfBoundsException("length=" + buffer.length + "; regionStart=" + offset
+          + "; regionLength=" + count);
+    }
+    ensureValid();
+    while (count > 0) {
+      final int chunkOffset = mCount % mChunkSize;
+      if (chunkOffset == 0 && mCount / mChunkSize == mChunkRefs.size()) {
+        mChunkRefs.add(CloseableReference.of(mPool.get(mChunkSize), mPool));
+      }
+      final int written = Math.min(count, mChunkSize - chunkOffset);
+      mChunkRefs.get(mCount / mChunkSize).get().write(chunkOffset, buffer, offset, written);
+      mCount += written;
+      offset += written;
+      count -= written;
+    }
+  }
+
+  /**
+   * Closes the stream. Owned resources are released back to the pool. It is not allowed to call
+   * toByteBuffer after call to this method.
+   */
+  @Override
+  public void close() {
+    CloseableReference.closeSafely(mChunkRefs);
+    mChunkRefs = null;
+    mCount = -1;
+    super.close();
+  }
+
+  /**
+   * Ensure that the current stream is valid, that is it has not been closed
+   * @throws MemoryPooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+   */
+  private void ensureValid() {
+    if (mChunkRefs == null) {
+      throw new MemoryPooledByteBufferOutputStream.InvalidStreamException();
+    }
+  }
+}
@@ -25,7 +25,7 @@ import javax.annotation.concurrent.ThreadSafe;
  */
 @ThreadSafe
 public class GenericByteArrayPool extends BasePool<byte[]> implements ByteArrayPool {
-  private final int[] mBucketSizes;
+  private volatile int[] mBucketSizes;
 
   /**
    * Creates a new instance of the GenericByteArrayPool class
@@ -38,14 +38,24 @@ public class GenericByteArrayPool extends BasePool<byte[]> implements ByteArrayP
       PoolParams poolParams,
       PoolStatsTracker poolStatsTracker) {
     super(memoryTrimmableRegistry, poolParams, poolStatsTracker);
-    final SparseIntArray bucketSizes = poolParams.bucketSizes;
-    mBucketSizes = new int[bucketSizes.size()];
-    for (int i = 0; i < bucketSizes.size(); ++i) {
-      mBucketSizes[i] = bucketSizes.keyAt(i);
-    }
+    mBucketSizes = getSizes(poolParams.bucketSizes);
     initialize();
   }
 
+  /** The bucket sizes may have been adapted to the requested sizes */
+  @Override
+  protected void onParamsChanged() {
+    mBucketSizes = getSizes(getCurrentBucketSizes());
+  }
+
+  private static int[] getSizes(SparseIntArray bucketSizes) {
+    final int[] sizes = new int[bucketSizes.size()];
+    for (int i = 0; i < sizes.length; ++i) {
+      sizes[i] = bucketSizes.keyAt(i);
+    }
+    return sizes;
+  }
+
   /**
    * Gets the smallest buffer size supported by the pool
    * @return the smallest buffer size supported by the pool
@@ -10,21 +10,49 @@ import android.graphics.Bitmap;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.memory.MemoryTrimType;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
+import java.util.HashMap;
+import java.util.Map;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 public class LruBitmapPool implements BitmapPool {
 
-  protected final PoolBackend<Bitmap> mStrategy = new BitmapPoolBackend();
+  protected final PoolBackend<Bitmap> mStrategy;
   private final int mMaxPoolSize;
   private int mMaxBitmapSize;
   private final PoolStatsTracker mPoolStatsTracker;
   private int mCurrentSize;
 
+  @GuardedBy("this")
+  private int mReuseHits;
+
+  @GuardedBy("this")
+  private int mReuseMisses;
+
   public LruBitmapPool(
       int maxPoolSize,
       int maxBitmapSize,
       PoolStatsTracker poolStatsTracker,
       @Nullable MemoryTrimmableRegistry memoryTrimmableRegistry) {
+    this(
+        maxPoolSize,
+        maxBitmapSize,
+        poolStatsTracker,
+        memoryTrimmableRegistry,
+        new BitmapPoolBackend());
+  }
+
+  /**
+   * @param strategy the backend that keeps the free bitmaps, such as a {@link
+   *     BestFitBitmapPoolBackend} to reuse bitmaps bigger than requested
+   */
+  LruBitmapPool(
+      int maxPoolSize,
+      int maxBitmapSize,
+      PoolStatsTracker poolStatsTracker,
+      @Nullable MemoryTrimmableRegistry memoryTrimmableRegistry,
+      PoolBackend<Bitmap> strategy) {
+    mStrategy = strategy;
     mMaxPoolSize = maxPoolSize;
     mMaxBitmapSize = maxBitmapSize;
     mPoolStatsTracker = poolStatsTracker;
@@ -60,12 +88,32 @@ public class LruBitmapPool implements BitmapPool {
     if (cached != null) {
       final int reusedSize = mStrategy.getSize(cached);
       mCurrentSize -= reusedSize;
+      mReuseHits++;
       mPoolStatsTracker.onValueReuse(reusedSize);
       return cached;
     }
+    mReuseMisses++;
     return alloc(size);
   }
 
+  /** Gets the share of the {@link #get(int)} calls served by a pooled bitmap, 0 if none */
+  public synchronized float getReuseHitRate() {
+    final int getCount = mReuseHits + mReuseMisses;
+    return getCount == 0 ? 0 : (float) mReuseHits / getCount;
+  }
+
+  /**
+   * Export stats regarding the free bitmaps and how often they are reused.
+   */
+  public synchronized Map<String, Integer> getStats() {
+    Map<String, Integer> stats = new HashMap<>();
+    stats.put(PoolStatsTracker.FREE_BYTES, mCurrentSize);
+    stats.put(PoolStatsTracker.SOFT_CAP, mMaxPoolSize);
+    stats.put(PoolStatsTracker.REUSE_HITS, mReuseHits);
+    stats.put(PoolStatsTracker.REUSE_MISSES, mReuseMisses);
+    return stats;
+  }
+
   @VisibleForTesting
   private Bitmap alloc(int size) {
     mPoolStatsTracker.onAlloc(size);
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.PooledByteBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBuffer} that maps a range of a file in memory, so that the
+ * content is read from the page cache without being copied first.
+ *
+ * <p> The buffer is read-only and does not come from a pool. The mapping is released by the
+ * garbage collector once the buffer has been closed and is no longer referenced.
+ *
+ * <p> The file must not be truncated while it is mapped, reading a range past the end of the file
+ * crashes the process. Deleting or replacing the file is fine, the mapping keeps the old content.
+ */
+@ThreadSafe
+public class MappedPooledByteBuffer implements PooledByteBuffer {
+
+  private final int mSize;
+
+  @GuardedBy("this")
+  private @Nullable ByteBuffer mBuffer;
+
+  private MappedPooledByteBuffer(ByteBuffer buffer) {
+    mBuffer = buffer;
+    mSize = buffer.capacity();
+  }
+
+  /**
+   * Maps a range of a file.
+   *
+   * @param file the file to map
+   * @param offset the position of the range in the file
+   * @param size the size of the range
+   * @throws IOException if the file cannot be opened or mapped
+   */
+  public static MappedPooledByteBuffer map(File file, long offset, int size) throws IOException {
+    Preconditions.checkArgument(offset >= 0 && size >= 0);
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      if (offset + size > randomAccessFile.length()) {
+        throw new IOException("Range is past the end of " + file);
+      }
+      // the mapping stays valid once the channel is closed
+      MappedByteBuffer buffer =
+          randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, size);
+      return new MappedPooledByteBuffer(buffer);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  @Override
+  public synchronized int size() {
+    ensureValid();
+    return mSize;
+  }
+
+  @Override
+  public synchronized byte read(int offset) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset < mSize);
+    return mBuffer.get(offset);
+  }
+
+  @Override
+  public synchronized int read(int offset, byte[] buffer, int bufferOffset, int length) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0 && offset + length <= mSize);
+    // absolute bulk reads are not available, read through a view that has its own position
+    ByteBuffer view = mBuffer.duplicate();
+    view.position(offset);
+    view.get(buffer, bufferOffset, length);
+    return length;
+  }
+
+  @Override
+  public long getNativePtr() {
+    throw new UnsupportedOperationException("Cannot get the pointer of a mapped buffer");
+  }
+
+  /** Gets a read-only view of the mapping, it must not be used once the buffer is closed. */
+  @Override
+  @Nullable
+  public synchronized ByteBuffer getByteBuffer() {
+    return mBuffer != null ? mBuffer.asReadOnlyBuffer() : null;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return mBuffer == null;
+  }
+
+  @Override
+  public synchronized void close() {
+    mBuffer = null;
+  }
+
+  private synchronized void ensureValid() {
+    if (isClosed()) {
+      throw new ClosedException();
+    }
+  }
+}
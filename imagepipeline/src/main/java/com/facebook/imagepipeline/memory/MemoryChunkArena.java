@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import android.util.SparseArray;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Allocates the chunks of a {@link MemoryChunkPool} from larger slabs, so that allocating a chunk
+ * seldom allocates memory and the chunks of a size sit next to each other.
+ *
+ * <p> Each slab holds chunks of a single size, as many as fit in the slab size, and at least one.
+ * A chunk is a view of a range of its slab, closing it returns the range to the slab. A slab is
+ * freed once all its chunks are closed, which is what a trim of the pool does to its free chunks.
+ *
+ * <p> A single chunk in use keeps its whole slab allocated, so the free ranges of the slabs take
+ * memory the pool does not count. The arena therefore bounds the total size of its slabs: a new
+ * slab holds fewer chunks when a full one would exceed the max size, and the pool checks
+ * {@link #getSizeAfterAlloc(int)} before allocating.
+ *
+ * @param <C> type of the chunks
+ */
+@ThreadSafe
+abstract class MemoryChunkArena<C extends MemoryChunk> {
+
+  private final int mSlabSize;
+  private final int mMaxSize;
+
+  /** The total size of the slabs, including the ones being allocated */
+  @GuardedBy("this")
+  private int mSize;
+
+  /** The slabs that have chunks in use, by chunk size */
+  @GuardedBy("this")
+  private final SparseArray<List<Slab<C>>> mSlabs;
+
+  /**
+   * @param slabSize the size of the slabs, a slab of a bigger chunk holds that single chunk
+   * @param maxSize the total size the slabs are kept under, unless a single chunk exceeds it
+   */
+  MemoryChunkArena(int slabSize, int maxSize) {
+    Preconditions.checkArgument(slabSize > 0);
+    mSlabSize = slabSize;
+    mMaxSize = maxSize;
+    mSlabs = new SparseArray<>();
+  }
+
+  /**
+   * Allocates a slab
+   * @param size the size of the slab
+   * @return a new chunk, that is closed when the slab is no longer used
+   */
+  protected abstract C allocSlab(int size);
+
+  /**
+   * Creates a view of a range of a slab. The view must call {@link Slot#release()} when it is
+   * closed, and never access the slab afterwards.
+   * @param slab the slab
+   * @param offset the position of the range in the slab
+   * @param size the size of the range
+   * @param slot the slot to release on close
+   * @return a new chunk of the given size
+   */
+  protected abstract C carve(C slab, int offset, int size, Slot slot);
+
+  /**
+   * Allocates a chunk from a slab that has room for it, or from a new slab.
+   * @param size the size of the chunk
+   * @return a new chunk
+   */
+  public C alloc(int size) {
+    Preconditions.checkArgument(size > 0);
+    Slab<C> slab;
+    int offset;
+    int chunkCount = 0;
+    synchronized (this) {
+      slab = findFreeSlab(size);
+      if (slab != null) {
+        offset = slab.take();
+      } else {
+        offset = -1;
+        // reserve the size of the new slab, so that concurrent allocations see it
+        chunkCount = getNewSlabChunkCount(size);
+        mSize += chunkCount * size;
+      }
+    }
+    if (slab == null) {
+      // allocate outside of the lock, like the pool does
+      C slabChunk = null;
+      try {
+        slabChunk = allocSlab(chunkCount * size);
+      } finally {
+        if (slabChunk == null) {
+          synchronized (this) {
+            mSize -= chunkCount * size;
+          }
+        }
+      }
+      slab = new Slab<>(slabChunk, size, chunkCount);
+      synchronized (this) {
+        List<Slab<C>> slabs = mSlabs.get(size);
+        if (slabs == null) {
+          slabs = new ArrayList<>();
+          mSlabs.put(size, slabs);
+        }
+        slabs.add(slab);
+        offset = slab.take();
+      }
+    }
+    return carve(slab.mChunk, offset, size, new Slot(slab, offset));
+  }
+
+  /**
+   * Returns the total size the slabs would have after allocating a chunk of the given size, the
+   * current total if a slab has room for the chunk.
+   */
+  synchronized int getSizeAfterAlloc(int size) {
+    return findFreeSlab(size) != null ? mSize : mSize + getNewSlabChunkCount(size) * size;
+  }
+
+  /** Returns the total size of the slabs currently allocated */
+  @VisibleForTesting
+  synchronized int getSize() {
+    return mSize;
+  }
+
+  /** Returns the number of slabs currently allocated */
+  @VisibleForTesting
+  synchronized int getSlabCount() {
+    int count = 0;
+    for (int i = 0; i < mSlabs.size(); i++) {
+      count += mSlabs.valueAt(i).size();
+    }
+    return count;
+  }
+
+  /** Fits the new slab in the max size, down to the single chunk */
+  @GuardedBy("this")
+  private int getNewSlabChunkCount(int size) {
+    return Math.max(1, Math.min(mSlabSize / size, (mMaxSize - mSize) / size));
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private Slab<C> findFreeSlab(int size) {
+    final List<Slab<C>> slabs = mSlabs.get(size);
+    if (slabs != null) {
+      for (int i = 0; i < slabs.size(); i++) {
+        if (slabs.get(i).hasFreeRange()) {
+          return slabs.get(i);
+        }
+      }
+    }
+    return null;
+  }
+
+  private void release(Slab<C> slab, int offset) {
+    final boolean isUnused;
+    synchronized (this) {
+      slab.put(offset);
+      isUnused = slab.isUnused();
+      if (isUnused) {
+        mSlabs.get(slab.mChunkSize).remove(slab);
+        mSize -= slab.mChunkSize * slab.mChunkCount;
+      }
+    }
+    if (isUnused) {
+      slab.mChunk.close();
+    }
+  }
+
+  /**
+   * The range of a chunk in its slab
+   */
+  public final class Slot {
+    private final Slab<C> mSlab;
+    private final int mOffset;
+
+    private Slot(Slab<C> slab, int offset) {
+      mSlab = slab;
+      mOffset = offset;
+    }
+
+    /** Returns the range to its slab, must be called once. */
+    public void release() {
+      MemoryChunkArena.this.release(mSlab, mOffset);
+    }
+  }
+
+  /**
+   * A slab and its free ranges. WARNING: this class is not synchronized, the arena must be locked
+   */
+  private static class Slab<C extends MemoryChunk> {
+    final C mChunk;
+    final int mChunkSize;
+    private final int mChunkCount;
+    private final int[] mFreeOffsets;
+    private int mFreeCount;
+
+    Slab(C chunk, int chunkSize, int chunkCount) {
+      mChunk = chunk;
+      mChunkSize = chunkSize;
+      mChunkCount = chunkCount;
+      mFreeOffsets = new int[chunkCount];
+      // hand out the ranges in address order
+      for (int i = 0; i < chunkCount; i++) {
+        mFreeOffsets[i] = (chunkCount - 1 - i) * chunkSize;
+      }
+      mFreeCount = chunkCount;
+    }
+
+    boolean hasFreeRange() {
+      return mFreeCount > 0;
+    }
+
+    boolean isUnused() {
+      return mFreeCount == mChunkCount;
+    }
+
+    int take() {
+      Preconditions.checkState(mFreeCount > 0);
+      return mFreeOffsets[--mFreeCount];
+    }
+
+    void put(int offset) {
+      Preconditions.checkState(mFreeCount < mChunkCount);
+      mFreeOffsets[mFreeCount++] = offset;
+    }
+  }
+}
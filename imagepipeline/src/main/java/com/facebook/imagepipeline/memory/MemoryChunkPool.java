@@ -9,12 +9,13 @@ package com.facebook.imagepipeline.memory;
 import android.util.SparseIntArray;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 /** Manages a pool of memory chunks ({@link MemoryChunk}) */
 @ThreadSafe
 public abstract class MemoryChunkPool extends BasePool<MemoryChunk> {
-  private final int[] mBucketSizes;
+  private volatile int[] mBucketSizes;
 
   /**
    * Initialize a new instance of the MemoryChunkPool
@@ -28,14 +29,24 @@ public abstract class MemoryChunkPool extends BasePool<MemoryChunk> {
       PoolParams poolParams,
       PoolStatsTracker memoryChunkPoolStatsTracker) {
     super(memoryTrimmableRegistry, poolParams, memoryChunkPoolStatsTracker);
-    SparseIntArray bucketSizes = poolParams.bucketSizes;
-    mBucketSizes = new int[bucketSizes.size()];
-    for (int i = 0; i < mBucketSizes.length; ++i) {
-      mBucketSizes[i] = bucketSizes.keyAt(i);
-    }
+    mBucketSizes = getSizes(poolParams.bucketSizes);
     initialize();
   }
 
+  /** The bucket sizes may have been adapted to the requested sizes */
+  @Override
+  protected void onParamsChanged() {
+    mBucketSizes = getSizes(getCurrentBucketSizes());
+  }
+
+  private static int[] getSizes(SparseIntArray bucketSizes) {
+    final int[] sizes = new int[bucketSizes.size()];
+    for (int i = 0; i < sizes.length; ++i) {
+      sizes[i] = bucketSizes.keyAt(i);
+    }
+    return sizes;
+  }
+
   /** Gets the smallest buffer size */
   int getMinBufferSize() {
     return mBucketSizes[0];
@@ -84,4 +95,27 @@ public abstract class MemoryChunkPool extends BasePool<MemoryChunk> {
     Preconditions.checkNotNull(value);
     return !value.isClosed();
   }
+
+  /** Gets the arena the chunks are carved from, null if each chunk is allocated on its own */
+  @Nullable
+  MemoryChunkArena<? extends MemoryChunk> getArena() {
+    return null;
+  }
+
+  /**
+   * In arena mode, the slabs must fit in the hard cap, free ranges included. If they would not,
+   * the free chunks are trimmed first, in case that frees whole slabs.
+   */
+  @Override
+  synchronized boolean canAllocate(int sizeInBytes) {
+    if (!super.canAllocate(sizeInBytes)) {
+      return false;
+    }
+    final MemoryChunkArena<? extends MemoryChunk> arena = getArena();
+    if (arena == null || arena.getSizeAfterAlloc(sizeInBytes) <= mPoolParams.maxSizeHardCap) {
+      return true;
+    }
+    trimToSize(mUsed.mNumBytes);
+    return arena.getSizeAfterAlloc(sizeInBytes) <= mPoolParams.maxSizeHardCap;
+  }
 }
@@ -11,6 +11,7 @@ import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Throwables;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.memory.PooledByteBufferFactory;
+import com.facebook.common.memory.PooledByteBufferOutputStream;
 import com.facebook.common.memory.PooledByteStreams;
 import com.facebook.common.references.CloseableReference;
 import java.io.IOException;
@@ -19,17 +20,30 @@ import javax.annotation.concurrent.ThreadSafe;
 
 /**
  * A factory to provide instances of {@link MemoryPooledByteBuffer} and {@link
- * MemoryPooledByteBufferOutputStream}
+ * MemoryPooledByteBufferOutputStream}, or {@link ChunkedPooledByteBufferOutputStream} for the
+ * output streams of unknown size when a chunk size is set
  */
 @ThreadSafe
 public class MemoryPooledByteBufferFactory implements PooledByteBufferFactory {
 
   private final PooledByteStreams mPooledByteStreams;
   private final MemoryChunkPool mPool; // memory pool
+  private final int mChunkSize; // 0 if output streams are not chunked
 
   public MemoryPooledByteBufferFactory(MemoryChunkPool pool, PooledByteStreams pooledByteStreams) {
+    this(pool, pooledByteStreams, 0);
+  }
+
+  /**
+   * @param chunkSize the size of the chunks of the output streams of unknown size, 0 to reallocate
+   *     a single chunk as they grow
+   */
+  public MemoryPooledByteBufferFactory(
+      MemoryChunkPool pool, PooledByteStreams pooledByteStreams, int chunkSize) {
+    Preconditions.checkArgument(chunkSize >= 0);
     mPool = pool;
     mPooledByteStreams = pooledByteStreams;
+    mChunkSize = chunkSize;
   }
 
   @Override
@@ -97,7 +111,10 @@ public class MemoryPooledByteBufferFactory implements PooledByteBufferFactory {
   }
 
   @Override
-  public MemoryPooledByteBufferOutputStream newOutputStream() {
+  public PooledByteBufferOutputStream newOutputStream() {
+    if (mChunkSize > 0) {
+      return new ChunkedPooledByteBufferOutputStream(mPool, mChunkSize);
+    }
     return new MemoryPooledByteBufferOutputStream(mPool);
   }
 
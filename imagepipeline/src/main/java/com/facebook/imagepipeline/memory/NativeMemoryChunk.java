@@ -44,11 +44,31 @@ public class NativeMemoryChunk implements MemoryChunk, Closeable {
   /** flag indicating if this object was closed @GuardedBy("this") */
   private boolean mIsClosed;
 
+  /** the range of the arena slab this chunk views, null if the chunk owns its memory */
+  @Nullable private final MemoryChunkArena<?>.Slot mSlot;
+
   public NativeMemoryChunk(final int size) {
     Preconditions.checkArgument(size > 0);
     mSize = size;
     mNativePtr = nativeAllocate(mSize);
     mIsClosed = false;
+    mSlot = null;
+  }
+
+  /**
+   * Creates a chunk viewing a range of an arena slab, the range is released instead of freed when
+   * the chunk is closed.
+   *
+   * @param nativePtr the address of the range
+   * @param size the size of the range
+   * @param slot the slot of the range in its slab
+   */
+  NativeMemoryChunk(final long nativePtr, final int size, final MemoryChunkArena<?>.Slot slot) {
+    Preconditions.checkArgument(size > 0);
+    mSize = size;
+    mNativePtr = nativePtr;
+    mIsClosed = false;
+    mSlot = Preconditions.checkNotNull(slot);
   }
 
   @VisibleForTesting
@@ -56,13 +76,18 @@ public class NativeMemoryChunk implements MemoryChunk, Closeable {
     mSize = 0;
     mNativePtr = 0;
     mIsClosed = true;
+    mSlot = null;
   }
 
   @Override
   public synchronized void close() {
     if (!mIsClosed) {
       mIsClosed = true;
-      nativeFree(mNativePtr);
+      if (mSlot != null) {
+        mSlot.release();
+      } else {
+        nativeFree(mNativePtr);
+      }
     }
   }
 
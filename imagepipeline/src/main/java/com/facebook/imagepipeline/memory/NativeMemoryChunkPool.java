@@ -6,22 +6,64 @@
  */
 package com.facebook.imagepipeline.memory;
 
+import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 /** Manages a pool of native memory chunks ({@link NativeMemoryChunk}) */
 @ThreadSafe
 public class NativeMemoryChunkPool extends MemoryChunkPool {
 
+  @VisibleForTesting @Nullable final MemoryChunkArena<NativeMemoryChunk> mArena;
+
   public NativeMemoryChunkPool(
       MemoryTrimmableRegistry memoryTrimmableRegistry,
       PoolParams poolParams,
       PoolStatsTracker nativeMemoryChunkPoolStatsTracker) {
     super(memoryTrimmableRegistry, poolParams, nativeMemoryChunkPoolStatsTracker);
+    mArena =
+        poolParams.slabSize > 0
+            ? new MemoryChunkArena<NativeMemoryChunk>(
+                poolParams.slabSize, poolParams.maxSizeHardCap) {
+              @Override
+              protected NativeMemoryChunk allocSlab(int size) {
+                return NativeMemoryChunkPool.this.allocSlab(size);
+              }
+
+              @Override
+              protected NativeMemoryChunk carve(
+                  NativeMemoryChunk slab, int offset, int size, Slot slot) {
+                return NativeMemoryChunkPool.this.carve(slab, offset, size, slot);
+              }
+            }
+            : null;
+  }
+
+  @Override
+  @Nullable
+  MemoryChunkArena<NativeMemoryChunk> getArena() {
+    return mArena;
+  }
+
+  /** Allocates a slab of the arena, see {@link MemoryChunkArena#allocSlab(int)} */
+  @VisibleForTesting
+  NativeMemoryChunk allocSlab(int size) {
+    return new NativeMemoryChunk(size);
+  }
+
+  /** Creates a view of a range of a slab, see {@link MemoryChunkArena#carve} */
+  @VisibleForTesting
+  NativeMemoryChunk carve(
+      NativeMemoryChunk slab, int offset, int size, MemoryChunkArena<?>.Slot slot) {
+    return new NativeMemoryChunk(slab.getNativePtr() + offset, size, slot);
   }
 
   @Override
   protected NativeMemoryChunk alloc(int bucketedSize) {
+    if (mArena != null) {
+      return mArena.alloc(bucketedSize);
+    }
     return new NativeMemoryChunk(bucketedSize);
   }
 }
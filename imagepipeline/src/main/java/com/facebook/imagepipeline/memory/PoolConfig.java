@@ -31,6 +31,7 @@ public class PoolConfig {
   private final MemoryTrimmableRegistry mMemoryTrimmableRegistry;
   private final PoolParams mMemoryChunkPoolParams;
   private final PoolStatsTracker mMemoryChunkPoolStatsTracker;
+  private final int mPooledByteBufferChunkSize;
   private final PoolParams mSmallByteArrayPoolParams;
   private final PoolStatsTracker mSmallByteArrayPoolStatsTracker;
   private final String mBitmapPoolType;
@@ -66,6 +67,7 @@ public class PoolConfig {
         builder.mMemoryChunkPoolStatsTracker == null
             ? NoOpPoolStatsTracker.getInstance()
             : builder.mMemoryChunkPoolStatsTracker;
+    mPooledByteBufferChunkSize = builder.mPooledByteBufferChunkSize;
     mSmallByteArrayPoolParams =
         builder.mSmallByteArrayPoolParams == null
             ? DefaultByteArrayPoolParams.get()
@@ -108,6 +110,10 @@ public class PoolConfig {
     return mMemoryChunkPoolStatsTracker;
   }
 
+  public int getPooledByteBufferChunkSize() {
+    return mPooledByteBufferChunkSize;
+  }
+
   public PoolParams getFlexByteArrayPoolParams() {
     return mFlexByteArrayPoolParams;
   }
@@ -148,6 +154,7 @@ public class PoolConfig {
     private MemoryTrimmableRegistry mMemoryTrimmableRegistry;
     private PoolParams mMemoryChunkPoolParams;
     private PoolStatsTracker mMemoryChunkPoolStatsTracker;
+    private int mPooledByteBufferChunkSize;
     private PoolParams mSmallByteArrayPoolParams;
     private PoolStatsTracker mSmallByteArrayPoolStatsTracker;
     private String mBitmapPoolType;
@@ -190,6 +197,17 @@ public class PoolConfig {
       return this;
     }
 
+    /**
+     * Sets the size of the chunks that buffers are written in when their final size is unknown,
+     * so that growing them does not copy what was already written. 0, the default, writes them to
+     * a single chunk reallocated as it grows.
+     */
+    public Builder setPooledByteBufferChunkSize(int pooledByteBufferChunkSize) {
+      Preconditions.checkArgument(pooledByteBufferChunkSize >= 0);
+      mPooledByteBufferChunkSize = pooledByteBufferChunkSize;
+      return this;
+    }
+
     public Builder setSmallByteArrayPoolParams(PoolParams commonByteArrayPoolParams) {
       mSmallByteArrayPoolParams = Preconditions.checkNotNull(commonByteArrayPoolParams);
       return this;
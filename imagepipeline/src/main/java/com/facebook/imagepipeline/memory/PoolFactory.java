@@ -55,6 +55,17 @@ public class PoolFactory {
                       ? mConfig.getMemoryTrimmableRegistry()
                       : null);
           break;
+        case BitmapPoolType.BEST_FIT:
+          mBitmapPool =
+              new LruBitmapPool(
+                  mConfig.getBitmapPoolMaxPoolSize(),
+                  mConfig.getBitmapPoolMaxBitmapSize(),
+                  NoOpPoolStatsTracker.getInstance(),
+                  mConfig.isRegisterLruBitmapPoolAsMemoryTrimmable()
+                      ? mConfig.getMemoryTrimmableRegistry()
+                      : null,
+                  new BestFitBitmapPoolBackend());
+          break;
         case BitmapPoolType.LEGACY_DEFAULT_PARAMS:
           mBitmapPool =
               new BucketsBitmapPool(
@@ -117,7 +128,9 @@ public class PoolFactory {
     if (mPooledByteBufferFactory == null) {
       mPooledByteBufferFactory =
           new MemoryPooledByteBufferFactory(
-              getMemoryChunkPool(memoryChunkType), getPooledByteStreams());
+              getMemoryChunkPool(memoryChunkType),
+              getPooledByteStreams(),
+              mConfig.getPooledByteBufferChunkSize());
     }
     return mPooledByteBufferFactory;
   }
@@ -57,6 +57,34 @@ public class PoolParams {
 
   public boolean fixBucketsReinitialization;
 
+  /**
+   * The max number of free values of each size that each thread caches in front of the pool, 0 to
+   * disable the thread caches.
+   *
+   * <p>The cached values count as used, up to this number times the number of sizes for each
+   * thread that uses the pool. A value released to the pool without coming from it is only
+   * detected once it leaves the thread's cache.
+   */
+  public int threadMagazineSize;
+
+  /**
+   * The size of the slabs that memory chunk pools carve their chunks from, 0 to allocate each
+   * chunk on its own. See {@link MemoryChunkArena}.
+   */
+  public int slabSize;
+
+  /**
+   * Whether the pool counts the sizes requested from it, to recommend bucket sizes. See {@link
+   * BasePool#getRecommendedBucketSizes()}.
+   */
+  public boolean recordRequestSizes;
+
+  /**
+   * Whether the pool replaces its bucket sizes with the recommended ones when it is trimmed. Only
+   * pools with {@link #bucketSizes} adapt them.
+   */
+  public boolean adaptBucketSizes;
+
   /** The maximum number of threads that may be accessing this pool.
    *
    * <p>Pool implementations may or may not need this to be set.
@@ -18,6 +18,8 @@ public interface PoolStatsTracker {
   String FREE_BYTES = "free_bytes";
   String SOFT_CAP = "soft_cap";
   String HARD_CAP = "hard_cap";
+  String REUSE_HITS = "reuse_hits";
+  String REUSE_MISSES = "reuse_misses";
 
   void setBasePool(BasePool basePool);
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import android.util.SparseIntArray;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Counts the sizes requested from a {@link BasePool}, and derives the bucket sizes that would have
+ * wasted the least memory serving them.
+ *
+ * <p> The sizes are counted in bins, eight per power of two, so a bin spans at most an eighth of
+ * its sizes. Recording a size is a single atomic increment.
+ */
+@ThreadSafe
+class RequestSizeHistogram {
+
+  /** Below this number of requests, no bucket sizes are recommended */
+  @VisibleForTesting static final int MIN_SAMPLE_COUNT = 100;
+
+  private static final int SUB_BINS = 8;
+  private static final int SUB_BIN_SHIFT = 3;
+  private static final int BIN_COUNT = getBin(Integer.MAX_VALUE) + 1;
+
+  private final AtomicIntegerArray mCounts;
+
+  RequestSizeHistogram() {
+    mCounts = new AtomicIntegerArray(BIN_COUNT);
+  }
+
+  /** Counts a request of the given size */
+  void record(int size) {
+    Preconditions.checkArgument(size > 0);
+    mCounts.incrementAndGet(getBin(size));
+  }
+
+  /** Halves the counts, so that the recommendations follow the recent requests */
+  void decay() {
+    for (int i = 0; i < BIN_COUNT; i++) {
+      // a concurrent increment may be lost, the counts are approximate anyway
+      mCounts.set(i, mCounts.get(i) / 2);
+    }
+  }
+
+  /**
+   * Derives bucket sizes from the recorded requests. There are as many buckets as in the given
+   * sizes, and the largest bucket is kept so that no request served by the pool stops being. The
+   * other bucket sizes are picked to waste the least bytes on the requests, and get the max length
+   * of the current bucket that served their requests.
+   *
+   * @param bucketSizes the current bucket sizes and lengths
+   * @return the recommended bucket sizes and lengths, or null if the pool has no buckets or too
+   *     few requests were recorded
+   */
+  @Nullable
+  SparseIntArray recommendBucketSizes(@Nullable SparseIntArray bucketSizes) {
+    if (bucketSizes == null || bucketSizes.size() == 0) {
+      return null;
+    }
+    final int maxBucketSize = bucketSizes.keyAt(bucketSizes.size() - 1);
+
+    // the non empty bins served by the pool, the bins that fit under the largest bucket first
+    final int[] bins = new int[BIN_COUNT];
+    int binCount = 0;
+    int candidateCount = 0;
+    long sampleCount = 0;
+    for (int bin = 0; bin < BIN_COUNT && getBinLowerBound(bin) <= maxBucketSize; bin++) {
+      final int count = mCounts.get(bin);
+      if (count > 0) {
+        bins[binCount++] = bin;
+        sampleCount += count;
+        if (getBinLimit(bin) < maxBucketSize) {
+          candidateCount++;
+        }
+      }
+    }
+    if (sampleCount < MIN_SAMPLE_COUNT) {
+      return null;
+    }
+
+    // prefix sums of the counts and of the bytes requested
+    final double[] counts = new double[binCount + 1];
+    final double[] bytes = new double[binCount + 1];
+    for (int i = 0; i < binCount; i++) {
+      final int bin = bins[i];
+      final double count = mCounts.get(bin);
+      counts[i + 1] = counts[i] + count;
+      bytes[i + 1] = bytes[i] + count * ((getBinLowerBound(bin) + (double) getBinLimit(bin)) / 2);
+    }
+
+    // waste[k][i]: least waste serving the bins up to i with k buckets, the last one ending at i
+    final int maxBuckets = Math.min(bucketSizes.size() - 1, candidateCount);
+    final double[][] waste = new double[maxBuckets + 1][candidateCount];
+    final int[][] previous = new int[maxBuckets + 1][candidateCount];
+    for (int k = 1; k <= maxBuckets; k++) {
+      for (int i = k - 1; i < candidateCount; i++) {
+        final double limit = getBinLimit(bins[i]);
+        if (k == 1) {
+          waste[k][i] = getWaste(counts, bytes, 0, i, limit);
+          previous[k][i] = -1;
+          continue;
+        }
+        waste[k][i] = Double.MAX_VALUE;
+        for (int j = k - 2; j < i; j++) {
+          final double w = waste[k - 1][j] + getWaste(counts, bytes, j + 1, i, limit);
+          if (w < waste[k][i]) {
+            waste[k][i] = w;
+            previous[k][i] = j;
+          }
+        }
+      }
+    }
+
+    // the remaining bins go to the largest bucket
+    double leastWaste = getWaste(counts, bytes, 0, binCount - 1, maxBucketSize);
+    int lastK = 0;
+    int lastI = -1;
+    for (int k = 1; k <= maxBuckets; k++) {
+      for (int i = k - 1; i < candidateCount; i++) {
+        final double w = waste[k][i] + getWaste(counts, bytes, i + 1, binCount - 1, maxBucketSize);
+        if (w < leastWaste) {
+          leastWaste = w;
+          lastK = k;
+          lastI = i;
+        }
+      }
+    }
+
+    final SparseIntArray recommended = new SparseIntArray();
+    recommended.put(maxBucketSize, bucketSizes.valueAt(bucketSizes.size() - 1));
+    for (int k = lastK, i = lastI; k > 0; i = previous[k][i], k--) {
+      final int bucketSize = getBinLimit(bins[i]);
+      recommended.put(bucketSize, getMaxLength(bucketSizes, bucketSize));
+    }
+    return recommended;
+  }
+
+  /** Returns the bytes wasted serving the bins from first to last with a bucket of the limit */
+  private static double getWaste(
+      double[] counts, double[] bytes, int first, int last, double limit) {
+    if (first > last) {
+      return 0;
+    }
+    return limit * (counts[last + 1] - counts[first]) - (bytes[last + 1] - bytes[first]);
+  }
+
+  /** Returns the max length of the smallest bucket that holds the given size */
+  private static int getMaxLength(SparseIntArray bucketSizes, int size) {
+    for (int i = 0; i < bucketSizes.size(); i++) {
+      if (bucketSizes.keyAt(i) >= size) {
+        return bucketSizes.valueAt(i);
+      }
+    }
+    return bucketSizes.valueAt(bucketSizes.size() - 1);
+  }
+
+  @VisibleForTesting
+  static int getBin(int size) {
+    if (size < SUB_BINS) {
+      return size;
+    }
+    final int shift = 31 - Integer.numberOfLeadingZeros(size) - SUB_BIN_SHIFT;
+    return (shift + 1) * SUB_BINS + (size >> shift) - SUB_BINS;
+  }
+
+  /** Returns the smallest size of the bin */
+  @VisibleForTesting
+  static int getBinLowerBound(int bin) {
+    if (bin < SUB_BINS) {
+      return bin;
+    }
+    return (bin % SUB_BINS + SUB_BINS) << (bin / SUB_BINS - 1);
+  }
+
+  /** Returns the bucket size of the bin, which holds all its sizes */
+  @VisibleForTesting
+  static int getBinLimit(int bin) {
+    if (bin < SUB_BINS) {
+      return bin;
+    }
+    final long limit = (long) (bin % SUB_BINS + SUB_BINS + 1) << (bin / SUB_BINS - 1);
+    return (int) Math.min(limit, Integer.MAX_VALUE);
+  }
+}
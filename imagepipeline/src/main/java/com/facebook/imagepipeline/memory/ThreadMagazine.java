@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import android.util.SparseArray;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A small cache of free values of a {@link BasePool}, owned by one thread.
+ *
+ * <p> The owning thread gets and releases values of the sizes it uses most without going through
+ * the pool. The magazine is refilled from the pool and spills back to it in batches. Its lock is
+ * only contended when the pool drains it on trim.
+ *
+ * <p> The values in a magazine are in use from the pool's point of view. The magazine only holds
+ * its thread weakly, so that the pool can tell when the thread is gone and take the values back.
+ *
+ * @param <V> type of values cached in the magazine
+ */
+@ThreadSafe
+@VisibleForTesting
+class ThreadMagazine<V> {
+
+  private final int mCapacity; // max number of values of each size
+  private final WeakReference<Thread> mOwner;
+
+  @GuardedBy("this")
+  private final SparseArray<ArrayList<V>> mValues;
+
+  ThreadMagazine(int capacity, Thread owner) {
+    Preconditions.checkArgument(capacity > 0);
+    mCapacity = capacity;
+    mOwner = new WeakReference<>(owner);
+    mValues = new SparseArray<>();
+  }
+
+  /** Returns true if the thread that owns the magazine has not terminated. */
+  boolean isOwnerAlive() {
+    final Thread owner = mOwner.get();
+    return owner != null && owner.isAlive();
+  }
+
+  /** Starts caching the values of the given bucketed size, no-op if they already are. */
+  synchronized void addSize(int bucketedSize) {
+    if (mValues.get(bucketedSize) == null) {
+      mValues.put(bucketedSize, new ArrayList<V>(mCapacity));
+    }
+  }
+
+  /** Returns the number of free values the magazine has room for, for the given size. */
+  synchronized int getRoom(int bucketedSize) {
+    final ArrayList<V> values = mValues.get(bucketedSize);
+    return values == null ? 0 : mCapacity - values.size();
+  }
+
+  /** Removes the value released last of the given size, null if there is none. */
+  @Nullable
+  synchronized V pop(int bucketedSize) {
+    final ArrayList<V> values = mValues.get(bucketedSize);
+    if (values == null || values.isEmpty()) {
+      return null;
+    }
+    return values.remove(values.size() - 1);
+  }
+
+  /** Adds values taken from the pool, up to the capacity of the magazine. */
+  synchronized void refill(int bucketedSize, List<V> refill) {
+    final ArrayList<V> values = mValues.get(bucketedSize);
+    Preconditions.checkState(values != null && values.size() + refill.size() <= mCapacity);
+    values.addAll(refill);
+  }
+
+  /**
+   * Adds a released value. When the magazine is full for that size, the older half of its values
+   * are removed first.
+   *
+   * @return the values to release to the pool, or null if the magazine does not cache the size
+   *     and the value has not been added
+   */
+  @Nullable
+  synchronized List<V> pushOrSpill(int bucketedSize, V value) {
+    final ArrayList<V> values = mValues.get(bucketedSize);
+    if (values == null) {
+      return null;
+    }
+    List<V> spilled = new ArrayList<>();
+    if (values.size() >= mCapacity) {
+      final List<V> olderHalf = values.subList(0, (values.size() + 1) / 2);
+      spilled.addAll(olderHalf);
+      olderHalf.clear();
+    }
+    values.add(value);
+    return spilled;
+  }
+
+  /**
+   * Removes all the values, and stops caching their sizes. The pool may have changed its bucket
+   * sizes, the sizes still used are cached again on the next get.
+   */
+  synchronized List<V> drain() {
+    List<V> drained = new ArrayList<>();
+    for (int i = 0; i < mValues.size(); i++) {
+      drained.addAll(mValues.valueAt(i));
+    }
+    mValues.clear();
+    return drained;
+  }
+
+  @VisibleForTesting
+  synchronized int getCount() {
+    int count = 0;
+    for (int i = 0; i < mValues.size(); i++) {
+      count += mValues.valueAt(i).size();
+    }
+    return count;
+  }
+}
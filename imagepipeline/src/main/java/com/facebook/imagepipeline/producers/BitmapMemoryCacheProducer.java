@@ -9,13 +9,17 @@ package com.facebook.imagepipeline.producers;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Predicate;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.GroupedMemoryCache;
 import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.QualityInfo;
 import com.facebook.imagepipeline.request.ImageRequest;
 import com.facebook.imagepipeline.systrace.FrescoSystrace;
+import javax.annotation.Nullable;
 
 /**
  * Memory cache producer for the bitmap memory cache.
@@ -54,6 +58,9 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
       final CacheKey cacheKey = mCacheKeyFactory.getBitmapCacheKey(imageRequest, callerContext);
 
       CloseableReference<CloseableImage> cachedReference = mMemoryCache.get(cacheKey);
+      if (cachedReference == null) {
+        cachedReference = getHigherResolutionImage(cacheKey);
+      }
 
       if (cachedReference != null) {
         boolean isFinal = cachedReference.get().getQualityInfo().isOfFullQuality();
@@ -110,6 +117,38 @@ public class BitmapMemoryCacheProducer implements Producer<CloseableReference<Cl
     }
   }
 
+  /**
+   * Looks for a full-quality image of the same source cached at an equal or higher resolution.
+   * The image is returned as is, the view scales it down when drawing it.
+   *
+   * <p> Only caches that index their keys by source, see {@link GroupedMemoryCache}, are searched.
+   */
+  @Nullable
+  private CloseableReference<CloseableImage> getHigherResolutionImage(final CacheKey cacheKey) {
+    if (!(mMemoryCache instanceof GroupedMemoryCache)
+        || !(cacheKey instanceof BitmapMemoryCacheKey)
+        || ((BitmapMemoryCacheKey) cacheKey).getResizeOptions() == null) {
+      // only full resolution images can serve a request without resize options
+      return null;
+    }
+    final BitmapMemoryCacheKey bitmapCacheKey = (BitmapMemoryCacheKey) cacheKey;
+    return ((GroupedMemoryCache<CacheKey, CloseableImage>) mMemoryCache).getMatchingInGroup(
+        bitmapCacheKey.getUriString(),
+        new Predicate<CacheKey>() {
+          @Override
+          public boolean apply(CacheKey key) {
+            return key instanceof BitmapMemoryCacheKey
+                && bitmapCacheKey.canBeServedBy((BitmapMemoryCacheKey) key);
+          }
+        },
+        new Predicate<CloseableImage>() {
+          @Override
+          public boolean apply(CloseableImage image) {
+            return image.getQualityInfo().isOfFullQuality();
+          }
+        });
+  }
+
   protected Consumer<CloseableReference<CloseableImage>> wrapConsumer(
       final Consumer<CloseableReference<CloseableImage>> consumer,
       final CacheKey cacheKey,
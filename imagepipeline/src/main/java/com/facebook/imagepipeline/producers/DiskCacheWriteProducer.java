@@ -120,10 +120,12 @@ public class DiskCacheWriteProducer implements Producer<EncodedImage> {
       final CacheKey cacheKey =
           mCacheKeyFactory.getEncodedCacheKey(imageRequest, mProducerContext.getCallerContext());
 
+      // prefetched images are written even if seen for the first time, as they were asked for
+      final boolean bypassAdmissionPolicy = mProducerContext.isPrefetch();
       if (imageRequest.getCacheChoice() == ImageRequest.CacheChoice.SMALL) {
-        mSmallImageBufferedDiskCache.put(cacheKey, newResult);
+        mSmallImageBufferedDiskCache.put(cacheKey, newResult, bypassAdmissionPolicy);
       } else {
-        mDefaultBufferedDiskCache.put(cacheKey, newResult);
+        mDefaultBufferedDiskCache.put(cacheKey, newResult, bypassAdmissionPolicy);
       }
 
       getConsumer().onNewResult(newResult, status);
@@ -9,14 +9,21 @@ package com.facebook.imagepipeline.cache;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyListOf;
+import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.same;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -27,6 +34,7 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.MultiCacheKey;
 import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.BatchingFileCache;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.common.memory.PooledByteBuffer;
 import com.facebook.common.memory.PooledByteBufferFactory;
@@ -35,9 +43,11 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.testing.FakeClock;
 import com.facebook.imagepipeline.testing.TestExecutorService;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -101,7 +111,8 @@ public class BufferedDiskCacheTest {
         .thenReturn(mPooledByteBuffer);
 
     mockStatic(StagingArea.class);
-    when(StagingArea.getInstance()).thenReturn(mStagingArea);
+    when(StagingArea.getInstance(anyInt())).thenReturn(mStagingArea);
+    when(mStagingArea.put(any(CacheKey.class), any(EncodedImage.class))).thenReturn(true);
 
     mBufferedDiskCache = new BufferedDiskCache(
         mFileCache,
@@ -149,6 +160,42 @@ public class BufferedDiskCacheTest {
     assertSame(mPooledByteBuffer, result.getByteBufferRef().get());
   }
 
+  @Test
+  public void testConcurrentGetsShareOneRead() throws Exception {
+    when(mFileCache.getResource(eq(mCacheKey))).thenReturn(mBinaryResource);
+    Task<EncodedImage> readTask1 = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
+    Task<EncodedImage> readTask2 = mBufferedDiskCache.get(mCacheKey, new AtomicBoolean(false));
+    mReadPriorityExecutor.runUntilIdle();
+    verify(mFileCache).getResource(eq(mCacheKey));
+    EncodedImage result1 = readTask1.getResult();
+    EncodedImage result2 = readTask2.getResult();
+    assertNotSame(result1, result2);
+    assertSame(mPooledByteBuffer, result2.getUnderlyingReferenceTestOnly().get());
+
+    // each get owns its reference
+    result1.close();
+    assertEquals(
+        2,
+        result2.getByteBufferRef().getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+
+    // the next get reads again
+    mBufferedDiskCache.get(mCacheKey, mIsCancelled);
+    mReadPriorityExecutor.runUntilIdle();
+    verify(mFileCache, times(2)).getResource(eq(mCacheKey));
+  }
+
+  @Test
+  public void testCancelledGetDoesNotCancelSharedRead() throws Exception {
+    when(mFileCache.getResource(mCacheKey)).thenReturn(mBinaryResource);
+    Task<EncodedImage> readTask1 = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
+    Task<EncodedImage> readTask2 = mBufferedDiskCache.get(mCacheKey, new AtomicBoolean(false));
+    mIsCancelled.set(true);
+    mReadPriorityExecutor.runUntilIdle();
+    verify(mFileCache).getResource(mCacheKey);
+    assertTrue(isTaskCancelled(readTask1));
+    assertSame(mPooledByteBuffer, readTask2.getResult().getByteBufferRef().get());
+  }
+
   @Test
   public void testCacheGetCancellation() throws Exception {
     when(mFileCache.getResource(mCacheKey)).thenReturn(mBinaryResource);
@@ -159,6 +206,24 @@ public class BufferedDiskCacheTest {
     assertTrue(isTaskCancelled(readTask));
   }
 
+  @Test
+  public void testFailedReadDoesNotBlockLaterGets() throws Exception {
+    when(mFileCache.getResource(eq(mCacheKey))).thenReturn(mBinaryResource);
+    doThrow(new RuntimeException("stats tracker failure"))
+        .doNothing()
+        .when(mImageCacheStatsTracker)
+        .onStagingAreaMiss();
+    Task<EncodedImage> readTask1 = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
+    mReadPriorityExecutor.runUntilIdle();
+    assertTrue(readTask1.isFaulted());
+
+    // the failed read is not joined by the next get
+    Task<EncodedImage> readTask2 = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
+    mReadPriorityExecutor.runUntilIdle();
+    assertTrue(readTask2.isCompleted());
+    assertSame(mPooledByteBuffer, readTask2.getResult().getByteBufferRef().get());
+  }
+
   @Test
   public void testGetDoesNotThrow() throws Exception {
     Task<EncodedImage> readTask = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
@@ -189,6 +254,172 @@ public class BufferedDiskCacheTest {
     assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
   }
 
+  @Test
+  public void testWritesOnlyAdmittedImages() throws Exception {
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            BufferedDiskCacheOptions.newBuilder()
+                .setAdmissionPolicy(new FrequencyDiskCacheAdmissionPolicy(100))
+                .build());
+
+    bufferedDiskCache.get(mCacheKey, mIsCancelled);
+    bufferedDiskCache.put(mCacheKey, mEncodedImage);
+    verify(mStagingArea, never()).put(mCacheKey, mEncodedImage);
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache, never()).insert(eq(mCacheKey), any(WriterCallback.class));
+
+    // requested again
+    bufferedDiskCache.get(mCacheKey, mIsCancelled);
+    bufferedDiskCache.put(mCacheKey, mEncodedImage);
+    verify(mStagingArea).put(mCacheKey, mEncodedImage);
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache).insert(eq(mCacheKey), any(WriterCallback.class));
+  }
+
+  @Test
+  public void testWriteCanBypassAdmissionPolicy() throws Exception {
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            BufferedDiskCacheOptions.newBuilder()
+                .setAdmissionPolicy(new FrequencyDiskCacheAdmissionPolicy(100))
+                .build());
+
+    bufferedDiskCache.put(mCacheKey, mEncodedImage, true);
+    verify(mStagingArea).put(mCacheKey, mEncodedImage);
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache).insert(eq(mCacheKey), any(WriterCallback.class));
+  }
+
+  @Test
+  public void testDropsWriteWhenStagingAreaIsFull() throws Exception {
+    when(mStagingArea.put(mCacheKey, mEncodedImage)).thenReturn(false);
+    when(mStagingArea.getSizeBytes()).thenReturn(1000);
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+    verify(mImageCacheStatsTracker).onStagingAreaPutDropped(mCacheKey, 1000);
+    assertEquals(0, mWritePriorityExecutor.getPendingCount());
+    verify(mFileCache, never()).insert(eq(mCacheKey), any(WriterCallback.class));
+    assertEquals(
+        2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+  }
+
+  @Test
+  public void testBatchesWrites() throws Exception {
+    BatchingFileCache batchingFileCache = mock(BatchingFileCache.class);
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            batchingFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            BufferedDiskCacheOptions.newBuilder().setWriteBatchMaxSizeBytes(1000).build());
+    CacheKey otherKey = new SimpleCacheKey("http://other.uri");
+    when(batchingFileCache.insert(anyListOf(CacheKey.class), anyListOf(WriterCallback.class)))
+        .thenReturn(Arrays.asList(mBinaryResource, null));
+
+    bufferedDiskCache.put(mCacheKey, mEncodedImage);
+    bufferedDiskCache.put(otherKey, mEncodedImage);
+    assertEquals(1, mWritePriorityExecutor.getPendingCount());
+    mWritePriorityExecutor.runUntilIdle();
+
+    verify(batchingFileCache)
+        .insert(eq(Arrays.<CacheKey>asList(mCacheKey, otherKey)), anyListOf(WriterCallback.class));
+    verify(batchingFileCache, never()).insert(eq(mCacheKey), any(WriterCallback.class));
+    verify(mImageCacheStatsTracker).onDiskCacheWrite(eq(mCacheKey), anyLong());
+    verify(mImageCacheStatsTracker, never()).onDiskCacheWrite(eq(otherKey), anyLong());
+    verify(mStagingArea, times(2)).remove(any(CacheKey.class), any(EncodedImage.class));
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+  }
+
+  @Test
+  public void testBatchedWritesAreInsertedOneByOneIntoOtherCaches() throws Exception {
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            BufferedDiskCacheOptions.newBuilder().setWriteBatchMaxSizeBytes(1000).build());
+    CacheKey otherKey = new SimpleCacheKey("http://other.uri");
+    when(mFileCache.insert(eq(mCacheKey), any(WriterCallback.class)))
+        .thenThrow(new IOException());
+    when(mFileCache.insert(eq(otherKey), any(WriterCallback.class))).thenReturn(mBinaryResource);
+
+    bufferedDiskCache.put(mCacheKey, mEncodedImage);
+    bufferedDiskCache.put(otherKey, mEncodedImage);
+    assertEquals(1, mWritePriorityExecutor.getPendingCount());
+    mWritePriorityExecutor.runUntilIdle();
+
+    verify(mFileCache).insert(eq(mCacheKey), any(WriterCallback.class));
+    verify(mFileCache).insert(eq(otherKey), any(WriterCallback.class));
+    verify(mImageCacheStatsTracker, never()).onDiskCacheWrite(eq(mCacheKey), anyLong());
+    verify(mImageCacheStatsTracker).onDiskCacheWrite(eq(otherKey), anyLong());
+    verify(mStagingArea, times(2)).remove(any(CacheKey.class), any(EncodedImage.class));
+  }
+
+  @Test
+  public void testRemoveDropsPendingBatchedWrite() throws Exception {
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            mFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            BufferedDiskCacheOptions.newBuilder().setWriteBatchMaxSizeBytes(1000).build());
+    bufferedDiskCache.put(mCacheKey, mEncodedImage);
+    bufferedDiskCache.remove(mCacheKey);
+    assertEquals(2, mCloseableReference.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mFileCache, never()).insert(any(CacheKey.class), any(WriterCallback.class));
+    verify(mFileCache).remove(mCacheKey);
+  }
+
+  @Test
+  public void testTracksWriteLag() throws Exception {
+    mBufferedDiskCache.put(mCacheKey, mEncodedImage);
+    verify(mImageCacheStatsTracker).onStagingAreaPut(eq(mCacheKey), anyInt());
+    mWritePriorityExecutor.runUntilIdle();
+    verify(mImageCacheStatsTracker).onDiskCacheWrite(eq(mCacheKey), anyLong());
+  }
+
+  @Test
+  public void testKnownMissDoesNotReadDiskCache() throws Exception {
+    BatchingFileCache batchingFileCache = mock(BatchingFileCache.class);
+    BufferedDiskCache bufferedDiskCache =
+        new BufferedDiskCache(
+            batchingFileCache,
+            mByteBufferFactory,
+            mPooledByteStreams,
+            mReadPriorityExecutor,
+            mWritePriorityExecutor,
+            mImageCacheStatsTracker,
+            BufferedDiskCacheOptions.newBuilder().build());
+    when(batchingFileCache.isMissingSync(mCacheKey)).thenReturn(true);
+    Task<EncodedImage> readTask = bufferedDiskCache.get(mCacheKey, mIsCancelled);
+    assertTrue(readTask.isCompleted());
+    assertNull(readTask.getResult());
+    mReadPriorityExecutor.runUntilIdle();
+    verify(batchingFileCache, never()).getResource(mCacheKey);
+    assertFalse(bufferedDiskCache.contains(mCacheKey).getResult());
+  }
+
   @Test
   public void testCacheMiss() throws Exception {
     Task<EncodedImage> readTask = mBufferedDiskCache.get(mCacheKey, mIsCancelled);
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class FrequencyDiskCacheAdmissionPolicyTest {
+
+  @Test
+  public void testAdmitsOnSecondRequest() {
+    FrequencyDiskCacheAdmissionPolicy policy = new FrequencyDiskCacheAdmissionPolicy(100);
+    CacheKey key = new SimpleCacheKey("http://test.uri");
+    assertFalse(policy.admit(key));
+    policy.recordRequest(key);
+    assertFalse(policy.admit(key));
+    policy.recordRequest(new SimpleCacheKey("http://test.uri"));
+    assertTrue(policy.admit(key));
+    assertFalse(policy.admit(new SimpleCacheKey("http://other.uri")));
+  }
+
+  @Test
+  public void testMinRequestCount() {
+    FrequencyDiskCacheAdmissionPolicy policy = new FrequencyDiskCacheAdmissionPolicy(100, 1);
+    CacheKey key = new SimpleCacheKey("http://test.uri");
+    assertFalse(policy.admit(key));
+    policy.recordRequest(key);
+    assertTrue(policy.admit(key));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMinRequestCountAboveSketchMaximum() {
+    new FrequencyDiskCacheAdmissionPolicy(100, FrequencySketch.MAX_FREQUENCY + 1);
+  }
+}
@@ -116,4 +116,41 @@ public class StagingAreaTest {
     assertEquals(2, mCloseableReference2.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
     assertFalse(mStagingArea.remove(mCacheKey));
   }
+
+  @Test
+  public void testTracksSize() {
+    when(mCloseableReference2.get().size()).thenReturn(100);
+    CacheKey secondKey = new SimpleCacheKey("second");
+    assertTrue(mStagingArea.put(secondKey, mSecondEncodedImage));
+    assertEquals(100, mStagingArea.getSizeBytes());
+    assertEquals(2, mStagingArea.getCount());
+    assertTrue(mStagingArea.remove(secondKey, mSecondEncodedImage));
+    assertEquals(0, mStagingArea.getSizeBytes());
+    assertEquals(1, mStagingArea.getCount());
+  }
+
+  @Test
+  public void testDropsPutOverMaxSize() {
+    StagingArea stagingArea = StagingArea.getInstance(150);
+    when(mCloseableReference.get().size()).thenReturn(100);
+    when(mCloseableReference2.get().size()).thenReturn(100);
+
+    assertTrue(stagingArea.put(mCacheKey, mEncodedImage));
+    CacheKey secondKey = new SimpleCacheKey("second");
+    assertFalse(stagingArea.put(secondKey, mSecondEncodedImage));
+    assertFalse(stagingArea.containsKey(secondKey));
+    assertEquals(2, mCloseableReference2.getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+
+    assertTrue(stagingArea.remove(mCacheKey));
+    assertTrue(stagingArea.put(secondKey, mSecondEncodedImage));
+    assertEquals(100, stagingArea.getSizeBytes());
+  }
+
+  @Test
+  public void testAcceptsImageOverMaxSizeWhenEmpty() {
+    StagingArea stagingArea = StagingArea.getInstance(50);
+    when(mCloseableReference2.get().size()).thenReturn(100);
+    assertTrue(stagingArea.put(mCacheKey, mSecondEncodedImage));
+    assertEquals(100, stagingArea.getSizeBytes());
+  }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.common.internal.ImmutableList;
+import com.facebook.datasource.DataSource;
+import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
+import com.facebook.imagepipeline.cache.CountingMemoryCache;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.request.ImageRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class BitmapMemoryCacheWarmerTest {
+
+  @Mock public CountingMemoryCache<CacheKey, CloseableImage> mBitmapMemoryCache;
+  @Mock public ImagePipeline mImagePipeline;
+  @Mock public DataSource<Void> mDataSource;
+
+  private File mManifestFile;
+  private BitmapMemoryCacheWarmer mWarmer;
+
+  @Before
+  public void setUp() throws IOException {
+    MockitoAnnotations.initMocks(this);
+    mManifestFile = File.createTempFile("manifest", null);
+    mManifestFile.delete();
+    Executor directExecutor =
+        new Executor() {
+          @Override
+          public void execute(Runnable runnable) {
+            runnable.run();
+          }
+        };
+    mWarmer = new BitmapMemoryCacheWarmer(mManifestFile, mBitmapMemoryCache, directExecutor);
+    when(mImagePipeline.prefetchToBitmapCache(
+            any(ImageRequest.class), anyObject(), eq(Priority.LOW)))
+        .thenReturn(mDataSource);
+  }
+
+  @After
+  public void tearDown() {
+    mManifestFile.delete();
+  }
+
+  @Test
+  public void testManifestRoundTrip() throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    BitmapMemoryCacheWarmer.writeManifest(
+        outputStream,
+        ImmutableList.of(
+            newKey("http://fb.com/1", new ResizeOptions(96, 96), RotationOptions.autoRotate()),
+            newKey("http://fb.com/2", null, RotationOptions.forceRotation(90))));
+    List<ImageRequest> imageRequests =
+        BitmapMemoryCacheWarmer.readManifest(
+            new ByteArrayInputStream(outputStream.toByteArray()));
+    assertEquals(2, imageRequests.size());
+    assertEquals("http://fb.com/1", imageRequests.get(0).getSourceUri().toString());
+    assertEquals(new ResizeOptions(96, 96), imageRequests.get(0).getResizeOptions());
+    assertEquals(RotationOptions.autoRotate(), imageRequests.get(0).getRotationOptions());
+    assertNull(imageRequests.get(1).getResizeOptions());
+    assertEquals(RotationOptions.forceRotation(90), imageRequests.get(1).getRotationOptions());
+  }
+
+  @Test
+  public void testIsReplayable() {
+    assertTrue(
+        BitmapMemoryCacheWarmer.isReplayable(
+            newKey("http://fb.com/1", null, RotationOptions.autoRotate())));
+    assertFalse(BitmapMemoryCacheWarmer.isReplayable(new SimpleCacheKey("http://fb.com/1")));
+    assertFalse(
+        BitmapMemoryCacheWarmer.isReplayable(
+            new BitmapMemoryCacheKey(
+                "http://fb.com/1",
+                null,
+                RotationOptions.autoRotate(),
+                ImageDecodeOptions.defaults(),
+                new SimpleCacheKey("postprocessor"),
+                "Postprocessor",
+                null)));
+  }
+
+  @Test
+  public void testSnapshotThenWarmUp() {
+    when(mBitmapMemoryCache.getHottestKeys(BitmapMemoryCacheWarmer.DEFAULT_MAX_KEYS))
+        .thenReturn(
+            ImmutableList.<CacheKey>of(
+                newKey("http://fb.com/1", null, RotationOptions.autoRotate()),
+                new SimpleCacheKey("http://fb.com/2"),
+                newKey("http://fb.com/3", null, RotationOptions.autoRotate())));
+    mWarmer.snapshot();
+    assertTrue(mManifestFile.exists());
+
+    mWarmer.warmUp(mImagePipeline);
+    verify(mImagePipeline, times(2))
+        .prefetchToBitmapCache(any(ImageRequest.class), anyObject(), eq(Priority.LOW));
+  }
+
+  @Test
+  public void testSnapshotSkippedWhenNothingIsReplayable() {
+    when(mBitmapMemoryCache.getHottestKeys(BitmapMemoryCacheWarmer.DEFAULT_MAX_KEYS))
+        .thenReturn(ImmutableList.<CacheKey>of(new SimpleCacheKey("http://fb.com/2")));
+    mWarmer.snapshot();
+    assertFalse(mManifestFile.exists());
+  }
+
+  @Test
+  public void testFetchRequestStopsWarmUp() {
+    when(mBitmapMemoryCache.getHottestKeys(BitmapMemoryCacheWarmer.DEFAULT_MAX_KEYS))
+        .thenReturn(
+            ImmutableList.<CacheKey>of(
+                newKey("http://fb.com/1", null, RotationOptions.autoRotate())));
+    mWarmer.snapshot();
+    mWarmer.warmUp(mImagePipeline);
+    verify(mDataSource, never()).close();
+
+    mWarmer.onFetchRequestSubmitted();
+    verify(mDataSource).close();
+
+    // once stopped, the warm-up never resumes
+    mWarmer.warmUp(mImagePipeline);
+    verify(mImagePipeline, times(1))
+        .prefetchToBitmapCache(any(ImageRequest.class), anyObject(), eq(Priority.LOW));
+  }
+
+  @Test
+  public void testWarmUpWithoutManifest() {
+    mWarmer.warmUp(mImagePipeline);
+    verify(mImagePipeline, never())
+        .prefetchToBitmapCache(any(ImageRequest.class), anyObject(), any(Priority.class));
+  }
+
+  private static BitmapMemoryCacheKey newKey(
+      String uri, ResizeOptions resizeOptions, RotationOptions rotationOptions) {
+    return new BitmapMemoryCacheKey(
+        uri, resizeOptions, rotationOptions, ImageDecodeOptions.defaults(), null, null, null);
+  }
+}
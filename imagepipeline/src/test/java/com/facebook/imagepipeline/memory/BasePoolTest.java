@@ -469,6 +469,108 @@ public class BasePoolTest {
     Assert.assertFalse(pool.canAllocate(4));
   }
 
+  @Test
+  public void testThreadMagazine_Reuse() throws Exception {
+    mPool = new TestPool(makeThreadMagazineParams(2));
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(1);
+    mPool.release(b1);
+    // the value stays in the magazine of the thread, accounted as used
+    Assert.assertTrue(mPool.mInUseValues.contains(b1));
+    mStats.refresh();
+    Assert.assertEquals(2, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+
+    Assert.assertSame(b1, mPool.get(2));
+    mStats.refresh();
+    Assert.assertEquals(2, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+  }
+
+  @Test
+  public void testThreadMagazine_SpillAndRefill() throws Exception {
+    mPool = new TestPool(makeThreadMagazineParams(2));
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(2);
+    byte[] b2 = mPool.get(2);
+    byte[] b3 = mPool.get(2);
+    byte[] b4 = mPool.get(2);
+    mPool.release(b1);
+    mPool.release(b2);
+    // the magazine is full, its older value goes back to the pool
+    mPool.release(b3);
+    mPool.release(b4);
+    mStats.refresh();
+    Assert.assertFalse(mPool.mInUseValues.contains(b1));
+    Assert.assertFalse(mPool.mInUseValues.contains(b2));
+    Assert.assertEquals(
+        ImmutableMap.of(2, new IntPair(2, 2)),
+        mStats.mBucketStats);
+    Assert.assertEquals(4, mStats.mFreeBytes);
+    Assert.assertEquals(4, mStats.mUsedBytes);
+
+    Assert.assertSame(b4, mPool.get(2));
+    Assert.assertSame(b3, mPool.get(2));
+    // the magazine is empty, it takes another free value along with this one
+    Assert.assertSame(b1, mPool.get(2));
+    mStats.refresh();
+    Assert.assertEquals(
+        ImmutableMap.of(2, new IntPair(4, 0)),
+        mStats.mBucketStats);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertEquals(8, mStats.mUsedBytes);
+    Assert.assertSame(b2, mPool.get(2));
+  }
+
+  @Test
+  public void testThreadMagazine_TrimToNothing() throws Exception {
+    mPool = new TestPool(makeThreadMagazineParams(2));
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(2);
+    mPool.release(b1);
+    mPool.trimToNothing();
+    mStats.refresh();
+    Assert.assertFalse(mPool.mInUseValues.contains(b1));
+    Assert.assertEquals(0, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertNotSame(b1, mPool.get(2));
+  }
+
+  @Test
+  public void testThreadMagazine_DeadThreadIsReclaimed() throws Exception {
+    PoolParams poolParams = new PoolParams(8, 8, null);
+    poolParams.threadMagazineSize = 2;
+    mPool = new TestPool(poolParams);
+    mStats.setPool(mPool);
+
+    final byte[][] values = new byte[2][];
+    Thread thread =
+        new Thread() {
+          @Override
+          public void run() {
+            values[0] = mPool.get(4);
+            values[1] = mPool.get(4);
+            mPool.release(values[0]);
+            mPool.release(values[1]);
+          }
+        };
+    thread.start();
+    thread.join();
+    // the values stay in the magazine of the terminated thread, at the hard cap
+    mStats.refresh();
+    Assert.assertEquals(8, mStats.mUsedBytes);
+
+    // the first get of this thread takes them back instead of failing
+    byte[] b1 = mPool.get(4);
+    Assert.assertTrue(b1 == values[0] || b1 == values[1]);
+    mStats.refresh();
+    Assert.assertEquals(8, mStats.mUsedBytes);
+    Assert.assertEquals(0, mStats.mFreeBytes);
+  }
+
   /**
    * A simple test pool that allocates byte arrays, and always allocates buffers of double
    * the size requested
@@ -484,10 +586,11 @@ public class BasePoolTest {
         int maxPoolSizeSoftCap,
         int maxPoolSizeHardCap,
         SparseIntArray bucketSizes) {
-      super(
-          mock(MemoryTrimmableRegistry.class),
-          new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes),
-          mock(PoolStatsTracker.class));
+      this(new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes));
+    }
+
+    public TestPool(PoolParams poolParams) {
+      super(mock(MemoryTrimmableRegistry.class), poolParams, mock(PoolStatsTracker.class));
       mIsReusable = true;
       initialize();
     }
@@ -531,6 +634,12 @@ public class BasePoolTest {
     }
   }
 
+  private static PoolParams makeThreadMagazineParams(int threadMagazineSize) {
+    PoolParams poolParams = new PoolParams(100, 100, null);
+    poolParams.threadMagazineSize = threadMagazineSize;
+    return poolParams;
+  }
+
   private static SparseIntArray makeBucketSizeArray(int... params) {
     Preconditions.checkArgument(params.length % 2 == 0);
     final SparseIntArray bucketSizes = new SparseIntArray();
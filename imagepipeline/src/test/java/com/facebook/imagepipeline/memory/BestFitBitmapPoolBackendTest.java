@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+package com.facebook.imagepipeline.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import com.facebook.imagepipeline.testing.MockBitmapFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class BestFitBitmapPoolBackendTest {
+
+  private BestFitBitmapPoolBackend mBackend;
+
+  @Before
+  public void setup() {
+    mBackend = new BestFitBitmapPoolBackend();
+  }
+
+  @Test
+  public void testGetsSmallestFittingBitmap() {
+    Bitmap small = mockBitmap(100);
+    Bitmap medium = mockBitmap(200);
+    Bitmap large = mockBitmap(300);
+    mBackend.put(large);
+    mBackend.put(small);
+    mBackend.put(medium);
+
+    assertSame(medium, mBackend.get(150));
+    assertSame(large, mBackend.get(150));
+    assertNull(mBackend.get(150));
+    assertSame(small, mBackend.get(100));
+    assertEquals(0, mBackend.valueCount());
+  }
+
+  @Test
+  public void testDoesNotReuseMuchBiggerBitmap() {
+    mBackend.put(mockBitmap(1000));
+
+    assertNull(mBackend.get(1000 / BestFitBitmapPoolBackend.MAX_SIZE_MULTIPLE - 1));
+    assertEquals(1, mBackend.valueCount());
+  }
+
+  @Test
+  public void testErasesReusedBitmap() {
+    Bitmap bitmap = mockBitmap(100);
+    mBackend.put(bitmap);
+
+    assertSame(bitmap, mBackend.get(100));
+    verify(bitmap).eraseColor(Color.TRANSPARENT);
+  }
+
+  @Test
+  public void testPopsBitmapReleasedFirst() {
+    Bitmap first = mockBitmap(100);
+    Bitmap second = mockBitmap(100);
+    mBackend.put(first);
+    mBackend.put(second);
+    mBackend.put(first);
+
+    assertEquals(2, mBackend.valueCount());
+    assertSame(first, mBackend.pop());
+    assertSame(second, mBackend.pop());
+    assertNull(mBackend.pop());
+    assertNull(mBackend.get(100));
+  }
+
+  @Test
+  public void testIgnoresImmutableBitmap() {
+    Bitmap bitmap = mockBitmap(100);
+    when(bitmap.isMutable()).thenReturn(false);
+    mBackend.put(bitmap);
+
+    assertEquals(0, mBackend.valueCount());
+  }
+
+  private static Bitmap mockBitmap(int size) {
+    Bitmap bitmap = MockBitmapFactory.createForSize(size, Bitmap.Config.ALPHA_8);
+    when(bitmap.getAllocationByteCount()).thenReturn(size);
+    return bitmap;
+  }
+}
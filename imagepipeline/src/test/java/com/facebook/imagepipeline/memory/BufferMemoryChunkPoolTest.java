@@ -6,7 +6,10 @@
  */
 package com.facebook.imagepipeline.memory;
 
+import static org.mockito.Mockito.mock;
+
 import android.util.SparseIntArray;
+import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.testing.FakeBufferMemoryChunkPool;
 import org.junit.Assert;
 import org.junit.Before;
@@ -40,6 +43,49 @@ public class BufferMemoryChunkPoolTest {
     Assert.assertEquals(32, mPool.alloc(32).getSize());
   }
 
+  @Test
+  public void testArena() {
+    final SparseIntArray bucketSizes = new SparseIntArray();
+    bucketSizes.put(32, 4);
+    bucketSizes.put(64, 4);
+    PoolParams poolParams = new PoolParams(1024, bucketSizes);
+    poolParams.slabSize = 128;
+    BufferMemoryChunkPool pool =
+        new BufferMemoryChunkPool(
+            mock(MemoryTrimmableRegistry.class), poolParams, mock(PoolStatsTracker.class));
+
+    MemoryChunk c1 = pool.get(32);
+    MemoryChunk c2 = pool.get(32);
+    MemoryChunk c3 = pool.get(64);
+    Assert.assertEquals(32, c1.getSize());
+    Assert.assertEquals(64, c3.getSize());
+    Assert.assertEquals(2, pool.mArena.getSlabCount());
+
+    // chunks of the same slab do not overlap
+    byte[] bytes = new byte[] {1, 2, 3};
+    c1.write(0, bytes, 0, bytes.length);
+    c2.write(0, new byte[32], 0, 32);
+    Assert.assertEquals(1, c1.read(0));
+    c1.copy(0, c2, 29, 3);
+    Assert.assertEquals(3, c2.read(31));
+    Assert.assertEquals(0, c2.read(0));
+
+    // a chunk bigger than the slabs gets a slab of its own
+    MemoryChunk c4 = pool.get(200);
+    Assert.assertEquals(200, c4.getSize());
+    Assert.assertEquals(3, pool.mArena.getSlabCount());
+    pool.release(c4);
+    Assert.assertEquals(2, pool.mArena.getSlabCount());
+
+    // the slabs are freed once all their chunks are
+    pool.release(c1);
+    pool.release(c2);
+    pool.release(c3);
+    Assert.assertEquals(2, pool.mArena.getSlabCount());
+    pool.trimToNothing();
+    Assert.assertEquals(0, pool.mArena.getSlabCount());
+  }
+
   @Test
   public void testFree() {
     BufferMemoryChunk b = new BufferMemoryChunk(1);
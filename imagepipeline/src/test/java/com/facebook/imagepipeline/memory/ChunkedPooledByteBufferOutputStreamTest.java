@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+package com.facebook.imagepipeline.memory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.memory.PooledByteBufferInputStream;
+import com.facebook.imagepipeline.testing.FakeBufferMemoryChunkPool;
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link ChunkedPooledByteBufferOutputStream} and {@link ChunkedPooledByteBuffer} */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ChunkedPooledByteBufferOutputStreamTest {
+  private static final int CHUNK_SIZE = 4;
+
+  private BufferMemoryChunkPool mPool;
+  private PoolStats<byte[]> mStats;
+  private byte[] mData;
+
+  @Before
+  public void setup() {
+    mPool = new FakeBufferMemoryChunkPool();
+    mStats = new PoolStats(mPool);
+    mData = new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13};
+  }
+
+  @Test
+  public void testAppendsChunks() throws Exception {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    os.write(mData, 0, 3);
+    os.write(mData, 3, 6);
+    os.write(mData[9]);
+    os.write(mData, 10, 4);
+    ChunkedPooledByteBuffer buffer = os.toByteBuffer();
+    os.close();
+
+    assertEquals(mData.length, buffer.size());
+    assertEquals(4, buffer.mChunkRefs.size());
+    mStats.refresh();
+    assertEquals(4, mStats.mUsedCount);
+    assertEquals(0, mStats.mFreeCount);
+
+    buffer.close();
+    mStats.refresh();
+    assertEquals(0, mStats.mUsedCount);
+    assertEquals(4, mStats.mFreeCount);
+  }
+
+  @Test
+  public void testReadsAcrossChunks() throws Exception {
+    ChunkedPooledByteBuffer buffer = write(mData);
+
+    for (int i = 0; i < mData.length; i++) {
+      assertEquals(mData[i], buffer.read(i));
+    }
+    byte[] bytes = new byte[7];
+    assertEquals(7, buffer.read(3, bytes, 0, 7));
+    assertArrayEquals(new byte[] {3, 4, 5, 6, 7, 8, 9}, bytes);
+    assertArrayEquals(mData, ByteStreams.toByteArray(new PooledByteBufferInputStream(buffer)));
+    buffer.close();
+  }
+
+  @Test
+  public void testFlattensSeveralChunks() throws Exception {
+    ChunkedPooledByteBuffer buffer = write(mData);
+
+    ByteBuffer byteBuffer = buffer.getByteBuffer();
+    assertTrue(byteBuffer.isDirect());
+    byte[] bytes = new byte[byteBuffer.remaining()];
+    byteBuffer.get(bytes);
+    assertArrayEquals(mData, bytes);
+    buffer.close();
+  }
+
+  @Test
+  public void testDoesNotFlattenOneChunk() throws Exception {
+    ChunkedPooledByteBuffer buffer = write(new byte[] {1, 2, 3});
+
+    assertEquals(buffer.mChunkRefs.get(0).get().getByteBuffer(), buffer.getByteBuffer());
+    buffer.close();
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testGetNativePtrOfSeveralChunks() throws Exception {
+    write(mData).getNativePtr();
+  }
+
+  @Test(expected = MemoryPooledByteBufferOutputStream.InvalidStreamException.class)
+  public void testToByteBufferAfterClose() {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    os.close();
+    os.toByteBuffer();
+  }
+
+  private ChunkedPooledByteBuffer write(byte[] data) throws Exception {
+    ChunkedPooledByteBufferOutputStream os =
+        new ChunkedPooledByteBufferOutputStream(mPool, CHUNK_SIZE);
+    try {
+      os.write(data);
+      return os.toByteBuffer();
+    } finally {
+      os.close();
+    }
+  }
+}
@@ -92,4 +92,39 @@ public class GenericByteArrayPoolTest {
     Assert.assertEquals(64, mPool.getSizeInBytes(64));
     Assert.assertEquals(69, mPool.getSizeInBytes(69));
   }
+
+  @Test
+  public void testAdaptBucketSizes() throws Exception {
+    final SparseIntArray bucketSizes = new SparseIntArray();
+    bucketSizes.put(32, 2);
+    bucketSizes.put(64, 1);
+    bucketSizes.put(128, 1);
+    final PoolParams poolParams = new PoolParams(128, bucketSizes);
+    poolParams.adaptBucketSizes = true;
+    mPool = new GenericByteArrayPool(
+        mock(MemoryTrimmableRegistry.class),
+        poolParams,
+        mock(PoolStatsTracker.class));
+
+    byte[] b64 = mPool.get(64);
+    for (int i = 0; i < RequestSizeHistogram.MIN_SAMPLE_COUNT; i++) {
+      mPool.release(mPool.get(40));
+    }
+    final SparseIntArray recommended = mPool.getRecommendedBucketSizes();
+    Assert.assertEquals(3, recommended.size());
+    Assert.assertEquals(1, recommended.get(44));
+    Assert.assertEquals(1, recommended.get(72));
+    Assert.assertEquals(1, recommended.get(128));
+    Assert.assertEquals(64, mPool.getBucketedSize(40));
+
+    mPool.trimToNothing();
+    Assert.assertEquals(44, mPool.getBucketedSize(40));
+    Assert.assertEquals(72, mPool.getBucketedSize(64));
+    Assert.assertNull(mPool.mBuckets.get(64));
+
+    // the value of the dropped bucket is freed
+    mPool.release(b64);
+    Assert.assertEquals(0, mPool.mUsed.mNumBytes);
+    Assert.assertEquals(0, mPool.mFree.mNumBytes);
+  }
 }
@@ -65,4 +65,17 @@ public class LruBitmapPoolTest {
 
     assertEquals(1, ((LruBucketsPoolBackend)mPool.mStrategy).valueCount());
   }
+
+  @Test
+  public void testReuseHitRate() {
+    Bitmap bitmap = Bitmap.createBitmap(128, 128, Bitmap.Config.RGB_565);
+    mPool.release(bitmap);
+
+    mPool.get(128 * 128 * 2);
+    mPool.get(128 * 128 * 2);
+
+    assertEquals(0.5f, mPool.getReuseHitRate());
+    assertEquals(1, (int) mPool.getStats().get(PoolStatsTracker.REUSE_HITS));
+    assertEquals(1, (int) mPool.getStats().get(PoolStatsTracker.REUSE_MISSES));
+  }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+package com.facebook.imagepipeline.memory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.common.memory.PooledByteBuffer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Basic tests for {@link MappedPooledByteBuffer} */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MappedPooledByteBufferTest {
+  private static final byte[] BYTES = new byte[] {1, 4, 5, 0, 100, 34, 0, 1, -1, -1};
+
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException {
+    mFile = File.createTempFile("mapped", ".bin");
+    FileOutputStream outputStream = new FileOutputStream(mFile);
+    try {
+      outputStream.write(BYTES);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    mFile.delete();
+  }
+
+  @Test
+  public void testReadRange() throws IOException {
+    PooledByteBuffer buffer = MappedPooledByteBuffer.map(mFile, 2, 6);
+    assertEquals(6, buffer.size());
+    assertEquals(5, buffer.read(0));
+    assertEquals(1, buffer.read(5));
+
+    byte[] readBytes = new byte[8];
+    assertEquals(4, buffer.read(1, readBytes, 2, 4));
+    assertArrayEquals(new byte[] {0, 0, 0, 100, 34, 0, 0, 0}, readBytes);
+    assertEquals(6, buffer.getByteBuffer().remaining());
+    assertTrue(buffer.getByteBuffer().isReadOnly());
+  }
+
+  @Test
+  public void testClose() throws IOException {
+    PooledByteBuffer buffer = MappedPooledByteBuffer.map(mFile, 0, BYTES.length);
+    assertFalse(buffer.isClosed());
+    buffer.close();
+    assertTrue(buffer.isClosed());
+    assertNull(buffer.getByteBuffer());
+  }
+
+  @Test(expected = PooledByteBuffer.ClosedException.class)
+  public void testReadAfterClose() throws IOException {
+    PooledByteBuffer buffer = MappedPooledByteBuffer.map(mFile, 0, BYTES.length);
+    buffer.close();
+    buffer.read(0);
+  }
+
+  @Test(expected = IOException.class)
+  public void testRangePastTheEnd() throws IOException {
+    MappedPooledByteBuffer.map(mFile, 4, BYTES.length);
+  }
+}
@@ -6,7 +6,10 @@
  */
 package com.facebook.imagepipeline.memory;
 
+import static org.mockito.Mockito.mock;
+
 import android.util.SparseIntArray;
+import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imagepipeline.testing.FakeNativeMemoryChunk;
 import com.facebook.imagepipeline.testing.FakeNativeMemoryChunkPool;
 import org.junit.Assert;
@@ -110,6 +113,70 @@ public class NativeMemoryChunkPoolTest extends TestUsingNativeMemoryChunk {
     Assert.assertEquals(69, mPool.getSizeInBytes(69));
   }
 
+  @Test
+  public void testArena_SlabsFitInHardCap() {
+    final SparseIntArray bucketSizes = new SparseIntArray();
+    bucketSizes.put(32, 4);
+    PoolParams poolParams = new PoolParams(160, bucketSizes);
+    poolParams.slabSize = 128;
+    NativeMemoryChunkPool pool =
+        new NativeMemoryChunkPool(
+            mock(MemoryTrimmableRegistry.class), poolParams, mock(PoolStatsTracker.class)) {
+          @Override
+          NativeMemoryChunk allocSlab(int size) {
+            return new FakeNativeMemoryChunk(size);
+          }
+
+          @Override
+          NativeMemoryChunk carve(
+              NativeMemoryChunk slab,
+              int offset,
+              int size,
+              final MemoryChunkArena<?>.Slot slot) {
+            return new FakeNativeMemoryChunk(size) {
+              @Override
+              public void close() {
+                if (!isClosed()) {
+                  super.close();
+                  slot.release();
+                }
+              }
+            };
+          }
+        };
+
+    MemoryChunk c1 = pool.get(32);
+    MemoryChunk c2 = pool.get(32);
+    MemoryChunk c3 = pool.get(32);
+    MemoryChunk c4 = pool.get(32);
+    Assert.assertEquals(1, pool.mArena.getSlabCount());
+    Assert.assertEquals(128, pool.mArena.getSize());
+    // a full slab would exceed the hard cap, the new one only holds this chunk
+    pool.get(32);
+    Assert.assertEquals(2, pool.mArena.getSlabCount());
+    Assert.assertEquals(160, pool.mArena.getSize());
+
+    // the closed chunks leave free ranges, the first slab is still held by c4
+    pool.release(c1);
+    pool.release(c2);
+    pool.release(c3);
+    pool.trimToNothing();
+    Assert.assertEquals(160, pool.mArena.getSize());
+    try {
+      pool.get(64);
+      Assert.fail();
+    } catch (BasePool.PoolSizeViolationException e) {
+      // the chunks would fit, the slabs would not
+    }
+
+    // trimming the free chunk frees its slab, which makes room for a full slab
+    pool.release(c4);
+    Assert.assertEquals(64, pool.get(64).getSize());
+    Assert.assertTrue(c4.isClosed());
+    Assert.assertEquals(2, pool.mArena.getSlabCount());
+    Assert.assertEquals(160, pool.mArena.getSize());
+  }
+
   @Test
   public void testIsReusable() {
     MemoryChunk chunk = mPool.get(1);
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * This source code is licensed under the MIT license found in the
+ * LICENSE file in the root directory of this source tree.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.util.SparseIntArray;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Tests for {@link RequestSizeHistogram} */
+@RunWith(RobolectricTestRunner.class)
+public class RequestSizeHistogramTest {
+  private RequestSizeHistogram mHistogram;
+  private SparseIntArray mBucketSizes;
+
+  @Before
+  public void setup() {
+    mHistogram = new RequestSizeHistogram();
+    mBucketSizes = new SparseIntArray();
+    mBucketSizes.put(1024, 4);
+    mBucketSizes.put(4096, 2);
+    mBucketSizes.put(16384, 1);
+  }
+
+  @Test
+  public void testBins() {
+    for (int size = 1; size < 100000; size++) {
+      final int bin = RequestSizeHistogram.getBin(size);
+      assertEquals(true, RequestSizeHistogram.getBinLowerBound(bin) <= size);
+      assertEquals(true, RequestSizeHistogram.getBinLimit(bin) >= size);
+      // a bin spans at most an eighth of its sizes
+      assertEquals(
+          true,
+          RequestSizeHistogram.getBinLimit(bin) - RequestSizeHistogram.getBinLowerBound(bin)
+              <= size / 8 + 1);
+    }
+    assertEquals(
+        Integer.MAX_VALUE,
+        RequestSizeHistogram.getBinLimit(RequestSizeHistogram.getBin(Integer.MAX_VALUE)));
+  }
+
+  @Test
+  public void testTooFewSamples() {
+    record(3000, RequestSizeHistogram.MIN_SAMPLE_COUNT - 1);
+    assertNull(mHistogram.recommendBucketSizes(mBucketSizes));
+    assertNull(mHistogram.recommendBucketSizes(new SparseIntArray()));
+  }
+
+  @Test
+  public void testRecommendBucketSizes() {
+    record(1500, 100);
+    record(3000, 100);
+    record(3100, 100);
+    record(20000, 100); // not served by the pool
+
+    final SparseIntArray recommended = mHistogram.recommendBucketSizes(mBucketSizes);
+    assertEquals(3, recommended.size());
+    assertEquals(2, recommended.get(1536)); // the bin of 1500, served by 4096 before
+    assertEquals(2, recommended.get(3328)); // the bins of 3000 and 3100
+    assertEquals(1, recommended.get(16384));
+  }
+
+  @Test
+  public void testDecay() {
+    record(3000, RequestSizeHistogram.MIN_SAMPLE_COUNT * 2 - 1);
+    mHistogram.decay();
+    assertNull(mHistogram.recommendBucketSizes(mBucketSizes));
+  }
+
+  private void record(int size, int count) {
+    for (int i = 0; i < count; i++) {
+      mHistogram.record(size);
+    }
+  }
+}
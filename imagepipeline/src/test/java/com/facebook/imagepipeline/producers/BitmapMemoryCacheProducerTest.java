@@ -13,10 +13,15 @@ import static org.mockito.Mockito.any;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Predicate;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.cache.BitmapMemoryCacheKey;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.InstrumentedMemoryCache;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.ImageDecodeOptions;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.RotationOptions;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.ImmutableQualityInfo;
 import com.facebook.imagepipeline.request.ImageRequest;
@@ -49,6 +54,7 @@ public class BitmapMemoryCacheProducerTest {
   private static final int INTERMEDIATE_SCAN_1 = 2;
   private static final int INTERMEDIATE_SCAN_2 = 5;
   @Mock public MemoryCache<CacheKey, CloseableImage> mMemoryCache;
+  @Mock public InstrumentedMemoryCache<CacheKey, CloseableImage> mGroupedMemoryCache;
   @Mock public CacheKeyFactory mCacheKeyFactory;
   @Mock public Producer mInputProducer;
   @Mock public Consumer mConsumer;
@@ -334,6 +340,80 @@ public class BitmapMemoryCacheProducerTest {
         .onUltimateProducerReached(anyString(), anyString(), anyBoolean());
   }
 
+  @Test
+  public void testResolutionAwareLookupNeedsGroupedCache() {
+    setupBitmapMemoryCacheGetNotFound();
+    setupInputProducerNotFound();
+    when(mBitmapMemoryCacheKey.getResizeOptions()).thenReturn(new ResizeOptions(100, 100));
+    mBitmapMemoryCacheProducer.produceResults(mConsumer, mProducerContext);
+    verify(mConsumer).onNewResult(null, Consumer.IS_LAST);
+  }
+
+  @Test
+  public void testResolutionAwareLookupServesHigherResolutionImage() {
+    mBitmapMemoryCacheProducer =
+        new BitmapMemoryCacheProducer(mGroupedMemoryCache, mCacheKeyFactory, mInputProducer);
+    when(mGroupedMemoryCache.get(eq(mBitmapMemoryCacheKey))).thenReturn(null);
+    when(mBitmapMemoryCacheKey.getResizeOptions()).thenReturn(new ResizeOptions(100, 100));
+    when(mBitmapMemoryCacheKey.getUriString()).thenReturn("uri");
+    when(mGroupedMemoryCache.getMatchingInGroup(
+            eq("uri"), any(Predicate.class), any(Predicate.class)))
+        .thenReturn(mFinalImageReference);
+    mBitmapMemoryCacheProducer.produceResults(mConsumer, mProducerContext);
+    verify(mConsumer).onNewResult(mFinalImageReference, Consumer.IS_LAST);
+    Map<String, String> extraMap =
+        ImmutableMap.of(BitmapMemoryCacheProducer.EXTRA_CACHED_VALUE_FOUND, "true");
+    verify(mProducerListener).onProducerFinishWithSuccess(mRequestId, PRODUCER_NAME, extraMap);
+    verify(mProducerListener).onUltimateProducerReached(mRequestId, PRODUCER_NAME, true);
+    verifyNoMoreInteractions(mInputProducer);
+    Assert.assertTrue(!mFinalImageReference.isValid());
+  }
+
+  @Test
+  public void testResolutionAwareLookupSkipsIntermediateImages() {
+    mBitmapMemoryCacheProducer =
+        new BitmapMemoryCacheProducer(mGroupedMemoryCache, mCacheKeyFactory, mInputProducer);
+    when(mGroupedMemoryCache.get(eq(mBitmapMemoryCacheKey))).thenReturn(null);
+    setupInputProducerNotFound();
+    when(mBitmapMemoryCacheKey.getResizeOptions()).thenReturn(new ResizeOptions(100, 100));
+    when(mBitmapMemoryCacheKey.getUriString()).thenReturn("uri");
+    mBitmapMemoryCacheProducer.produceResults(mConsumer, mProducerContext);
+    ArgumentCaptor<Predicate> valuePredicate = ArgumentCaptor.forClass(Predicate.class);
+    verify(mGroupedMemoryCache)
+        .getMatchingInGroup(eq("uri"), any(Predicate.class), valuePredicate.capture());
+    // the lookup goes on past the images that are not of full quality
+    Assert.assertFalse(valuePredicate.getValue().apply(mCloseableImage2));
+    Assert.assertTrue(valuePredicate.getValue().apply(mCloseableImage1));
+    verify(mConsumer).onNewResult(null, Consumer.IS_LAST);
+  }
+
+  @Test
+  public void testCanBeServedBy() {
+    BitmapMemoryCacheKey thumbnailKey = newBitmapMemoryCacheKey("uri", new ResizeOptions(96, 96));
+    Assert.assertTrue(
+        thumbnailKey.canBeServedBy(newBitmapMemoryCacheKey("uri", new ResizeOptions(400, 400))));
+    Assert.assertTrue(thumbnailKey.canBeServedBy(newBitmapMemoryCacheKey("uri", null)));
+    Assert.assertFalse(
+        thumbnailKey.canBeServedBy(newBitmapMemoryCacheKey("uri", new ResizeOptions(400, 50))));
+    Assert.assertFalse(
+        thumbnailKey.canBeServedBy(newBitmapMemoryCacheKey("uri2", new ResizeOptions(400, 400))));
+    Assert.assertFalse(
+        newBitmapMemoryCacheKey("uri", null)
+            .canBeServedBy(newBitmapMemoryCacheKey("uri", new ResizeOptions(400, 400))));
+  }
+
+  private static BitmapMemoryCacheKey newBitmapMemoryCacheKey(
+      String uri, ResizeOptions resizeOptions) {
+    return new BitmapMemoryCacheKey(
+        uri,
+        resizeOptions,
+        RotationOptions.autoRotate(),
+        ImageDecodeOptions.defaults(),
+        null,
+        null,
+        null);
+  }
+
   private void setupBitmapMemoryCacheGetSuccess() {
     when(mMemoryCache.get(eq(mBitmapMemoryCacheKey)))
         .thenReturn(mFinalImageReference);
@@ -9,6 +9,7 @@ package com.facebook.imagepipeline.producers;
 
 import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
@@ -131,9 +132,9 @@ public class DiskCacheWriteProducerTest {
   public void testDefaultDiskCacheInputProducerSuccess() {
     setupInputProducerSuccess();
     mDiskCacheWriteProducer.produceResults(mConsumer, mProducerContext);
-    verify(mDefaultBufferedDiskCache, never()).put(mCacheKey, mIntermediateEncodedImage);
+    verify(mDefaultBufferedDiskCache, never()).put(eq(mCacheKey), eq(mIntermediateEncodedImage), anyBoolean());
     ArgumentCaptor<EncodedImage> argumentCaptor = ArgumentCaptor.forClass(EncodedImage.class);
-    verify(mDefaultBufferedDiskCache).put(eq(mCacheKey), argumentCaptor.capture());
+    verify(mDefaultBufferedDiskCache).put(eq(mCacheKey), argumentCaptor.capture(), eq(false));
     EncodedImage encodedImage = argumentCaptor.getValue();
     assertSame(
         encodedImage.getByteBufferRef().getUnderlyingReferenceTestOnly(),
@@ -148,20 +149,38 @@ public class DiskCacheWriteProducerTest {
     when(mImageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.SMALL);
     setupInputProducerSuccess();
     mDiskCacheWriteProducer.produceResults(mConsumer, mProducerContext);
-    verify(mSmallImageBufferedDiskCache, never()).put(mCacheKey, mIntermediateEncodedImage);
-    verify(mSmallImageBufferedDiskCache).put(mCacheKey, mFinalEncodedImage);
+    verify(mSmallImageBufferedDiskCache, never()).put(eq(mCacheKey), eq(mIntermediateEncodedImage), anyBoolean());
+    verify(mSmallImageBufferedDiskCache).put(mCacheKey, mFinalEncodedImage, false);
     verify(mConsumer).onNewResult(mIntermediateEncodedImage, Consumer.NO_FLAGS);
     verify(mConsumer).onNewResult(mFinalEncodedImage, Consumer.IS_LAST);
     verifyZeroInteractions(mProducerListener);
   }
 
+  @Test
+  public void testPrefetchBypassesAdmissionPolicy() {
+    mProducerContext =
+        new SettableProducerContext(
+            mImageRequest,
+            mRequestId,
+            mProducerListener,
+            mCallerContext,
+            ImageRequest.RequestLevel.FULL_FETCH,
+            true,
+            true,
+            Priority.MEDIUM);
+    setupInputProducerSuccess();
+    mDiskCacheWriteProducer.produceResults(mConsumer, mProducerContext);
+    verify(mDefaultBufferedDiskCache).put(mCacheKey, mFinalEncodedImage, true);
+  }
+
   @Test
   public void testSmallImageDiskCacheInputProducerUnknownFormat() {
     when(mImageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.SMALL);
     setupInputProducerSuccessFormatUnknown();
     mDiskCacheWriteProducer.produceResults(mConsumer, mProducerContext);
-    verify(mSmallImageBufferedDiskCache, never()).put(mCacheKey, mIntermediateEncodedImage);
-    verify(mSmallImageBufferedDiskCache, never()).put(mCacheKey, mFinalEncodedImageFormatUnknown);
+    verify(mSmallImageBufferedDiskCache, never()).put(eq(mCacheKey), eq(mIntermediateEncodedImage), anyBoolean());
+    verify(mSmallImageBufferedDiskCache, never())
+        .put(eq(mCacheKey), eq(mFinalEncodedImageFormatUnknown), anyBoolean());
     verify(mConsumer).onNewResult(mIntermediateEncodedImage, Consumer.NO_FLAGS);
     verify(mConsumer).onNewResult(mFinalEncodedImageFormatUnknown, Consumer.IS_LAST);
     verifyZeroInteractions(mProducerListener);
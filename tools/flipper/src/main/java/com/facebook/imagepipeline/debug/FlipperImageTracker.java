@@ -9,6 +9,8 @@ package com.facebook.imagepipeline.debug;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.CacheKeyUtil;
+import com.facebook.cache.common.ResourceIdScheme;
+import com.facebook.cache.disk.DiskCacheConfig;
 import com.facebook.drawee.backends.pipeline.info.ImageLoadStatus;
 import com.facebook.drawee.backends.pipeline.info.ImagePerfData;
 import com.facebook.drawee.backends.pipeline.info.ImagePerfDataListener;
@@ -26,10 +28,24 @@ public class FlipperImageTracker implements DebugImageTracker, ImagePerfDataList
 
   private final Map<ImageRequest, ImageDebugData> mImageRequestDebugDataMap;
   private final Map<CacheKey, ImageDebugData> mImageDebugDataMap;
+  private final @ResourceIdScheme int mResourceIdScheme;
 
   public FlipperImageTracker() {
+    this(ResourceIdScheme.SHA1);
+  }
+
+  /**
+   * @param diskCacheConfig the config of the disk cache, so that the tracked resource ids are the
+   *     ones of the files on disk
+   */
+  public FlipperImageTracker(DiskCacheConfig diskCacheConfig) {
+    this(diskCacheConfig.getResourceIdScheme());
+  }
+
+  private FlipperImageTracker(@ResourceIdScheme int resourceIdScheme) {
     mImageRequestDebugDataMap = new LruMap<>(MAX_IMAGES_TO_TRACK);
     mImageDebugDataMap = new LruMap<>(MAX_IMAGES_TO_TRACK);
+    mResourceIdScheme = resourceIdScheme;
   }
 
   @Override
@@ -41,7 +57,7 @@ public class FlipperImageTracker implements DebugImageTracker, ImagePerfDataList
       mImageRequestDebugDataMap.put(imageRequest, imageDebugData);
     }
     imageDebugData.addCacheKey(cacheKey);
-    imageDebugData.addResourceId(CacheKeyUtil.getFirstResourceId(cacheKey));
+    imageDebugData.addResourceId(CacheKeyUtil.getFirstResourceId(cacheKey, mResourceIdScheme));
   }
 
   @Override
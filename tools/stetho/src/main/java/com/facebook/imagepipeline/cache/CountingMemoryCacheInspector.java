@@ -81,9 +81,9 @@ public class CountingMemoryCacheInspector<K, V> {
     }
   }
 
-  private final CountingMemoryCache<K, V> mCountingBitmapCache;
+  private final CountingCache<K, V> mCountingBitmapCache;
 
-  public CountingMemoryCacheInspector(CountingMemoryCache<K, V> countingBitmapCache) {
+  public CountingMemoryCacheInspector(CountingCache<K, V> countingBitmapCache) {
     mCountingBitmapCache = countingBitmapCache;
   }
 
@@ -94,14 +94,28 @@ public class CountingMemoryCacheInspector<K, V> {
    * examining cache contents
    */
   public DumpInfo dumpCacheContent() {
-    synchronized (mCountingBitmapCache) {
-      DumpInfo<K, V> dumpInfo = new DumpInfo<>(
-          mCountingBitmapCache.getSizeInBytes(),
-          mCountingBitmapCache.getEvictionQueueSizeInBytes(),
-          mCountingBitmapCache.mMemoryCacheParams);
+    DumpInfo<K, V> dumpInfo = new DumpInfo<>(
+        mCountingBitmapCache.getSizeInBytes(),
+        mCountingBitmapCache.getEvictionQueueSizeInBytes(),
+        mCountingBitmapCache.getMemoryCacheParams());
+
+    if (mCountingBitmapCache instanceof SegmentedCountingMemoryCache) {
+      for (CountingMemoryCache<K, V> segment
+          : ((SegmentedCountingMemoryCache<K, V>) mCountingBitmapCache).getSegments()) {
+        dumpEntries(segment, dumpInfo);
+      }
+    } else if (mCountingBitmapCache instanceof CountingMemoryCache) {
+      dumpEntries((CountingMemoryCache<K, V>) mCountingBitmapCache, dumpInfo);
+    }
 
+    return dumpInfo;
+  }
+
+  private static <K, V> void dumpEntries(
+      CountingMemoryCache<K, V> countingBitmapCache, DumpInfo<K, V> dumpInfo) {
+    synchronized (countingBitmapCache) {
       final List<LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>>> cachedEntries =
-          mCountingBitmapCache.mCachedEntries.getMatchingEntries(null);
+          countingBitmapCache.mCachedEntries.getMatchingEntries(null);
       for (LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>> cachedEntry : cachedEntries) {
         CountingMemoryCache.Entry<K, V> entry = cachedEntry.getValue();
         DumpInfoEntry<K, V> dumpEntry = new DumpInfoEntry<>(entry.key, entry.valueRef);
@@ -111,14 +125,11 @@ public class CountingMemoryCacheInspector<K, V> {
           dumpInfo.lruEntries.add(dumpEntry);
         }
       }
-      for (Map.Entry<Bitmap, Object> entry
-          : mCountingBitmapCache.mOtherEntries.entrySet()) {
+      for (Map.Entry<Bitmap, Object> entry : countingBitmapCache.mOtherEntries.entrySet()) {
         if (entry != null && !entry.getKey().isRecycled()) {
           dumpInfo.otherEntries.put(entry.getKey(), entry.getValue());
         }
       }
-
-      return dumpInfo;
     }
   }
 }